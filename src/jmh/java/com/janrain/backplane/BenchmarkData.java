@@ -0,0 +1,88 @@
+package com.janrain.backplane;
+
+import com.janrain.commons.util.Pair;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Sample data shared by the benchmarks.
+ *
+ * Messages are built with increasing ids, the way the message engine assigns them.
+ *
+ * @author Johnny Bufu
+ */
+public class BenchmarkData {
+
+    // - PUBLIC
+
+    public static final String SERVER_NAME = "backplane.example.com";
+
+    public static com.janrain.backplane.server2.BackplaneMessage v2Message(final String bus, final String channel) throws Exception {
+        com.janrain.backplane.server2.BackplaneMessage message = new com.janrain.backplane.server2.BackplaneMessage(
+                "http://source.example.com", 60, 600, new HashMap<String, Object>() {{
+            put("bus", bus);
+            put("channel", channel);
+            put("type", "benchmark");
+            put("payload", payload());
+        }});
+        synchronized (BenchmarkData.class) {
+            message.updateId(lastV2);
+            lastV2 = new Pair<String, Date>(message.getIdValue(), com.janrain.backplane.server2.BackplaneMessage.getDateFromId(message.getIdValue()));
+        }
+        return message;
+    }
+
+    public static com.janrain.backplane.server1.BackplaneMessage v1Message(String bus, String channel, final boolean sticky) throws Exception {
+        com.janrain.backplane.server1.BackplaneMessage message = new com.janrain.backplane.server1.BackplaneMessage(
+                bus, channel, 60, 600, new HashMap<String, Object>() {{
+            put("type", "benchmark");
+            put("sticky", Boolean.toString(sticky));
+            put("payload", payload());
+        }});
+        synchronized (BenchmarkData.class) {
+            message.updateId(lastV1);
+            lastV1 = new Pair<String, Date>(message.getIdValue(), com.janrain.backplane.server1.BackplaneMessage.getDateFromId(message.getIdValue()));
+        }
+        return message;
+    }
+
+    /**
+     * @return count v2 messages spread over the given number of buses and channels per bus, in order of message id
+     */
+    public static List<com.janrain.backplane.server2.BackplaneMessage> v2Messages(int count, int buses, int channelsPerBus) throws Exception {
+        List<com.janrain.backplane.server2.BackplaneMessage> messages = new ArrayList<com.janrain.backplane.server2.BackplaneMessage>();
+        for (int i = 0; i < count; i++) {
+            int bus = i % buses;
+            messages.add(v2Message(busName(bus), channelName(bus, (i / buses) % channelsPerBus)));
+        }
+        return messages;
+    }
+
+    public static String busName(int bus) {
+        return "bus" + bus + ".example.com";
+    }
+
+    public static String channelName(int bus, int channel) {
+        return "channel_" + bus + "_" + channel;
+    }
+
+    // - PRIVATE
+
+    private static Pair<String, Date> lastV1 = new Pair<String, Date>("", new Date(0));
+    private static Pair<String, Date> lastV2 = new Pair<String, Date>("", new Date(0));
+
+    private static Object payload() {
+        return new HashMap<String, Object>() {{
+            put("context", "http://widget.example.com/page");
+            put("identities", new HashMap<String, Object>() {{
+                put("displayName", "Benchmark User");
+                put("accounts", "https://example.com/users/benchmark");
+            }});
+        }};
+    }
+
+    private BenchmarkData() {}
+}
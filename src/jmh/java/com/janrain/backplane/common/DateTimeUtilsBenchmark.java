@@ -0,0 +1,57 @@
+package com.janrain.backplane.common;
+
+import com.janrain.backplane.BenchmarkData;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Date parsing done for every message read: message ids, ISO8601 timestamps and message expiration times.
+ *
+ * @author Johnny Bufu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DateTimeUtilsBenchmark {
+
+    @Setup
+    public void setup() throws Exception {
+        Date now = new Date();
+        iso8601 = DateTimeUtils.ISO8601.get().format(now);
+        expire = DateTimeUtils.INTERNETDATE.get().format(new Date(now.getTime() + 60000L));
+        v1MessageId = BenchmarkData.v1Message(BenchmarkData.busName(0), BenchmarkData.channelName(0, 0), false).getIdValue();
+        v2MessageId = BenchmarkData.v2Message(BenchmarkData.busName(0), BenchmarkData.channelName(0, 0)).getIdValue();
+    }
+
+    @Benchmark
+    public Date parseIso8601() throws Exception {
+        return DateTimeUtils.ISO8601.get().parse(iso8601);
+    }
+
+    @Benchmark
+    public Date getExpireTime() {
+        return DateTimeUtils.getExpireTime(v2MessageId, expire, false);
+    }
+
+    @Benchmark
+    public Date v1DateFromId() {
+        return com.janrain.backplane.server1.BackplaneMessage.getDateFromId(v1MessageId);
+    }
+
+    @Benchmark
+    public Date v2DateFromId() {
+        return com.janrain.backplane.server2.BackplaneMessage.getDateFromId(v2MessageId);
+    }
+
+    // - PRIVATE
+
+    private String iso8601;
+    private String expire;
+    private String v1MessageId;
+    private String v2MessageId;
+}
@@ -0,0 +1,54 @@
+package com.janrain.backplane.common;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Random id generation from 8 threads, IdGenerator compared with the single shared SecureRandom it replaced.
+ *
+ * @author Johnny Bufu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class IdGeneratorBenchmark {
+
+    /** token id length */
+    @Param({"20"})
+    public int length;
+
+    @Benchmark
+    public String sharedSecureRandom() {
+        byte[] randomBytes = new byte[length];
+        sharedRandom.nextBytes(randomBytes);
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = IdGenerator.BASE62[Math.abs(randomBytes[i] % IdGenerator.BASE62.length)];
+        }
+        return new String(chars);
+    }
+
+    @Benchmark
+    public String idGenerator() {
+        return IdGenerator.getInstance().randomString(length);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public List<String> idGeneratorBatch() {
+        return IdGenerator.getInstance().randomStrings(length, BATCH, IdGenerator.BASE62);
+    }
+
+    // - PRIVATE
+
+    private static final int BATCH = 100;
+
+    private final SecureRandom sharedRandom = new SecureRandom();
+}
@@ -0,0 +1,90 @@
+package com.janrain.backplane.common;
+
+import com.janrain.backplane.BenchmarkData;
+import com.janrain.backplane.config.BpServerConfig;
+import com.janrain.backplane.server1.BusConfig1;
+import com.janrain.backplane.server2.BusConfig2;
+import com.janrain.backplane.server2.Channel;
+import com.janrain.backplane.server2.Client;
+import com.janrain.backplane.server2.Grant;
+import com.janrain.backplane.server2.GrantState;
+import com.janrain.backplane.server2.GrantType;
+import com.janrain.backplane.server2.Token;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BpSerialUtils round trips of the entities stored in Redis.
+ *
+ * @author Johnny Bufu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @Param({"v1_message", "v2_message", "token", "grant", "channel", "client", "bus_config1", "bus_config2", "server_config"})
+    public String entity;
+
+    @Setup
+    public void setup() throws Exception {
+        value = createEntity(entity);
+        serialized = BpSerialUtils.serialize(value);
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return BpSerialUtils.serialize(value);
+    }
+
+    @Benchmark
+    public Object deserialize() {
+        return BpSerialUtils.deserialize(serialized);
+    }
+
+    @Benchmark
+    public Object roundTrip() {
+        return BpSerialUtils.deserialize(BpSerialUtils.serialize(value));
+    }
+
+    // - PRIVATE
+
+    private ExternalizableCore value;
+    private byte[] serialized;
+
+    private static ExternalizableCore createEntity(String entity) throws Exception {
+        String bus = BenchmarkData.busName(0);
+        String scope = "bus:" + bus + " channel:" + BenchmarkData.channelName(0, 0);
+        if ("v1_message".equals(entity)) {
+            return BenchmarkData.v1Message(bus, BenchmarkData.channelName(0, 0), false);
+        } else if ("v2_message".equals(entity)) {
+            return BenchmarkData.v2Message(bus, BenchmarkData.channelName(0, 0));
+        } else if ("token".equals(entity)) {
+            return new Token.Builder(GrantType.CLIENT_CREDENTIALS, scope)
+                    .expires(new Date(System.currentTimeMillis() + 3600000L))
+                    .issuedToClient("benchmark_client")
+                    .clientSourceUrl("http://source.example.com")
+                    .grants(Arrays.asList("grant1", "grant2"))
+                    .buildToken();
+        } else if ("grant".equals(entity)) {
+            return new Grant.Builder(GrantType.CLIENT_CREDENTIALS, GrantState.ACTIVE, "benchmark_owner", "benchmark_client", "bus:" + bus).buildGrant();
+        } else if ("channel".equals(entity)) {
+            return new Channel(BenchmarkData.channelName(0, 0), new BusConfig2(bus, "benchmark_owner", "60", "600"), 3600);
+        } else if ("client".equals(entity)) {
+            return new Client("benchmark_client", "secret", "http://source.example.com", "http://source.example.com/redirect");
+        } else if ("bus_config1".equals(entity)) {
+            return new BusConfig1(bus, "benchmark_user", "60", "600");
+        } else if ("bus_config2".equals(entity)) {
+            return new BusConfig2(bus, "benchmark_owner", "60", "600");
+        } else if ("server_config".equals(entity)) {
+            return new BpServerConfig();
+        }
+        throw new IllegalArgumentException("unknown entity: " + entity);
+    }
+}
@@ -0,0 +1,122 @@
+package com.janrain.backplane.dao.memory;
+
+import com.janrain.backplane.BenchmarkData;
+import com.janrain.backplane.config.BackplaneSystemProps;
+import com.janrain.backplane.server1.BusConfig1;
+import com.janrain.backplane.server1.dao.BP1DAOs;
+import com.janrain.backplane.server1.dao.BP1MessageDao;
+import com.janrain.backplane.server2.BackplaneMessage;
+import com.janrain.backplane.server2.GrantType;
+import com.janrain.backplane.server2.MessagesResponse;
+import com.janrain.backplane.server2.Token;
+import com.janrain.backplane.server2.dao.BP2DAOs;
+import com.janrain.backplane.server2.dao.BackplaneMessageDAO;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Message DAO read paths used by the v1 and v2 message endpoints.
+ *
+ * Runs against the in-memory store, which indexes messages the same way as the Redis store,
+ * so that the benchmarks measure the DAO and filtering work without a Redis server.
+ *
+ * @author Johnny Bufu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageDAOReadBenchmark {
+
+    @Param({"1000", "10000"})
+    public int storedMessages;
+
+    @Setup
+    public void setup() throws Exception {
+        // must be set before the DAO classes are loaded
+        System.setProperty(BackplaneSystemProps.BACKPLANE_STORE, BackplaneSystemProps.MEMORY_STORE);
+
+        BackplaneMessageDAO v2Dao = BP2DAOs.getBackplaneMessageDAO();
+        List<BackplaneMessage> v2Messages = BenchmarkData.v2Messages(storedMessages, BUSES, CHANNELS_PER_BUS);
+        for (BackplaneMessage message : v2Messages) {
+            v2Dao.persist(message);
+        }
+        v2Since = v2Messages.get(v2Messages.size() - FRAME_MESSAGES - 1).getIdValue();
+        String bus = BenchmarkData.busName(0);
+        channelToken = new Token.Builder(GrantType.ANONYMOUS, "bus:" + bus + " channel:" + BenchmarkData.channelName(0, 0))
+                .expires(new Date(System.currentTimeMillis() + 3600000L))
+                .buildToken();
+        busToken = new Token.Builder(GrantType.CLIENT_CREDENTIALS, "bus:" + bus)
+                .expires(new Date(System.currentTimeMillis() + 3600000L))
+                .issuedToClient("benchmark_client")
+                .clientSourceUrl("http://source.example.com")
+                .grants(Arrays.asList("benchmark_grant"))
+                .buildToken();
+
+        v1Dao = BP1DAOs.getMessageDao();
+        for (int b = 0; b < BUSES; b++) {
+            BP1DAOs.getBusDao().persist(new BusConfig1(BenchmarkData.busName(b), "benchmark_user", "3600", "28800"));
+        }
+        com.janrain.backplane.server1.BackplaneMessage last = null;
+        for (int i = 0; i < storedMessages; i++) {
+            int b = i % BUSES;
+            last = BenchmarkData.v1Message(BenchmarkData.busName(b), BenchmarkData.channelName(b, (i / BUSES) % CHANNELS_PER_BUS), i % 2 == 0);
+            v1Dao.persist(last);
+        }
+        v1Since = last.getIdValue();
+    }
+
+    /**
+     * A v2 poll on a single channel, from the start of the channel.
+     */
+    @Benchmark
+    public MessagesResponse v2ChannelScope() throws Exception {
+        MessagesResponse response = new MessagesResponse(null);
+        BP2DAOs.getBackplaneMessageDAO().retrieveMessagesPerScope(response, channelToken);
+        return response;
+    }
+
+    /**
+     * A v2 privileged poll on a bus, of the last frame of messages.
+     */
+    @Benchmark
+    public MessagesResponse v2BusScope() throws Exception {
+        MessagesResponse response = new MessagesResponse(v2Since);
+        BP2DAOs.getBackplaneMessageDAO().retrieveMessagesPerScope(response, busToken);
+        return response;
+    }
+
+    @Benchmark
+    public List<com.janrain.backplane.server1.BackplaneMessage> v1Channel() {
+        return v1Dao.getMessagesByChannel(BenchmarkData.busName(0), BenchmarkData.channelName(0, 0), null, null);
+    }
+
+    @Benchmark
+    public List<com.janrain.backplane.server1.BackplaneMessage> v1ChannelUpToDate() {
+        return v1Dao.getMessagesByChannel(BenchmarkData.busName(0), BenchmarkData.channelName(0, 0), v1Since, null);
+    }
+
+    @Benchmark
+    public List<com.janrain.backplane.server1.BackplaneMessage> v1Bus() {
+        return v1Dao.getMessagesByBus(BenchmarkData.busName(0), null, null);
+    }
+
+    // - PRIVATE
+
+    private static final int BUSES = 10;
+    private static final int CHANNELS_PER_BUS = 10;
+    private static final int FRAME_MESSAGES = 25;
+
+    private Token channelToken;
+    private Token busToken;
+    private String v2Since;
+
+    private BP1MessageDao v1Dao;
+    private String v1Since;
+}
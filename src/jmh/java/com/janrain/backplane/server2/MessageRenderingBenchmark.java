@@ -0,0 +1,50 @@
+package com.janrain.backplane.server2;
+
+import com.janrain.backplane.BenchmarkData;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering of v2 message frames and message responses, as returned by the message endpoints.
+ *
+ * @author Johnny Bufu
+ */
+@State(org.openjdk.jmh.annotations.Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageRenderingBenchmark {
+
+    /** messages per response, 25 is a full frame */
+    @Param({"1", "25"})
+    public int messageCount;
+
+    @Setup
+    public void setup() throws Exception {
+        messages = BenchmarkData.v2Messages(messageCount, 1, 1);
+    }
+
+    @Benchmark
+    public Map<String, Object> asFrame() throws Exception {
+        return messages.get(0).asFrame(BenchmarkData.SERVER_NAME, true);
+    }
+
+    @Benchmark
+    public String renderResponse() throws Exception {
+        MessagesResponse response = new MessagesResponse(null);
+        response.addMessages(messages);
+        response.setLastMessageId(messages.get(messages.size() - 1).getIdValue());
+        return mapper.writeValueAsString(response.asResponseFields(BenchmarkData.SERVER_NAME, true));
+    }
+
+    // - PRIVATE
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private List<BackplaneMessage> messages;
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane.server2;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scope parsing and matching against messages, for scopes with 1, 10 and 100 bus values.
+ *
+ * @author Johnny Bufu
+ */
+@State(org.openjdk.jmh.annotations.Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScopeBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int scopeValues;
+
+    @Setup
+    public void setup() throws Exception {
+        StringBuilder scopeString = new StringBuilder();
+        for (int i = 0; i < scopeValues; i++) {
+            if (i > 0) scopeString.append(" ");
+            scopeString.append("bus:bus").append(i).append(".com");
+        }
+        scopeValue = scopeString.toString();
+        scope = new com.janrain.backplane.server2.Scope(scopeValue);
+
+        inScope = newMessage("bus" + (scopeValues - 1) + ".com", "channel");
+        notInScope = newMessage("otherbus.com", "channel");
+    }
+
+    @Benchmark
+    public com.janrain.backplane.server2.Scope parse() throws Exception {
+        return new com.janrain.backplane.server2.Scope(scopeValue);
+    }
+
+    @Benchmark
+    public boolean matchInScope() {
+        return scope.isMessageInScope(inScope);
+    }
+
+    @Benchmark
+    public boolean matchNotInScope() {
+        return scope.isMessageInScope(notInScope);
+    }
+
+    // - PRIVATE
+
+    private String scopeValue;
+    private com.janrain.backplane.server2.Scope scope;
+    private BackplaneMessage inScope;
+    private BackplaneMessage notInScope;
+
+    private static BackplaneMessage newMessage(final String bus, final String channel) throws Exception {
+        return new BackplaneMessage("http://source.com", 60, 600, new HashMap<String, Object>() {{
+            put("bus", bus);
+            put("channel", channel);
+            put("type", "benchmark");
+            put("payload", "payload");
+        }});
+    }
+}
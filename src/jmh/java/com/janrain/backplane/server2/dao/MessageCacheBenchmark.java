@@ -0,0 +1,72 @@
+package com.janrain.backplane.server2.dao;
+
+import com.janrain.backplane.BenchmarkData;
+import com.janrain.backplane.server2.BackplaneMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MessageCache lookups and updates, for caches of 100 and 10000 messages.
+ *
+ * @author Johnny Bufu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCacheBenchmark {
+
+    @Param({"100", "10000"})
+    public int cachedMessages;
+
+    @Setup
+    public void setup() throws Exception {
+        messages = BenchmarkData.v2Messages(cachedMessages, 10, 10);
+        cache = new MessageCache<BackplaneMessage>(Long.MAX_VALUE);
+        cache.add(new ArrayList<BackplaneMessage>(messages));
+        middleId = messages.get(messages.size() / 2).getIdValue();
+        lastFrameId = messages.get(Math.max(0, messages.size() - 26)).getIdValue();
+    }
+
+    @Benchmark
+    public BackplaneMessage get() {
+        return cache.get(middleId);
+    }
+
+    @Benchmark
+    public BackplaneMessage getLastMessage() {
+        return cache.getLastMessage();
+    }
+
+    /**
+     * A poll of a client that is up to date but for the last frame.
+     */
+    @Benchmark
+    public List<BackplaneMessage> getMessagesSinceLastFrame() {
+        return cache.getMessagesSince(lastFrameId);
+    }
+
+    @Benchmark
+    public List<BackplaneMessage> getMessagesSinceMiddle() {
+        return cache.getMessagesSince(middleId);
+    }
+
+    @Benchmark
+    public MessageCache<BackplaneMessage> fill() throws Exception {
+        MessageCache<BackplaneMessage> filled = new MessageCache<BackplaneMessage>(Long.MAX_VALUE);
+        filled.add(new ArrayList<BackplaneMessage>(messages));
+        return filled;
+    }
+
+    // - PRIVATE
+
+    private List<BackplaneMessage> messages;
+    private MessageCache<BackplaneMessage> cache;
+    private String middleId;
+    private String lastFrameId;
+}
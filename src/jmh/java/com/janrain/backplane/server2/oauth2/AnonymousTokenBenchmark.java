@@ -0,0 +1,45 @@
+package com.janrain.backplane.server2.oauth2;
+
+import com.janrain.backplane.BenchmarkData;
+import com.janrain.backplane.config.BackplaneSystemProps;
+import com.janrain.backplane.server2.BusConfig2;
+import com.janrain.backplane.server2.dao.BP2DAOs;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Anonymous token issuance for a new channel, as done on every page load.
+ *
+ * Runs against the in-memory store unless BACKPLANE_STORE is set (with -jvmArgsAppend),
+ * in which case it issues tokens on a benchmark bus in the configured Redis.
+ *
+ * @author Johnny Bufu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnonymousTokenBenchmark {
+
+    @Setup
+    public void setup() throws Exception {
+        // must be set before the DAO classes are loaded
+        if (System.getProperty(BackplaneSystemProps.BACKPLANE_STORE) == null) {
+            System.setProperty(BackplaneSystemProps.BACKPLANE_STORE, BackplaneSystemProps.MEMORY_STORE);
+        }
+        BP2DAOs.getBusDao().persist(new BusConfig2(BUS, "benchmark_owner", "60", "600"));
+    }
+
+    @Benchmark
+    public Map<String, Object> issueNewChannel() throws Exception {
+        return new AnonymousTokenRequest("callback", BUS, null, null, null, null).tokenResponse();
+    }
+
+    // - PRIVATE
+
+    private static final String BUS = BenchmarkData.busName(0);
+}
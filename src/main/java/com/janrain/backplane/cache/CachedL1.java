@@ -16,107 +16,68 @@
 
 package com.janrain.backplane.cache;
 
-import net.sf.ehcache.Cache;
-import net.sf.ehcache.CacheManager;
-import net.sf.ehcache.Element;
-import net.sf.ehcache.config.CacheConfiguration;
-import net.sf.ehcache.store.MemoryStoreEvictionPolicy;
-import org.apache.log4j.Logger;
-
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
+ * Untyped facade over the "memory" L1 cache region, for callers not using a typed region of their own.
+ *
  * @author Tom Raney
  */
 public class CachedL1 implements Cached {
 
     private static CachedL1 instance = new CachedL1();
-    private boolean isEnabled = true;
-
-    private CachedL1() {
-        try {
-            CacheManager.create();
 
-            //Create a Cache specifying its configuration.
-            Cache testCache = new Cache(
-                    new CacheConfiguration("memory", 5000)
-                            .memoryStoreEvictionPolicy(MemoryStoreEvictionPolicy.LFU)
-                            .overflowToDisk(false)
-                            .eternal(false)
-                            .timeToLiveSeconds(3600)
-                            .timeToIdleSeconds(30)
-                            .diskPersistent(false)
-                            .diskExpiryThreadIntervalSeconds(0));
+    private final L1CacheRegion<Object> region = L1Cache.getInstance().getRegion("memory", Object.class, MAX_ENTRIES, DEFAULT_TTL_SECONDS);
 
-
-            CacheManager.getInstance().addCache(testCache);
-            String[] cacheNames = CacheManager.getInstance().getCacheNames();
-            System.out.println("created L1 cache");
-        } catch (Exception e) {
-            logger.warn("could not create L1 cache");
-            isEnabled = false;
-        }
-    }
+    private CachedL1() { }
 
     public static CachedL1 getInstance() {
        return instance;
     }
 
-    public Map<Object,Element> getAll(Collection<String> keys) {
-        if (!isEnabled) {
-            return null;
-        }
-        try {
-            Cache cache = CacheManager.getInstance().getCache("memory");
-            return cache.getAll(keys);
-        } catch (Exception e) {
-            logger.warn("L1 cached failed to getAll");
-            return null;
+    /**
+     * @return key -> cached object, for the keys that are cached
+     */
+    public Map<String,Object> getAll(Collection<String> keys) {
+        Map<String,Object> result = new LinkedHashMap<String, Object>();
+        for (String key : keys) {
+            Object obj = region.get(key);
+            if (obj != null) {
+                result.put(key, obj);
+            }
         }
+        return result;
     }
 
-
-
     @Override
     public Object getObject(String key) {
-        if (!isEnabled) {
-            return null;
-        }
-
-        try {
-            Cache cache = CacheManager.getInstance().getCache("memory");
-            Element element = cache.get(key);
-            if (element != null) {
-                return element.getObjectValue();
-            } else {
-                return null;
-            }
-        } catch (Exception e) {
-            logger.warn("L1 cache failed to get", e);
-            return null;
-        }
+        return region.get(key);
     }
 
+    /**
+     * @param expiration time to live in seconds, 0 or negative values select the default of one hour
+     */
     @Override
     public void setObject(String key, int expiration, Object obj) {
-        if (!isEnabled) {
-            return;
-        }
-        try {
-            Cache cache = CacheManager.getInstance().getCache("memory");
-            cache.put(new Element(key, obj));
-        } catch (Exception e) {
-            logger.warn("L1 cache failed to set", e);
-        }
+        region.put(key, obj, expiration);
+    }
+
+    /**
+     * Removes the object from the caches of all nodes.
+     */
+    public void invalidate(String key) {
+        region.invalidate(key);
     }
 
     @Override
     public boolean isEnabled() {
-        return isEnabled;
+        return region.isEnabled();
     }
 
     // - PRIVATE
 
-    private static final Logger logger = Logger.getLogger(CachedL1.class);
+    private static final int MAX_ENTRIES = 5000;
+    private static final int DEFAULT_TTL_SECONDS = 3600;
 }
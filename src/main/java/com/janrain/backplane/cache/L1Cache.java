@@ -0,0 +1,147 @@
+package com.janrain.backplane.cache;
+
+import com.janrain.backplane.config.BackplaneSystemProps;
+import com.janrain.backplane.redis.RedisPubSub;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.MetricName;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Node-local cache, organized in typed regions with their own size limit and default time to live.
+ *
+ * Invalidations are announced on the INVALIDATIONS_CHANNEL Redis pub/sub channel as "region key" messages,
+ * and each node removes the entry from its region. Since invalidations may be missed while a node is not subscribed,
+ * all regions are cleared when the subscription is (re)established. With the in-memory store there is a single node
+ * and no Redis, invalidations are local only.
+ *
+ * Each region reports its hits, misses, evictions and size as gauges.
+ *
+ * @author Johnny Bufu
+ */
+public class L1Cache implements RedisPubSub.Listener {
+
+    // - PUBLIC
+
+    public static final String INVALIDATIONS_CHANNEL = "l1_cache_invalidations";
+
+    public static L1Cache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Returns the region with the given name, creating it with the given settings if it doesn't exist.
+     *
+     * @param maxEntries max number of entries; 0 or negative values disable the region
+     * @param defaultTtlSeconds time to live of the entries cached without one, and max time to live of all entries;
+     *                          0 or negative values let entries without a time to live stay until evicted
+     * @throws IllegalArgumentException if the region exists with a different type
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <V> L1CacheRegion<V> getRegion(String name, Class<V> type, int maxEntries, int defaultTtlSeconds) {
+        if (name.indexOf(' ') != -1) throw new IllegalArgumentException("invalid cache region name: " + name);
+        L1CacheRegion<?> existing = regions.get(name);
+        if (existing != null) {
+            if (! existing.getType().equals(type)) {
+                throw new IllegalArgumentException("cache region " + name + " exists for " + existing.getType().getName());
+            }
+            return (L1CacheRegion<V>) existing;
+        }
+
+        if (! subscribed && ! BackplaneSystemProps.isMemoryStore()) {
+            RedisPubSub.getInstance().addListener(INVALIDATIONS_CHANNEL, this);
+            subscribed = true;
+        }
+        L1CacheRegion<V> region = new L1CacheRegion<V>(name, type, maxEntries, defaultTtlSeconds);
+        regions.put(name, region);
+        addGauges(region);
+        logger.info("created L1 cache region " + name + " for " + type.getSimpleName() + ", max entries: " + maxEntries + ", default ttl: " + defaultTtlSeconds + "s");
+        return region;
+    }
+
+    @Override
+    public void onMessage(String channel, String message) {
+        int delim = message.indexOf(' ');
+        if (delim == -1) return;
+        L1CacheRegion<?> region = regions.get(message.substring(0, delim));
+        if (region != null) {
+            region.remove(message.substring(delim + 1));
+        }
+    }
+
+    @Override
+    public void onSubscribe(String channel) {
+        for (L1CacheRegion<?> region : regions.values()) {
+            region.clear();
+        }
+    }
+
+    /**
+     * Invalidations published while unsubscribed are missed, entries cached until then are dropped now
+     * and those cached in the meantime when the subscription is re-established.
+     */
+    @Override
+    public void onSubscriptionLost(String channel) {
+        onSubscribe(channel);
+    }
+
+    // - PACKAGE
+
+    void publishInvalidations(String region, Collection<String> keys) {
+        if (BackplaneSystemProps.isMemoryStore()) return;
+        List<String> messages = new ArrayList<String>(keys.size());
+        for (String key : keys) {
+            messages.add(region + " " + key);
+        }
+        if (messages.size() == 1) {
+            RedisPubSub.getInstance().publish(INVALIDATIONS_CHANNEL, messages.get(0));
+        } else {
+            RedisPubSub.getInstance().publish(INVALIDATIONS_CHANNEL, messages);
+        }
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(L1Cache.class);
+
+    private static final L1Cache instance = new L1Cache();
+
+    private final ConcurrentHashMap<String, L1CacheRegion<?>> regions = new ConcurrentHashMap<String, L1CacheRegion<?>>();
+
+    private boolean subscribed;
+
+    private L1Cache() { }
+
+    private static void addGauges(final L1CacheRegion<?> region) {
+        String type = L1Cache.class.getName().replace(".","_");
+        Metrics.newGauge(new MetricName("cache", type, region.getName() + "_hits"), new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return region.getHits();
+            }
+        });
+        Metrics.newGauge(new MetricName("cache", type, region.getName() + "_misses"), new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return region.getMisses();
+            }
+        });
+        Metrics.newGauge(new MetricName("cache", type, region.getName() + "_evictions"), new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return region.getEvictions();
+            }
+        });
+        Metrics.newGauge(new MetricName("cache", type, region.getName() + "_size"), new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return region.size();
+            }
+        });
+    }
+}
@@ -0,0 +1,251 @@
+package com.janrain.backplane.cache;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Typed region of the node-local L1 cache, created through L1Cache.getRegion().
+ *
+ * Reads don't lock; each entry expires after its own time to live. Once the region grows above its maximum size,
+ * expired entries and then the least recently read entries are evicted, EVICTION_PERCENT of the maximum at a time.
+ * The recency of reads is tracked without synchronization, so evictions are only approximately LRU.
+ *
+ * @author Johnny Bufu
+ */
+public class L1CacheRegion<V> {
+
+    // - PUBLIC
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    /**
+     * @return the cached value, or null if not cached or expired
+     */
+    public @Nullable V get(String key) {
+        Entry<V> entry = entries.get(key);
+        long now = System.currentTimeMillis();
+        if (entry == null || entry.isExpired(now)) {
+            if (entry != null) {
+                entries.remove(key, entry);
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+        entry.lastRead = now;
+        hits.incrementAndGet();
+        return entry.value;
+    }
+
+    /**
+     * Caches the value for the region's default time to live.
+     */
+    public void put(String key, V value) {
+        put(key, value, defaultTtlSeconds);
+    }
+
+    /**
+     * @param ttlSeconds the entry's time to live; 0 or negative values select the region's default
+     */
+    public void put(String key, V value, int ttlSeconds) {
+        int ttl = ttlSeconds > 0 ? ttlSeconds : defaultTtlSeconds;
+        putUntil(key, value, ttl > 0 ? System.currentTimeMillis() + ttl * 1000L : 0);
+    }
+
+    /**
+     * @param expires the time in milliseconds when the entry expires, 0 if it only expires after the default time to live
+     */
+    public void putUntil(String key, V value, long expires) {
+        store(key, value, expires);
+    }
+
+    /**
+     * @return the region's invalidation stamp, to be read before loading a value that is then cached
+     * with putIfNotInvalidated()
+     */
+    public long getInvalidationStamp() {
+        return invalidations.get();
+    }
+
+    /**
+     * Caches the value for the region's default time to live, unless an entry of the region was removed
+     * since the stamp was read: the value may have been loaded before the change that removed it.
+     */
+    public void putIfNotInvalidated(String key, V value, long stamp) {
+        if (invalidations.get() != stamp) return;
+        Entry<V> entry = store(key, value, 0);
+        // removed after the check, before or while storing
+        if (entry != null && invalidations.get() != stamp) {
+            entries.remove(key, entry);
+        }
+    }
+
+    /**
+     * Removes the entry from this node's cache only.
+     */
+    public void remove(String key) {
+        // counted first, so that values stored before the removal are removed or not stored
+        invalidations.incrementAndGet();
+        entries.remove(key);
+    }
+
+    /**
+     * Removes the entry from the caches of all nodes; must be called after the cached value changed.
+     */
+    public void invalidate(String key) {
+        remove(key);
+        L1Cache.getInstance().publishInvalidations(name, Collections.singletonList(key));
+    }
+
+    /**
+     * Batch version of invalidate(key), the notifications are published together.
+     */
+    public void invalidate(Collection<String> keys) {
+        if (keys.isEmpty()) return;
+        for (String key : keys) {
+            remove(key);
+        }
+        L1Cache.getInstance().publishInvalidations(name, keys);
+    }
+
+    /**
+     * Removes all entries from this node's cache.
+     */
+    public void clear() {
+        invalidations.incrementAndGet();
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    // - PACKAGE
+
+    L1CacheRegion(String name, Class<V> type, int maxEntries, int defaultTtlSeconds) {
+        this.name = name;
+        this.type = type;
+        this.maxEntries = maxEntries;
+        this.defaultTtlSeconds = defaultTtlSeconds;
+    }
+
+    Class<V> getType() {
+        return type;
+    }
+
+    // - PRIVATE
+
+    private static final int EVICTION_PERCENT = 10;
+
+    private final String name;
+    private final Class<V> type;
+    private final int maxEntries;
+    private final int defaultTtlSeconds;
+
+    private final ConcurrentHashMap<String,Entry<V>> entries = new ConcurrentHashMap<String, Entry<V>>();
+    private final Object evictionLock = new Object();
+
+    /** entries removed by remove() and clear(), not by evictions */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private static class Entry<V> {
+        private final V value;
+        private final long expires;
+        /** written by concurrent readers without synchronization, approximate */
+        private long lastRead;
+
+        private Entry(V value, long expires, long lastRead) {
+            this.value = value;
+            this.expires = expires;
+            this.lastRead = lastRead;
+        }
+
+        private boolean isExpired(long now) {
+            return expires > 0 && expires <= now;
+        }
+    }
+
+    /**
+     * @return the stored entry, or null if not stored
+     */
+    private @Nullable Entry<V> store(String key, V value, long expires) {
+        if (! isEnabled() || value == null) return null;
+        long now = System.currentTimeMillis();
+        long maxExpires = defaultTtlSeconds > 0 ? now + defaultTtlSeconds * 1000L : 0;
+        if (expires <= 0 || (maxExpires > 0 && expires > maxExpires)) {
+            expires = maxExpires;
+        }
+        Entry<V> entry = new Entry<V>(value, expires, now);
+        entries.put(key, entry);
+        if (entries.size() > maxEntries) {
+            evict();
+        }
+        return entry;
+    }
+
+    private void evict() {
+        synchronized (evictionLock) {
+            if (entries.size() <= maxEntries) return; // evicted by another writer
+            long now = System.currentTimeMillis();
+            int removed = 0;
+            List<Candidate<V>> live = new ArrayList<Candidate<V>>(entries.size());
+            for (Map.Entry<String,Entry<V>> entry : entries.entrySet()) {
+                if (entry.getValue().isExpired(now)) {
+                    if (entries.remove(entry.getKey(), entry.getValue())) removed++;
+                } else {
+                    live.add(new Candidate<V>(entry.getKey(), entry.getValue()));
+                }
+            }
+            int excess = entries.size() - maxEntries + Math.max(1, maxEntries * EVICTION_PERCENT / 100);
+            if (excess > 0) {
+                Collections.sort(live);
+                for (int i = 0; i < excess && i < live.size(); i++) {
+                    if (entries.remove(live.get(i).key, live.get(i).entry)) removed++;
+                }
+            }
+            evictions.addAndGet(removed);
+        }
+    }
+
+    /** eviction candidate, with the read time captured so that it doesn't change while sorting */
+    private static class Candidate<V> implements Comparable<Candidate<V>> {
+        private final String key;
+        private final Entry<V> entry;
+        private final long lastRead;
+
+        private Candidate(String key, Entry<V> entry) {
+            this.key = key;
+            this.entry = entry;
+            this.lastRead = entry.lastRead;
+        }
+
+        @Override
+        public int compareTo(Candidate<V> other) {
+            return lastRead < other.lastRead ? -1 : lastRead == other.lastRead ? 0 : 1;
+        }
+    }
+}
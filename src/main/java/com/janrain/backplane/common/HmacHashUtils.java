@@ -110,8 +110,20 @@ public class HmacHashUtils {
         return keyGen.generateKey();
     }
 
+    /** Mac instances are expensive to look up and not thread safe, keep one per thread */
+    private static final ThreadLocal<Mac> HMAC_SHA256 = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                return Mac.getInstance(HMAC_SHA256_ALGORITHM);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
     private static String hmacSign(SecretKey key, String password) throws NoSuchAlgorithmException, InvalidKeyException, UnsupportedEncodingException {
-        Mac mac = Mac.getInstance(key.getAlgorithm());
+        Mac mac = HMAC_SHA256_ALGORITHM.equals(key.getAlgorithm()) ? HMAC_SHA256.get() : Mac.getInstance(key.getAlgorithm());
         mac.init(key);
         return new String(Base64.encodeBase64(mac.doFinal(password.getBytes())), UTF8_STRING_ENCODING);
     }
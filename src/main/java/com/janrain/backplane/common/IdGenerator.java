@@ -0,0 +1,167 @@
+package com.janrain.backplane.common;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.core.TimerContext;
+import org.apache.log4j.Logger;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Random id generator for tokens, channels, codes, cookies and temporary keys.
+ *
+ * Ids are drawn from a set of SHA1PRNG generators, striped by thread, each seeded from the master
+ * (platform default) SecureRandom when created and reseeded after RESEED_BYTES. Random bytes are
+ * generated in buffers of BUFFER_SIZE, so most ids don't call into a SecureRandom at all,
+ * and the master generator, which may block on entropy, is only used for seeding.
+ *
+ * Characters are picked without modulo bias: random bytes that would favor the first characters are skipped.
+ *
+ * @author Johnny Bufu
+ */
+public class IdGenerator {
+
+    // - PUBLIC
+
+    public static final char[] BASE62 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
+    public static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    public static IdGenerator getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return random string of the given length, of characters from the base64 set per RFC 4648 without '-' and '_'
+     */
+    public String randomString(int length) {
+        return randomStrings(length, 1, BASE62).get(0);
+    }
+
+    /**
+     * @return random string of the given length, of lowercase hex digits
+     */
+    public String randomHexString(int length) {
+        return randomStrings(length, 1, HEX).get(0);
+    }
+
+    /**
+     * @return count random strings of the given length, of characters from the given alphabet
+     */
+    public List<String> randomStrings(int length, int count, char[] alphabet) {
+        TimerContext context = generationTimer.time();
+        try {
+            // largest multiple of the alphabet size that fits a byte, higher values are skipped
+            int limit = 256 - 256 % alphabet.length;
+            Stripe stripe = stripes[stripeIndex(Thread.currentThread().getId())];
+            List<String> result = new ArrayList<String>(count);
+            char[] chars = new char[length];
+            synchronized (stripe) {
+                for (int i = 0; i < count; i++) {
+                    for (int c = 0; c < length; ) {
+                        int b = stripe.nextByte();
+                        if (b < limit) {
+                            chars[c++] = alphabet[b % alphabet.length];
+                        }
+                    }
+                    result.add(new String(chars));
+                }
+            }
+            return result;
+        } finally {
+            context.stop();
+        }
+    }
+
+    // - PACKAGE
+
+    /**
+     * @param stripeCount power of two
+     */
+    IdGenerator(int stripeCount, long reseedBytes) {
+        this.reseedBytes = reseedBytes;
+        stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+        }
+        logger.info("random id generator initialized with " + stripeCount + " stripes");
+    }
+
+    /**
+     * @return power of two, for the stripe index mask
+     */
+    static int stripeCount(int processors) {
+        int count = 1;
+        while (count < 2 * processors && count < MAX_STRIPES) {
+            count <<= 1;
+        }
+        return count;
+    }
+
+    int stripeIndex(long threadId) {
+        return (int) (threadId & (stripes.length - 1));
+    }
+
+    SecureRandom newGenerator() {
+        byte[] seed = new byte[SEED_BYTES];
+        synchronized (master) {
+            master.nextBytes(seed);
+        }
+        SecureRandom generator;
+        try {
+            generator = SecureRandom.getInstance("SHA1PRNG");
+        } catch (NoSuchAlgorithmException e) {
+            logger.warn("SHA1PRNG not available, using the platform default SecureRandom");
+            generator = new SecureRandom();
+        }
+        // seeding before the first use replaces the generator's self-seeding
+        generator.setSeed(seed);
+        return generator;
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(IdGenerator.class);
+
+    private static final int BUFFER_SIZE = 4096;
+    private static final long RESEED_BYTES = 1L << 24;
+    private static final int SEED_BYTES = 32;
+    private static final int MAX_STRIPES = 64;
+
+    private static final IdGenerator instance = new IdGenerator();
+
+    private final SecureRandom master = new SecureRandom();
+    private final Stripe[] stripes;
+    private final long reseedBytes;
+
+    private final Timer generationTimer = Metrics.newTimer(new MetricName("common", IdGenerator.class.getName().replace(".","_"), "random_id_generation_time"), TimeUnit.MICROSECONDS, TimeUnit.SECONDS);
+
+    private IdGenerator() {
+        this(stripeCount(Runtime.getRuntime().availableProcessors()), RESEED_BYTES);
+    }
+
+    private class Stripe {
+
+        private SecureRandom random;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position = BUFFER_SIZE;
+        private long generated = 0;
+
+        private int nextByte() {
+            if (position == buffer.length) {
+                if (random == null || generated >= reseedBytes) {
+                    random = newGenerator();
+                    generated = 0;
+                }
+                random.nextBytes(buffer);
+                generated += buffer.length;
+                position = 0;
+            }
+            return buffer[position++] & 0xFF;
+        }
+    }
+}
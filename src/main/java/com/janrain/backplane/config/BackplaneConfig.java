@@ -17,13 +17,16 @@
 package com.janrain.backplane.config;
 
 
-import com.janrain.backplane.cache.CachedL1;
 import com.janrain.backplane.common.AuthException;
 import com.janrain.backplane.common.BackplaneServerException;
 import com.janrain.backplane.common.HmacHashUtils;
+import com.janrain.backplane.dao.ConfigSnapshot;
 import com.janrain.backplane.dao.ServerDAOs;
-import com.janrain.backplane.server1.MessageProcessor;
-import com.janrain.backplane.server2.V2MessageProcessor;
+import com.janrain.backplane.redis.MessageEngine;
+import com.janrain.backplane.redis.RedisPubSub;
+import com.janrain.backplane.server1.V1MessageProtocol;
+import com.janrain.backplane.server2.RevocationJobs;
+import com.janrain.backplane.server2.V2MessageProtocol;
 import com.janrain.commons.util.AwsUtility;
 import com.janrain.commons.util.InitSystemProps;
 import com.janrain.commons.util.Pair;
@@ -44,6 +47,7 @@ import javax.annotation.PreDestroy;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -61,7 +65,7 @@ public class BackplaneConfig {
 	 * @return the debugMode
 	 */
 	public boolean isDebugMode() {
-        return Boolean.valueOf(cachedGet(BpServerConfig.Field.DEBUG_MODE));
+        return serverConfig.debugMode;
 	}
 
     /**
@@ -69,8 +73,7 @@ public class BackplaneConfig {
      * @throws MessageException
      */
     public long getDefaultMaxMessageLimit() {
-        Long max = Long.valueOf(cachedGet(BpServerConfig.Field.DEFAULT_MESSAGES_MAX));
-        return max == null ? BackplaneConfig.BP_MAX_MESSAGES_DEFAULT : max;
+        return serverConfig.defaultMaxMessages;
     }
 
     public Exception getDebugException(Exception e) {
@@ -94,7 +97,24 @@ public class BackplaneConfig {
         return EC2InstanceId;
     }
 
-    public static void addToBackgroundServices(String key, ScheduledExecutorService messageWorkerTask) {
+    /**
+     * Uses the server config just read from the database on this node, until the next refresh.
+     */
+    public void cacheServerConfig(BpServerConfig bpServerConfig) {
+        serverConfig = new ServerConfig(bpServerConfig);
+    }
+
+    /**
+     * Must be called after the server config was updated: all other nodes reload it on notification.
+     */
+    public void serverConfigChanged(BpServerConfig bpServerConfig) {
+        cacheServerConfig(bpServerConfig);
+        if (! BackplaneSystemProps.isMemoryStore()) {
+            RedisPubSub.getInstance().publish(ConfigSnapshot.CONFIG_CHANGES_CHANNEL, SERVER_CONFIG_CHANGE + " " + bpServerConfig.getIdValue());
+        }
+    }
+
+    public static void addToBackgroundServices(String key, ExecutorService messageWorkerTask) {
         backgroundServices.put(key, messageWorkerTask);
     }
 
@@ -128,10 +148,18 @@ public class BackplaneConfig {
     private static final long BP_MAX_MESSAGES_DEFAULT = 100;
     private static final Map<String, ExecutorService> backgroundServices = new HashMap<String, ExecutorService>();
 
+    /** server config change notification name, on the config snapshots' channel */
+    private static final String SERVER_CONFIG_CHANGE = "server_config";
+    private static final long SERVER_CONFIG_REFRESH_SECONDS_DEFAULT = 10;
+
     private final String bpInstanceId;
 
-    final MessageProcessor v1messageProcessor = new MessageProcessor();
-    final V2MessageProcessor v2messageProcessor = new V2MessageProcessor();
+    /** replaced, never modified; request threads only read it, the refresh task loads it */
+    private volatile ServerConfig serverConfig = new ServerConfig(new BpServerConfig());
+
+    private final ScheduledExecutorService serverConfigRefresh = Executors.newSingleThreadScheduledExecutor();
+
+    final MessageEngine messageEngine = new MessageEngine(new V1MessageProtocol(), new V2MessageProtocol());
 
     // Amazon specific instance-id value
     private static String EC2InstanceId = AwsUtility.retrieveEC2InstanceId();
@@ -185,9 +213,21 @@ public class BackplaneConfig {
 
     @PostConstruct
     private void init() {
+        startServerConfigRefresh();
+        if (! BackplaneSystemProps.isEdgeNode()) {
+            RevocationJobs.getInstance().start();
+        }
+        if (BackplaneSystemProps.isMemoryStore()) {
+            // messages are stored directly, there is no queue to process
+            logger.info("in-memory store, running as a single node without Redis and ZooKeeper");
+            return;
+        }
         addTask(backgroundServices, createPingTask());
-        initZk("/v1_worker", v1messageProcessor);
-        initZk("/v2_worker", v2messageProcessor);
+        if (BackplaneSystemProps.isEdgeNode()) {
+            logger.info("edge node, serving reads only and not taking part in message processing");
+        } else {
+            initZk("/message_worker", messageEngine);
+        }
     }
 
     private void initZk(String leaderPath, LeaderSelectorListener listener) {
@@ -234,34 +274,95 @@ public class BackplaneConfig {
         }
     }
 
-    private String cachedGet(BpServerConfig.Field property) {
+    private static class ServerConfig {
+        private final boolean debugMode;
+        private final long defaultMaxMessages;
+        private final long refreshSeconds;
 
-        try {
+        private ServerConfig(BpServerConfig config) {
+            debugMode = Boolean.valueOf(config.get(BpServerConfig.Field.DEBUG_MODE));
+            defaultMaxMessages = parseLong(config.get(BpServerConfig.Field.DEFAULT_MESSAGES_MAX), BP_MAX_MESSAGES_DEFAULT);
+            refreshSeconds = Math.max(1, parseLong(config.get(BpServerConfig.Field.CONFIG_CACHE_AGE_SECONDS), SERVER_CONFIG_REFRESH_SECONDS_DEFAULT));
+        }
+
+        private static long parseLong(String value, long defaultValue) {
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                return defaultValue;
+            }
+        }
+    }
 
-            BpServerConfig bpServerConfigCache = (BpServerConfig) CachedL1.getInstance().getObject(BackplaneSystemProps.BPSERVER_CONFIG_KEY);
-            if (bpServerConfigCache == null) {
-                // pull from db if not found in cache
-                try {
-                    bpServerConfigCache = ServerDAOs.getConfigDAO().get(BackplaneSystemProps.BPSERVER_CONFIG_KEY);
-                } catch (Exception e) {
-                    // if we get an error from the db, create a new object
+    /**
+     * Loads the server config now, then again every CONFIG_CACHE_AGE_SECONDS and on change notifications.
+     */
+    private void startServerConfigRefresh() {
+        addToBackgroundServices("server config refresh", serverConfigRefresh);
+        refreshServerConfig();
+        scheduleServerConfigRefresh();
+        if (! BackplaneSystemProps.isMemoryStore()) {
+            RedisPubSub.getInstance().addListener(ConfigSnapshot.CONFIG_CHANGES_CHANNEL, new RedisPubSub.Listener() {
+                @Override
+                public void onMessage(String channel, String message) {
+                    if (message.equals(SERVER_CONFIG_CHANGE + " " + BackplaneSystemProps.BPSERVER_CONFIG_KEY)) {
+                        submitServerConfigRefresh();
+                    }
                 }
 
-                if (bpServerConfigCache == null) {
-                    // no instance found in cache or the db, so let's use the default record
-                    bpServerConfigCache = new BpServerConfig();
+                @Override
+                public void onSubscribe(String channel) {
+                    submitServerConfigRefresh();
                 }
-                // add it to the L1 cache
-                CachedL1.getInstance().setObject(BackplaneSystemProps.BPSERVER_CONFIG_KEY, -1, bpServerConfigCache);
-            }
 
-            return bpServerConfigCache.get(property);
+                @Override
+                public void onSubscriptionLost(String channel) {
+                    // still refreshed every CONFIG_CACHE_AGE_SECONDS
+                }
+            });
+        }
+    }
 
-        } catch (Exception e) {
-            logger.error(e);
-            return null;
+    private void scheduleServerConfigRefresh() {
+        try {
+            serverConfigRefresh.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        refreshServerConfig();
+                    } finally {
+                        scheduleServerConfigRefresh();
+                    }
+                }
+            }, serverConfig.refreshSeconds, TimeUnit.SECONDS);
+        } catch (RejectedExecutionException e) {
+            logger.info("server config refresh stopped");
         }
+    }
 
+    private void submitServerConfigRefresh() {
+        try {
+            serverConfigRefresh.execute(new Runnable() {
+                @Override
+                public void run() {
+                    refreshServerConfig();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.info("server config refresh stopped");
+        }
+    }
+
+    /**
+     * Keeps the current server config if it cannot be loaded, uses the default one if none is stored.
+     */
+    private void refreshServerConfig() {
+        try {
+            BpServerConfig bpServerConfig = ServerDAOs.getConfigDAO().get(BackplaneSystemProps.BPSERVER_CONFIG_KEY);
+            serverConfig = new ServerConfig(bpServerConfig != null ? bpServerConfig : new BpServerConfig());
+        } catch (Exception e) {
+            logger.error("error loading server config, keeping the current one: " + e.getMessage(), e);
+        }
     }
 
     public void checkAdminAuth(String user, String password) throws AuthException {
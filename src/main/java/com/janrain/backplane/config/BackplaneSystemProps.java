@@ -37,6 +37,30 @@ public class BackplaneSystemProps extends InitSystemProps {
     public static final String ADMIN_USER = "bpadmin";
     public static final String BPSERVER_CONFIG_KEY = "bpserverconfig";
 
+    /** node mode, EDGE_NODE for read-only nodes serving messages from local replicas; full node by default */
+    public static final String NODE_MODE = "NODE_MODE";
+    public static final String EDGE_NODE = "edge";
+
+    /** v2 message storage, BUS_LOG_STORE for per bus message logs; messages stored under their own keys by default */
+    public static final String V2_MESSAGE_STORE = "V2_MESSAGE_STORE";
+    public static final String BUS_LOG_STORE = "buslog";
+
+    /** storage backend, MEMORY_STORE for single-node and test deployments without Redis and ZooKeeper; Redis by default */
+    public static final String BACKPLANE_STORE = "BACKPLANE_STORE";
+    public static final String MEMORY_STORE = "memory";
+
+    /** optional file the in-memory store's configuration and credentials are periodically saved to and restored from */
+    public static final String MEMORY_STORE_FILE = "MEMORY_STORE_FILE";
+
+    /** optional HMAC key, at least 32 characters, for self-validating anonymous access tokens; must be the same on all nodes */
+    public static final String TOKEN_SIGNING_KEY = "TOKEN_SIGNING_KEY";
+
+    /**
+     * set to true once every node runs this release; until then storage structures that older nodes don't maintain
+     * (secondary grant and token indexes, in-flight message queues) are written but not relied upon
+     */
+    public static final String CLUSTER_UPGRADED = "CLUSTER_UPGRADED";
+
     public static String getMachineName() {
         try {
             return "backplane/" + InetAddress.getLocalHost().getHostName();
@@ -46,6 +70,34 @@ public class BackplaneSystemProps extends InitSystemProps {
         return "n/a";
     }
 
+    /**
+     * @return true if this is a read-only edge node, which doesn't take part in leader election
+     */
+    public static boolean isEdgeNode() {
+        return EDGE_NODE.equalsIgnoreCase(System.getProperty(NODE_MODE));
+    }
+
+    /**
+     * @return true if v2 messages are stored in per bus logs
+     */
+    public static boolean isBusLogStore() {
+        return BUS_LOG_STORE.equalsIgnoreCase(System.getProperty(V2_MESSAGE_STORE));
+    }
+
+    /**
+     * @return true if all data is kept in this node's memory
+     */
+    public static boolean isMemoryStore() {
+        return MEMORY_STORE.equalsIgnoreCase(System.getProperty(BACKPLANE_STORE));
+    }
+
+    /**
+     * @return true if all nodes in the cluster maintain the current storage structures
+     */
+    public static boolean isClusterUpgraded() {
+        return Boolean.parseBoolean(System.getProperty(CLUSTER_UPGRADED));
+    }
+
     public BackplaneSystemProps(String log4jFile) {
         super(log4jFile);
 
@@ -54,6 +106,12 @@ public class BackplaneSystemProps extends InitSystemProps {
         load(REDIS_SERVER_PRIMARY, true);
         load(REDIS_SERVER_READS, true);
         load(IP_WHITE_LIST, false);
+        load(NODE_MODE, false);
+        load(V2_MESSAGE_STORE, false);
+        load(BACKPLANE_STORE, false);
+        load(MEMORY_STORE_FILE, false);
+        load(TOKEN_SIGNING_KEY, false);
+        load(CLUSTER_UPGRADED, false);
 
     }
 
@@ -0,0 +1,41 @@
+package com.janrain.backplane.dao;
+
+import com.janrain.backplane.common.BackplaneServerException;
+import com.janrain.commons.message.NamedMap;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * DAO with batch operations, for provisioning large numbers of entities.
+ *
+ * @author Johnny Bufu
+ */
+public interface BulkDAO<T extends NamedMap> extends DAO<T> {
+
+    /**
+     * Persists the (already validated) entities, in as few storage round trips as possible.
+     */
+    public void persistAll(List<T> objs) throws BackplaneServerException;
+
+    /**
+     * Deletes the entities with the given ids, along with their dependencies, as delete(id) does.
+     *
+     * @return the ids of the entities that existed and were deleted
+     */
+    public Collection<String> deleteAll(List<String> ids) throws BackplaneServerException;
+
+    /**
+     * @return all entities, loaded from storage as the iteration advances rather than all at once
+     */
+    public Iterator<T> iterateAll() throws BackplaneServerException;
+
+    /**
+     * @param cursor null for the first page, or the next cursor of the previous page
+     * @param limit maximum number of entities returned
+     * @throws IllegalArgumentException if the cursor is not valid for this DAO
+     */
+    public Page<T> getPage(@Nullable String cursor, int limit) throws BackplaneServerException;
+}
@@ -0,0 +1,214 @@
+package com.janrain.backplane.dao;
+
+import com.janrain.backplane.config.BackplaneConfig;
+import com.janrain.backplane.redis.RedisPubSub;
+import com.janrain.commons.message.Message;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Node-local, versioned snapshot of a rarely changing configuration entity type.
+ *
+ * All lookups are served from an immutable in-memory copy. Changes are announced on the CONFIG_CHANGES_CHANNEL
+ * Redis pub/sub channel, each node reloads only the changed entry on notification. The whole snapshot
+ * is reloaded when the subscription is (re)established and periodically, in case notifications were missed.
+ * Lookups of ids not in the snapshot fall back to the loader, so entries created on other nodes
+ * are found before their change notification arrives.
+ *
+ * @author Johnny Bufu
+ */
+public class ConfigSnapshot<T extends Message> implements RedisPubSub.Listener {
+
+    // - PUBLIC
+
+    public static final String CONFIG_CHANGES_CHANNEL = "config_changes";
+
+    public static interface Loader<T> {
+
+        /** @return all entries currently stored */
+        List<T> loadAll();
+
+        /** @return the entry currently stored for the given id, or null if it doesn't exist */
+        @Nullable T load(String id);
+
+        /** @return the entries currently stored for the given ids, ids that don't exist are not included */
+        Map<String,T> load(Collection<String> ids);
+    }
+
+    /**
+     * @param name unique name of the snapshot, used in change notifications
+     */
+    public ConfigSnapshot(String name, Loader<T> loader) {
+        this.name = name;
+        this.loader = loader;
+    }
+
+    public @Nullable T get(String id) {
+        Snapshot<T> current = getSnapshot();
+        T entry = current.entries.get(id);
+        if (entry == null) {
+            entry = loader.load(id);
+            if (entry != null) {
+                merge(id, entry, current.version);
+            }
+        }
+        return entry;
+    }
+
+    public List<T> getAll() {
+        return new ArrayList<T>(getSnapshot().entries.values());
+    }
+
+    public long getVersion() {
+        return getSnapshot().version;
+    }
+
+    /**
+     * Reloads the entry for the given id and notifies all nodes of the change.
+     * Must be called after the entry was created, updated or deleted.
+     */
+    public void changed(String id) {
+        reload(id);
+        RedisPubSub.getInstance().publish(CONFIG_CHANGES_CHANNEL, name + " " + id);
+    }
+
+    /**
+     * Batch version of changed(id): the entries are reloaded into a single new snapshot version
+     * and the (per entry) notifications are published together.
+     */
+    public void changed(Collection<String> ids) {
+        if (ids.isEmpty()) return;
+        reload(ids);
+        List<String> messages = new ArrayList<String>(ids.size());
+        for (String id : ids) {
+            messages.add(name + " " + id);
+        }
+        RedisPubSub.getInstance().publish(CONFIG_CHANGES_CHANNEL, messages);
+    }
+
+    @Override
+    public void onMessage(String channel, String message) {
+        int delim = message.indexOf(' ');
+        if (delim != -1 && name.equals(message.substring(0, delim))) {
+            reload(message.substring(delim + 1));
+        }
+    }
+
+    @Override
+    public void onSubscribe(String channel) {
+        if (snapshot != null) {
+            reloadAll();
+        }
+    }
+
+    @Override
+    public void onSubscriptionLost(String channel) {
+        // changes missed in the meantime are picked up by the reload on resubscription
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(ConfigSnapshot.class);
+
+    private static final long FULL_RELOAD_INTERVAL_SECONDS = 300L;
+
+    private static final ScheduledExecutorService reloadTask = Executors.newScheduledThreadPool(1);
+
+    static {
+        BackplaneConfig.addToBackgroundServices("config snapshots reload", reloadTask);
+    }
+
+    private final String name;
+    private final Loader<T> loader;
+
+    /** replaced, never modified */
+    private volatile Snapshot<T> snapshot;
+
+    private static class Snapshot<T> {
+        private final Map<String,T> entries;
+        private final long version;
+
+        private Snapshot(Map<String, T> entries, long version) {
+            this.entries = Collections.unmodifiableMap(entries);
+            this.version = version;
+        }
+    }
+
+    private Snapshot<T> getSnapshot() {
+        Snapshot<T> current = snapshot;
+        if (current != null) return current;
+        synchronized (this) {
+            if (snapshot == null) {
+                // subscribe before loading, changes made in between trigger a reload once subscribed
+                RedisPubSub.getInstance().addListener(CONFIG_CHANGES_CHANNEL, this);
+                reloadAll();
+                reloadTask.scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            reloadAll();
+                        } catch (Exception e) {
+                            logger.error("error reloading " + name + " snapshot: " + e.getMessage(), e);
+                        }
+                    }
+                }, FULL_RELOAD_INTERVAL_SECONDS, FULL_RELOAD_INTERVAL_SECONDS, TimeUnit.SECONDS);
+            }
+            return snapshot;
+        }
+    }
+
+    private synchronized void reloadAll() {
+        Map<String,T> entries = new HashMap<String, T>();
+        for (T entry : loader.loadAll()) {
+            entries.put(entry.getIdValue(), entry);
+        }
+        snapshot = new Snapshot<T>(entries, snapshot == null ? 1 : snapshot.version + 1);
+        logger.info("loaded " + name + " snapshot version " + snapshot.version + ", " + entries.size() + " entries");
+    }
+
+    private synchronized void reload(String id) {
+        if (snapshot == null) return; // not loaded yet, will be loaded with the latest entries
+        Map<String,T> entries = new HashMap<String, T>(snapshot.entries);
+        T entry = loader.load(id);
+        if (entry != null) {
+            entries.put(id, entry);
+        } else {
+            entries.remove(id);
+        }
+        snapshot = new Snapshot<T>(entries, snapshot.version + 1);
+        logger.debug("reloaded " + name + " " + id + ", snapshot version " + snapshot.version);
+    }
+
+    /**
+     * Adds an entry loaded after a snapshot miss, unless the snapshot changed since the miss
+     * (the loaded entry may then be stale, e.g. deleted in the meantime).
+     */
+    private synchronized void merge(String id, T entry, long missedVersion) {
+        if (snapshot.version != missedVersion) return;
+        Map<String,T> entries = new HashMap<String, T>(snapshot.entries);
+        entries.put(id, entry);
+        snapshot = new Snapshot<T>(entries, snapshot.version + 1);
+        logger.debug("merged " + name + " " + id + " after snapshot miss, snapshot version " + snapshot.version);
+    }
+
+    private synchronized void reload(Collection<String> ids) {
+        if (snapshot == null) return;
+        Map<String,T> entries = new HashMap<String, T>(snapshot.entries);
+        Map<String,T> loaded = loader.load(ids);
+        for (String id : ids) {
+            T entry = loaded.get(id);
+            if (entry != null) {
+                entries.put(id, entry);
+            } else {
+                entries.remove(id);
+            }
+        }
+        snapshot = new Snapshot<T>(entries, snapshot.version + 1);
+        logger.info("reloaded " + ids.size() + " " + name + " entries, snapshot version " + snapshot.version);
+    }
+}
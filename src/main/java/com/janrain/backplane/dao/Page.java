@@ -0,0 +1,61 @@
+package com.janrain.backplane.dao;
+
+import com.janrain.commons.message.NamedMap;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * One page of a cursor-paginated listing.
+ *
+ * Cursors are opaque to clients; a listing is complete when a page has no next cursor.
+ * Like Redis SCAN, entities present for the whole listing are returned, entities created, updated or deleted
+ * while paginating may or may not be returned, and an entity may be returned more than once.
+ *
+ * @author Johnny Bufu
+ */
+public class Page<T> {
+
+    // - PUBLIC
+
+    public Page(List<T> entries, @Nullable String nextCursor) {
+        this.entries = Collections.unmodifiableList(entries);
+        this.nextCursor = nextCursor;
+    }
+
+    public List<T> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return the cursor for the next page, or null if this is the last page
+     */
+    public @Nullable String getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * Pages through entities held in memory in id order; the cursor is the last id returned,
+     * so concurrent changes don't shift the entities of later pages.
+     */
+    public static <T extends NamedMap> Page<T> byId(Collection<T> entities, @Nullable String cursor, int limit) {
+        TreeMap<String,T> sorted = new TreeMap<String, T>();
+        for (T entity : entities) {
+            if (cursor == null || entity.getIdValue().compareTo(cursor) > 0) {
+                sorted.put(entity.getIdValue(), entity);
+            }
+        }
+        List<T> page = new ArrayList<T>(Math.min(limit, sorted.size()));
+        for (T entity : sorted.values()) {
+            if (page.size() == limit) break;
+            page.add(entity);
+        }
+        String next = sorted.size() > limit ? page.get(page.size() - 1).getIdValue() : null;
+        return new Page<T>(page, next);
+    }
+
+    // - PRIVATE
+
+    private final List<T> entries;
+    private final String nextCursor;
+}
@@ -17,7 +17,9 @@
 package com.janrain.backplane.dao;
 
 import com.janrain.backplane.config.Admin;
+import com.janrain.backplane.config.BackplaneSystemProps;
 import com.janrain.backplane.config.BpServerConfig;
+import com.janrain.backplane.dao.memory.MemoryDAO;
 import com.janrain.backplane.dao.redis.RedisAdminDAO;
 import com.janrain.backplane.dao.redis.RedisConfigDAO;
 
@@ -41,6 +43,8 @@ public class ServerDAOs {
 
     private ServerDAOs() {}
 
-    private static final DAO<BpServerConfig> configDao = new RedisConfigDAO();
-    private static final DAO<Admin> adminDao = new RedisAdminDAO();
+    private static final DAO<BpServerConfig> configDao = BackplaneSystemProps.isMemoryStore() ?
+            new MemoryDAO<BpServerConfig>("bp_server_config") : new RedisConfigDAO();
+    private static final DAO<Admin> adminDao = BackplaneSystemProps.isMemoryStore() ?
+            new MemoryDAO<Admin>("admin") : new RedisAdminDAO();
 }
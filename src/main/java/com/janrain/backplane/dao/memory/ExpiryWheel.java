@@ -0,0 +1,136 @@
+package com.janrain.backplane.dao.memory;
+
+import com.janrain.backplane.config.BackplaneConfig;
+import org.apache.log4j.Logger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timer wheel running the expiry tasks of in-memory entries.
+ *
+ * Tasks are kept in the slot of their expiration tick; each tick only visits its own slot,
+ * so scheduling and expiring are constant time regardless of the number of pending tasks.
+ * Tasks due in a later turn of the wheel stay in their slot until then.
+ * Tasks run up to two ticks after their expiration time; readers must still check expiration times themselves.
+ *
+ * @author Johnny Bufu
+ */
+public class ExpiryWheel {
+
+    // - PUBLIC
+
+    public static ExpiryWheel getInstance() {
+        return instance;
+    }
+
+    /**
+     * Runs the task once the expiration time has passed.
+     */
+    public void schedule(long expiresAt, Runnable task) {
+        start();
+        add(expiresAt, task);
+    }
+
+    // - PACKAGE
+
+    /**
+     * Creates a wheel without a ticker, advanced only by explicit advance() calls.
+     */
+    ExpiryWheel(long now) {
+        this();
+        manual = true;
+        lastTick = now / TICK_MILLIS - 1;
+    }
+
+    void add(long expiresAt, Runnable task) {
+        // already expired tasks go to the next tick that hasn't been visited
+        long tick = Math.max(expiresAt / TICK_MILLIS, lastTick + 1);
+        slots[slot(tick)].add(new Timeout(expiresAt, task));
+    }
+
+    /**
+     * Visits the slots of all ticks elapsed since the last visited one, in case the ticker fell behind.
+     * The current tick is only visited once it has elapsed, since tasks due later in it are not expired yet.
+     */
+    void advance(long now) {
+        long lastElapsedTick = now / TICK_MILLIS - 1;
+        long fromTick = Math.max(lastTick + 1, lastElapsedTick - SLOTS + 1);
+        for (long tick = fromTick; tick <= lastElapsedTick; tick++) {
+            Queue<Timeout> slot = slots[slot(tick)];
+            int pending = slot.size();
+            for (int i = 0; i < pending; i++) {
+                Timeout timeout = slot.poll();
+                if (timeout == null) break;
+                if (timeout.expiresAt <= now) {
+                    try {
+                        timeout.task.run();
+                    } catch (Exception e) {
+                        logger.error("expiry task failed: " + e.getMessage(), e);
+                    }
+                } else {
+                    // due in a later turn of the wheel
+                    slot.add(timeout);
+                }
+            }
+        }
+        lastTick = Math.max(lastTick, lastElapsedTick);
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(ExpiryWheel.class);
+
+    private static final long TICK_MILLIS = 1000L;
+    private static final int SLOTS = 512;
+
+    private static final ExpiryWheel instance = new ExpiryWheel();
+
+    private final Queue<Timeout>[] slots;
+
+    private ScheduledExecutorService ticker;
+    private boolean manual;
+    private volatile long lastTick;
+
+    private static class Timeout {
+        private final long expiresAt;
+        private final Runnable task;
+
+        private Timeout(long expiresAt, Runnable task) {
+            this.expiresAt = expiresAt;
+            this.task = task;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private ExpiryWheel() {
+        slots = new Queue[SLOTS];
+        for (int i = 0; i < SLOTS; i++) {
+            slots[i] = new ConcurrentLinkedQueue<Timeout>();
+        }
+    }
+
+    private static int slot(long tick) {
+        return (int) (tick % SLOTS);
+    }
+
+    private synchronized void start() {
+        if (ticker != null || manual) return;
+        lastTick = System.currentTimeMillis() / TICK_MILLIS - 1;
+        ticker = Executors.newScheduledThreadPool(1);
+        ticker.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    advance(System.currentTimeMillis());
+                } catch (Exception e) {
+                    logger.error("error expiring entries: " + e.getMessage(), e);
+                }
+            }
+        }, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        BackplaneConfig.addToBackgroundServices("expiry wheel", ticker);
+    }
+}
@@ -0,0 +1,175 @@
+package com.janrain.backplane.dao.memory;
+
+import com.janrain.backplane.common.BackplaneServerException;
+import com.janrain.backplane.common.DateTimeUtils;
+import com.janrain.backplane.common.ExternalizableCore;
+import com.janrain.backplane.dao.BulkDAO;
+import com.janrain.backplane.dao.Page;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the entities in this node's memory, for the in-memory store.
+ *
+ * Entities with an expiration time are removed by the ExpiryWheel and are not returned once expired.
+ * Entities are saved to and restored from the MemorySnapshot under the DAO's name, if one is configured.
+ *
+ * @author Johnny Bufu
+ */
+public class MemoryDAO<T extends ExternalizableCore> implements BulkDAO<T> {
+
+    // - PUBLIC
+
+    public MemoryDAO(String name) {
+        this(name, MemorySnapshot.getInstance(), ExpiryWheel.getInstance());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public T get(String id) throws BackplaneServerException {
+        Entry<T> entry = entries.get(id);
+        return entry == null || entry.isExpired() ? null : entry.value;
+    }
+
+    @Override
+    public List<T> getAll() throws BackplaneServerException {
+        List<T> values = new ArrayList<T>();
+        for (Entry<T> entry : entries.values()) {
+            if (! entry.isExpired()) {
+                values.add(entry.value);
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public void persist(T obj) throws BackplaneServerException {
+        put(obj);
+    }
+
+    @Override
+    public void delete(String id) throws BackplaneServerException {
+        entries.remove(id);
+    }
+
+    @Override
+    public void persistAll(List<T> objs) throws BackplaneServerException {
+        for (T obj : objs) {
+            persist(obj);
+        }
+    }
+
+    @Override
+    public List<String> deleteAll(List<String> ids) throws BackplaneServerException {
+        List<String> deleted = new ArrayList<String>();
+        for (String id : ids) {
+            if (get(id) != null) {
+                delete(id);
+                deleted.add(id);
+            }
+        }
+        return deleted;
+    }
+
+    @Override
+    public Iterator<T> iterateAll() throws BackplaneServerException {
+        return getAll().iterator();
+    }
+
+    @Override
+    public Page<T> getPage(@Nullable String cursor, int limit) throws BackplaneServerException {
+        return Page.byId(getAll(), cursor, limit);
+    }
+
+    // - PROTECTED
+
+    /**
+     * Called for restored entities from the constructor, so must only depend on the entity.
+     *
+     * @return the time in milliseconds after which the entity expires, 0 if it doesn't expire
+     */
+    protected long getExpirationTime(T obj) {
+        return 0;
+    }
+
+    /**
+     * @return the expiration time in milliseconds of the stored entity, 0 if it doesn't expire or is not stored
+     */
+    protected long getStoredExpirationTime(String id) {
+        Entry<T> entry = entries.get(id);
+        return entry == null ? 0 : entry.expires;
+    }
+
+    /**
+     * @return the time in milliseconds of an ISO8601 expiration field, 0 if missing or malformed
+     */
+    protected static long parseExpirationTime(String iso8601) {
+        if (iso8601 == null) return 0;
+        try {
+            return DateTimeUtils.ISO8601.get().parse(iso8601).getTime();
+        } catch (ParseException e) {
+            logger.warn("invalid expiration time: " + iso8601);
+            return 0;
+        }
+    }
+
+    // - PACKAGE
+
+    MemoryDAO(String name, MemorySnapshot snapshot, ExpiryWheel expiryWheel) {
+        this.name = name;
+        this.expiryWheel = expiryWheel;
+        snapshot.register(this);
+    }
+
+    /**
+     * @return false if the entity was not stored because it has already expired
+     */
+    boolean put(T obj) {
+        final String id = obj.getIdValue();
+        final Entry<T> entry = new Entry<T>(obj, getExpirationTime(obj));
+        if (entry.isExpired()) return false;
+        entries.put(id, entry);
+        if (entry.expires > 0) {
+            expiryWheel.schedule(entry.expires, new Runnable() {
+                @Override
+                public void run() {
+                    // only if not replaced in the meantime
+                    entries.remove(id, entry);
+                }
+            });
+        }
+        return true;
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(MemoryDAO.class);
+
+    private final String name;
+    private final ExpiryWheel expiryWheel;
+
+    private final ConcurrentHashMap<String, Entry<T>> entries = new ConcurrentHashMap<String, Entry<T>>();
+
+    private static class Entry<T> {
+        private final T value;
+        private final long expires;
+
+        private Entry(T value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+
+        private boolean isExpired() {
+            return expires > 0 && expires <= System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.janrain.backplane.dao.memory;
+
+import com.janrain.backplane.common.BackplaneServerException;
+import com.janrain.backplane.common.BpSerialUtils;
+import com.janrain.backplane.common.ExternalizableCore;
+import com.janrain.backplane.config.BackplaneConfig;
+import com.janrain.backplane.config.BackplaneSystemProps;
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Optional persistence of the in-memory store: the entities of all registered MemoryDAOs are saved periodically
+ * to the MEMORY_STORE_FILE and restored from it when the DAOs are created.
+ *
+ * The file is written through a memory mapping of a temporary file, which then replaces the previous snapshot,
+ * so that a crash while saving leaves the previous snapshot intact. Messages are not saved.
+ *
+ * @author Johnny Bufu
+ */
+public class MemorySnapshot {
+
+    // - PUBLIC
+
+    public static MemorySnapshot getInstance() {
+        return instance;
+    }
+
+    /**
+     * Saves the entities of all registered DAOs, if a snapshot file is configured.
+     */
+    public synchronized void save() throws BackplaneServerException {
+        if (file == null) return;
+
+        HashMap<String, ArrayList<byte[]>> data = new HashMap<String, ArrayList<byte[]>>();
+        for (MemoryDAO<?> dao : daos.values()) {
+            ArrayList<byte[]> entities = new ArrayList<byte[]>();
+            for (ExternalizableCore entity : dao.getAll()) {
+                entities.add(BpSerialUtils.serialize(entity));
+            }
+            data.put(dao.getName(), entities);
+        }
+        byte[] bytes = BpSerialUtils.serialize(data);
+
+        File tmp = new File(file.getPath() + ".tmp");
+        RandomAccessFile out = null;
+        try {
+            out = new RandomAccessFile(tmp, "rw");
+            out.setLength(bytes.length);
+            MappedByteBuffer buffer = out.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, bytes.length);
+            buffer.put(bytes);
+            buffer.force();
+        } catch (IOException e) {
+            throw new BackplaneServerException("error saving memory store snapshot to " + tmp + ": " + e.getMessage(), e);
+        } finally {
+            close(out);
+        }
+        if (! tmp.renameTo(file)) {
+            // some platforms don't replace existing files on rename
+            if (! file.delete() || ! tmp.renameTo(file)) {
+                throw new BackplaneServerException("error replacing memory store snapshot " + file);
+            }
+        }
+        logger.debug("saved memory store snapshot to " + file + ", " + bytes.length + " bytes");
+    }
+
+    // - PACKAGE
+
+    /**
+     * Loads the snapshot file right away and doesn't save periodically, save() has to be called explicitly.
+     */
+    MemorySnapshot(File file) {
+        this.file = file;
+        started = true;
+        load();
+    }
+
+    /**
+     * Restores the DAO's entities from the snapshot file, if any were saved.
+     */
+    synchronized <T extends ExternalizableCore> void register(MemoryDAO<T> dao) {
+        daos.put(dao.getName(), dao);
+        start();
+        ArrayList<byte[]> entities = restored.remove(dao.getName());
+        if (entities == null) return;
+        int count = 0;
+        for (byte[] bytes : entities) {
+            T entity = BpSerialUtils.deserialize(bytes);
+            if (dao.put(entity)) {
+                count++;
+            }
+        }
+        logger.info("restored " + count + " " + dao.getName() + " entities from " + file);
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(MemorySnapshot.class);
+
+    private static final long SAVE_INTERVAL_SECONDS = 30L;
+
+    private static final MemorySnapshot instance = new MemorySnapshot();
+
+    private final File file;
+    private final Map<String, MemoryDAO<?>> daos = new ConcurrentHashMap<String, MemoryDAO<?>>();
+
+    private Map<String, ArrayList<byte[]>> restored = new HashMap<String, ArrayList<byte[]>>();
+    private boolean started;
+
+    private MemorySnapshot() {
+        String fileName = System.getProperty(BackplaneSystemProps.MEMORY_STORE_FILE);
+        file = StringUtils.isBlank(fileName) ? null : new File(fileName);
+    }
+
+    private void start() {
+        if (started || file == null) return;
+        started = true;
+        load();
+        ScheduledExecutorService saveTask = Executors.newScheduledThreadPool(1);
+        saveTask.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    save();
+                } catch (Exception e) {
+                    logger.error(e.getMessage(), e);
+                }
+            }
+        }, SAVE_INTERVAL_SECONDS, SAVE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        BackplaneConfig.addToBackgroundServices("memory store snapshot", saveTask);
+    }
+
+    private void load() {
+        if (! file.exists()) {
+            logger.info("no memory store snapshot at " + file + ", starting empty");
+            return;
+        }
+        RandomAccessFile in = null;
+        try {
+            in = new RandomAccessFile(file, "r");
+            MappedByteBuffer buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            restored = BpSerialUtils.deserialize(bytes);
+        } catch (Exception e) {
+            logger.error("error loading memory store snapshot from " + file + ", starting empty: " + e.getMessage(), e);
+        } finally {
+            close(in);
+        }
+    }
+
+    private static void close(RandomAccessFile file) {
+        try {
+            if (file != null) {
+                file.close();
+            }
+        } catch (IOException e) {
+            // ignore close exception
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.janrain.backplane.dao.memory;
+
+import com.janrain.backplane.redis.MessageProtocol;
+import com.janrain.commons.message.Message;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * In-memory messages of one protocol, indexed by id and by channel, in order of message id.
+ *
+ * Messages are removed by the ExpiryWheel when they expire, per the protocol's expiration rules,
+ * and the oldest ones are dropped beyond the max number of messages. Reads are lock free.
+ *
+ * @author Johnny Bufu
+ */
+public class MessageIndex<M extends Message> {
+
+    // - PUBLIC
+
+    public MessageIndex(MessageProtocol<M> protocol, int maxMessages) {
+        this.protocol = protocol;
+        this.maxMessages = maxMessages;
+    }
+
+    public int size() {
+        return messages.size();
+    }
+
+    public boolean contains(String id) {
+        return messages.containsKey(id);
+    }
+
+    public @Nullable M get(String id) {
+        return valid(messages.get(id));
+    }
+
+    /**
+     * @return the id of the newest message, expired or not
+     */
+    public @Nullable String getLastId() {
+        Map.Entry<String, Entry<M>> last = messages.lastEntry();
+        return last == null ? null : last.getKey();
+    }
+
+    public @Nullable M getLastMessage() {
+        for (Entry<M> entry : messages.descendingMap().values()) {
+            M message = valid(entry);
+            if (message != null) return message;
+        }
+        return null;
+    }
+
+    /**
+     * @return the messages with ids greater than sinceId (all if null or empty), in order of message id
+     */
+    public @NotNull List<M> getMessagesSince(@Nullable String sinceId) {
+        return valid(sinceId == null || sinceId.length() == 0 ? messages : messages.tailMap(sinceId, false));
+    }
+
+    /**
+     * @return the messages on the channel with ids greater than sinceId (all if null or empty), in order of message id
+     */
+    public @NotNull List<M> getChannelMessagesSince(String channel, @Nullable String sinceId) {
+        ConcurrentNavigableMap<String, Entry<M>> channelMessages = byChannel.get(channel);
+        if (channelMessages == null) return new ArrayList<M>();
+        return valid(sinceId == null || sinceId.length() == 0 ? channelMessages : channelMessages.tailMap(sinceId, false));
+    }
+
+    /**
+     * @return true if no message newer than sinceId (any if null or empty) was dropped beyond the max number of messages
+     */
+    public boolean isComplete(@Nullable String sinceId) {
+        String dropped = lastDroppedId;
+        return dropped == null || (sinceId != null && sinceId.compareTo(dropped) >= 0);
+    }
+
+    public int getChannelMessageCount(String channel) {
+        ConcurrentNavigableMap<String, Entry<M>> channelMessages = byChannel.get(channel);
+        return channelMessages == null ? 0 : channelMessages.size();
+    }
+
+    /**
+     * @return false if the message couldn't be indexed
+     */
+    public synchronized boolean add(M message) {
+        long expires;
+        try {
+            expires = protocol.getExpirationTime(message);
+        } catch (Exception e) {
+            logger.warn("not indexing " + protocol.getName() + " message " + message.getIdValue() + ": " + e.getMessage());
+            return false;
+        }
+        final String id = message.getIdValue();
+        Entry<M> entry = new Entry<M>(message, expires);
+        messages.put(id, entry);
+        String channel = protocol.getChannel(message);
+        ConcurrentSkipListMap<String, Entry<M>> channelMessages = byChannel.get(channel);
+        if (channelMessages == null) {
+            channelMessages = new ConcurrentSkipListMap<String, Entry<M>>();
+            byChannel.put(channel, channelMessages);
+        }
+        channelMessages.put(id, entry);
+
+        ExpiryWheel.getInstance().schedule(expires, new Runnable() {
+            @Override
+            public void run() {
+                remove(id);
+            }
+        });
+
+        while (messages.size() > maxMessages) {
+            String oldest = messages.firstKey();
+            remove(oldest);
+            if (lastDroppedId == null || oldest.compareTo(lastDroppedId) > 0) {
+                lastDroppedId = oldest;
+            }
+        }
+        return true;
+    }
+
+    public synchronized void remove(String id) {
+        Entry<M> entry = messages.remove(id);
+        if (entry == null) return;
+        String channel = protocol.getChannel(entry.message);
+        ConcurrentSkipListMap<String, Entry<M>> channelMessages = byChannel.get(channel);
+        if (channelMessages != null) {
+            channelMessages.remove(id);
+            if (channelMessages.isEmpty()) {
+                byChannel.remove(channel);
+            }
+        }
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(MessageIndex.class);
+
+    private final MessageProtocol<M> protocol;
+    private final int maxMessages;
+
+    /** id of the newest message dropped beyond the max number of messages */
+    private volatile String lastDroppedId;
+
+    private final ConcurrentSkipListMap<String, Entry<M>> messages = new ConcurrentSkipListMap<String, Entry<M>>();
+    private final ConcurrentHashMap<String, ConcurrentSkipListMap<String, Entry<M>>> byChannel =
+            new ConcurrentHashMap<String, ConcurrentSkipListMap<String, Entry<M>>>();
+
+    private static class Entry<M> {
+        private final M message;
+        private final long expires;
+
+        private Entry(M message, long expires) {
+            this.message = message;
+            this.expires = expires;
+        }
+    }
+
+    private M valid(Entry<M> entry) {
+        return entry == null || entry.expires <= System.currentTimeMillis() ? null : entry.message;
+    }
+
+    private List<M> valid(Map<String, Entry<M>> entries) {
+        List<M> result = new ArrayList<M>();
+        long now = System.currentTimeMillis();
+        for (Entry<M> entry : entries.values()) {
+            if (entry.expires > now) {
+                result.add(entry.message);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,229 @@
+package com.janrain.backplane.dao.redis;
+
+import com.janrain.backplane.dao.ConfigSnapshot;
+import com.janrain.backplane.dao.Page;
+import com.janrain.backplane.redis.Redis;
+import com.janrain.commons.message.Message;
+import org.jetbrains.annotations.Nullable;
+import redis.clients.jedis.Jedis;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Loads entities stored under per-id keys and indexed in a "list" key.
+ *
+ * The list may hold stale copies of updated or deleted entities, so it is only used to enumerate the ids;
+ * the current entities are then read from their keys. Reads go to the write server,
+ * to observe changes as soon as they are announced.
+ *
+ * @author Johnny Bufu
+ */
+public abstract class RedisListLoader<T extends Message> implements ConfigSnapshot.Loader<T> {
+
+    // - PUBLIC
+
+    @Override
+    public List<T> loadAll() {
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            Set<String> ids = new LinkedHashSet<String>();
+            for (byte[] bytes : jedis.lrange(getKey("list"), 0, -1)) {
+                if (bytes != null) {
+                    ids.add(deserialize(bytes).getIdValue());
+                }
+            }
+            List<T> entries = new ArrayList<T>();
+            if (ids.isEmpty()) return entries;
+
+            for (byte[] bytes : jedis.mget(getKeys(ids))) {
+                if (bytes != null) {
+                    entries.add(deserialize(bytes));
+                }
+            }
+            return entries;
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+
+    @Override
+    public T load(String id) {
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            byte[] bytes = jedis.get(getKey(id));
+            return bytes != null ? deserialize(bytes) : null;
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+
+    @Override
+    public Map<String,T> load(Collection<String> ids) {
+        Map<String,T> entries = new HashMap<String, T>();
+        if (ids.isEmpty()) return entries;
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            for (byte[] bytes : jedis.mget(getKeys(ids))) {
+                if (bytes != null) {
+                    T entry = deserialize(bytes);
+                    entries.put(entry.getIdValue(), entry);
+                }
+            }
+            return entries;
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+
+    /**
+     * Iterates over all entries without loading them all at once: the list is read in windows of chunkSize
+     * and the current entries for each window are read with a single MGET as the iteration advances.
+     * Entries updated or deleted during the iteration may or may not be returned, each id is returned at most once.
+     */
+    public Iterator<T> iterator(final int chunkSize) {
+        return new Iterator<T>() {
+
+            @Override
+            public boolean hasNext() {
+                while ( ! current.hasNext() && ! exhausted) {
+                    current = loadChunk().iterator();
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public T next() {
+                if ( ! hasNext()) throw new NoSuchElementException();
+                return current.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            private final Set<String> seen = new HashSet<String>();
+            private Iterator<T> current = Collections.<T>emptyList().iterator();
+            private int offset = 0;
+            private boolean exhausted = false;
+
+            private List<T> loadChunk() {
+                List<byte[]> window = Redis.getInstance().lrange(getKey("list"), offset, offset + chunkSize - 1);
+                offset += window.size();
+                exhausted = window.size() < chunkSize;
+                return loadCurrent(window, seen);
+            }
+        };
+    }
+
+    /**
+     * SCAN-style page of entries. The cursor is the offset in the list of the next window to read,
+     * and a digest of the last list entry read. Deletes shift the later list entries to lower offsets,
+     * so the next window starts after that entry wherever it is found at or before the offset,
+     * and entries present for the whole listing are not skipped. If that entry was deleted itself,
+     * the listing resumes from the start of the list and entries are returned again.
+     * The list may hold stale copies of updated entities, so an entry may be returned on more than one page.
+     */
+    public Page<T> loadPage(@Nullable String cursor, int limit) {
+        int start = 0;
+        if (cursor != null) {
+            int separator = cursor.indexOf(CURSOR_SEPARATOR);
+            int offset;
+            try {
+                offset = separator > 0 ? Integer.parseInt(cursor.substring(0, separator)) : -1;
+            } catch (NumberFormatException e) {
+                offset = -1;
+            }
+            if (offset < 0) throw new IllegalArgumentException("invalid cursor: " + cursor);
+            start = resumeAt(offset, cursor.substring(separator + 1), limit);
+        }
+        List<byte[]> window = Redis.getInstance().lrange(getKey("list"), start, start + limit - 1);
+        String next = window.size() < limit ? null :
+                Integer.toString(start + window.size()) + CURSOR_SEPARATOR + digest(window.get(window.size() - 1));
+        return new Page<T>(loadCurrent(window, new HashSet<String>()), next);
+    }
+
+    // - PROTECTED
+
+    protected abstract byte[] getKey(String id);
+
+    protected abstract T deserialize(byte[] bytes);
+
+    // - PRIVATE
+
+    private static final char CURSOR_SEPARATOR = '-';
+
+    /**
+     * List entries only move to lower offsets, as entries before them are removed,
+     * so the entry last read is searched for backwards from where it was read.
+     *
+     * @return the offset following the list entry with the given digest at or before offset - 1,
+     * or 0 if there is no such entry
+     */
+    private int resumeAt(int offset, String lastDigest, int limit) {
+        int end = offset - 1;
+        while (end >= 0) {
+            int start = Math.max(0, end - limit + 1);
+            List<byte[]> window = Redis.getInstance().lrange(getKey("list"), start, end);
+            for (int i = window.size() - 1; i >= 0; i--) {
+                if (lastDigest.equals(digest(window.get(i)))) {
+                    return start + i + 1;
+                }
+            }
+            end = start - 1;
+        }
+        return 0;
+    }
+
+    private static String digest(byte[] bytes) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("MD5").digest(bytes)) {
+                hex.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param window stored list entries
+     * @param seen ids already returned, updated with the ids of the window
+     * @return the current entries for the ids in the window not seen before, in list order
+     */
+    private List<T> loadCurrent(List<byte[]> window, Set<String> seen) {
+        Set<String> ids = new LinkedHashSet<String>();
+        for (byte[] bytes : window) {
+            if (bytes != null) {
+                String id = deserialize(bytes).getIdValue();
+                if (seen.add(id)) {
+                    ids.add(id);
+                }
+            }
+        }
+        Map<String,T> loaded = load(ids);
+        List<T> entries = new ArrayList<T>(loaded.size());
+        for (String id : ids) {
+            T entry = loaded.get(id);
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    private byte[][] getKeys(Collection<String> ids) {
+        byte[][] keys = new byte[ids.size()][];
+        int i = 0;
+        for (String id : ids) {
+            keys[i++] = getKey(id);
+        }
+        return keys;
+    }
+}
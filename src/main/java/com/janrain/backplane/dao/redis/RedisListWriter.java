@@ -0,0 +1,99 @@
+package com.janrain.backplane.dao.redis;
+
+import com.janrain.backplane.common.BpSerialUtils;
+import com.janrain.backplane.common.ExternalizableCore;
+import com.janrain.backplane.redis.Redis;
+import org.apache.log4j.Logger;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Batch writes for entities stored under per-id keys and indexed in a "list" key, the layout read by RedisListLoader.
+ *
+ * Entities are written in chunks of CHUNK_SIZE, one pipelined round trip (and one transaction for deletes) per chunk,
+ * instead of one or more round trips per entity.
+ *
+ * @author Johnny Bufu
+ */
+public abstract class RedisListWriter<T extends ExternalizableCore> {
+
+    // - PUBLIC
+
+    public static final int CHUNK_SIZE = 500;
+
+    /**
+     * Stores each entity under its key and appends it to the list, as the single entity persist() operations do.
+     */
+    public void persistAll(List<T> entities) {
+        for (int start = 0; start < entities.size(); start += CHUNK_SIZE) {
+            List<T> chunk = entities.subList(start, Math.min(start + CHUNK_SIZE, entities.size()));
+            Jedis jedis = null;
+            try {
+                jedis = Redis.getInstance().getWriteJedis();
+                Pipeline pipeline = jedis.pipelined();
+                for (T entity : chunk) {
+                    byte[] bytes = BpSerialUtils.serialize(entity);
+                    pipeline.set(getKey(entity.getIdValue()), bytes);
+                    pipeline.rpush(getKey("list"), bytes);
+                }
+                pipeline.sync();
+            } finally {
+                Redis.getInstance().releaseToPool(jedis);
+            }
+        }
+    }
+
+    /**
+     * Removes the entities' keys and list entries; dependencies are the caller's responsibility.
+     *
+     * @return the ids of the entities that existed
+     */
+    public List<String> deleteAll(List<String> ids) {
+        List<String> deleted = new ArrayList<String>();
+        for (int start = 0; start < ids.size(); start += CHUNK_SIZE) {
+            List<String> chunk = ids.subList(start, Math.min(start + CHUNK_SIZE, ids.size()));
+            Jedis jedis = null;
+            try {
+                jedis = Redis.getInstance().getWriteJedis();
+                // stored values are needed to remove them from the list
+                Pipeline pipeline = jedis.pipelined();
+                List<Response<byte[]>> stored = new ArrayList<Response<byte[]>>();
+                for (String id : chunk) {
+                    stored.add(pipeline.get(getKey(id)));
+                }
+                pipeline.sync();
+
+                List<String> found = new ArrayList<String>();
+                Transaction t = jedis.multi();
+                for (int i = 0; i < chunk.size(); i++) {
+                    byte[] bytes = stored.get(i).get();
+                    if (bytes == null) {
+                        logger.warn("could not locate value for key " + new String(getKey(chunk.get(i))));
+                        continue;
+                    }
+                    t.lrem(getKey("list"), 0, bytes);
+                    t.del(getKey(chunk.get(i)));
+                    found.add(chunk.get(i));
+                }
+                t.exec();
+                deleted.addAll(found);
+            } finally {
+                Redis.getInstance().releaseToPool(jedis);
+            }
+        }
+        return deleted;
+    }
+
+    // - PROTECTED
+
+    protected abstract byte[] getKey(String id);
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(RedisListWriter.class);
+}
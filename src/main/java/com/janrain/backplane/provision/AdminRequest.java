@@ -41,9 +41,36 @@ public class AdminRequest {
         this.secret = secret;
     }
 
+    /**
+     * @return true if the revocations requested (grant revokes, bus and bus owner deletes) are to be run
+     * as a background job; the response is then the job's status
+     */
+    public boolean isAsync() {
+        return async;
+    }
+
+    @SuppressWarnings({"UnusedDeclaration"})
+    public void setAsync(boolean async) {
+        this.async = async;
+    }
+
+    /**
+     * @return the client chosen id for an async job, resubmitting the same id doesn't start another job; may be null
+     */
+    public String getJobId() {
+        return jobId;
+    }
+
+    @SuppressWarnings({"UnusedDeclaration"})
+    public void setJobId(String jobId) {
+        this.jobId = jobId;
+    }
+
     // - PRIVATE
 
     private String admin;
     private String secret;
+    private boolean async;
+    private String jobId;
 
 }
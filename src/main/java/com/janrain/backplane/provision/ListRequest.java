@@ -35,7 +35,40 @@ public class ListRequest extends AdminRequest {
         this.entities = Collections.unmodifiableList(entities);
     }
 
+    /**
+     * @return the cursor returned with the previous page, null for the first page
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    @SuppressWarnings({"UnusedDeclaration"})
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    /**
+     * @return the maximum number of entities on a page, null if not specified
+     */
+    public Integer getLimit() {
+        return limit;
+    }
+
+    @SuppressWarnings({"UnusedDeclaration"})
+    public void setLimit(Integer limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * @return true if a paginated listing was requested
+     */
+    public boolean isPaginated() {
+        return cursor != null || limit != null;
+    }
+
     // - PRIVATE
 
     private List<String> entities;
+    private String cursor;
+    private Integer limit;
 }
@@ -21,20 +21,27 @@ import com.janrain.backplane.common.BackplaneServerException;
 import com.janrain.backplane.common.HmacHashUtils;
 import com.janrain.backplane.common.User;
 import com.janrain.backplane.config.BackplaneConfig;
+import com.janrain.backplane.dao.Page;
 import com.janrain.backplane.server2.*;
 import com.janrain.backplane.server2.dao.BP2DAOs;
+import com.janrain.backplane.server2.dao.RevocationJob;
+import com.janrain.backplane.server2.dao.RevocationProgress;
 import com.janrain.backplane.server2.oauth2.TokenException;
 import com.janrain.backplane.servlet.ServletUtil;
 import com.janrain.commons.message.AbstractMessage;
 import com.janrain.commons.message.MessageException;
-import com.janrain.commons.message.MessageField;
 import org.apache.log4j.Logger;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.jetbrains.annotations.Nullable;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
 
 import javax.inject.Inject;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.util.*;
 
 
@@ -51,42 +58,45 @@ public class ProvisioningController2 {
     // - PUBLIC
 
     @RequestMapping(value = "/bus/list", method = RequestMethod.POST)
-    @ResponseBody
-    public Map<String, Map<String, String>> busList(HttpServletRequest request, @RequestBody ListRequest listRequest) throws AuthException {
+    public void busList(HttpServletRequest request, HttpServletResponse response, @RequestBody ListRequest listRequest) throws AuthException, BackplaneServerException, IOException {
         ServletUtil.checkSecure(request);
         bpConfig.checkAdminAuth(listRequest.getAdmin(), listRequest.getSecret());
-        return doList(BusConfig2.class, listRequest.getEntities(), BusConfig2.Field.BUS_NAME);
+        doList(BusConfig2.class, listRequest, response);
     }
 
     @RequestMapping(value = "/user/list", method = RequestMethod.POST)
-    @ResponseBody
-    public Map<String, Map<String, String>> userList(HttpServletRequest request, @RequestBody ListRequest listRequest) throws AuthException {
+    public void userList(HttpServletRequest request, HttpServletResponse response, @RequestBody ListRequest listRequest) throws AuthException, BackplaneServerException, IOException {
         ServletUtil.checkSecure(request);
         bpConfig.checkAdminAuth(listRequest.getAdmin(), listRequest.getSecret());
-        return doList(BusOwner.class, listRequest.getEntities(), BusOwner.Field.USER);
+        doList(BusOwner.class, listRequest, response);
     }
 
     @RequestMapping(value = "/client/list", method = RequestMethod.POST)
-    @ResponseBody
-    public Map<String, Map<String, String>> clientList(HttpServletRequest request, @RequestBody ListRequest listRequest) throws AuthException {
+    public void clientList(HttpServletRequest request, HttpServletResponse response, @RequestBody ListRequest listRequest) throws AuthException, BackplaneServerException, IOException {
         ServletUtil.checkSecure(request);
         bpConfig.checkAdminAuth(listRequest.getAdmin(), listRequest.getSecret());
-        return doList(Client.class, listRequest.getEntities(), Client.Field.USER);
+        doList(Client.class, listRequest, response);
     }
 
     @RequestMapping(value = "/bus/delete", method = RequestMethod.POST)
     @ResponseBody
-    public Map<String, String> busDelete(HttpServletRequest request, @RequestBody ListRequest deleteRequest) throws AuthException {
+    public Map<String, String> busDelete(HttpServletRequest request, @RequestBody ListRequest deleteRequest) throws AuthException, BackplaneServerException {
         ServletUtil.checkSecure(request);
         bpConfig.checkAdminAuth(deleteRequest.getAdmin(), deleteRequest.getSecret());
+        if (deleteRequest.isAsync()) {
+            return submitJob(RevocationJob.delete(getJobId(deleteRequest), RevocationJob.Type.DELETE_BUSES, deleteRequest.getEntities()));
+        }
         return doDelete(BusConfig2.class, deleteRequest.getEntities());
     }
 
     @RequestMapping(value = "/user/delete", method = RequestMethod.POST)
     @ResponseBody
-    public Map<String, String> userDelete(HttpServletRequest request, @RequestBody ListRequest deleteRequest) throws AuthException {
+    public Map<String, String> userDelete(HttpServletRequest request, @RequestBody ListRequest deleteRequest) throws AuthException, BackplaneServerException {
         ServletUtil.checkSecure(request);
         bpConfig.checkAdminAuth(deleteRequest.getAdmin(), deleteRequest.getSecret());
+        if (deleteRequest.isAsync()) {
+            return submitJob(RevocationJob.delete(getJobId(deleteRequest), RevocationJob.Type.DELETE_BUS_OWNERS, deleteRequest.getEntities()));
+        }
         return doDelete(BusOwner.class, deleteRequest.getEntities());
     }
 
@@ -120,35 +130,36 @@ public class ProvisioningController2 {
         return doUpdate(Client.class, updateRequest);
     }
 
+    /**
+     * Lists the active grants of the given clients, or of all clients if the entities list is empty.
+     * Grants are looked up for LIST_CHUNK_SIZE clients at a time and written to the response as they are retrieved.
+     */
     @RequestMapping(value = "/grant/list", method = RequestMethod.POST)
-    @ResponseBody
-    public Map<String, Map<String, String>> grantList(HttpServletRequest request, @RequestBody ListRequest listRequest) throws AuthException {
+    public void grantList(HttpServletRequest request, HttpServletResponse response, @RequestBody ListRequest listRequest) throws AuthException, BackplaneServerException, IOException {
         ServletUtil.checkSecure(request);
         bpConfig.checkAdminAuth(listRequest.getAdmin(), listRequest.getSecret());
 
-        Map<String,Map<String,String>> result = new LinkedHashMap<String, Map<String, String>>();
+        Iterator<String> clientIds;
+        Page<Client> page = null;
+        if (! listRequest.getEntities().isEmpty()) {
+            clientIds = listRequest.getEntities().iterator();
+        } else if (listRequest.isPaginated()) {
+            page = BP2DAOs.getClientDAO().getPage(listRequest.getCursor(), getPageLimit(listRequest));
+            clientIds = getIds(page.getEntries().iterator());
+        } else {
+            clientIds = getIds(BP2DAOs.getClientDAO().iterateAll());
+        }
 
-        for(String clientId : listRequest.getEntities()) {
-            try {
-                Map<String,String> grantsList = new HashMap<String, String>();
-                Map<Scope, Set<Grant>> scopeGrants = GrantLogic.retrieveClientGrants(clientId, null);
-                for (Set<Grant> grantSets : scopeGrants.values()) {
-                    for(Grant grant : grantSets) {
-                        grantsList.put(grant.getIdValue(), grant.getAuthorizedScope().toString());
-                    }
-                    result.put(clientId, grantsList);
-                }
-            } catch (final BackplaneServerException e) {
-                logger.error("Error looking up grants for client " + clientId, e);
-                result.put(clientId, new HashMap<String, String>() {{put("error", e.getMessage());}});
-            } catch (final TokenException te) {
-                logger.error("token (unexpected scope processing?) error: " + te.getMessage(), te);
-                result.put(clientId, new HashMap<String, String>() {{
-                    put("error", te.getMessage());
-                }});
+        JsonGenerator json = startJsonResponse(response, page != null);
+        List<String> chunk = new ArrayList<String>();
+        while (clientIds.hasNext()) {
+            chunk.add(clientIds.next());
+            if (chunk.size() == LIST_CHUNK_SIZE || ! clientIds.hasNext()) {
+                writeClientGrants(json, chunk);
+                chunk.clear();
             }
         }
-        return result;
+        endJsonResponse(json, page);
     }
 
     @RequestMapping(value = "/grant/add", method = RequestMethod.POST)
@@ -161,12 +172,62 @@ public class ProvisioningController2 {
 
     @RequestMapping(value = "/grant/revoke", method = RequestMethod.POST)
     @ResponseBody
-    public Map<String, String> gantRevoke(HttpServletRequest request, @RequestBody GrantRequest grantRequest) throws AuthException {
+    public Map<String, String> gantRevoke(HttpServletRequest request, @RequestBody GrantRequest grantRequest) throws AuthException, BackplaneServerException {
         ServletUtil.checkSecure(request);
         logger.debug("grant revoke request: '" + grantRequest + "'");
+        if (grantRequest.isAsync()) {
+            return doAsyncRevoke(grantRequest);
+        }
         return doGrant(grantRequest, false);
     }
 
+    /**
+     * Status of the given revocation jobs, or of all unfinished jobs if the entities list is empty.
+     */
+    @RequestMapping(value = "/revocation/job/status", method = RequestMethod.POST)
+    @ResponseBody
+    public Map<String, Map<String, String>> revocationJobStatus(HttpServletRequest request, @RequestBody ListRequest listRequest) throws AuthException, BackplaneServerException {
+        ServletUtil.checkSecure(request);
+        bpConfig.checkAdminAuth(listRequest.getAdmin(), listRequest.getSecret());
+
+        Map<String,Map<String,String>> result = new LinkedHashMap<String, Map<String, String>>();
+        if (listRequest.getEntities() == null || listRequest.getEntities().isEmpty()) {
+            for (RevocationJob job : RevocationJobs.getInstance().getUnfinished()) {
+                result.put(job.getId(), job.getStatus());
+            }
+        } else {
+            for (String id : listRequest.getEntities()) {
+                RevocationJob job = RevocationJobs.getInstance().get(id);
+                result.put(id, job != null ? job.getStatus() : new HashMap<String, String>() {{ put(ERR_MSG_FIELD, CONFIG_NOT_FOUND); }});
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Progress of the grant revocations (bus deletes and grant revokes) recently run on this node.
+     * An empty entities list returns all of them.
+     */
+    @RequestMapping(value = "/grant/revocation/status", method = RequestMethod.POST)
+    @ResponseBody
+    public Map<String, Map<String, String>> grantRevocationStatus(HttpServletRequest request, @RequestBody ListRequest listRequest) throws AuthException {
+        ServletUtil.checkSecure(request);
+        bpConfig.checkAdminAuth(listRequest.getAdmin(), listRequest.getSecret());
+
+        Map<String,Map<String,String>> result = new LinkedHashMap<String, Map<String, String>>();
+        if (listRequest.getEntities() == null || listRequest.getEntities().isEmpty()) {
+            for (RevocationProgress progress : RevocationProgress.getRecent()) {
+                result.put(progress.getId(), progress.asMap());
+            }
+        } else {
+            for (String id : listRequest.getEntities()) {
+                RevocationProgress progress = RevocationProgress.get(id);
+                result.put(id, progress != null ? progress.asMap() : new HashMap<String, String>() {{ put(ERR_MSG_FIELD, CONFIG_NOT_FOUND); }});
+            }
+        }
+        return result;
+    }
+
     /**
      * Handle auth errors as part of normal application flow
      */
@@ -204,58 +265,158 @@ public class ProvisioningController2 {
     private static final String ERR_MSG_FIELD = "ERR_MSG";
     private static final String CONFIG_NOT_FOUND = "CONFIG_NOT_FOUND";
 
+    private static final String PAGE_ENTITIES_FIELD = "entities";
+    private static final String PAGE_NEXT_CURSOR_FIELD = "next_cursor";
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int LIST_CHUNK_SIZE = 500;
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
     @Inject
     private BackplaneConfig bpConfig;
 
-    private <T extends AbstractMessage> Map<String, Map<String, String>> doList(Class<T> entityType, List<String> entityNames, MessageField orderField) {
-
-        if (entityNames.size() == 0) return doListAll(entityType);
+    /**
+     * Writes the entities to the response as they are retrieved, instead of collecting them first.
+     * An empty entities list lists all entities of the given type, one page at a time if a cursor or limit is given.
+     */
+    private <T extends AbstractMessage> void doList(Class<T> entityType, ListRequest listRequest, HttpServletResponse response) throws IOException, BackplaneServerException {
+        List<String> entityNames = listRequest.getEntities();
+        Page<T> page = null;
+        if (entityNames.isEmpty() && listRequest.isPaginated()) {
+            // before anything is written, so errors are reported by the exception handlers
+            page = BP2DAOs.getDaoByObjectType(entityType).getPage(listRequest.getCursor(), getPageLimit(listRequest));
+        }
 
-        final Map<String,Map<String,String>> result = new LinkedHashMap<String, Map<String, String>>();
-        for(String entityName : entityNames) {
-            T config = null;
-            Exception thrown = null;
-            try {
-                config = (T) BP2DAOs.getDaoByObjectType(entityType).get(entityName);
-            } catch (Exception e) {
-                thrown = e;
+        JsonGenerator json = startJsonResponse(response, page != null);
+        if (page != null) {
+            for (T config : page.getEntries()) {
+                writeEntry(json, config.getIdValue(), config);
             }
-            final String errMgs = thrown != null ? thrown.getMessage() : config == null ? CONFIG_NOT_FOUND : null;
+        } else if (entityNames.isEmpty()) {
+            doListAll(entityType, json);
+        } else {
+            for(String entityName : entityNames) {
+                T config = null;
+                Exception thrown = null;
+                try {
+                    config = (T) BP2DAOs.getDaoByObjectType(entityType).get(entityName);
+                } catch (Exception e) {
+                    thrown = e;
+                }
+                final String errMgs = thrown != null ? thrown.getMessage() : config == null ? CONFIG_NOT_FOUND : null;
 
-            result.put(entityName,
-                errMgs != null ? new HashMap<String, String>() {{ put(ERR_MSG_FIELD, errMgs); }} :
-                config);
+                writeEntry(json, entityName,
+                    errMgs != null ? new HashMap<String, String>() {{ put(ERR_MSG_FIELD, errMgs); }} :
+                    config);
+            }
         }
-        return result;
+        endJsonResponse(json, page);
     }
 
-    private <T extends AbstractMessage> Map<String, Map<String, String>> doListAll(Class<T> entityType) {
-        Map<String,Map<String,String>> result = new LinkedHashMap<String, Map<String, String>>();
+    private <T extends AbstractMessage> void doListAll(Class<T> entityType, JsonGenerator json) throws IOException {
         try {
-            List<T> items = BP2DAOs.getDaoByObjectType(entityType).getAll();
-            for(T config :  items) {
-                result.put(config.getIdValue(), config);
+            Iterator<T> items = BP2DAOs.getDaoByObjectType(entityType).iterateAll();
+            while (items.hasNext()) {
+                T config = items.next();
+                writeEntry(json, config.getIdValue(), config);
             }
         } catch (final Exception e) {
-            result.put(ERR_MSG_FIELD, new HashMap<String, String>() {{ put(ERR_MSG_FIELD, e.getMessage()); }});
+            logger.error("Error listing " + entityType.getSimpleName() + " entities: " + e.getMessage(), bpConfig.getDebugException(e));
+            writeEntry(json, ERR_MSG_FIELD, new HashMap<String, String>() {{ put(ERR_MSG_FIELD, e.getMessage()); }});
         }
-        return result;
+    }
+
+    private static int getPageLimit(ListRequest listRequest) {
+        Integer limit = listRequest.getLimit();
+        if (limit == null) return DEFAULT_PAGE_SIZE;
+        if (limit < 1) throw new IllegalArgumentException("invalid limit: " + limit);
+        return Math.min(limit, MAX_PAGE_SIZE);
+    }
+
+    /**
+     * Paginated responses are wrapped: { "entities": { ... }, "next_cursor": "..." },
+     * other list responses are the entities object itself.
+     */
+    private static JsonGenerator startJsonResponse(HttpServletResponse response, boolean paginated) throws IOException {
+        response.setContentType("application/json;charset=UTF-8");
+        JsonGenerator json = jsonFactory.createJsonGenerator(response.getOutputStream(), JsonEncoding.UTF8);
+        json.writeStartObject();
+        if (paginated) {
+            json.writeObjectFieldStart(PAGE_ENTITIES_FIELD);
+        }
+        return json;
+    }
+
+    private static void endJsonResponse(JsonGenerator json, @Nullable Page<?> page) throws IOException {
+        if (page != null) {
+            json.writeEndObject();
+            json.writeStringField(PAGE_NEXT_CURSOR_FIELD, page.getNextCursor());
+        }
+        json.writeEndObject();
+        json.close();
+    }
+
+    private static Iterator<String> getIds(final Iterator<? extends AbstractMessage> entities) {
+        return new Iterator<String>() {
+            @Override
+            public boolean hasNext() {
+                return entities.hasNext();
+            }
+
+            @Override
+            public String next() {
+                return entities.next().getIdValue();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private static void writeClientGrants(JsonGenerator json, List<String> clientIds) throws IOException {
+        Map<String, List<Grant>> clientGrants;
+        try {
+            clientGrants = BP2DAOs.getGrantDao().getByClientIds(clientIds);
+        } catch (final BackplaneServerException e) {
+            logger.error("Error looking up grants for clients " + clientIds, e);
+            for (String clientId : clientIds) {
+                writeEntry(json, clientId, new HashMap<String, String>() {{ put("error", e.getMessage()); }});
+            }
+            return;
+        }
+        for (Map.Entry<String, List<Grant>> grants : clientGrants.entrySet()) {
+            json.writeObjectFieldStart(grants.getKey());
+            for (Grant grant : grants.getValue()) {
+                if (grant.isExpired()) continue;
+                json.writeStringField(grant.getIdValue(), grant.getAuthorizedScope().toString());
+            }
+            json.writeEndObject();
+        }
+    }
+
+    private static void writeEntry(JsonGenerator json, String name, Map<String, String> fields) throws IOException {
+        json.writeObjectFieldStart(name);
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            json.writeStringField(field.getKey(), field.getValue());
+        }
+        json.writeEndObject();
     }
 
     private <T extends AbstractMessage> Map<String, String> doDelete(Class<T> entityType, List<String> entityNames) {
         Map<String,String> result = new LinkedHashMap<String, String>();
-        for(String entityName : entityNames) {
-            String deleteStatus = BACKPLANE_DELETE_SUCCESS;
-            try {
-                if (BP2DAOs.getDaoByObjectType(entityType).get(entityName) == null) {
-                    deleteStatus = BACKPLANE_ENTRY_NOT_FOUND;
-                } else {
-                    BP2DAOs.getDaoByObjectType(entityType).delete(entityName);
-                }
-            } catch (Exception e) {
-                deleteStatus = e.getMessage();
+        try {
+            Set<String> deleted = new HashSet<String>(BP2DAOs.getDaoByObjectType(entityType).deleteAll(entityNames));
+            for(String entityName : entityNames) {
+                result.put(entityName, deleted.contains(entityName) ? BACKPLANE_DELETE_SUCCESS : BACKPLANE_ENTRY_NOT_FOUND);
+            }
+        } catch (Exception e) {
+            logger.error("Error deleting " + entityType.getSimpleName() + " entities: " + e.getMessage(), bpConfig.getDebugException(e));
+            for(String entityName : entityNames) {
+                result.put(entityName, e.getMessage());
             }
-            result.put(entityName, deleteStatus);
         }
         return result;
     }
@@ -265,8 +426,12 @@ public class ProvisioningController2 {
         return updateConfigs(entityType, updateRequest.getConfigs());
     }
 
+    /**
+     * Validates all configs first, then persists the valid ones in one batch.
+     */
     private <T extends AbstractMessage> Map<String, String> updateConfigs(Class<T> customerConfigType, List<T> bpConfigs) {
         Map<String,String> result = new LinkedHashMap<String, String>();
+        List<T> valid = new ArrayList<T>();
         for(T config : bpConfigs) {
             String updateStatus = BACKPLANE_UPDATE_SUCCESS;
             try {
@@ -283,12 +448,23 @@ public class ProvisioningController2 {
                 }
 
                 config.validate();
-                BP2DAOs.getDaoByObjectType(customerConfigType).persist(config);
+                valid.add(config);
             } catch (Exception e) {
                 updateStatus = e.getMessage();
             }
             result.put(config.getIdValue(), updateStatus);
         }
+
+        if (! valid.isEmpty()) {
+            try {
+                BP2DAOs.getDaoByObjectType(customerConfigType).persistAll(valid);
+            } catch (Exception e) {
+                logger.error("Error persisting " + valid.size() + " " + customerConfigType.getSimpleName() + " entities: " + e.getMessage(), bpConfig.getDebugException(e));
+                for (T config : valid) {
+                    result.put(config.getIdValue(), e.getMessage());
+                }
+            }
+        }
         return result;
     }
 
@@ -320,6 +496,43 @@ public class ProvisioningController2 {
         return result;
     }
 
+    /**
+     * Validates all entries, then submits the revocation as a job if they are all valid.
+     *
+     * @return the job status, or the validation errors in the same format as doGrant()
+     */
+    private Map<String, String> doAsyncRevoke(GrantRequest grantRequest) throws AuthException, BackplaneServerException {
+        bpConfig.checkAdminAuth(grantRequest.getAdmin(), grantRequest.getSecret());
+        Map<String,String> errors = new LinkedHashMap<String, String>();
+        for(Map.Entry<String,String> revokeEntry : grantRequest.getGrants().entrySet()) {
+            String clientId = revokeEntry.getKey();
+            try {
+                if (null == BP2DAOs.getClientDAO().get(clientId)) {
+                    errors.put(clientId, "invalid client_id");
+                } else {
+                    validateBuses(Scope.getScopesAsList(revokeEntry.getValue()));
+                }
+            } catch (Exception e) {
+                errors.put(clientId, e.getMessage());
+            }
+        }
+        if (! errors.isEmpty()) return errors;
+        return submitJob(RevocationJob.revokeGrants(getJobId(grantRequest), grantRequest.getGrants()));
+    }
+
+    private static String getJobId(AdminRequest request) {
+        String jobId = request.getJobId();
+        if (jobId == null) return RevocationJobs.newJobId();
+        if (! jobId.matches("[A-Za-z0-9_\\-]{1,64}")) {
+            throw new IllegalArgumentException("invalid jobId, must be 1 to 64 letters, digits, '_' or '-'");
+        }
+        return jobId;
+    }
+
+    private static Map<String, String> submitJob(RevocationJob job) throws BackplaneServerException {
+        return RevocationJobs.getInstance().submit(job).getStatus();
+    }
+
     private void validateBuses(List<String> buses) throws BackplaneServerException {
         for(String bus : buses) {
             if (null == BP2DAOs.getBusDao().get(bus)) {
@@ -0,0 +1,414 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane.redis;
+
+import com.janrain.backplane.config.BackplaneConfig;
+import com.janrain.backplane.config.BackplaneSystemProps;
+import com.janrain.commons.message.Message;
+import com.janrain.commons.util.Pair;
+import com.netflix.curator.framework.CuratorFramework;
+import com.netflix.curator.framework.recipes.leader.LeaderSelectorListener;
+import com.netflix.curator.framework.state.ConnectionState;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricName;
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Transaction;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Moves posted messages from the protocols' queues into their stores, run by a single elected leader node.
+ *
+ * Each batch is inserted in a transaction that WATCHes the protocol's last message id,
+ * so that message ids (and their timestamps) are unique and strictly increasing per protocol.
+ * Queues are drained without pausing while full batches are found.
+ *
+ * Batches are first moved atomically from the queue to the protocol's in-flight list, which is cleared
+ * by the insert transaction. A batch left in-flight by a failed transaction or a crashed leader is replayed;
+ * messages that were already inserted are recognized by their queued id and skipped.
+ * Messages that cannot be read, and batches that keep failing, are moved to the protocol's dead-letter list.
+ *
+ * Leaders that predate the in-flight list take batches off the queue in their insert transaction
+ * and would not replay a batch left in-flight, so until the whole cluster is upgraded
+ * (see {@link BackplaneSystemProps#isClusterUpgraded()}) batches are read from the queue
+ * and removed from it by the insert transaction, as those leaders do.
+ *
+ * @author Tom Raney
+ */
+public class MessageEngine implements LeaderSelectorListener {
+
+    // - PUBLIC
+
+    public MessageEngine(MessageProtocol<?>... protocols) {
+        for (MessageProtocol<?> protocol : protocols) {
+            this.protocols.add(protocol);
+            metrics.put(protocol.getName(), new ProtocolMetrics(protocol.getName()));
+        }
+    }
+
+    public static String getInFlightKey(MessageProtocol<?> protocol) {
+        return protocol.getQueueKey() + "_inflight";
+    }
+
+    public static String getDeadLetterKey(MessageProtocol<?> protocol) {
+        return protocol.getQueueKey() + "_dead";
+    }
+
+    @Override
+    public void takeLeadership(CuratorFramework curatorFramework) throws Exception {
+        logger.info("[" + BackplaneSystemProps.getMachineName() + "] leader elected for message processing");
+        scheduleCleanupMessages();
+        insertMessages();
+        logger.info("[" + BackplaneSystemProps.getMachineName() + "] leader ended message processing");
+    }
+
+    @Override
+    public void stateChanged(CuratorFramework curatorFramework, ConnectionState connectionState) {
+        logger.info("state changed");
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(MessageEngine.class);
+
+    private static final int BATCH_SIZE = 10;
+    private static final long IDLE_SLEEP_MILLIS = 150L;
+    private static final long ERROR_SLEEP_MILLIS = 2000L;
+
+    /** replays of the same in-flight batch before it is moved to the dead-letter list */
+    static final int MAX_BATCH_ATTEMPTS = 5;
+
+    /** how long inserted messages are remembered, to skip them if their batch is replayed */
+    private static final int DEDUP_TTL_SECONDS = 3600;
+
+    /**
+     * KEYS: queue, in-flight list
+     * ARGV: batch size, 1 to move the batch to the in-flight list or 0 to leave it on the queue
+     *
+     * @return 1 followed by the in-flight messages if a previous batch is still in-flight,
+     * otherwise 0 followed by the messages at the head of the queue
+     */
+    private static final String TAKE_BATCH_SCRIPT =
+            "local inflight = redis.call('lrange', KEYS[2], 0, -1)\n" +
+            "if #inflight > 0 then\n" +
+            "  table.insert(inflight, 1, 1)\n" +
+            "  return inflight\n" +
+            "end\n" +
+            "local batch = redis.call('lrange', KEYS[1], 0, tonumber(ARGV[1]) - 1)\n" +
+            "if #batch > 0 and ARGV[2] == '1' then\n" +
+            "  redis.call('ltrim', KEYS[1], #batch, -1)\n" +
+            "  redis.call('rpush', KEYS[2], unpack(batch))\n" +
+            "end\n" +
+            "table.insert(batch, 1, 0)\n" +
+            "return batch\n";
+
+    private final List<MessageProtocol<?>> protocols = new ArrayList<MessageProtocol<?>>();
+    private final Map<String,ProtocolMetrics> metrics = new HashMap<String, ProtocolMetrics>();
+
+    private ScheduledExecutorService cleanupTask;
+
+    private class ProtocolMetrics {
+
+        private final Histogram timeInQueue;
+        private final Meter inserted;
+        private final Meter replayed;
+        private final Meter duplicates;
+        private final Meter deadLettered;
+        private final AtomicInteger inFlight = new AtomicInteger(0);
+
+        private ProtocolMetrics(String protocolName) {
+            String type = MessageEngine.class.getName().replace(".", "_");
+            timeInQueue = Metrics.newHistogram(new MetricName(protocolName, type, "time_in_queue"));
+            inserted = Metrics.newMeter(new MetricName(protocolName, type, "messages_inserted"), "messages", TimeUnit.SECONDS);
+            replayed = Metrics.newMeter(new MetricName(protocolName, type, "messages_replayed"), "messages", TimeUnit.SECONDS);
+            duplicates = Metrics.newMeter(new MetricName(protocolName, type, "messages_skipped_duplicate"), "messages", TimeUnit.SECONDS);
+            deadLettered = Metrics.newMeter(new MetricName(protocolName, type, "messages_dead_lettered"), "messages", TimeUnit.SECONDS);
+            Metrics.newGauge(new MetricName(protocolName, type, "messages_in_flight"), new Gauge<Integer>() {
+                @Override
+                public Integer value() {
+                    return inFlight.get();
+                }
+            });
+        }
+    }
+
+    private synchronized void scheduleCleanupMessages() {
+        if (cleanupTask != null) return;
+        logger.info("creating message cleanup thread");
+        cleanupTask = Executors.newScheduledThreadPool(1);
+        cleanupTask.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                for (MessageProtocol<?> protocol : protocols) {
+                    try {
+                        protocol.deleteExpiredMessages();
+                    } catch (Exception e) {
+                        logger.warn(protocol.getName() + " message cleanup failed", e);
+                    }
+                }
+            }
+        }, 1, 2, TimeUnit.HOURS);
+
+        // register worker
+        BackplaneConfig.addToBackgroundServices("message cleanup", cleanupTask);
+    }
+
+    private void insertMessages() throws InterruptedException {
+        logger.info("message processor started");
+        while (true) {
+            boolean fullBatch = false;
+            try {
+                for (MessageProtocol<?> protocol : protocols) {
+                    fullBatch |= processBatch(protocol) == BATCH_SIZE;
+                }
+            } catch (Exception e) {
+                logger.warn("error processing messages: " + e.getMessage());
+                Thread.sleep(ERROR_SLEEP_MILLIS);
+                continue;
+            }
+            if (! fullBatch) {
+                Thread.sleep(IDLE_SLEEP_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * @return the number of messages taken off the queue
+     */
+    @SuppressWarnings("unchecked")
+    <M extends Message> int processBatch(MessageProtocol<M> protocol) throws Exception {
+        ProtocolMetrics protocolMetrics = metrics.get(protocol.getName());
+        String inFlightKey = getInFlightKey(protocol);
+        String attemptsKey = inFlightKey + "_attempts";
+        Jedis jedis = null;
+        boolean broken = false;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+
+            // needs to be set before retrieving the value stored at this key
+            jedis.watch(protocol.getLastIdKey());
+            Pair<String,Date> lastIdAndDate = getLastMessageId(jedis, protocol);
+
+            boolean useInFlight = BackplaneSystemProps.isClusterUpgraded();
+            List<Object> taken = (List<Object>) jedis.eval(TAKE_BATCH_SCRIPT.getBytes(),
+                    Arrays.asList(protocol.getQueueKey().getBytes(), inFlightKey.getBytes()),
+                    Arrays.asList(Integer.toString(BATCH_SIZE).getBytes(), (useInFlight ? "1" : "0").getBytes()));
+            boolean replay = ((Long) taken.get(0)) == 1L;
+            List<byte[]> batch = new ArrayList<byte[]>();
+            for (Object messageBytes : taken.subList(1, taken.size())) {
+                batch.add((byte[]) messageBytes);
+            }
+            protocolMetrics.inFlight.set(batch.size());
+            if (batch.isEmpty()) return 0;
+
+            if (replay) {
+                protocolMetrics.replayed.mark(batch.size());
+                long attempts = jedis.incr(attemptsKey);
+                logger.warn("replaying " + batch.size() + " in-flight " + protocol.getName() + " message(s), attempt " + attempts);
+                if (attempts > MAX_BATCH_ATTEMPTS) {
+                    deadLetter(jedis, protocol, batch, attemptsKey);
+                    return batch.size();
+                }
+            }
+
+            // read messages and assign their final ids, unreadable ones are dead-lettered
+            List<M> messages = new ArrayList<M>();
+            List<String> queuedIds = new ArrayList<String>();
+            List<Date> messageDates = new ArrayList<Date>();
+            for (byte[] messageBytes : batch) {
+                M message = null;
+                String queuedId = null;
+                Date messageDate = null;
+                try {
+                    message = protocol.deserialize(messageBytes);
+                    queuedId = message.getIdValue();
+                    // TOTAL ORDER GUARANTEE
+                    // the date portion of the new message ID must be greater than all existing message ID dates,
+                    // so that all message ids have unique time stamps, even if they arrived at the same time
+                    protocol.updateId(message, lastIdAndDate);
+                    messageDate = protocol.getDateFromId(message.getIdValue());
+                } catch (Exception e) {
+                    logger.warn("unreadable " + protocol.getName() + " message: " + e.getMessage());
+                }
+                if (messageDate == null) {
+                    message = null;
+                } else {
+                    lastIdAndDate = new Pair<String, Date>(message.getIdValue(), messageDate);
+                }
+                messages.add(message);
+                queuedIds.add(queuedId);
+                messageDates.add(messageDate);
+            }
+
+            // messages inserted by an earlier attempt of a replayed batch
+            List<byte[]> inserted = null;
+            if (replay) {
+                byte[][] dedupKeys = new byte[batch.size()][];
+                for (int i = 0; i < batch.size(); i++) {
+                    dedupKeys[i] = getDedupKey(protocol, queuedIds.get(i) != null ? queuedIds.get(i) : "").getBytes();
+                }
+                inserted = jedis.mget(dedupKeys);
+            }
+
+            int insertedCount = 0;
+            int duplicateCount = 0;
+            List<byte[]> deadLettered = new ArrayList<byte[]>();
+            Transaction transaction = jedis.multi();
+
+            // <ATOMIC> - redis transaction
+            for (int i = 0; i < batch.size(); i++) {
+                M message = messages.get(i);
+                if (message == null) {
+                    transaction.rpush(getDeadLetterKey(protocol).getBytes(), batch.get(i));
+                    deadLettered.add(batch.get(i));
+                } else if (inserted != null && inserted.get(i) != null) {
+                    duplicateCount++;
+                } else {
+                    String newId = message.getIdValue();
+                    protocol.insert(transaction, message, messageDates.get(i).getTime());
+                    transaction.setex(getDedupKey(protocol, queuedIds.get(i)), DEDUP_TTL_SECONDS, newId);
+
+                    // make sure all subscribers get the update
+                    transaction.publish("alerts", newId);
+                    // and the message replicas of edge nodes
+                    transaction.publish(MessageReplica.getAlertsChannel(protocol), newId);
+
+                    insertedCount++;
+                    logger.info("pipelined " + protocol.getName() + " message " + queuedIds.get(i) + " -> " + newId);
+                }
+            }
+
+            transaction.set(protocol.getLastIdKey(), lastIdAndDate.getLeft());
+            // the batch is done only if this transaction is successful
+            if (replay || useInFlight) {
+                transaction.del(inFlightKey);
+                transaction.del(attemptsKey);
+            } else {
+                // posts only append to the queue, the batch is still at its head
+                transaction.ltrim(protocol.getQueueKey(), batch.size(), -1);
+            }
+
+            logger.info("processing transaction with " + insertedCount + " " + protocol.getName() + " message(s)");
+            List<Object> results = transaction.exec();
+            if (results == null || results.isEmpty()) {
+                logger.warn(protocol.getName() + " transaction failed, the batch will be replayed");
+                return 0;
+            }
+            // </ATOMIC> - redis transaction
+
+            protocolMetrics.inFlight.set(0);
+            logger.info("flushed " + insertedCount + " " + protocol.getName() + " messages");
+            protocolMetrics.inserted.mark(insertedCount);
+            if (duplicateCount > 0) {
+                logger.warn("skipped " + duplicateCount + " already inserted " + protocol.getName() + " message(s)");
+                protocolMetrics.duplicates.mark(duplicateCount);
+            }
+            if (! deadLettered.isEmpty()) {
+                logger.error("moved " + deadLettered.size() + " unreadable " + protocol.getName() + " message(s) to " + getDeadLetterKey(protocol));
+                protocolMetrics.deadLettered.mark(deadLettered.size());
+                protocol.deadLettered(jedis, deadLettered);
+            }
+            long now = System.currentTimeMillis();
+            for (String queuedId : queuedIds) {
+                Date queuedDate = protocol.getDateFromId(queuedId);
+                if (queuedDate == null) continue;
+                long diff = now - queuedDate.getTime();
+                protocolMetrics.timeInQueue.update(diff);
+                if (diff < 0 || diff > 2880000) {
+                    logger.warn("time diff is bizarre at: " + diff);
+                }
+            }
+            return batch.size();
+
+        } catch (Exception e) {
+            // if we get here, something bonked, like a connection to the redis server
+            logger.warn("an error occurred while trying to process " + protocol.getName() + " message batch: " + e.getMessage());
+            broken = true;
+            throw e;
+        } finally {
+            if (jedis != null && ! broken) {
+                try {
+                    jedis.unwatch();
+                } catch (Exception e) {
+                    broken = true;
+                }
+            }
+            Redis.getInstance().releaseToPool(jedis, broken);
+        }
+    }
+
+    static String getDedupKey(MessageProtocol<?> protocol, String queuedId) {
+        return protocol.getName() + "_inserted_" + queuedId;
+    }
+
+    /**
+     * Moves a batch that keeps failing to the dead-letter list.
+     */
+    private void deadLetter(Jedis jedis, MessageProtocol<?> protocol, List<byte[]> batch, String attemptsKey) {
+        jedis.unwatch();
+        Transaction transaction = jedis.multi();
+        for (byte[] messageBytes : batch) {
+            transaction.rpush(getDeadLetterKey(protocol).getBytes(), messageBytes);
+        }
+        transaction.del(getInFlightKey(protocol));
+        transaction.del(attemptsKey);
+        transaction.exec();
+        protocol.deadLettered(jedis, batch);
+        metrics.get(protocol.getName()).deadLettered.mark(batch.size());
+        metrics.get(protocol.getName()).inFlight.set(0);
+        logger.error("moved " + batch.size() + " " + protocol.getName() + " message(s) failing repeatedly to " + getDeadLetterKey(protocol));
+    }
+
+    private Pair<String,Date> getLastMessageId(Jedis jedis, MessageProtocol<?> protocol) {
+        // retrieve the latest 'live' message ID
+        String latestMessageId = jedis.get(protocol.getLastIdKey());
+        Date dateFromId = protocol.getDateFromId(latestMessageId);
+        return StringUtils.isEmpty(latestMessageId) || null == dateFromId ?
+                getLastMessageIdLegacy(jedis, protocol) :
+                new Pair<String, Date>(latestMessageId, dateFromId);
+    }
+
+    private Pair<String,Date> getLastMessageIdLegacy(Jedis jedis, MessageProtocol<?> protocol) {
+        // retrieve the latest 'live' message ID
+        // old/legacy method, used as fallback with the deployment of the replacement method
+        // todo: remove after transition is completed
+        String latestMessageId = null;
+        Set<String> latestMessageMetaSet = jedis.zrange(protocol.getMessagesIndexKey(), -1, -1);
+        if (latestMessageMetaSet != null && !latestMessageMetaSet.isEmpty()) {
+            String[] segs = latestMessageMetaSet.iterator().next().split(" ");
+            if (segs.length == 3) {
+                latestMessageId = segs[2];
+            }
+        }
+
+        Date latestDate = protocol.getDateFromId(latestMessageId);
+        if (StringUtils.isEmpty(latestMessageId) || latestDate == null) {
+            return new Pair<String, Date>("", new Date(0));
+        } else {
+            return new Pair<String, Date>(latestMessageId, latestDate);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane.redis;
+
+import com.janrain.backplane.common.BackplaneServerException;
+import com.janrain.commons.message.Message;
+import com.janrain.commons.util.Pair;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Transaction;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Protocol specific part of message processing: message type, id format and Redis key layout.
+ *
+ * @see MessageEngine
+ * @author Johnny Bufu
+ */
+public interface MessageProtocol<M extends Message> {
+
+    /** @return protocol name, used for logging and metrics */
+    String getName();
+
+    /** @return key of the list where posted messages are queued for processing */
+    String getQueueKey();
+
+    /** @return key holding the id of the last processed message */
+    String getLastIdKey();
+
+    /** @return key of the sorted set indexing all messages, members are "bus channel id" strings */
+    String getMessagesIndexKey();
+
+    /** @return key under which the message is stored */
+    byte[] getMessageKey(String messageId);
+
+    M deserialize(byte[] bytes);
+
+    String getChannel(M message);
+
+    /** @return the time (in milliseconds) when the message expires */
+    long getExpirationTime(M message) throws BackplaneServerException;
+
+    /** @return the date encoded in the message id, or null if the id cannot be parsed */
+    Date getDateFromId(String messageId);
+
+    /**
+     * Updates the message id, if needed, so that its date is greater than the last id's date.
+     */
+    void updateId(M message, Pair<String, Date> lastIdAndDate);
+
+    /**
+     * Adds the commands storing and indexing the message to the transaction.
+     *
+     * @param messageTime the message time, unique among all messages of this protocol
+     */
+    void insert(Transaction transaction, M message, long messageTime) throws BackplaneServerException;
+
+    /**
+     * Called after queued messages were moved to the dead-letter list instead of being inserted,
+     * to release what was accounted for them when they were queued.
+     *
+     * @param messagesBytes the dead-lettered messages, as queued; some may be unreadable
+     */
+    void deadLettered(Jedis jedis, List<byte[]> messagesBytes);
+
+    void deleteExpiredMessages() throws BackplaneServerException;
+}
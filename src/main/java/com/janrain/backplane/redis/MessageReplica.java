@@ -0,0 +1,238 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane.redis;
+
+import com.janrain.backplane.config.BackplaneConfig;
+import com.janrain.backplane.dao.memory.MessageIndex;
+import com.janrain.commons.message.Message;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.MetricName;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import redis.clients.jedis.Jedis;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Node-local, read-only replica of a protocol's current messages, used by edge nodes to serve reads
+ * without querying Redis for each request.
+ *
+ * The replica is fed by the ids the message engine publishes on the protocol's alerts channel,
+ * each message being fetched once. It is resynchronized from the protocol's message index
+ * when the subscription is (re)established and periodically, in case notifications were missed.
+ * The replica doesn't serve reads from the time the subscription is lost until it is resynchronized.
+ * Expired messages are dropped by the expiry wheel.
+ *
+ * @author Johnny Bufu
+ */
+public class MessageReplica<M extends Message> implements RedisPubSub.Listener {
+
+    // - PUBLIC
+
+    /**
+     * @return the channel on which the ids of the protocol's newly inserted messages are published
+     */
+    public static String getAlertsChannel(MessageProtocol<?> protocol) {
+        return protocol.getName() + "_alerts";
+    }
+
+    public MessageReplica(MessageProtocol<M> protocol) {
+        this.protocol = protocol;
+        this.messages = new MessageIndex<M>(protocol, MAX_MESSAGES);
+        Metrics.newGauge(new MetricName(protocol.getName(), getClass().getName().replace(".", "_"), "replica_messages"), new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return messages.size();
+            }
+        });
+    }
+
+    /**
+     * @return true if the replica has been synchronized and can serve reads
+     */
+    public boolean isSynced() {
+        start();
+        return synced;
+    }
+
+    /**
+     * @return true if the replica is synchronized and holds all current messages newer than sinceId (all if null or empty)
+     */
+    public boolean covers(@Nullable String sinceId) {
+        return isSynced() && messages.isComplete(sinceId);
+    }
+
+    public @Nullable M get(String id) {
+        return messages.get(id);
+    }
+
+    public @Nullable M getLastMessage() {
+        return messages.getLastMessage();
+    }
+
+    /**
+     * @return the messages with ids greater than sinceId (all if null or empty), in order of message id
+     */
+    public @NotNull List<M> getMessagesSince(@Nullable String sinceId) {
+        return messages.getMessagesSince(sinceId);
+    }
+
+    /**
+     * @return the messages on the channel with ids greater than sinceId (all if null or empty), in order of message id
+     */
+    public @NotNull List<M> getChannelMessagesSince(String channel, @Nullable String sinceId) {
+        return messages.getChannelMessagesSince(channel, sinceId);
+    }
+
+    @Override
+    public void onMessage(String channel, String messageId) {
+        // read from the write server, replicas may not have the message yet
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            byte[] bytes = jedis.get(protocol.getMessageKey(messageId));
+            if (bytes != null) {
+                messages.add(protocol.deserialize(bytes));
+            } else {
+                logger.warn(protocol.getName() + " message " + messageId + " not found");
+            }
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+
+    @Override
+    public void onSubscribe(String channel) {
+        resync(true);
+    }
+
+    @Override
+    public void onSubscriptionLost(String channel) {
+        synchronized (resyncLock) {
+            subscribed = false;
+            if (synced) {
+                logger.warn(protocol.getName() + " message replica out of sync, reading from redis until resubscribed");
+                synced = false;
+            }
+        }
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(MessageReplica.class);
+
+    private static final long RESYNC_INTERVAL_SECONDS = 5L;
+
+    /** resynchronization re-reads this much history before the newest replicated message */
+    private static final long RESYNC_WINDOW_MILLIS = 60000L;
+
+    private static final int MGET_BATCH_SIZE = 500;
+
+    /** upper bound of the replica size, the oldest messages are dropped beyond it */
+    private static final int MAX_MESSAGES = 100000;
+
+    private static final ScheduledExecutorService resyncTask = Executors.newScheduledThreadPool(1);
+
+    static {
+        BackplaneConfig.addToBackgroundServices("message replicas resync", resyncTask);
+    }
+
+    private final MessageProtocol<M> protocol;
+
+    private final MessageIndex<M> messages;
+
+    private boolean started;
+    private final Object resyncLock = new Object();
+    private volatile boolean subscribed;
+    private volatile boolean synced;
+
+    private synchronized void start() {
+        if (started) return;
+        started = true;
+        // subscribe before loading, messages inserted in between are picked up by the resync on subscription
+        RedisPubSub.getInstance().addListener(getAlertsChannel(protocol), this);
+        resyncTask.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    resync(false);
+                } catch (Exception e) {
+                    logger.error("error resyncing " + protocol.getName() + " message replica: " + e.getMessage(), e);
+                }
+            }
+        }, 0, RESYNC_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Loads the messages inserted since shortly before the newest replicated message.
+     *
+     * @param resubscribed true when called on (re)subscription, the replica is synchronized only from then on
+     */
+    private void resync(boolean resubscribed) {
+        synchronized (resyncLock) {
+            doResync(resubscribed);
+        }
+    }
+
+    private void doResync(boolean resubscribed) {
+        double since = 0;
+        String lastId = messages.getLastId();
+        if (lastId != null) {
+            Date lastDate = protocol.getDateFromId(lastId);
+            if (lastDate != null) {
+                since = Math.max(0, lastDate.getTime() - RESYNC_WINDOW_MILLIS);
+            }
+        }
+
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            List<byte[]> keys = new ArrayList<byte[]>();
+            for (byte[] metaData : jedis.zrangeByScore(protocol.getMessagesIndexKey().getBytes(), since, Double.POSITIVE_INFINITY)) {
+                // bus channel id
+                String messageId = new String(metaData).split(" ")[2];
+                if (! messages.contains(messageId)) {
+                    keys.add(protocol.getMessageKey(messageId));
+                }
+            }
+            for (int i = 0; i < keys.size(); i += MGET_BATCH_SIZE) {
+                List<byte[]> batch = keys.subList(i, Math.min(i + MGET_BATCH_SIZE, keys.size()));
+                for (byte[] bytes : jedis.mget(batch.toArray(new byte[batch.size()][]))) {
+                    if (bytes != null) {
+                        messages.add(protocol.deserialize(bytes));
+                    }
+                }
+            }
+            if (resubscribed) {
+                subscribed = true;
+            }
+            if (subscribed && ! synced) {
+                logger.info(protocol.getName() + " message replica synchronized, " + messages.size() + " messages");
+                synced = true;
+            }
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+}
@@ -34,6 +34,7 @@ import org.jetbrains.annotations.Nullable;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Pipeline;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -46,8 +47,13 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class Redis implements PathChildrenCacheListener {
 
+    /**
+     * The connection pools are created on first use, so that nodes running with the in-memory store don't need Redis.
+     *
+     * @throws IllegalStateException if the Redis servers are not configured
+     */
     public static Redis getInstance() {
-        return instance;
+        return InstanceHolder.instance;
     }
 
     /**
@@ -225,6 +231,28 @@ public class Redis implements PathChildrenCacheListener {
         }
     }
 
+    public void publish(String channel, String message) {
+        Jedis jedis = getWriteJedis();
+        try {
+            jedis.publish(channel, message);
+        } finally {
+            releaseToPool(jedis);
+        }
+    }
+
+    public void publish(String channel, List<String> messages) {
+        Jedis jedis = getWriteJedis();
+        try {
+            Pipeline pipeline = jedis.pipelined();
+            for (String message : messages) {
+                pipeline.publish(channel, message);
+            }
+            pipeline.sync();
+        } finally {
+            releaseToPool(jedis);
+        }
+    }
+
     public void setActiveRedisInstance(CuratorFramework client) {
         this.curatorFramework = client;
         InterProcessMutex lock = null;
@@ -344,7 +372,10 @@ public class Redis implements PathChildrenCacheListener {
     private final Pair<String,JedisPool> poolForWrites;
     private final ArrayList<Pair<String,JedisPool>> poolForReads = new ArrayList<Pair<String, JedisPool>>();
 
-    private static Redis instance = new Redis();
+    private static class InstanceHolder {
+        private static final Redis instance = new Redis();
+    }
+
     private final String REDIS_LOCK = "/redislock";
     private final String REDIS = "/redis";
     private final String REDIS_SERVER = "/redis/server";
@@ -365,8 +396,7 @@ public class Redis implements PathChildrenCacheListener {
 
         String redisServerConfig = System.getProperty(BackplaneSystemProps.REDIS_SERVER_PRIMARY);
         if (StringUtils.isEmpty(redisServerConfig)) {
-            logger.error("cannot find configuration entry for " + BackplaneSystemProps.REDIS_SERVER_PRIMARY);
-            System.exit(1);
+            throw new IllegalStateException("cannot find configuration entry for " + BackplaneSystemProps.REDIS_SERVER_PRIMARY);
         }
         String[] args = redisServerConfig.split(":");
         int port = 6379;
@@ -383,8 +413,7 @@ public class Redis implements PathChildrenCacheListener {
         redisServerConfig = System.getProperty(BackplaneSystemProps.REDIS_SERVER_READS);
 
         if (StringUtils.isEmpty(redisServerConfig)) {
-            logger.error("cannot find configuration entry for " + BackplaneSystemProps.REDIS_SERVER_READS);
-            System.exit(1);
+            throw new IllegalStateException("cannot find configuration entry for " + BackplaneSystemProps.REDIS_SERVER_READS);
         }
 
         String[] readServers = redisServerConfig.split(",");
@@ -397,8 +426,7 @@ public class Redis implements PathChildrenCacheListener {
                     //currentRedisServerForReads[i] = args[0];
                     poolForReads.add(new Pair<String, JedisPool>(args[0] + ":" + port, new JedisPool(jedisPoolConfig, args[0], port)));
                 } catch (NumberFormatException e) {
-                    logger.error("invalid Redis server configuration: " + redisServerConfig);
-                    System.exit(1);
+                    throw new IllegalStateException("invalid Redis server configuration: " + redisServerConfig);
                 }
             }
         }
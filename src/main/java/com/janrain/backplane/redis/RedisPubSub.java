@@ -0,0 +1,234 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane.redis;
+
+import org.apache.log4j.Logger;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Node-wide Redis pub/sub subscription, shared by all listeners.
+ *
+ * A single daemon thread holds the subscription connection and dispatches messages to the listeners
+ * registered for each channel; the subscription is re-established after connection failures.
+ *
+ * @author Johnny Bufu
+ */
+public class RedisPubSub {
+
+    // - PUBLIC
+
+    public static interface Listener {
+
+        void onMessage(String channel, String message);
+
+        /**
+         * Called each time the subscription to the channel is (re)established;
+         * messages published while the node was not subscribed are lost.
+         */
+        void onSubscribe(String channel);
+
+        /**
+         * Called when an established subscription to the channel is lost;
+         * messages published until it is re-established are lost.
+         */
+        void onSubscriptionLost(String channel);
+    }
+
+    public static RedisPubSub getInstance() {
+        return instance;
+    }
+
+    public void addListener(String channel, Listener listener) {
+        List<Listener> channelListeners = listeners.get(channel);
+        if (channelListeners == null) {
+            listeners.putIfAbsent(channel, new CopyOnWriteArrayList<Listener>());
+            channelListeners = listeners.get(channel);
+        }
+        channelListeners.add(listener);
+
+        startSubscriber();
+        Subscriber subscriber = currentSubscriber;
+        if (subscriber != null && subscriber.isSubscribed()) {
+            subscriber.subscribeIfNeeded(channel);
+        }
+    }
+
+    /**
+     * Publishes the message, failures are logged and otherwise ignored.
+     */
+    public void publish(String channel, String message) {
+        try {
+            Redis.getInstance().publish(channel, message);
+        } catch (Exception e) {
+            logger.error("error publishing to " + channel + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Publishes the messages in one pipelined round trip, failures are logged and otherwise ignored.
+     */
+    public void publish(String channel, List<String> messages) {
+        try {
+            Redis.getInstance().publish(channel, messages);
+        } catch (Exception e) {
+            logger.error("error publishing " + messages.size() + " messages to " + channel + ": " + e.getMessage(), e);
+        }
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(RedisPubSub.class);
+
+    private static final long RESUBSCRIBE_DELAY_MILLIS = 5000L;
+
+    private static final RedisPubSub instance = new RedisPubSub();
+
+    private final ConcurrentHashMap<String, List<Listener>> listeners = new ConcurrentHashMap<String, List<Listener>>();
+
+    private volatile Subscriber currentSubscriber;
+
+    private Thread subscriberThread;
+
+    private RedisPubSub() { }
+
+    private synchronized void startSubscriber() {
+        if (subscriberThread != null) return;
+        subscriberThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                subscribeLoop();
+            }
+        }, "redis-pubsub");
+        subscriberThread.setDaemon(true);
+        subscriberThread.start();
+    }
+
+    private void subscribeLoop() {
+        while (true) {
+            Jedis jedis = null;
+            Subscriber subscriber = null;
+            boolean broken = false;
+            try {
+                jedis = Redis.getInstance().getWriteJedis();
+                Set<String> registered = listeners.keySet();
+                String[] channels = registered.toArray(new String[registered.size()]);
+                subscriber = new Subscriber(channels);
+                currentSubscriber = subscriber;
+                jedis.subscribe(subscriber, channels);
+            } catch (Exception e) {
+                broken = true;
+                logger.warn("redis subscription failed: " + e.getMessage());
+            } finally {
+                currentSubscriber = null;
+                Redis.getInstance().releaseToPool(jedis, broken);
+                if (subscriber != null) {
+                    subscriber.lost();
+                }
+            }
+            try {
+                Thread.sleep(RESUBSCRIBE_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                logger.info("redis subscriber thread interrupted, exiting");
+                return;
+            }
+        }
+    }
+
+    private class Subscriber extends JedisPubSub {
+
+        private Subscriber(String[] channels) {
+            requested.addAll(Arrays.asList(channels));
+        }
+
+        @Override
+        public void onMessage(String channel, String message) {
+            List<Listener> channelListeners = listeners.get(channel);
+            if (channelListeners == null) return;
+            for (Listener listener : channelListeners) {
+                try {
+                    listener.onMessage(channel, message);
+                } catch (Exception e) {
+                    logger.error("error processing message on " + channel + ": " + e.getMessage(), e);
+                }
+            }
+        }
+
+        @Override
+        public void onSubscribe(String channel, int subscribedChannels) {
+            subscribed.add(channel);
+            logger.info("subscribed to redis channel " + channel);
+            List<Listener> channelListeners = listeners.get(channel);
+            if (channelListeners != null) {
+                for (Listener listener : channelListeners) {
+                    try {
+                        listener.onSubscribe(channel);
+                    } catch (Exception e) {
+                        logger.error("error processing subscription to " + channel + ": " + e.getMessage(), e);
+                    }
+                }
+            }
+            // channels added while the subscription was being set up
+            for (String registered : listeners.keySet()) {
+                subscribeIfNeeded(registered);
+            }
+        }
+
+        @Override
+        public void onPMessage(String pattern, String channel, String message) { }
+
+        @Override
+        public void onUnsubscribe(String channel, int subscribedChannels) { }
+
+        @Override
+        public void onPUnsubscribe(String pattern, int subscribedChannels) { }
+
+        @Override
+        public void onPSubscribe(String pattern, int subscribedChannels) { }
+
+        private final Set<String> subscribed = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private final Set<String> requested = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        private void lost() {
+            for (String channel : subscribed) {
+                logger.warn("lost subscription to redis channel " + channel);
+                List<Listener> channelListeners = listeners.get(channel);
+                if (channelListeners == null) continue;
+                for (Listener listener : channelListeners) {
+                    try {
+                        listener.onSubscriptionLost(channel);
+                    } catch (Exception e) {
+                        logger.error("error processing lost subscription to " + channel + ": " + e.getMessage(), e);
+                    }
+                }
+            }
+        }
+
+        private void subscribeIfNeeded(String channel) {
+            if (! subscribed.contains(channel) && requested.add(channel)) {
+                subscribe(channel);
+            }
+        }
+    }
+}
@@ -16,10 +16,10 @@
 
 package com.janrain.backplane.server1;
 
-import com.janrain.backplane.cache.CachedL1;
 import com.janrain.backplane.common.AuthException;
 import com.janrain.backplane.common.BackplaneServerException;
 import com.janrain.backplane.common.HmacHashUtils;
+import com.janrain.backplane.common.IdGenerator;
 import com.janrain.backplane.config.Admin;
 import com.janrain.backplane.config.BackplaneConfig;
 import com.janrain.backplane.config.BackplaneSystemProps;
@@ -34,6 +34,7 @@ import com.yammer.metrics.core.Histogram;
 import com.yammer.metrics.core.MetricName;
 import com.yammer.metrics.core.TimerContext;
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.springframework.http.HttpHeaders;
@@ -48,7 +49,6 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
-import java.security.SecureRandom;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 
@@ -93,7 +93,7 @@ public class Backplane1Controller {
             bpServerConfig = new BpServerConfig();
         }
         // add it to the L1 cache
-        CachedL1.getInstance().setObject(BackplaneSystemProps.BPSERVER_CONFIG_KEY, -1, bpServerConfig);
+        bpConfig.cacheServerConfig(bpServerConfig);
 
         ModelAndView view = new ModelAndView("admin");
         view.addObject("adminUserExists", adminUserExists);
@@ -123,8 +123,8 @@ public class Backplane1Controller {
         try {
             bpServerConfig.validate();
             ServerDAOs.getConfigDAO().persist(bpServerConfig);
-            // add it to the L1 cache
-            CachedL1.getInstance().setObject(BackplaneSystemProps.BPSERVER_CONFIG_KEY, -1, bpServerConfig);
+            // update the L1 cache of all nodes
+            bpConfig.serverConfigChanged(bpServerConfig);
             logger.info(bpServerConfig.toString());
         } catch (Exception e) {
             logger.error(e);
@@ -213,6 +213,7 @@ public class Backplane1Controller {
             @PathVariable String version,
             @PathVariable String bus,
             @PathVariable String channel,
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch,
             @RequestParam(required = false) String callback,
             @RequestParam(value = "since", required = false) String since,
             @RequestParam(value = "sticky", required = false) String sticky )
@@ -222,12 +223,26 @@ public class Backplane1Controller {
 
         try {
 
-            return new ResponseEntity<String>(
-                    NEW_CHANNEL_LAST_PATH.equals(channel) ? newChannel() : getChannelMessages(bus, channel, since, sticky, version),
-                    new HttpHeaders() {{
-                        add("Content-Type", "application/json");
-                    }},
-                    HttpStatus.OK);
+            if (NEW_CHANNEL_LAST_PATH.equals(channel)) {
+                return new ResponseEntity<String>(
+                        newChannel(),
+                        new HttpHeaders() {{
+                            add("Content-Type", "application/json");
+                        }},
+                        HttpStatus.OK);
+            }
+
+            final ChannelResponseCache.Entry rendered = getChannelMessages(bus, channel, since, sticky, version);
+            HttpHeaders headers = new HttpHeaders() {{
+                add("Content-Type", "application/json");
+                add("ETag", rendered.getEtag());
+            }};
+
+            // JSONP responses are always sent back with 200, see JsonpCallbackFilter
+            if (StringUtils.isBlank(callback) && rendered.getEtag().equals(ifNoneMatch)) {
+                return new ResponseEntity<String>(headers, HttpStatus.NOT_MODIFIED);
+            }
+            return new ResponseEntity<String>(rendered.getPayload(), headers, HttpStatus.OK);
 
         } finally {
             logger.debug("request ended");
@@ -251,21 +266,21 @@ public class Backplane1Controller {
 
             BP1MessageDao backplaneMessageDAO = BP1DAOs.getMessageDao();
 
-            //Block post if the caller has exceeded the message post limit
-            if (backplaneMessageDAO.getMessageCount(bus, channel) >= bpConfig.getDefaultMaxMessageLimit()) {
-                logger.warn("Channel " + bus + ":" + channel + " has reached the maximum of " +
-                        bpConfig.getDefaultMaxMessageLimit() + " messages");
-                throw new BackplaneServerException("Message limit exceeded for this channel");
-            }
-
             BusConfig1 busConfig = BP1DAOs.getBusDao().get(bus);
 
+            List<BackplaneMessage> backplaneMessages = new ArrayList<BackplaneMessage>();
             for(Map<String,Object> messageData : messages) {
-                BackplaneMessage message = new BackplaneMessage(bus, channel,
+                backplaneMessages.add(new BackplaneMessage(bus, channel,
                         busConfig.getRetentionTimeSeconds(),
                         busConfig.getRetentionTimeStickySeconds(),
-                        messageData);
-                backplaneMessageDAO.persist(message);
+                        messageData));
+            }
+
+            //Block post if the caller has exceeded the message post limit
+            long maxMessages = bpConfig.getDefaultMaxMessageLimit();
+            if ( ! backplaneMessageDAO.persist(channel, backplaneMessages, maxMessages)) {
+                logger.warn("Channel " + bus + ":" + channel + " has reached the maximum of " + maxMessages + " messages");
+                throw new BackplaneServerException("Message limit exceeded for this channel");
             }
 
             return "";
@@ -313,22 +328,7 @@ public class Backplane1Controller {
     }
 
     public static String randomString(int length) {
-        byte[] randomBytes = new byte[length];
-        random.nextBytes(randomBytes);
-        for (int i = 0; i < length; i++) {
-            byte b = randomBytes[i];
-            int c = Math.abs(b % 16);
-            if (c < 10) c += 48; // map (0..9) to '0' .. '9'
-            else c += (97 - 10);   // map (10..15) to 'a'..'f'
-            randomBytes[i] = (byte) c;
-        }
-        try {
-            return new String(randomBytes, "US-ASCII");
-        }
-        catch (UnsupportedEncodingException e) {
-            logger.error("US-ASCII character encoding not supported", e); // shouldn't happen
-            return null;
-        }
+        return IdGenerator.getInstance().randomHexString(length);
     }
     
     // - PRIVATE
@@ -356,7 +356,12 @@ public class Backplane1Controller {
     @Inject
     private BackplaneConfig bpConfig;
 
-    private static final Random random = new SecureRandom();
+    private final CredentialsCache credentialsCache = new CredentialsCache();
+
+    private final ChannelResponseCache channelResponses = new ChannelResponseCache();
+
+    /** thread safe once configured */
+    private final ObjectMapper mapper = new ObjectMapper();
 
     private void checkAuth(String basicAuth, String bus, BusConfig1.BUS_PERMISSION permission) throws AuthException, BackplaneServerException {
         // authN
@@ -385,8 +390,11 @@ public class Backplane1Controller {
 
         if (userEntry == null) {
             authError("User not found: " + user);
-        } else if ( ! HmacHashUtils.checkHmacHash(pass, userEntry.get(BP1User.Field.PWDHASH)) ) {
-            authError("Incorrect password for user " + user);
+        } else if ( ! credentialsCache.isVerified(user, pass, userEntry.get(BP1User.Field.PWDHASH)) ) {
+            if ( ! HmacHashUtils.checkHmacHash(pass, userEntry.get(BP1User.Field.PWDHASH)) ) {
+                authError("Incorrect password for user " + user);
+            }
+            credentialsCache.verified(user, pass, userEntry.get(BP1User.Field.PWDHASH));
         }
 
         // authZ
@@ -417,23 +425,38 @@ public class Backplane1Controller {
     	return newChannel;
     }
 
-    private String getChannelMessages(final String bus, final String channel, final String since, final String sticky, final String version) throws MessageException, BackplaneServerException {
+    private ChannelResponseCache.Entry getChannelMessages(final String bus, final String channel, final String since, final String sticky, final String version) throws MessageException, BackplaneServerException {
 
         final TimerContext context = getChannelMessagesTime.time();
 
         try {
-            List<BackplaneMessage> messages = BP1DAOs.getMessageDao().getMessagesByChannel(bus, channel, since, sticky);
+            BP1MessageDao messageDao = BP1DAOs.getMessageDao();
+            String channelVersion = messageDao.getChannelVersion(channel);
+            if (channelVersion == null) {
+                channelVersion = "";
+            }
+
+            // unchanged channel, nothing else to read
+            String cacheKey = ChannelResponseCache.key(channel, since, sticky, version);
+            ChannelResponseCache.Entry cached = channelResponses.get(cacheKey, channelVersion);
+            if (cached != null) {
+                payLoadSizesOnGets.update(cached.getPayload().length());
+                return cached;
+            }
+
+            List<BackplaneMessage> messages = messageDao.getMessagesByChannel(bus, channel, since, sticky);
             List<Map<String,Object>> frames = new ArrayList<Map<String, Object>>();
 
             for (BackplaneMessage message : messages) {
                 frames.add(message.asFrame(version));
             }
 
-            ObjectMapper mapper = new ObjectMapper();
             try {
                 String payload = mapper.writeValueAsString(frames);
                 payLoadSizesOnGets.update(payload.length());
-                return payload;
+                ChannelResponseCache.Entry rendered = new ChannelResponseCache.Entry(channelVersion, payload, getExpiration(messages));
+                channelResponses.put(cacheKey, rendered);
+                return rendered;
             } catch (IOException e) {
                 String errMsg = "Error converting frames to JSON: " + e.getMessage();
                 logger.error(errMsg, bpConfig.getDebugException(e));
@@ -449,4 +472,24 @@ public class Backplane1Controller {
             context.stop();
         }
     }
+
+    /**
+     * @return the time when the first of the messages expires, per its bus retention times
+     */
+    private long getExpiration(List<BackplaneMessage> messages) {
+        long expiration = Long.MAX_VALUE;
+        for (BackplaneMessage message : messages) {
+            Date messageDate = BackplaneMessage.getDateFromId(message.getIdValue());
+            if (messageDate == null) return 0;
+            BusConfig1 busConfig = BP1DAOs.getBusDao().get(message.getBus());
+            int retentionSeconds;
+            if (message.isSticky()) {
+                retentionSeconds = busConfig != null ? busConfig.getRetentionTimeStickySeconds() : 3600;
+            } else {
+                retentionSeconds = busConfig != null ? busConfig.getRetentionTimeSeconds() : 60;
+            }
+            expiration = Math.min(expiration, messageDate.getTime() + retentionSeconds * 1000L);
+        }
+        return expiration;
+    }
 }
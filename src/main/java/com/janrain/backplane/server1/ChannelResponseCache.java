@@ -0,0 +1,72 @@
+package com.janrain.backplane.server1;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Node-local LRU cache of rendered channel message responses.
+ *
+ * An entry is valid while the channel version it was rendered for is current
+ * and none of the messages it contains has expired.
+ *
+ * @author Johnny Bufu
+ */
+class ChannelResponseCache {
+
+    // - PACKAGE
+
+    static class Entry {
+
+        Entry(String version, String payload, long expires) {
+            this.version = version;
+            this.payload = payload;
+            this.expires = expires;
+            this.etag = "\"" + Integer.toHexString(version.hashCode()) + "-" + Integer.toHexString(payload.hashCode()) + "\"";
+        }
+
+        String getPayload() {
+            return payload;
+        }
+
+        String getEtag() {
+            return etag;
+        }
+
+        private final String version;
+        private final String payload;
+        private final long expires;
+        private final String etag;
+    }
+
+    static String key(String channel, String since, String sticky, String frameVersion) {
+        return channel + " " + since + " " + sticky + " " + frameVersion;
+    }
+
+    /**
+     * @return the entry rendered for the given channel version, or null if there's no valid one
+     */
+    synchronized Entry get(String key, String version) {
+        Entry entry = cache.get(key);
+        if (entry == null) return null;
+        if (! entry.version.equals(version) || entry.expires <= System.currentTimeMillis()) {
+            cache.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    synchronized void put(String key, Entry entry) {
+        cache.put(key, entry);
+    }
+
+    // - PRIVATE
+
+    private static final int MAX_ENTRIES = 5000;
+
+    private final Map<String,Entry> cache = new LinkedHashMap<String, Entry>(MAX_ENTRIES / 4, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+}
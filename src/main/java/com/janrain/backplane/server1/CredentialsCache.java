@@ -0,0 +1,82 @@
+package com.janrain.backplane.server1;
+
+import org.apache.log4j.Logger;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Short lived, node-local record of successfully verified Basic auth credentials.
+ *
+ * Only a digest of the password is kept, along with the password hash it was verified against;
+ * a changed or deleted user no longer matches, so provisioning changes take effect immediately.
+ *
+ * @author Johnny Bufu
+ */
+class CredentialsCache {
+
+    // - PACKAGE
+
+    /**
+     * @return true if the password was recently verified against the user's current password hash
+     */
+    boolean isVerified(String user, String password, String pwdHash) {
+        Entry entry = verified.get(user);
+        if (entry == null) return false;
+        if (entry.expires < System.currentTimeMillis()) {
+            verified.remove(user, entry);
+            return false;
+        }
+        return entry.pwdHash.equals(pwdHash) && MessageDigest.isEqual(entry.passwordDigest, digest(password));
+    }
+
+    void verified(String user, String password, String pwdHash) {
+        if (verified.size() >= MAX_ENTRIES) {
+            logger.info("credentials cache full, clearing " + verified.size() + " entries");
+            verified.clear();
+        }
+        verified.put(user, new Entry(pwdHash, digest(password), System.currentTimeMillis() + TTL_MILLIS));
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(CredentialsCache.class);
+
+    private static final long TTL_MILLIS = 60000L;
+    private static final int MAX_ENTRIES = 10000;
+
+    private static final ThreadLocal<MessageDigest> SHA256 = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private final ConcurrentHashMap<String,Entry> verified = new ConcurrentHashMap<String, Entry>();
+
+    private static class Entry {
+        private final String pwdHash;
+        private final byte[] passwordDigest;
+        private final long expires;
+
+        private Entry(String pwdHash, byte[] passwordDigest, long expires) {
+            this.pwdHash = pwdHash;
+            this.passwordDigest = passwordDigest;
+            this.expires = expires;
+        }
+    }
+
+    private static byte[] digest(String password) {
+        try {
+            return SHA256.get().digest(password.getBytes("utf-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e); // shouldn't happen
+        }
+    }
+}
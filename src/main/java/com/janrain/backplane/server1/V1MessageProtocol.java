@@ -0,0 +1,174 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane.server1;
+
+import com.janrain.backplane.common.BackplaneServerException;
+import com.janrain.backplane.common.BpSerialUtils;
+import com.janrain.backplane.config.BackplaneSystemProps;
+import com.janrain.backplane.redis.MessageProtocol;
+import com.janrain.backplane.server1.dao.BP1DAOs;
+import com.janrain.backplane.server1.dao.redis.RedisBackplaneMessageDAO;
+import com.janrain.commons.util.Pair;
+import org.apache.log4j.Logger;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Transaction;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Backplane v1 message processing.
+ *
+ * @author Tom Raney
+ */
+public class V1MessageProtocol implements MessageProtocol<BackplaneMessage> {
+
+    // - PUBLIC
+
+    @Override
+    public String getName() {
+        return "v1";
+    }
+
+    @Override
+    public String getQueueKey() {
+        return RedisBackplaneMessageDAO.V1_MESSAGE_QUEUE;
+    }
+
+    @Override
+    public String getLastIdKey() {
+        return V1_LAST_ID;
+    }
+
+    @Override
+    public String getMessagesIndexKey() {
+        return RedisBackplaneMessageDAO.V1_MESSAGES;
+    }
+
+    @Override
+    public byte[] getMessageKey(String messageId) {
+        return RedisBackplaneMessageDAO.getKey(messageId);
+    }
+
+    @Override
+    public BackplaneMessage deserialize(byte[] bytes) {
+        return BpSerialUtils.deserialize(bytes);
+    }
+
+    @Override
+    public String getChannel(BackplaneMessage message) {
+        return message.getChannel();
+    }
+
+    @Override
+    public long getExpirationTime(BackplaneMessage message) throws BackplaneServerException {
+        Pair<Integer, Integer> retentionTimes = getRetentionTimeSeconds(message.getBus());
+        int retentionSeconds = message.isSticky() ? retentionTimes.getRight() : retentionTimes.getLeft();
+        return BackplaneMessage.getDateFromId(message.getIdValue()).getTime() + retentionSeconds * 1000L;
+    }
+
+    @Override
+    public Date getDateFromId(String messageId) {
+        return BackplaneMessage.getDateFromId(messageId);
+    }
+
+    @Override
+    public void updateId(BackplaneMessage message, Pair<String, Date> lastIdAndDate) {
+        message.updateId(lastIdAndDate);
+    }
+
+    @Override
+    public void insert(Transaction transaction, BackplaneMessage backplaneMessage, long messageTime) throws BackplaneServerException {
+        String newId = backplaneMessage.getIdValue();
+
+        Pair<Integer, Integer> retentionTimes = getRetentionTimeSeconds(backplaneMessage.getBus());
+        int retentionTimeSeconds = retentionTimes.getLeft();
+        int retentionTimeStickySeconds = retentionTimes.getRight();
+
+        // save the individual message by key
+        transaction.set(RedisBackplaneMessageDAO.getKey(newId), BpSerialUtils.serialize(backplaneMessage));
+        // set the message TTL
+        if (backplaneMessage.isSticky()) {
+            transaction.expire(RedisBackplaneMessageDAO.getKey(newId), retentionTimeStickySeconds);
+        } else {
+            transaction.expire(RedisBackplaneMessageDAO.getKey(newId), retentionTimeSeconds);
+        }
+
+        // add message id to the channel's sticky or non-sticky sorted set, scored by message time
+        transaction.zadd(RedisBackplaneMessageDAO.getChannelKey(backplaneMessage.getChannel(), backplaneMessage.isSticky()),
+                messageTime, newId.getBytes());
+        if (! BackplaneSystemProps.isClusterUpgraded()) {
+            // nodes still on the previous release read and count the channel's messages from its list only
+            transaction.rpush(RedisBackplaneMessageDAO.getChannelKey(backplaneMessage.getChannel()), newId.getBytes());
+        }
+
+        // bump the channel version, it outlives the channel's messages
+        String channelVersionKey = RedisBackplaneMessageDAO.getChannelVersionKey(backplaneMessage.getChannel());
+        transaction.set(channelVersionKey, newId);
+        transaction.expire(channelVersionKey, Math.max(retentionTimeSeconds, retentionTimeStickySeconds));
+
+        // add message id to sorted set of all message ids as an index
+        String metaData = backplaneMessage.getBus() + " " + backplaneMessage.getChannel() + " " + newId;
+        transaction.zadd(RedisBackplaneMessageDAO.V1_MESSAGES.getBytes(), messageTime, metaData.getBytes());
+
+        // add message id to sorted set keyed by bus as an index
+        transaction.zadd(RedisBackplaneMessageDAO.getBusKey(backplaneMessage.getBus()), messageTime, newId.getBytes());
+    }
+
+    /**
+     * Queued messages are counted in their channel's message count, see RedisBackplaneMessageDAO.persist().
+     * The counts of unreadable messages' channels are corrected when the counters are rebuilt.
+     */
+    @Override
+    public void deadLettered(Jedis jedis, List<byte[]> messagesBytes) {
+        for (byte[] messageBytes : messagesBytes) {
+            String channel;
+            try {
+                channel = deserialize(messageBytes).getChannel();
+            } catch (Exception e) {
+                logger.warn("unreadable dead-lettered v1 message, its channel count is not decremented: " + e.getMessage());
+                continue;
+            }
+            RedisBackplaneMessageDAO.decrementChannelCount(jedis, channel);
+        }
+    }
+
+    @Override
+    public void deleteExpiredMessages() {
+        BP1DAOs.getMessageDao().deleteExpiredMessages();
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(V1MessageProtocol.class);
+
+    private static final String V1_LAST_ID = "v1_last_id";
+
+    /**
+     * @return the bus' retention times for non-sticky and sticky messages, in seconds
+     */
+    private Pair<Integer, Integer> getRetentionTimeSeconds(String bus) throws BackplaneServerException {
+        // retrieve the expiration config per the bus
+        BusConfig1 busConfig1 = BP1DAOs.getBusDao().get(bus);
+        if (busConfig1 != null) {
+            // should be here in normal flow
+            return new Pair<Integer, Integer>(busConfig1.getRetentionTimeSeconds(), busConfig1.getRetentionTimeStickySeconds());
+        } else {
+            return new Pair<Integer, Integer>(60, 3600);
+        }
+    }
+}
@@ -1,9 +1,13 @@
 package com.janrain.backplane.server1.dao;
 
+import com.janrain.backplane.config.BackplaneSystemProps;
 import com.janrain.backplane.dao.DAO;
+import com.janrain.backplane.dao.memory.MemoryDAO;
 import com.janrain.backplane.server1.BP1User;
 import com.janrain.backplane.server1.BackplaneMessage;
 import com.janrain.backplane.server1.BusConfig1;
+import com.janrain.backplane.server1.dao.memory.MemoryBackplaneMessageDAO;
+import com.janrain.backplane.server1.dao.redis.EdgeBackplaneMessageDAO;
 import com.janrain.backplane.server1.dao.redis.RedisBP1UserDAO;
 import com.janrain.backplane.server1.dao.redis.RedisBackplaneMessageDAO;
 import com.janrain.backplane.server1.dao.redis.RedisBusConfig1DAO;
@@ -43,8 +47,20 @@ public class BP1DAOs {
 
     private BP1DAOs() {}
 
-    private static final DAO<BusConfig1> busDao = new RedisBusConfig1DAO();
-    private static final DAO<BP1User> userDao = new RedisBP1UserDAO();
-    private static final BP1MessageDao messageDao = new RedisBackplaneMessageDAO();
+    private static final DAO<BusConfig1> busDao = BackplaneSystemProps.isMemoryStore() ?
+            new MemoryDAO<BusConfig1>("v1_bus") : new RedisBusConfig1DAO();
+    private static final DAO<BP1User> userDao = BackplaneSystemProps.isMemoryStore() ?
+            new MemoryDAO<BP1User>("v1_user") : new RedisBP1UserDAO();
+    private static final BP1MessageDao messageDao = createMessageDao();
+
+    private static BP1MessageDao createMessageDao() {
+        if (BackplaneSystemProps.isMemoryStore()) {
+            return new MemoryBackplaneMessageDAO();
+        } else if (BackplaneSystemProps.isEdgeNode()) {
+            return new EdgeBackplaneMessageDAO();
+        } else {
+            return new RedisBackplaneMessageDAO();
+        }
+    }
 
 }
@@ -20,5 +20,17 @@ public interface BP1MessageDao extends DAO<BackplaneMessage> {
 
     public int getMessageCount(String bus, String channel);
 
+    /**
+     * Queues the messages posted to a channel, unless the channel already holds maxMessages or more messages.
+     *
+     * @return true if the messages were queued, false if the channel's message limit was reached
+     */
+    public boolean persist(String channel, List<BackplaneMessage> messages, long maxMessages) throws BackplaneServerException;
+
+    /**
+     * @return the channel's current version, changed by every message inserted to the channel, or null
+     */
+    public String getChannelVersion(String channel);
+
     public void deleteExpiredMessages();
 }
@@ -0,0 +1,116 @@
+package com.janrain.backplane.server1.dao.memory;
+
+import com.janrain.backplane.common.BackplaneServerException;
+import com.janrain.backplane.dao.memory.MessageIndex;
+import com.janrain.backplane.server1.BackplaneMessage;
+import com.janrain.backplane.server1.V1MessageProtocol;
+import com.janrain.backplane.server1.dao.BP1MessageDao;
+import com.janrain.commons.util.Pair;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Keeps the messages in this node's memory, for the in-memory store.
+ *
+ * Messages are not queued: ids are assigned and messages become readable as they are persisted.
+ *
+ * @author Johnny Bufu
+ */
+public class MemoryBackplaneMessageDAO implements BP1MessageDao {
+
+    @Override
+    public BackplaneMessage get(String id) throws BackplaneServerException {
+        return messages.get(id);
+    }
+
+    @Override
+    public List<BackplaneMessage> getAll() throws BackplaneServerException {
+        return messages.getMessagesSince(null);
+    }
+
+    @Override
+    public void persist(BackplaneMessage message) throws BackplaneServerException {
+        persist(message.getChannel(), Collections.singletonList(message), Long.MAX_VALUE);
+    }
+
+    @Override
+    public synchronized boolean persist(String channel, List<BackplaneMessage> channelMessages, long maxMessages) throws BackplaneServerException {
+        if (channelMessages.isEmpty()) return true;
+        if (messages.getChannelMessageCount(channel) >= maxMessages) return false;
+        for (BackplaneMessage message : channelMessages) {
+            // same total order guarantee as the message engine's
+            protocol.updateId(message, lastIdAndDate);
+            Date messageDate = protocol.getDateFromId(message.getIdValue());
+            if (messageDate == null) {
+                throw new BackplaneServerException("invalid message id: " + message.getIdValue());
+            }
+            lastIdAndDate = new Pair<String, Date>(message.getIdValue(), messageDate);
+            messages.add(message);
+        }
+        return true;
+    }
+
+    @Override
+    public void delete(String id) throws BackplaneServerException {
+        messages.remove(id);
+    }
+
+    @Override
+    public List<BackplaneMessage> getMessagesByBus(String bus, String since, String sticky) {
+        List<BackplaneMessage> busMessages = new ArrayList<BackplaneMessage>();
+        for (BackplaneMessage message : messages.getMessagesSince(since)) {
+            if (bus.equals(message.getBus()) && isStickyMatch(message, sticky)) {
+                busMessages.add(message);
+            }
+        }
+        return busMessages;
+    }
+
+    @Override
+    public List<BackplaneMessage> getMessagesByChannel(String bus, String channel, String since, String sticky) {
+        List<BackplaneMessage> channelMessages = new ArrayList<BackplaneMessage>();
+        for (BackplaneMessage message : messages.getChannelMessagesSince(channel, since)) {
+            if (isStickyMatch(message, sticky)) {
+                channelMessages.add(message);
+            }
+        }
+        return channelMessages;
+    }
+
+    @Override
+    public int getMessageCount(String bus, String channel) {
+        return messages.getChannelMessageCount(channel);
+    }
+
+    /**
+     * @return the id of the channel's newest message, which changes with every message inserted to the channel
+     */
+    @Override
+    public String getChannelVersion(String channel) {
+        List<BackplaneMessage> channelMessages = messages.getChannelMessagesSince(channel, null);
+        return channelMessages.isEmpty() ? null : channelMessages.get(channelMessages.size() - 1).getIdValue();
+    }
+
+    @Override
+    public void deleteExpiredMessages() {
+        // expired messages are removed by the expiry wheel
+    }
+
+    // - PRIVATE
+
+    /** upper bound of the number of messages kept, the oldest messages are dropped beyond it */
+    private static final int MAX_MESSAGES = 100000;
+
+    private final V1MessageProtocol protocol = new V1MessageProtocol();
+    private final MessageIndex<BackplaneMessage> messages = new MessageIndex<BackplaneMessage>(protocol, MAX_MESSAGES);
+
+    private Pair<String, Date> lastIdAndDate = new Pair<String, Date>("", new Date(0));
+
+    private static boolean isStickyMatch(BackplaneMessage message, String sticky) {
+        return StringUtils.isBlank(sticky) || sticky.equals(message.get(BackplaneMessage.Field.STICKY.getFieldName()));
+    }
+}
@@ -0,0 +1,60 @@
+package com.janrain.backplane.server1.dao.redis;
+
+import com.janrain.backplane.common.BackplaneServerException;
+import com.janrain.backplane.redis.MessageReplica;
+import com.janrain.backplane.server1.BackplaneMessage;
+import com.janrain.backplane.server1.V1MessageProtocol;
+import com.janrain.commons.message.MessageException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Message DAO of edge nodes: channel and bus reads are served from the node's message replica
+ * once it is synchronized and holds all messages the read asks for, everything else goes to Redis.
+ *
+ * @author Johnny Bufu
+ */
+public class EdgeBackplaneMessageDAO extends RedisBackplaneMessageDAO {
+
+    @Override
+    public List<BackplaneMessage> getMessagesByChannel(String bus, String channel, String since, String sticky) throws MessageException, BackplaneServerException {
+        if (! replica.covers(since)) {
+            return super.getMessagesByChannel(bus, channel, since, sticky);
+        }
+        List<BackplaneMessage> messages = replica.getChannelMessagesSince(channel, since);
+        filterAndSort(messages, since, sticky);
+        return messages;
+    }
+
+    @Override
+    public List<BackplaneMessage> getMessagesByBus(String bus, String since, String sticky) throws MessageException, BackplaneServerException {
+        if (! replica.covers(since)) {
+            return super.getMessagesByBus(bus, since, sticky);
+        }
+        List<BackplaneMessage> messages = new ArrayList<BackplaneMessage>();
+        for (BackplaneMessage message : replica.getMessagesSince(since)) {
+            if (bus.equals(message.getBus())) {
+                messages.add(message);
+            }
+        }
+        filterAndSort(messages, since, sticky);
+        return messages;
+    }
+
+    /**
+     * @return the id of the channel's newest replicated message, which changes with every message inserted to the channel
+     */
+    @Override
+    public String getChannelVersion(String channel) {
+        if (! replica.isSynced()) {
+            return super.getChannelVersion(channel);
+        }
+        List<BackplaneMessage> messages = replica.getChannelMessagesSince(channel, null);
+        return messages.isEmpty() ? null : messages.get(messages.size() - 1).getIdValue();
+    }
+
+    // - PRIVATE
+
+    private final MessageReplica<BackplaneMessage> replica = new MessageReplica<BackplaneMessage>(new V1MessageProtocol());
+}
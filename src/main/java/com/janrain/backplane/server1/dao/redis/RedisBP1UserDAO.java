@@ -3,7 +3,9 @@ package com.janrain.backplane.server1.dao.redis;
 import com.janrain.backplane.common.BackplaneServerException;
 import com.janrain.backplane.common.BpSerialUtils;
 import com.janrain.backplane.common.User;
+import com.janrain.backplane.dao.ConfigSnapshot;
 import com.janrain.backplane.dao.DAO;
+import com.janrain.backplane.dao.redis.RedisListLoader;
 import com.janrain.backplane.redis.Redis;
 import com.janrain.backplane.server1.BP1User;
 import org.apache.log4j.Logger;
@@ -11,7 +13,6 @@ import redis.clients.jedis.Jedis;
 import redis.clients.jedis.Response;
 import redis.clients.jedis.Transaction;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -29,6 +30,7 @@ public class RedisBP1UserDAO implements DAO<BP1User> {
         byte[] bytes = BpSerialUtils.serialize(user);
         Redis.getInstance().set(getKey(user.getIdValue()), bytes);
         Redis.getInstance().rpush(getKey("list"), bytes);
+        snapshot.changed(user.getIdValue());
     }
 
     @Override
@@ -51,6 +53,7 @@ public class RedisBP1UserDAO implements DAO<BP1User> {
                     logger.warn("could not delete user key " + new String(getKey(id)));
                 }
             }
+            snapshot.changed(id);
             logger.info("removed user " + id);
 
         } finally {
@@ -60,25 +63,25 @@ public class RedisBP1UserDAO implements DAO<BP1User> {
 
     @Override
     public BP1User get(String key) throws BackplaneServerException {
-        byte[] bytes = Redis.getInstance().get(getKey(key));
-        if (bytes != null) {
-            return User.asDaoType(BpSerialUtils.<User>deserialize(bytes), BP1User.class);
-        } else {
-            return null;
-        }
+        return snapshot.get(key);
     }
 
     @Override
     public List<BP1User> getAll() throws BackplaneServerException {
-        List<BP1User> users = new ArrayList<BP1User>();
-        List<byte[]> bytesList = Redis.getInstance().lrange(getKey("list"), 0, -1);
-        for (byte[] bytes : bytesList) {
-            if (bytes != null) {
-                users.add(User.asDaoType(BpSerialUtils.<User>deserialize(bytes), BP1User.class));
-            }
-        }
-        return users;
+        return snapshot.getAll();
     }
 
     private static final Logger logger = Logger.getLogger(RedisBP1UserDAO.class);
+
+    private final ConfigSnapshot<BP1User> snapshot = new ConfigSnapshot<BP1User>("v1_user", new RedisListLoader<BP1User>() {
+        @Override
+        protected byte[] getKey(String id) {
+            return RedisBP1UserDAO.getKey(id);
+        }
+
+        @Override
+        protected BP1User deserialize(byte[] bytes) {
+            return User.asDaoType(BpSerialUtils.<User>deserialize(bytes), BP1User.class);
+        }
+    });
 }
@@ -18,6 +18,7 @@ package com.janrain.backplane.server1.dao.redis;
 
 import com.janrain.backplane.common.BackplaneServerException;
 import com.janrain.backplane.common.BpSerialUtils;
+import com.janrain.backplane.config.BackplaneSystemProps;
 import com.janrain.backplane.redis.Redis;
 import com.janrain.backplane.server1.BackplaneMessage;
 import com.janrain.backplane.server1.dao.BP1MessageDao;
@@ -48,14 +49,47 @@ public class RedisBackplaneMessageDAO implements BP1MessageDao {
         return ("v1_bus_idx_" + bus).getBytes();
     }
 
+    /**
+     * Legacy channel index, a list of message ids; written until the cluster is upgraded
+     * (see {@link BackplaneSystemProps#isClusterUpgraded()}), read and cleaned up until its messages expire.
+     * Ids found in both the list and the sorted set indexes are returned and counted once.
+     */
     public static byte[] getChannelKey(String channel) {
         return ("v1_channel_idx_" + channel).getBytes();
     }
 
+    /**
+     * Channel index of sticky or non-sticky messages, a sorted set of message ids scored by the message time.
+     */
+    public static byte[] getChannelKey(String channel, boolean sticky) {
+        return ((sticky ? "v1_channel_sticky_idx_" : "v1_channel_nonsticky_idx_") + channel).getBytes();
+    }
+
+    /**
+     * Channel version, the id of the last message inserted to the channel
+     */
+    public static String getChannelVersionKey(String channel) {
+        return "v1_channel_version_" + channel;
+    }
+
+    /**
+     * Number of messages on the channel, including the queued ones; maintained by scripts, see POST_SCRIPT
+     */
+    public static byte[] getChannelCountKey(String channel) {
+        return ("v1_channel_count_" + channel).getBytes();
+    }
+
     public static byte[] getKey(String key) {
         return ("v1_message_" + key).getBytes();
     }
 
+    /**
+     * Decrements the channel's message count, for a message removed from the channel or dropped from the queue.
+     */
+    public static void decrementChannelCount(Jedis jedis, String channel) {
+        jedis.eval(DECREMENT_COUNT_SCRIPT.getBytes(), Arrays.asList(getChannelCountKey(channel)), new ArrayList<byte[]>());
+    }
+
     /**
      * Add message to work queue - any node may add since it is an atomic operation
      * However, the message ID will be determined later by the message processor
@@ -64,7 +98,29 @@ public class RedisBackplaneMessageDAO implements BP1MessageDao {
 
     @Override
     public void persist(BackplaneMessage message) throws BackplaneServerException {
-        Redis.getInstance().rpush(V1_MESSAGE_QUEUE.getBytes(), BpSerialUtils.serialize(message));
+        persist(message.getChannel(), Collections.singletonList(message), Long.MAX_VALUE);
+    }
+
+    @Override
+    public boolean persist(String channel, List<BackplaneMessage> messages, long maxMessages) throws BackplaneServerException {
+        if (messages.isEmpty()) return true;
+        List<byte[]> keys = Arrays.asList(getChannelCountKey(channel), V1_MESSAGE_QUEUE.getBytes(),
+                getChannelKey(channel, false), getChannelKey(channel, true), getChannelKey(channel));
+        List<byte[]> args = new ArrayList<byte[]>();
+        args.add(Long.toString(maxMessages).getBytes());
+        args.add(Integer.toString(CHANNEL_COUNT_RESYNC_SECONDS).getBytes());
+        for (BackplaneMessage message : messages) {
+            args.add(BpSerialUtils.serialize(message));
+        }
+
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            Long result = (Long) jedis.eval(POST_SCRIPT.getBytes(), keys, args);
+            return result >= 0;
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
     }
 
     @Override
@@ -81,7 +137,9 @@ public class RedisBackplaneMessageDAO implements BP1MessageDao {
 
                 Response<Long> del1 = t.zrem(V1_MESSAGES, key);
                 String[] args = key.split(" ");
-                Response<Long> del2 = t.lrem(getChannelKey(args[1]), 0, args[2].getBytes());
+                Response<Long> del2 = t.zrem(getChannelKey(args[1], false), args[2].getBytes());
+                Response<Long> del2sticky = t.zrem(getChannelKey(args[1], true), args[2].getBytes());
+                Response<Long> del2legacy = t.lrem(getChannelKey(args[1]), 0, args[2].getBytes());
                 Response<Long> del3 = t.zrem(getBusKey(args[0]), args[2].getBytes());
                 Response<Long> del4 = t.del(getKey(id));
 
@@ -90,8 +148,10 @@ public class RedisBackplaneMessageDAO implements BP1MessageDao {
                 if (del1.get() == 0) {
                     logger.warn("could not remove message " + id + " from " + V1_MESSAGES);
                 }
-                if (del2.get() == 0) {
-                    logger.warn("could not remove message " + id + " from " + new String(getChannelKey(args[1])));
+                if (del2.get() + del2sticky.get() + del2legacy.get() == 0) {
+                    logger.warn("could not remove message " + id + " from channel " + args[1] + " indexes");
+                } else {
+                    decrementChannelCount(jedis, args[1]);
                 }
                 if (del3.get() == 0) {
                     logger.warn("could not remove message " + id + " from " + new String(getBusKey(args[0])));
@@ -165,7 +225,20 @@ public class RedisBackplaneMessageDAO implements BP1MessageDao {
     }
 
     public int getMessageCount(String bus, String channel) {
-        return (int) Redis.getInstance().llen(getChannelKey(channel));
+        Jedis jedis = Redis.getInstance().getReadJedis();
+        try {
+            Long count = (Long) jedis.eval(COUNT_SCRIPT.getBytes(),
+                    Arrays.asList(getChannelKey(channel, false), getChannelKey(channel, true), getChannelKey(channel)),
+                    new ArrayList<byte[]>());
+            return count.intValue();
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+
+    @Override
+    public String getChannelVersion(String channel) {
+        return Redis.getInstance().get(getChannelVersionKey(channel));
     }
 
     /**
@@ -188,17 +261,36 @@ public class RedisBackplaneMessageDAO implements BP1MessageDao {
                 sinceInMs = BackplaneMessage.getDateFromId(since).getTime();
             }
 
-            // every message has a unique timestamp - which serves as a key for indexing
-            List<byte[]> messageIdBytes = jedis.lrange(getChannelKey(channel), 0, -1);
-            List<BackplaneMessage> messages = new ArrayList<BackplaneMessage>();
-
-            if (!messageIdBytes.isEmpty()) {
-                int i=0;
-                for (byte[] key: messageIdBytes) {
-                    messageIdBytes.set(i++, getKey(new String(key)));
+            // every message has a unique timestamp - which serves as a key for indexing,
+            // only the messages posted at or after 'since' with the requested sticky flag are fetched
+            Pipeline pipeline = jedis.pipelined();
+            List<Response<Set<byte[]>>> indexedIds = new ArrayList<Response<Set<byte[]>>>();
+            for (boolean stickyIndex : getChannelIndexes(sticky)) {
+                indexedIds.add(pipeline.zrangeByScore(getChannelKey(channel, stickyIndex), sinceInMs, Double.POSITIVE_INFINITY));
+            }
+            Response<Boolean> legacyIndexExists = pipeline.exists(getChannelKey(channel));
+            pipeline.sync();
+
+            // ids inserted before the cluster was upgraded may be in both the sorted sets and the legacy list
+            Set<String> messageIds = new LinkedHashSet<String>();
+            for (Response<Set<byte[]>> ids : indexedIds) {
+                for (byte[] id : ids.get()) {
+                    messageIds.add(new String(id));
                 }
+            }
+            if (legacyIndexExists.get()) {
+                for (byte[] id : jedis.lrange(getChannelKey(channel), 0, -1)) {
+                    messageIds.add(new String(id));
+                }
+            }
+            List<byte[]> messageKeys = new ArrayList<byte[]>();
+            for (String id : messageIds) {
+                messageKeys.add(getKey(id));
+            }
 
-                List<byte[]> responses = jedis.mget(messageIdBytes.toArray(new byte[messageIdBytes.size()][]));
+            List<BackplaneMessage> messages = new ArrayList<BackplaneMessage>();
+            if (!messageKeys.isEmpty()) {
+                List<byte[]> responses = jedis.mget(messageKeys.toArray(new byte[messageKeys.size()][]));
                 for (byte[] response : responses) {
                     if (response != null) {
                         messages.add((BackplaneMessage) BpSerialUtils.deserialize(response));
@@ -281,9 +373,82 @@ public class RedisBackplaneMessageDAO implements BP1MessageDao {
 
     private static final Logger logger = Logger.getLogger(RedisBackplaneMessageDAO.class);
 
+    /** the channel message counters are rebuilt from the channel indexes this often, to correct any drift */
+    private static final int CHANNEL_COUNT_RESYNC_SECONDS = 3600;
+
+    /** messages pushed per RPUSH by POST_SCRIPT, unpacking all of a large post's messages at once overflows the Lua stack */
+    private static final int POST_SCRIPT_CHUNK = 1000;
+
+    /**
+     * Counts the messages in the non-sticky, sticky and legacy channel indexes,
+     * legacy list entries that are also in a sorted set are counted once.
+     */
+    private static final String CHANNEL_COUNT_FUNCTION =
+            "local function channelCount(nonSticky, sticky, legacy)\n" +
+            "  local count = redis.call('zcard', nonSticky) + redis.call('zcard', sticky)\n" +
+            "  for _, id in ipairs(redis.call('lrange', legacy, 0, -1)) do\n" +
+            "    if not redis.call('zscore', nonSticky, id) and not redis.call('zscore', sticky, id) then\n" +
+            "      count = count + 1\n" +
+            "    end\n" +
+            "  end\n" +
+            "  return count\n" +
+            "end\n";
+
+    /**
+     * KEYS: non-sticky, sticky and legacy channel indexes
+     *
+     * @return the number of messages on the channel, not including the queued ones
+     */
+    private static final String COUNT_SCRIPT = CHANNEL_COUNT_FUNCTION +
+            "return channelCount(KEYS[1], KEYS[2], KEYS[3])\n";
+
+    /**
+     * KEYS: channel count, message queue, non-sticky, sticky and legacy channel indexes
+     * ARGV: max messages, count resync seconds, serialized messages...
+     *
+     * @return the new channel count, or -1 if the channel's message limit was reached and nothing was queued
+     */
+    private static final String POST_SCRIPT = CHANNEL_COUNT_FUNCTION +
+            "local count = tonumber(redis.call('get', KEYS[1]))\n" +
+            "if not count then\n" +
+            "  count = channelCount(KEYS[3], KEYS[4], KEYS[5])\n" +
+            "  redis.call('set', KEYS[1], count)\n" +
+            "  redis.call('expire', KEYS[1], tonumber(ARGV[2]))\n" +
+            "end\n" +
+            "if count >= tonumber(ARGV[1]) then\n" +
+            "  return -1\n" +
+            "end\n" +
+            "for i = 3, #ARGV, " + POST_SCRIPT_CHUNK + " do\n" +
+            "  redis.call('rpush', KEYS[2], unpack(ARGV, i, math.min(i + " + POST_SCRIPT_CHUNK + " - 1, #ARGV)))\n" +
+            "end\n" +
+            "return redis.call('incrby', KEYS[1], #ARGV - 2)\n";
+
+    /**
+     * KEYS: channel count
+     */
+    private static final String DECREMENT_COUNT_SCRIPT =
+            "local count = tonumber(redis.call('get', KEYS[1]))\n" +
+            "if count and count > 0 then\n" +
+            "  return redis.call('decr', KEYS[1])\n" +
+            "end\n" +
+            "return 0\n";
+
     private final Histogram messagesPerChannel = Metrics.newHistogram(new MetricName("v1", this.getClass().getName().replace(".","_"), "v1_messages_per_channel"));
 
-    private void filterAndSort(List<BackplaneMessage> messages, String since, String sticky) {
+    /**
+     * @return the sticky flags of the channel indexes that may hold messages matching the sticky filter
+     */
+    private static boolean[] getChannelIndexes(String sticky) {
+        if (Boolean.TRUE.toString().equals(sticky)) {
+            return new boolean[] {true};
+        } else if (Boolean.FALSE.toString().equals(sticky)) {
+            return new boolean[] {false};
+        } else {
+            return new boolean[] {false, true};
+        }
+    }
+
+    protected void filterAndSort(List<BackplaneMessage> messages, String since, String sticky) {
 
         // filter per sticky flag
         if (StringUtils.isNotBlank(sticky)) {
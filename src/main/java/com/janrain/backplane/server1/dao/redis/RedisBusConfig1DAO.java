@@ -2,7 +2,9 @@ package com.janrain.backplane.server1.dao.redis;
 
 import com.janrain.backplane.common.BackplaneServerException;
 import com.janrain.backplane.common.BpSerialUtils;
+import com.janrain.backplane.dao.ConfigSnapshot;
 import com.janrain.backplane.dao.DAO;
+import com.janrain.backplane.dao.redis.RedisListLoader;
 import com.janrain.backplane.redis.Redis;
 import com.janrain.backplane.server1.BusConfig1;
 import org.apache.log4j.Logger;
@@ -10,7 +12,6 @@ import redis.clients.jedis.Jedis;
 import redis.clients.jedis.Response;
 import redis.clients.jedis.Transaction;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -30,6 +31,7 @@ public class RedisBusConfig1DAO implements DAO<BusConfig1> {
         byte[] bytes = BpSerialUtils.serialize(busConfig1);
         Redis.getInstance().set(getKey(busConfig1.getIdValue()), bytes);
         Redis.getInstance().rpush(getKey("list"), bytes);
+        snapshot.changed(busConfig1.getIdValue());
     }
 
     @Override
@@ -52,6 +54,7 @@ public class RedisBusConfig1DAO implements DAO<BusConfig1> {
                     logger.warn("could not delete v1 bus " + new String(getKey(id)));
                 }
             }
+            snapshot.changed(id);
             logger.info("removed v1 bus " + id);
 
         } finally {
@@ -61,24 +64,26 @@ public class RedisBusConfig1DAO implements DAO<BusConfig1> {
 
     @Override
     public BusConfig1 get(String bus) {
-        byte[] bytes = Redis.getInstance().get(getKey(bus));
-        if (bytes != null) {
-            return (BusConfig1) BpSerialUtils.deserialize(bytes);
-        } else {
-            return null;
-        }
+        return snapshot.get(bus);
     }
 
     @Override
     public List<BusConfig1> getAll() throws BackplaneServerException {
-        List<BusConfig1> users = new ArrayList<BusConfig1>();
-        List<byte[]> bytesList = Redis.getInstance().lrange(getKey("list"), 0, -1);
-        for (byte[] bytes : bytesList) {
-            if (bytes != null) {
-                users.add((BusConfig1) BpSerialUtils.deserialize(bytes));
-            }
-        }
-        return users;
+        return snapshot.getAll();
     }
 
+    // PRIVATE
+
+    private final ConfigSnapshot<BusConfig1> snapshot = new ConfigSnapshot<BusConfig1>("v1_bus", new RedisListLoader<BusConfig1>() {
+        @Override
+        protected byte[] getKey(String id) {
+            return RedisBusConfig1DAO.getKey(id);
+        }
+
+        @Override
+        protected BusConfig1 deserialize(byte[] bytes) {
+            return BpSerialUtils.deserialize(bytes);
+        }
+    });
+
 }
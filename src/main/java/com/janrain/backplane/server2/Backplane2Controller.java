@@ -21,10 +21,13 @@ import com.janrain.backplane.common.BackplaneServerException;
 import com.janrain.backplane.common.HmacHashUtils;
 import com.janrain.backplane.common.RandomUtils;
 import com.janrain.backplane.config.BackplaneConfig;
+import com.janrain.backplane.config.BackplaneSystemProps;
 import com.janrain.backplane.redis.Redis;
 import com.janrain.backplane.server2.dao.BP2DAOs;
+import com.janrain.backplane.server2.dao.redis.RedisChannelDAO;
 import com.janrain.backplane.server2.oauth2.*;
 import com.janrain.backplane.servlet.InvalidRequestException;
+import com.janrain.backplane.servlet.RateLimitedException;
 import com.janrain.backplane.servlet.ServletUtil;
 import com.janrain.commons.message.MessageException;
 import com.yammer.metrics.core.MetricName;
@@ -389,7 +392,9 @@ public class Backplane2Controller {
                 throw new TokenException("Invalid token type: " + token.getType(), HttpServletResponse.SC_FORBIDDEN);
             }
 
-            BP2DAOs.getBackplaneMessageDAO().persist(parsePostedMessage(messagePostBody, token));
+            BackplaneMessage message = parsePostedMessage(messagePostBody, token);
+            checkPostRateLimits(message.getBus(), token.get(Token.TokenField.ISSUED_TO_CLIENT_ID));
+            BP2DAOs.getBackplaneMessageDAO().persist(message);
             response.setStatus(HttpServletResponse.SC_CREATED);
             return null;
 
@@ -458,6 +463,20 @@ public class Backplane2Controller {
         }};
     }
 
+    /**
+     * Handle rate limited requests, telling the client when to retry
+     */
+    @ExceptionHandler
+    @ResponseBody
+    public Map<String, Object> handleRateLimited(final RateLimitedException e, HttpServletResponse response) {
+        logger.warn("Rate limited backplane request: " + e.getMessage());
+        response.setStatus(e.getHttpResponseCode());
+        response.setHeader("Retry-After", Long.toString(e.getRetryAfterSeconds()));
+        return new HashMap<String,Object>() {{
+            put(ERR_MSG_FIELD, e.getMessage());
+        }};
+    }
+
     /**
      * Handle invalid HTTP request method exceptions
      */
@@ -861,12 +880,36 @@ public class Backplane2Controller {
         return  message;
     }
 
+    /**
+     * @throws RateLimitedException if the bus or the client's post rate limit on the bus is exceeded
+     */
+    private void checkPostRateLimits(String bus, String clientId) throws BackplaneServerException {
+        BusConfig2 busConfig = BP2DAOs.getBusDao().get(bus);
+        if (busConfig == null) return;
+        long retryAfter = busPostLimiter.acquire(bus, busConfig.getPostRateLimit(), busConfig.getPostBurst());
+        if (retryAfter > 0) {
+            throw new RateLimitedException("Message post rate limit exceeded for bus " + bus, toRetryAfterSeconds(retryAfter));
+        }
+        if (clientId != null) {
+            retryAfter = clientPostLimiter.acquire(bus + " " + clientId, busConfig.getClientPostRateLimit(), busConfig.getClientPostBurst());
+            if (retryAfter > 0) {
+                // not posted, the bus permit is left for other clients
+                busPostLimiter.release(bus);
+                throw new RateLimitedException("Message post rate limit exceeded for client " + clientId + " on bus " + bus, toRetryAfterSeconds(retryAfter));
+            }
+        }
+    }
+
+    private static long toRetryAfterSeconds(long retryAfterMillis) {
+        return Math.max(1, (retryAfterMillis + 999) / 1000);
+    }
+
     private Channel getChannel(String channelId) throws BackplaneServerException {
         Channel channel = BP2DAOs.getChannelDao().get(channelId);
-        if (channel == null) {
+        if (channel == null && ! BackplaneSystemProps.isMemoryStore()) {
             // legacy channel-bus binding support
             // todo: remove after all old channels have expired
-            BusConfig2 busConfig = BP2DAOs.getBusDao().get(Redis.getInstance().get("v2_channel_bus_" + channelId));
+            BusConfig2 busConfig = BP2DAOs.getBusDao().get(Redis.getInstance().get(RedisChannelDAO.getLegacyBindingKey(channelId)));
             if (busConfig != null) {
                 try {
                     channel = new Channel(channelId, busConfig, 0);
@@ -883,6 +926,9 @@ public class Backplane2Controller {
             com.yammer.metrics.Metrics.newTimer(new MetricName("v2", this.getClass().getName().replace(".","_"), "v2_gets_time"), TimeUnit.MILLISECONDS, TimeUnit.MINUTES);
     private final com.yammer.metrics.core.Timer v2GetSingleMessageTimer =
             com.yammer.metrics.Metrics.newTimer(new MetricName("v2", this.getClass().getName().replace(".","_"), "v2_get_single_message_time"), TimeUnit.MILLISECONDS, TimeUnit.MINUTES);
+    private final RateLimiter busPostLimiter = new RateLimiter("bus_post");
+    private final RateLimiter clientPostLimiter = new RateLimiter("client_post");
+
     private final com.yammer.metrics.core.Timer v2PostTimer =
             com.yammer.metrics.Metrics.newTimer(new MetricName("v2", this.getClass().getName().replace(".","_"), "v2_posts_time"), TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
     private final com.yammer.metrics.core.Timer getRegularTokenTimer =
@@ -57,6 +57,36 @@ public class BusConfig2 extends ExternalizableCore {
         return Integer.valueOf(get(Field.RETENTION_STICKY_TIME_SECONDS));
     }
 
+    /**
+     * @return messages per second that can be posted to the bus, 0 if not limited
+     */
+    public int getPostRateLimit() {
+        return getInt(Field.POST_RATE_LIMIT, 0);
+    }
+
+    /**
+     * @return messages that can be posted to the bus at once, one second's worth if not set
+     */
+    public int getPostBurst() {
+        int burst = getInt(Field.POST_BURST, 0);
+        return burst > 0 ? burst : getPostRateLimit();
+    }
+
+    /**
+     * @return messages per second each client can post to the bus, 0 if not limited
+     */
+    public int getClientPostRateLimit() {
+        return getInt(Field.CLIENT_POST_RATE_LIMIT, 0);
+    }
+
+    /**
+     * @return messages each client can post to the bus at once, one second's worth if not set
+     */
+    public int getClientPostBurst() {
+        int burst = getInt(Field.CLIENT_POST_BURST, 0);
+        return burst > 0 ? burst : getClientPostRateLimit();
+    }
+
     @Override
     public Set<? extends MessageField> getFields() {
         return EnumSet.allOf(Field.class);
@@ -91,6 +121,50 @@ public class BusConfig2 extends ExternalizableCore {
                         throw new InvalidRequestException("Value of " + fieldName + " = " + intValue + " but must be between " + RETENTION_STICKY_MIN_SECONDS + " and " + RETENTION_STICKY_MAX_VALUE);
                     }
                 }
+            }},
+
+        POST_RATE_LIMIT {
+            @Override
+            public boolean isRequired() {
+                return false;
+            }
+
+            @Override
+            public void validate(String value) throws MessageException {
+                validateRate(getFieldName(), value);
+            }},
+
+        POST_BURST {
+            @Override
+            public boolean isRequired() {
+                return false;
+            }
+
+            @Override
+            public void validate(String value) throws MessageException {
+                validateRate(getFieldName(), value);
+            }},
+
+        CLIENT_POST_RATE_LIMIT {
+            @Override
+            public boolean isRequired() {
+                return false;
+            }
+
+            @Override
+            public void validate(String value) throws MessageException {
+                validateRate(getFieldName(), value);
+            }},
+
+        CLIENT_POST_BURST {
+            @Override
+            public boolean isRequired() {
+                return false;
+            }
+
+            @Override
+            public void validate(String value) throws MessageException {
+                validateRate(getFieldName(), value);
             }};
 
 
@@ -117,6 +191,16 @@ public class BusConfig2 extends ExternalizableCore {
         private static final int RETENTION_MAX_VALUE = 604800; // one week
         private static final int RETENTION_STICKY_MIN_SECONDS = 28800; // eight hours
         private static final int RETENTION_STICKY_MAX_VALUE = 604800; // one week
+        private static final int RATE_MAX_VALUE = 100000;
+
+        /** optional, 0 means not limited */
+        private static void validateRate(String fieldName, String value) throws MessageException {
+            if (value == null) return;
+            int intValue = validateInt(fieldName, value);
+            if (intValue < 0 || intValue > RATE_MAX_VALUE) {
+                throw new InvalidRequestException("Value of " + fieldName + " = " + intValue + " but must be between 0 and " + RATE_MAX_VALUE);
+            }
+        }
 
     }
 
@@ -124,4 +208,9 @@ public class BusConfig2 extends ExternalizableCore {
 
     private static final long serialVersionUID = 6373001975596811972L;
 
+    private int getInt(Field field, int defaultValue) {
+        String value = get(field);
+        return value == null ? defaultValue : Integer.valueOf(value);
+    }
+
 }
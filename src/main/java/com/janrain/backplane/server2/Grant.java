@@ -22,6 +22,7 @@ import com.janrain.backplane.common.RandomUtils;
 import com.janrain.backplane.server2.oauth2.TokenException;
 import com.janrain.commons.message.MessageException;
 import com.janrain.commons.message.MessageField;
+import com.janrain.commons.util.Pair;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 
@@ -87,8 +88,16 @@ public class Grant extends ExternalizableCore {
     }
 
     public Scope getAuthorizedScope() {
+        String scopeString = get(GrantField.AUTHORIZED_SCOPES);
+        Pair<String,Scope> parsed = parsedScope;
+        // identity check: the memoized scope is valid for as long as the stored scope string is not replaced
+        if (parsed != null && parsed.getLeft() == scopeString) {
+            return parsed.getRight();
+        }
         try {
-            return new Scope(get(GrantField.AUTHORIZED_SCOPES));
+            Scope scope = Scope.fromString(scopeString);
+            parsedScope = new Pair<String, Scope>(scopeString, scope);
+            return scope;
         } catch (TokenException e) {
             throw new IllegalStateException("Invalid value on for GrantField.AUTHORIZED_SCOPES, should have been validated on grant creation: " + this.get(GrantField.AUTHORIZED_SCOPES));
         }
@@ -126,7 +135,7 @@ public class Grant extends ExternalizableCore {
             public void validate(String value) throws MessageException {
                 super.validate(value);
                 try {
-                    new Scope(value);
+                    Scope.fromString(value);
                 } catch (TokenException e) {
                     throw new MessageException("Invalid grant scope: " + value);
                 }
@@ -266,6 +275,9 @@ public class Grant extends ExternalizableCore {
 
     private static final int CODE_EXPIRATION_SECONDS_DEFAULT = 600; // 10 minutes
 
+    // parsed scope memo, not part of the serialized grant
+    private transient volatile Pair<String,Scope> parsedScope;
+
     private Grant(String id, Map<String,String> data) throws MessageException {
         super.init(id, data);
         logger.info("Grant created: " + get(GrantField.ISSUED_BY_USER_ID) + " authorized client " + get(GrantField.ISSUED_TO_CLIENT_ID) + " for scopes: " + get(GrantField.AUTHORIZED_SCOPES));
@@ -49,11 +49,21 @@ public class GrantLogic {
             }
             result.put(new Scope(authorizedScopesMap), selectedGrants);
         } else {
-            for(Scope authReqScope : scope.getAuthReqScopes()) {
+            List<Scope> authReqScopes = scope.getAuthReqScopes();
+            // bound buses of all the requested channels, in one lookup
+            Set<String> channels = new LinkedHashSet<String>();
+            for(Scope authReqScope : authReqScopes) {
+                if (authReqScope.getScopeMap().containsKey(BackplaneMessage.Field.CHANNEL)) {
+                    channels.add(authReqScope.getScopeMap().get(BackplaneMessage.Field.CHANNEL).iterator().next());
+                }
+            }
+            Map<String,String> channelBuses = channels.isEmpty() ? Collections.<String,String>emptyMap() :
+                    BP2DAOs.getChannelBusCache().getBuses(channels);
+
+            for(Scope authReqScope : authReqScopes) {
                 final Scope testScope;
                 if (authReqScope.getScopeMap().containsKey(BackplaneMessage.Field.CHANNEL)) {
-                    Channel channel = BP2DAOs.getChannelDao().get(authReqScope.getScopeMap().get(BackplaneMessage.Field.CHANNEL).iterator().next());
-                    String boundBus = channel == null ? null : channel.get(Channel.ChannelField.BUS);
+                    String boundBus = channelBuses.get(authReqScope.getScopeMap().get(BackplaneMessage.Field.CHANNEL).iterator().next());
                     testScope = new Scope(BackplaneMessage.Field.BUS, boundBus);
                 } else {
                     testScope = authReqScope;
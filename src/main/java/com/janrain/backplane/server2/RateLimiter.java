@@ -0,0 +1,186 @@
+package com.janrain.backplane.server2;
+
+import com.janrain.backplane.server2.dao.BP2DAOs;
+import com.janrain.backplane.server2.dao.RateLimitDAO;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricName;
+import org.apache.log4j.Logger;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limiter, with the buckets shared by all nodes.
+ *
+ * Each node takes permits from the shared bucket in batches, and hands them out locally until they are used
+ * or the lease expires after LEASE_MILLIS; only then is the shared bucket accessed again.
+ * Leased permits are already taken from the shared bucket, so the limit holds across nodes.
+ * Batches are sized by this node's demand: one permit at first, doubled while leases run out before expiring
+ * (up to about LEASE_FRACTION of the rate), and down to the permits handed out from the last lease otherwise,
+ * so that few leased permits are left unused when a lease expires.
+ *
+ * If the shared bucket cannot be accessed, requests are allowed.
+ *
+ * @author Johnny Bufu
+ */
+public class RateLimiter {
+
+    // - PUBLIC
+
+    /**
+     * @param name unique name of the limiter, used in its bucket keys and metrics
+     */
+    public RateLimiter(String name) {
+        this(name, BP2DAOs.getRateLimitDAO());
+    }
+
+    /**
+     * Takes one permit for the key, limited to ratePerSecond and burst; no limit if ratePerSecond is not positive.
+     *
+     * @return 0 if allowed, otherwise the time in milliseconds until a permit is available
+     */
+    public long acquire(String key, int ratePerSecond, int burst) {
+        if (ratePerSecond <= 0) return 0;
+        int bucketSize = Math.max(1, burst);
+        Lease lease = getLease(key);
+        long retryAfter;
+        synchronized (lease) {
+            long now = System.currentTimeMillis();
+            if (lease.permits > 0 && lease.expires > now) {
+                lease.permits--;
+                lease.handedOut++;
+                retryAfter = 0;
+            } else {
+                retryAfter = acquireShared(key, ratePerSecond, bucketSize, lease, now);
+            }
+        }
+        if (retryAfter > 0) {
+            rejected.mark();
+        } else {
+            allowed.mark();
+        }
+        return retryAfter;
+    }
+
+    /**
+     * Gives back a permit taken by acquire() for a request that was not carried out,
+     * to be handed out again by this node while the lease it came from is valid.
+     */
+    public void release(String key) {
+        Lease lease = leases.get(key);
+        if (lease == null) return;
+        synchronized (lease) {
+            if (lease.expires > System.currentTimeMillis() && lease.handedOut > 0) {
+                lease.permits++;
+                lease.handedOut--;
+            }
+        }
+    }
+
+    // - PACKAGE
+
+    RateLimiter(String name, RateLimitDAO dao) {
+        this.name = name;
+        this.dao = dao;
+        this.allowed = Metrics.newMeter(new MetricName("v2", RateLimiter.class.getName().replace(".","_"), name + "_allowed"), "requests", TimeUnit.SECONDS);
+        this.rejected = Metrics.newMeter(new MetricName("v2", RateLimiter.class.getName().replace(".","_"), name + "_rejected"), "requests", TimeUnit.SECONDS);
+        this.sharedAcquires = Metrics.newMeter(new MetricName("v2", RateLimiter.class.getName().replace(".","_"), name + "_shared_acquires"), "acquires", TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return the number of permits the next shared acquire for the lease takes
+     */
+    static int nextBatch(int batch, int handedOut, long expires, long now, int maxBatch) {
+        int next;
+        if (expires > now) {
+            // ran out before expiring
+            next = batch * 2;
+        } else if (now - expires > LEASE_MILLIS) {
+            // idle since
+            next = 1;
+        } else {
+            next = handedOut;
+        }
+        return Math.max(1, Math.min(maxBatch, next));
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(RateLimiter.class);
+
+    private static final int LEASE_FRACTION = 10;
+    private static final long LEASE_MILLIS = 1000L;
+    private static final long PURGE_INTERVAL_MILLIS = 60000L;
+
+    private final String name;
+    private final RateLimitDAO dao;
+    private final ConcurrentHashMap<String,Lease> leases = new ConcurrentHashMap<String, Lease>();
+
+    private volatile long lastPurge = 0;
+
+    private final Meter allowed;
+    private final Meter rejected;
+    private final Meter sharedAcquires;
+
+    /** permits taken from the shared bucket, not yet handed out */
+    private static class Lease {
+        private int permits;
+        private long expires;
+        /** permits taken by the last shared acquire */
+        private int batch;
+        /** permits handed out since the last shared acquire */
+        private int handedOut;
+    }
+
+    private Lease getLease(String key) {
+        Lease lease = leases.get(key);
+        if (lease != null) return lease;
+        purgeIdle(System.currentTimeMillis());
+        leases.putIfAbsent(key, new Lease());
+        return leases.get(key);
+    }
+
+    /**
+     * Takes a new batch of permits and hands out the first one.
+     */
+    private long acquireShared(String key, int ratePerSecond, int burst, Lease lease, long now) {
+        int maxBatch = Math.max(1, Math.min(burst, ratePerSecond / LEASE_FRACTION));
+        int batch = nextBatch(lease.batch, lease.handedOut, lease.expires, now, maxBatch);
+        try {
+            sharedAcquires.mark();
+            RateLimitDAO.Acquired acquired = dao.acquire(name + "_" + key, ratePerSecond, burst, batch);
+            if (acquired.getPermits() == 0) {
+                lease.permits = 0;
+                return Math.max(1, acquired.getRetryAfterMillis());
+            }
+            lease.permits = acquired.getPermits() - 1;
+            lease.expires = now + LEASE_MILLIS;
+            lease.batch = acquired.getPermits();
+            lease.handedOut = 1;
+            return 0;
+        } catch (Exception e) {
+            logger.error("error acquiring " + name + " rate limit permits for " + key + ", allowing: " + e.getMessage(), e);
+            return 0;
+        }
+    }
+
+    /**
+     * Drops the leases idle for long enough to start again from a single permit batch.
+     */
+    private void purgeIdle(long now) {
+        if (now - lastPurge < PURGE_INTERVAL_MILLIS) return;
+        lastPurge = now;
+        Iterator<Map.Entry<String,Lease>> entries = leases.entrySet().iterator();
+        while (entries.hasNext()) {
+            Lease lease = entries.next().getValue();
+            synchronized (lease) {
+                if (now - lease.expires > LEASE_MILLIS) {
+                    entries.remove();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.janrain.backplane.server2;
+
+import com.janrain.backplane.common.BackplaneServerException;
+import com.janrain.backplane.common.IdGenerator;
+import com.janrain.backplane.config.BackplaneConfig;
+import com.janrain.backplane.config.BackplaneSystemProps;
+import com.janrain.backplane.server2.dao.BP2DAOs;
+import com.janrain.backplane.server2.dao.GrantDAO;
+import com.janrain.backplane.server2.dao.RevocationJob;
+import com.janrain.backplane.server2.dao.RevocationJobDAO;
+import com.janrain.backplane.server2.dao.RevocationProgress;
+import com.janrain.backplane.server2.oauth2.TokenException;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.core.TimerContext;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs grant revocations (grant revokes, bus and bus owner deletes) as background jobs,
+ * for revocations too large to complete within a request.
+ *
+ * Jobs run on a bounded pool of WORKERS threads, with at most MAX_QUEUED jobs waiting on a node.
+ * A node holds a lease on each job it has queued or is running, renewed every LEASE_RENEWAL_SECONDS;
+ * every node periodically looks for unfinished jobs without a lease (submitted when the queue was full,
+ * or left by a failed node) and runs them. All job steps are idempotent, so a resumed job
+ * simply runs again: grants already changed and entities already deleted are skipped.
+ *
+ * @author Johnny Bufu
+ */
+public class RevocationJobs {
+
+    // - PUBLIC
+
+    public static RevocationJobs getInstance() {
+        return instance;
+    }
+
+    /**
+     * Starts the lease renewal and the resumption of unfinished jobs; jobs submitted before are run regardless.
+     */
+    public synchronized void start() {
+        if (started) return;
+        started = true;
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                renewLeases();
+            }
+        }, LEASE_RENEWAL_SECONDS, LEASE_RENEWAL_SECONDS, TimeUnit.SECONDS);
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                resumeUnfinished();
+            }
+        }, RESUME_INTERVAL_SECONDS, RESUME_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        logger.info("revocation jobs started on node " + node);
+    }
+
+    /**
+     * Submits the job, unless a job with the same id already exists.
+     *
+     * @return the submitted job, or the existing job with the same id
+     */
+    public RevocationJob submit(RevocationJob job) throws BackplaneServerException {
+        RevocationJobDAO dao = BP2DAOs.getRevocationJobDAO();
+        if (! dao.create(job)) {
+            RevocationJob existing = dao.get(job.getId());
+            logger.info("revocation job " + job.getId() + " already submitted, not submitting again");
+            return existing != null ? existing : job;
+        }
+        logger.info("submitted revocation job " + job.getId() + ": " + job.getType());
+        schedule(job.getId());
+        return job;
+    }
+
+    public @Nullable RevocationJob get(String id) throws BackplaneServerException {
+        return BP2DAOs.getRevocationJobDAO().get(id);
+    }
+
+    public List<RevocationJob> getUnfinished() throws BackplaneServerException {
+        List<RevocationJob> jobs = new ArrayList<RevocationJob>();
+        for (String id : BP2DAOs.getRevocationJobDAO().getUnfinished()) {
+            RevocationJob job = get(id);
+            if (job != null) {
+                jobs.add(job);
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * @return a new random job id
+     */
+    public static String newJobId() {
+        return IdGenerator.getInstance().randomString(JOB_ID_LENGTH);
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(RevocationJobs.class);
+
+    private static final int WORKERS = 2;
+    private static final int MAX_QUEUED = 50;
+    private static final int LEASE_SECONDS = 60;
+    private static final long LEASE_RENEWAL_SECONDS = 20L;
+    private static final long RESUME_INTERVAL_SECONDS = 60L;
+    private static final int JOB_ID_LENGTH = 20;
+
+    private static final RevocationJobs instance = new RevocationJobs();
+
+    /** unique per process, a restarted node doesn't hold the leases of its previous run */
+    private final String node = BackplaneSystemProps.getMachineName() + "/" + IdGenerator.getInstance().randomString(8);
+
+    private final ThreadPoolExecutor workers = new ThreadPoolExecutor(WORKERS, WORKERS, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(MAX_QUEUED));
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+
+    /** jobs queued or running on this node */
+    private final Set<String> held = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private boolean started;
+
+    private final Meter grantsRevoked = Metrics.newMeter(new MetricName("v2", RevocationJobs.class.getName().replace(".","_"), "revocation_job_grants"), "grants", TimeUnit.SECONDS);
+    private final Meter tokensRevoked = Metrics.newMeter(new MetricName("v2", RevocationJobs.class.getName().replace(".","_"), "revocation_job_tokens"), "tokens", TimeUnit.SECONDS);
+    private final Timer jobTimer = Metrics.newTimer(new MetricName("v2", RevocationJobs.class.getName().replace(".","_"), "revocation_job_time"), TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+
+    private RevocationJobs() {
+        Metrics.newGauge(new MetricName("v2", RevocationJobs.class.getName().replace(".","_"), "revocation_jobs_queued"), new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return workers.getQueue().size();
+            }
+        });
+        BackplaneConfig.addToBackgroundServices("revocation jobs", workers);
+        BackplaneConfig.addToBackgroundServices("revocation jobs leases", scheduler);
+    }
+
+    /**
+     * Claims the job and queues it on this node, if not leased by another node and the queue is not full.
+     */
+    private void schedule(final String id) {
+        if (! held.add(id)) return;
+        RevocationJobDAO dao = BP2DAOs.getRevocationJobDAO();
+        try {
+            if (! dao.claim(id, node, LEASE_SECONDS)) {
+                held.remove(id);
+                return;
+            }
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        runJob(id);
+                    } finally {
+                        release(id);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.warn("revocation job queue full, job " + id + " left for a later resume");
+            release(id);
+        } catch (Exception e) {
+            logger.error("error scheduling revocation job " + id + ": " + e.getMessage(), e);
+            release(id);
+        }
+    }
+
+    private void release(String id) {
+        held.remove(id);
+        try {
+            BP2DAOs.getRevocationJobDAO().release(id, node);
+        } catch (Exception e) {
+            logger.warn("error releasing revocation job " + id + ", lease will expire: " + e.getMessage());
+        }
+    }
+
+    private void runJob(String id) {
+        final RevocationJobDAO dao = BP2DAOs.getRevocationJobDAO();
+        final RevocationJob job;
+        try {
+            job = dao.get(id);
+            if (job == null || job.getState().isFinished()) return;
+            job.started(node);
+            dao.update(job);
+        } catch (Exception e) {
+            logger.error("error starting revocation job " + id + ": " + e.getMessage(), e);
+            return;
+        }
+
+        TimerContext timer = jobTimer.time();
+        RevocationProgress.setThreadListener(new RevocationProgress.Listener() {
+            @Override
+            public void grantsFound(RevocationProgress progress, int grants) {
+                job.grantsFound(grants);
+                store(job);
+            }
+
+            @Override
+            public void batchCompleted(RevocationProgress progress, int grants, int tokens) {
+                grantsRevoked.mark(grants);
+                tokensRevoked.mark(tokens);
+                job.batchCompleted(grants, tokens);
+                store(job);
+            }
+        });
+        try {
+            logger.info("running revocation job " + id + " (attempt " + job.asMap().get(RevocationJob.Field.ATTEMPTS.getFieldName()) + ")");
+            execute(job);
+            job.completed();
+            logger.info("revocation job " + id + " completed: " + job.asMap());
+        } catch (Exception e) {
+            job.failed(e.getMessage());
+            logger.error("revocation job " + id + " failed: " + e.getMessage(), e);
+        } finally {
+            RevocationProgress.setThreadListener(null);
+            timer.stop();
+            store(job);
+        }
+    }
+
+    private void execute(RevocationJob job) throws BackplaneServerException, TokenException {
+        GrantDAO grantDao = BP2DAOs.getGrantDao();
+        switch (job.getType()) {
+            case REVOKE_GRANTS:
+                for (Map.Entry<String,String> clientBuses : job.getClientBuses().entrySet()) {
+                    List<String> revokedBuses = Scope.getScopesAsList(clientBuses.getValue());
+                    if (! grantDao.revokeBuses(grantDao.getByClientId(clientBuses.getKey()), revokedBuses)) {
+                        logger.info("revocation job " + job.getId() + ": no grants of " + clientBuses.getKey() + " to revoke for buses " + revokedBuses);
+                    }
+                }
+                break;
+            case DELETE_BUSES:
+                // the bus DAO revokes the grants before deleting the buses, so a resumed job still finds them
+                BP2DAOs.getBusDao().deleteAll(job.getEntityIds());
+                break;
+            case DELETE_BUS_OWNERS:
+                // owned buses are found by their owner, so a resumed job still finds the buses left by a failed attempt
+                BP2DAOs.getBusOwnerDAO().deleteAll(job.getEntityIds());
+                break;
+        }
+    }
+
+    private void store(RevocationJob job) {
+        try {
+            BP2DAOs.getRevocationJobDAO().update(job);
+        } catch (Exception e) {
+            logger.warn("error storing revocation job " + job.getId() + ": " + e.getMessage());
+        }
+    }
+
+    private void renewLeases() {
+        for (String id : held) {
+            try {
+                if (! BP2DAOs.getRevocationJobDAO().claim(id, node, LEASE_SECONDS)) {
+                    logger.warn("lost the lease on revocation job " + id + ", it may be resumed by another node");
+                }
+            } catch (Exception e) {
+                logger.error("error renewing the lease on revocation job " + id + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    void resumeUnfinished() {
+        try {
+            for (String id : BP2DAOs.getRevocationJobDAO().getUnfinished()) {
+                if (workers.getQueue().remainingCapacity() == 0) return;
+                if (! held.contains(id)) {
+                    schedule(id);
+                }
+            }
+        } catch (Exception e) {
+            logger.error("error resuming revocation jobs: " + e.getMessage(), e);
+        }
+    }
+}
@@ -40,34 +40,62 @@ public class Scope {
         AUTHZ_REQ   // message field can only be used with privileged, authenticated and authorized token requests
     }
 
+    /**
+     * @param scopeString String representation of the scope as defined in the Backplane 2.0 spec
+     * @return a shared, immutable Scope parsed from the given scope string
+     */
+    public static Scope fromString(String scopeString) throws TokenException {
+        if (scopeString == null) return new Scope(scopeString);
+        Scope scope;
+        synchronized (internedScopes) {
+            scope = internedScopes.get(scopeString);
+        }
+        if (scope == null) {
+            scope = new Scope(scopeString);
+            synchronized (internedScopes) {
+                internedScopes.put(scopeString, scope);
+            }
+        }
+        return scope;
+    }
+
     /**
      * @param scopeString String representation of the scope as defined in the Backplane 2.0 spec
      */
     public Scope(String scopeString) throws TokenException {
         this.scopes = parseScopeString(scopeString);
+        this.matcher = ScopeMatcher.compile(scopes);
     }
 
     public Scope(final BackplaneMessage.Field scopeField, final String value) {
         this.scopes = new LinkedHashMap<BackplaneMessage.Field, LinkedHashSet<String>>() {{
             put(scopeField, new LinkedHashSet<String>() {{ add(value); }});
         }};
+        this.matcher = ScopeMatcher.compile(scopes);
     }
 
     public Scope(Map<BackplaneMessage.Field, LinkedHashSet<String>> scopeMap) {
-        this.scopes = new LinkedHashMap<BackplaneMessage.Field, LinkedHashSet<String>>(scopeMap);
+        this.scopes = copyScopeMap(scopeMap);
+        this.matcher = ScopeMatcher.compile(scopes);
     }
 
     /**
      * @return a copy of this scope's internal map of scope key-values
      */
     public Map<BackplaneMessage.Field, LinkedHashSet<String>> getScopeMap() {
-        Map<BackplaneMessage.Field, LinkedHashSet<String>> mapCopy = new LinkedHashMap<BackplaneMessage.Field, LinkedHashSet<String>>();
-        mapCopy.putAll(scopes);
-        return mapCopy;
+        return copyScopeMap(scopes);
     }
 
     public Set<String> getScopeFieldValues(BackplaneMessage.Field field) {
-        return scopes.get(field);
+        LinkedHashSet<String> values = scopes.get(field);
+        return values == null ? null : Collections.unmodifiableSet(values);
+    }
+
+    /**
+     * @return the precompiled, immutable matcher for this scope
+     */
+    public ScopeMatcher getMatcher() {
+        return matcher;
     }
 
     public boolean isAuthorizationRequired() {
@@ -96,11 +124,7 @@ public class Scope {
 
 
     public boolean isMessageInScope(@NotNull BackplaneMessage message) {
-        for(BackplaneMessage.Field scopeField : scopes.keySet()) {
-            LinkedHashSet<String> scopeValues = scopes.get(scopeField);
-            if (scopeValues == null || ! scopeValues.contains(message.get(scopeField))) return false;
-        }
-        return true;
+        return matcher.matches(message);
     }
 
     public boolean containsScope(Scope testScope) {
@@ -256,6 +280,8 @@ public class Scope {
 
     private static final int MAX_PARAMETERS = 100;
 
+    private static final int INTERNED_SCOPES_MAX_SIZE = 1000;
+
     private static final String SEPARATOR = " ";
     private static final String DELIMITER = ":";
 
@@ -267,7 +293,24 @@ public class Scope {
         }
     }};
 
-    private Map<BackplaneMessage.Field,LinkedHashSet<String>> scopes;
+    // small LRU table of recently parsed scope strings, Scope instances are immutable and can be shared
+    private static final Map<String,Scope> internedScopes = new LinkedHashMap<String, Scope>(INTERNED_SCOPES_MAX_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Scope> eldest) {
+            return size() > INTERNED_SCOPES_MAX_SIZE;
+        }
+    };
+
+    private final Map<BackplaneMessage.Field,LinkedHashSet<String>> scopes;
+    private final ScopeMatcher matcher;
+
+    private static Map<BackplaneMessage.Field, LinkedHashSet<String>> copyScopeMap(Map<BackplaneMessage.Field, LinkedHashSet<String>> scopeMap) {
+        Map<BackplaneMessage.Field, LinkedHashSet<String>> mapCopy = new LinkedHashMap<BackplaneMessage.Field, LinkedHashSet<String>>();
+        for (Map.Entry<BackplaneMessage.Field, LinkedHashSet<String>> entry : scopeMap.entrySet()) {
+            mapCopy.put(entry.getKey(), entry.getValue() == null ? null : new LinkedHashSet<String>(entry.getValue()));
+        }
+        return mapCopy;
+    }
 
     private static Map<BackplaneMessage.Field, LinkedHashSet<String>> parseScopeString(String scopeString) throws TokenException {
 
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane.server2;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable, precompiled form of a Scope, used to test messages against it.
+ *
+ * Scope fields are kept in a bitset indexed by field ordinal, single-valued fields are compared directly
+ * and multi-valued fields are looked up in a hash set. Values are interned, so that the many tokens
+ * scoped to the same bus or channel share their strings.
+ *
+ * @author Johnny Bufu
+ */
+public final class ScopeMatcher {
+
+    // - PUBLIC
+
+    public static ScopeMatcher compile(@NotNull Map<BackplaneMessage.Field, ? extends Set<String>> scopes) {
+        return new ScopeMatcher(scopes);
+    }
+
+    public boolean matches(@NotNull BackplaneMessage message) {
+        if (matchesNothing) return false;
+        for (int bits = fieldMask; bits != 0; bits &= bits - 1) {
+            int ordinal = Integer.numberOfTrailingZeros(bits);
+            String messageValue = message.get(FIELDS[ordinal]);
+            if (messageValue == null) return false;
+            Object scopeValues = values[ordinal];
+            if (scopeValues instanceof String) {
+                if (! scopeValues.equals(messageValue)) return false;
+            } else if (! ((Set) scopeValues).contains(messageValue)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean hasField(@NotNull BackplaneMessage.Field field) {
+        return (fieldMask & (1 << field.ordinal())) != 0;
+    }
+
+    // - PACKAGE
+
+    /**
+     * @return the shared instance of the given scope value, if the intern table is not full
+     */
+    static String intern(String value) {
+        if (value == null) return null;
+        String interned = internTable.get(value);
+        if (interned != null) return interned;
+        if (internTable.size() >= INTERN_TABLE_MAX_SIZE) return value;
+        interned = internTable.putIfAbsent(value, value);
+        return interned != null ? interned : value;
+    }
+
+    // - PRIVATE
+
+    private static final BackplaneMessage.Field[] FIELDS = BackplaneMessage.Field.values();
+
+    private static final int INTERN_TABLE_MAX_SIZE = 50000;
+
+    private static final ConcurrentHashMap<String,String> internTable = new ConcurrentHashMap<String, String>();
+
+    private final int fieldMask;
+    private final Object[] values = new Object[FIELDS.length];
+    private final boolean matchesNothing;
+
+    private ScopeMatcher(Map<BackplaneMessage.Field, ? extends Set<String>> scopes) {
+        int mask = 0;
+        boolean empty = false;
+        for (Map.Entry<BackplaneMessage.Field, ? extends Set<String>> entry : scopes.entrySet()) {
+            int ordinal = entry.getKey().ordinal();
+            Set<String> scopeValues = entry.getValue();
+            mask |= 1 << ordinal;
+            if (scopeValues == null || scopeValues.isEmpty()) {
+                empty = true;
+            } else if (scopeValues.size() == 1) {
+                values[ordinal] = intern(scopeValues.iterator().next());
+            } else {
+                Set<String> internedValues = new HashSet<String>(scopeValues.size() * 2);
+                for (String value : scopeValues) {
+                    internedValues.add(intern(value));
+                }
+                values[ordinal] = internedValues;
+            }
+        }
+        this.fieldMask = mask;
+        this.matchesNothing = empty;
+    }
+}
@@ -87,8 +87,16 @@ public class Token extends ExternalizableCore {
     }
 
     public Scope getScope()  {
+        String scopeString = this.get(TokenField.SCOPE);
+        Pair<String,Scope> parsed = parsedScope;
+        // identity check: the memoized scope is valid for as long as the stored scope string is not replaced
+        if (parsed != null && parsed.getLeft() == scopeString) {
+            return parsed.getRight();
+        }
         try {
-            return new Scope(this.get(TokenField.SCOPE));
+            Scope scope = Scope.fromString(scopeString);
+            parsedScope = new Pair<String, Scope>(scopeString, scope);
+            return scope;
         } catch (TokenException e) {
             throw new IllegalStateException("Invalid scope on get(), should have been validated on token creation: " + this.get(TokenField.SCOPE));
         }
@@ -122,7 +130,7 @@ public class Token extends ExternalizableCore {
         GrantType grantType = GrantType.fromTokenString(tokenString);
         if (grantType == null) return false;
         String tokenNoPrefix = tokenString.substring(grantType.getTokenPrefix().length());
-        return tokenNoPrefix.length() == TOKEN_LENGTH;
+        return tokenNoPrefix.length() == TOKEN_LENGTH || TokenSigner.isSigned(tokenString);
     }
 
     public static @NotNull Token fromRequest(HttpServletRequest request, String tokenString, String authorizationHeader) throws TokenException {
@@ -137,12 +145,12 @@ public class Token extends ExternalizableCore {
         try {
             token = BP2DAOs.getTokenDao().get(tokenAndSource.getLeft());
         } catch (BackplaneServerException e) {
-            logger.error("Error looking up token: " + tokenAndSource.getLeft() , e);
+            logger.error("Error looking up token: " + TokenSigner.toLogString(tokenAndSource.getLeft()), e);
             throw new TokenException(OAuth2.OAUTH2_TOKEN_SERVER_ERROR, "error loading token", HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
         }
 
         if (token == null) {
-            logger.warn("token not found: " + tokenAndSource.getLeft());
+            logger.warn("token not found: " + TokenSigner.toLogString(tokenAndSource.getLeft()));
             throw new TokenException("invalid token", HttpServletResponse.SC_FORBIDDEN);
         }
 
@@ -206,7 +214,7 @@ public class Token extends ExternalizableCore {
             public void validate(String value) throws MessageException {
                 super.validate(value);
                 try {
-                    new Scope(value);
+                    Scope.fromString(value);
                 } catch (TokenException e) {
                     throw new InvalidRequestException("Invalid scope: " + value);
                 }
@@ -282,8 +290,15 @@ public class Token extends ExternalizableCore {
             return this;
         }
         
+        /**
+         * Anonymous access tokens with an expiration date are signed if token signing is enabled.
+         */
         public Token buildToken() throws MessageException {
             String id = type.getTokenPrefix() + RandomUtils.randomString(TOKEN_LENGTH);
+            String expires = data.get(TokenField.EXPIRES.getFieldName());
+            if (type == GrantType.ANONYMOUS && expires != null && TokenSigner.isEnabled()) {
+                id = TokenSigner.sign(id, expires, data.get(TokenField.SCOPE.getFieldName()));
+            }
             data.put(TokenField.ID.getFieldName(), id);
             return new Token(id, data);
         }
@@ -300,11 +315,15 @@ public class Token extends ExternalizableCore {
     
     private static final Logger logger = Logger.getLogger(Token.class);
 
-    private static final int TOKEN_LENGTH = 20;
+    static final int TOKEN_LENGTH = 20;
 
     private static final String GRANTS_SEPARATOR = " ";
 
-    private Token(String id, Map<String,String> data) throws MessageException {
+    // parsed scope memo, not part of the serialized token
+    private transient volatile Pair<String,Scope> parsedScope;
+
+    /** for TokenSigner, all other tokens are created by the Builder */
+    Token(String id, Map<String,String> data) throws MessageException {
         super.init(id, data);
         logger.debug("created token: " + this.toString());
     }
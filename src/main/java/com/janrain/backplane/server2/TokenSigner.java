@@ -0,0 +1,187 @@
+package com.janrain.backplane.server2;
+
+import com.janrain.backplane.config.BackplaneSystemProps;
+import com.janrain.commons.message.MessageException;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Self-validating anonymous access tokens, enabled by the TOKEN_SIGNING_KEY system property.
+ *
+ * token = prefix + random + "." + base64url(expires + "\n" + scope) + "." + base64url(hmac_sha256(key, prefix + random + "." + payload))
+ *
+ * The token type is given by the prefix, as for opaque tokens. Signed tokens are still persisted,
+ * so nodes without (or with a different) signing key look them up in storage like opaque tokens.
+ *
+ * @author Johnny Bufu
+ */
+public class TokenSigner {
+
+    // - PUBLIC
+
+    public static boolean isEnabled() {
+        return key != null;
+    }
+
+    /**
+     * @return true if the token string has the signed token format, signature not checked
+     */
+    public static boolean isSigned(String tokenString) {
+        if (tokenString == null) return false;
+        int payloadStart = tokenString.indexOf(SEPARATOR);
+        int signatureStart = tokenString.lastIndexOf(SEPARATOR);
+        GrantType type = GrantType.fromTokenString(tokenString);
+        return type != null && payloadStart == type.getTokenPrefix().length() + Token.TOKEN_LENGTH &&
+               signatureStart > payloadStart + 1 && signatureStart < tokenString.length() - 1;
+    }
+
+    /**
+     * @return the token carried by the signed token string, or null if it is malformed,
+     * signing is not enabled or the signature doesn't match this node's key; expiration is not checked
+     */
+    public static @Nullable Token verify(String tokenString) {
+        return verify(tokenString, key);
+    }
+
+    /**
+     * @return the start of the token string, enough to tell tokens apart in the logs but not usable as a token
+     */
+    public static String toLogString(String tokenString) {
+        if (tokenString == null) return null;
+        GrantType type = GrantType.fromTokenString(tokenString);
+        int length = (type == null ? 0 : type.getTokenPrefix().length()) + LOGGED_TOKEN_CHARS;
+        return tokenString.length() <= length ? tokenString : tokenString.substring(0, length) + "...";
+    }
+
+    // - PACKAGE
+
+    static @Nullable Token verify(String tokenString, SecretKeySpec signingKey) {
+        if (signingKey == null || ! isSigned(tokenString)) return null;
+        int signatureStart = tokenString.lastIndexOf(SEPARATOR);
+        String signed = tokenString.substring(0, signatureStart);
+        try {
+            byte[] expected = hmac(signingKey, signed);
+            byte[] actual = decode(tokenString.substring(signatureStart + 1));
+            if (! MessageDigest.isEqual(expected, actual)) {
+                logger.warn("invalid signature for token: " + toLogString(tokenString));
+                return null;
+            }
+            String payload = new String(decode(signed.substring(signed.indexOf(SEPARATOR) + 1)), UTF8);
+            int delim = payload.indexOf('\n');
+            if (delim == -1) return null;
+            GrantType type = GrantType.fromTokenString(tokenString);
+            Map<String,String> data = new HashMap<String, String>();
+            data.put(Token.TokenField.ID.getFieldName(), tokenString);
+            data.put(Token.TokenField.TYPE.getFieldName(), type.toString());
+            data.put(Token.TokenField.EXPIRES.getFieldName(), payload.substring(0, delim));
+            data.put(Token.TokenField.SCOPE.getFieldName(), payload.substring(delim + 1));
+            return new Token(tokenString, data);
+        } catch (MessageException e) {
+            logger.warn("invalid signed token: " + toLogString(tokenString) + " : " + e.getMessage());
+            return null;
+        } catch (Exception e) {
+            logger.error("error verifying signed token: " + toLogString(tokenString) + " : " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * @param unsignedId opaque token id, prefix and random part
+     * @return the signed token id
+     */
+    static String sign(String unsignedId, String expires, String scope) {
+        return sign(unsignedId, expires, scope, key);
+    }
+
+    static String sign(String unsignedId, String expires, String scope, SecretKeySpec signingKey) {
+        try {
+            String signed = unsignedId + SEPARATOR + encode((expires + "\n" + scope).getBytes(UTF8));
+            return signed + SEPARATOR + encode(hmac(signingKey, signed));
+        } catch (Exception e) {
+            throw new IllegalStateException("error signing token: " + e.getMessage(), e);
+        }
+    }
+
+    static SecretKeySpec createKey(String value) {
+        try {
+            return new SecretKeySpec(value.getBytes(UTF8), HMAC_SHA256_ALGORITHM);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(TokenSigner.class);
+
+    private static final String UTF8 = "utf-8";
+    private static final String HMAC_SHA256_ALGORITHM = "HmacSHA256";
+    private static final char SEPARATOR = '.';
+    private static final int MIN_KEY_LENGTH = 32;
+    private static final int LOGGED_TOKEN_CHARS = 6;
+
+    private static final SecretKeySpec key = loadKey();
+
+    /** Mac instances are expensive to look up and not thread safe, keep one per thread */
+    private static final ThreadLocal<Mac> HMAC_SHA256 = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                Mac mac = Mac.getInstance(HMAC_SHA256_ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private static SecretKeySpec loadKey() {
+        String value = System.getProperty(BackplaneSystemProps.TOKEN_SIGNING_KEY);
+        if (StringUtils.isBlank(value)) {
+            return null;
+        } else if (value.length() < MIN_KEY_LENGTH) {
+            logger.error(BackplaneSystemProps.TOKEN_SIGNING_KEY + " shorter than " + MIN_KEY_LENGTH + " characters, token signing disabled");
+            return null;
+        }
+        logger.info("anonymous access token signing enabled");
+        return createKey(value);
+    }
+
+    private static byte[] hmac(SecretKeySpec signingKey, String signed) throws GeneralSecurityException, UnsupportedEncodingException {
+        Mac mac;
+        if (signingKey == key) {
+            mac = HMAC_SHA256.get();
+        } else {
+            mac = Mac.getInstance(HMAC_SHA256_ALGORITHM);
+            mac.init(signingKey);
+        }
+        return mac.doFinal(signed.getBytes(UTF8));
+    }
+
+    /** url safe, unpadded base64 */
+    private static String encode(byte[] bytes) throws UnsupportedEncodingException {
+        String encoded = new String(Base64.encodeBase64(bytes), UTF8);
+        return StringUtils.stripEnd(encoded, "=").replace('+', '-').replace('/', '_');
+    }
+
+    private static byte[] decode(String encoded) throws UnsupportedEncodingException {
+        StringBuilder padded = new StringBuilder(encoded.replace('-', '+').replace('_', '/'));
+        while (padded.length() % 4 != 0) {
+            padded.append('=');
+        }
+        return Base64.decodeBase64(padded.toString().getBytes(UTF8));
+    }
+
+    private TokenSigner() {}
+}
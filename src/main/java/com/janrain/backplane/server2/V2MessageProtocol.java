@@ -0,0 +1,110 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane.server2;
+
+import com.janrain.backplane.common.BackplaneServerException;
+import com.janrain.backplane.common.BpSerialUtils;
+import com.janrain.backplane.common.DateTimeUtils;
+import com.janrain.backplane.redis.MessageProtocol;
+import com.janrain.backplane.server2.dao.BP2DAOs;
+import com.janrain.backplane.server2.dao.redis.RedisBackplaneMessageDAO;
+import com.janrain.commons.util.Pair;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Transaction;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Backplane v2 message processing.
+ *
+ * @author Tom Raney
+ */
+public class V2MessageProtocol implements MessageProtocol<BackplaneMessage> {
+
+    // - PUBLIC
+
+    public static final String V2_LAST_ID = "v2_last_id";
+
+    @Override
+    public String getName() {
+        return "v2";
+    }
+
+    @Override
+    public String getQueueKey() {
+        return RedisBackplaneMessageDAO.V2_MESSAGE_QUEUE;
+    }
+
+    @Override
+    public String getLastIdKey() {
+        return V2_LAST_ID;
+    }
+
+    @Override
+    public String getMessagesIndexKey() {
+        return RedisBackplaneMessageDAO.V2_MESSAGES;
+    }
+
+    @Override
+    public byte[] getMessageKey(String messageId) {
+        return RedisBackplaneMessageDAO.getKey(messageId);
+    }
+
+    @Override
+    public BackplaneMessage deserialize(byte[] bytes) {
+        return BpSerialUtils.deserialize(bytes);
+    }
+
+    @Override
+    public String getChannel(BackplaneMessage message) {
+        return message.getChannel();
+    }
+
+    @Override
+    public long getExpirationTime(BackplaneMessage message) {
+        // same as the stored message's TTL
+        return System.currentTimeMillis() + DateTimeUtils.getExpireSeconds(message.getIdValue(),
+                message.get(BackplaneMessage.Field.EXPIRE), message.isSticky()) * 1000L;
+    }
+
+    @Override
+    public Date getDateFromId(String messageId) {
+        return BackplaneMessage.getDateFromId(messageId);
+    }
+
+    @Override
+    public void updateId(BackplaneMessage message, Pair<String, Date> lastIdAndDate) {
+        message.updateId(lastIdAndDate);
+    }
+
+    @Override
+    public void insert(Transaction transaction, BackplaneMessage backplaneMessage, long messageTime) throws BackplaneServerException {
+        // storage layout depends on the configured message DAO
+        ((RedisBackplaneMessageDAO) BP2DAOs.getBackplaneMessageDAO()).insert(transaction, backplaneMessage, messageTime);
+    }
+
+    @Override
+    public void deadLettered(Jedis jedis, List<byte[]> messagesBytes) {
+        // nothing is accounted for queued v2 messages
+    }
+
+    @Override
+    public void deleteExpiredMessages() throws BackplaneServerException {
+        BP2DAOs.getBackplaneMessageDAO().deleteExpiredMessages();
+    }
+}
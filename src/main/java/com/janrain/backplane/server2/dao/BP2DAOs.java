@@ -1,10 +1,13 @@
 package com.janrain.backplane.server2.dao;
 
-import com.janrain.backplane.dao.DAO;
+import com.janrain.backplane.config.BackplaneSystemProps;
+import com.janrain.backplane.dao.BulkDAO;
 import com.janrain.backplane.server2.BusConfig2;
 import com.janrain.backplane.server2.BusOwner;
 import com.janrain.backplane.server2.Client;
+import com.janrain.backplane.server2.dao.memory.*;
 import com.janrain.backplane.server2.dao.redis.*;
+import org.apache.log4j.Logger;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Service;
 
@@ -24,6 +27,10 @@ public class BP2DAOs {
         return channelDao;
     }
 
+    public static ChannelBusCache getChannelBusCache() {
+        return channelBusCache;
+    }
+
     public static TokenDAO getTokenDao() {
         return tokenDao;
     }
@@ -56,7 +63,15 @@ public class BP2DAOs {
         return authorizationDecisionKeyDao;
     }
 
-    public static DAO getDaoByObjectType(Class<?> obj) {
+    public static RevocationJobDAO getRevocationJobDAO() {
+        return revocationJobDao;
+    }
+
+    public static RateLimitDAO getRateLimitDAO() {
+        return rateLimitDao;
+    }
+
+    public static BulkDAO getDaoByObjectType(Class<?> obj) {
         if (Client.class.isAssignableFrom(obj)) {
             return getClientDAO();
         } else if (BusOwner.class.isAssignableFrom(obj)) {
@@ -70,15 +85,49 @@ public class BP2DAOs {
 
     // - PRIVATE
 
-    private static final TokenDAO tokenDao = new RedisTokenDAO();
-    private static final GrantDAO grantDao = new RedisGrantDAO(tokenDao);
-    private static final BusDAO busDao = new RedisBusDAO(grantDao);
-    private static final ChannelDAO channelDao = new RedisChannelDAO();
-    private static final BusOwnerDAO busOwnerDao = new RedisBusOwnerDAO(busDao);
-    private static final ClientDAO clientDao = new RedisClientDAO();
-    private static final BackplaneMessageDAO messageDao = new RedisBackplaneMessageDAO();
-    private static final AuthSessionDAO authSessionDao = new RedisAuthSessionDAO();
-    private static final AuthorizationRequestDAO authorizationRequestDao = new RedisAuthorizationRequestDAO();
-    private static final AuthorizationDecisionKeyDAO authorizationDecisionKeyDao = new RedisAuthorizationDecisionKeyDAO();
+    private static final Logger logger = Logger.getLogger(BP2DAOs.class);
+
+    private static final boolean memoryStore = BackplaneSystemProps.isMemoryStore();
+
+    private static final int CHANNEL_BUS_CACHE_MAX_ENTRIES = 10000;
+    private static final int CHANNEL_BUS_CACHE_MAX_TTL_SECONDS = 3600;
+
+    private static final ChannelDAO channelDao = memoryStore ? new MemoryChannelDAO() : new RedisChannelDAO();
+    // in-memory channel lookups are local already
+    private static final ChannelBusCache channelBusCache = new ChannelBusCache(channelDao,
+            memoryStore ? 0 : CHANNEL_BUS_CACHE_MAX_ENTRIES, CHANNEL_BUS_CACHE_MAX_TTL_SECONDS);
+    private static final TokenDAO tokenDao = memoryStore ? new MemoryTokenDAO(channelDao) :
+            BackplaneSystemProps.isEdgeNode() ? new EdgeTokenDAO() : new RedisTokenDAO();
+    private static final GrantDAO grantDao = memoryStore ? new MemoryGrantDAO(tokenDao) : new RedisGrantDAO((RedisTokenDAO) tokenDao);
+    private static final BusDAO busDao = memoryStore ? new MemoryBusDAO(grantDao) : new RedisBusDAO(grantDao);
+    private static final BusOwnerDAO busOwnerDao = memoryStore ? new MemoryBusOwnerDAO(busDao) : new RedisBusOwnerDAO(busDao);
+    private static final ClientDAO clientDao = memoryStore ? new MemoryClientDAO() : new RedisClientDAO();
+    private static final BackplaneMessageDAO messageDao = createMessageDao();
+    private static final AuthSessionDAO authSessionDao = memoryStore ? new MemoryAuthSessionDAO() : new RedisAuthSessionDAO();
+    private static final AuthorizationRequestDAO authorizationRequestDao = memoryStore ?
+            new MemoryAuthorizationRequestDAO() : new RedisAuthorizationRequestDAO();
+    private static final AuthorizationDecisionKeyDAO authorizationDecisionKeyDao = memoryStore ?
+            new MemoryAuthorizationDecisionKeyDAO() : new RedisAuthorizationDecisionKeyDAO();
+    private static final RevocationJobDAO revocationJobDao = memoryStore ? new MemoryRevocationJobDAO() : new RedisRevocationJobDAO();
+    private static final RateLimitDAO rateLimitDao = memoryStore ? new MemoryRateLimitDAO() : new RedisRateLimitDAO();
+
+    private static BackplaneMessageDAO createMessageDao() {
+        if (memoryStore) {
+            return new MemoryBackplaneMessageDAO();
+        } else if (BackplaneSystemProps.isEdgeNode()) {
+            if (BackplaneSystemProps.isBusLogStore()) {
+                // the replica reads the messages from their own keys, which the bus logs don't write
+                String error = BackplaneSystemProps.NODE_MODE + "=" + BackplaneSystemProps.EDGE_NODE + " cannot be used with " +
+                        BackplaneSystemProps.V2_MESSAGE_STORE + "=" + BackplaneSystemProps.BUS_LOG_STORE;
+                logger.error(error);
+                throw new IllegalStateException(error);
+            }
+            return new EdgeBackplaneMessageDAO();
+        } else if (BackplaneSystemProps.isBusLogStore()) {
+            return new RedisBusLogBackplaneMessageDAO();
+        } else {
+            return new RedisBackplaneMessageDAO();
+        }
+    }
 
 }
@@ -17,7 +17,7 @@
 package com.janrain.backplane.server2.dao;
 
 import com.janrain.backplane.common.BackplaneServerException;
-import com.janrain.backplane.dao.DAO;
+import com.janrain.backplane.dao.BulkDAO;
 import com.janrain.backplane.server2.BusConfig2;
 import com.janrain.backplane.server2.oauth2.TokenException;
 
@@ -26,7 +26,7 @@ import java.util.List;
 /**
  * @author Johnny Bufu
  */
-public interface BusDAO extends DAO<BusConfig2> {
+public interface BusDAO extends BulkDAO<BusConfig2> {
 
     public List<BusConfig2> retrieveByOwner(String busOwner) throws BackplaneServerException;
 
@@ -1,9 +1,9 @@
 package com.janrain.backplane.server2.dao;
 
-import com.janrain.backplane.dao.DAO;
+import com.janrain.backplane.dao.BulkDAO;
 import com.janrain.backplane.server2.BusOwner;
 
 /**
  * @author Johnny Bufu
  */
-public interface BusOwnerDAO extends DAO<BusOwner> {}
+public interface BusOwnerDAO extends BulkDAO<BusOwner> {}
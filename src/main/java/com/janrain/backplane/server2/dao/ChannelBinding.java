@@ -0,0 +1,33 @@
+package com.janrain.backplane.server2.dao;
+
+/**
+ * The bus a channel is bound to, which never changes once the channel is created,
+ * and the time the channel expires.
+ *
+ * @author Johnny Bufu
+ */
+public class ChannelBinding {
+
+    // - PUBLIC
+
+    /**
+     * @param expires the time in milliseconds when the channel expires, 0 if it doesn't expire
+     */
+    public ChannelBinding(String bus, long expires) {
+        this.bus = bus;
+        this.expires = expires;
+    }
+
+    public String getBus() {
+        return bus;
+    }
+
+    public long getExpires() {
+        return expires;
+    }
+
+    // - PRIVATE
+
+    private final String bus;
+    private final long expires;
+}
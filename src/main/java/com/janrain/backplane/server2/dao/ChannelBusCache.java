@@ -0,0 +1,68 @@
+package com.janrain.backplane.server2.dao;
+
+import com.janrain.backplane.cache.L1Cache;
+import com.janrain.backplane.cache.L1CacheRegion;
+import com.janrain.backplane.common.BackplaneServerException;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Caches the bus each channel is bound to in the L1 cache, for the lookups done on every channel-scoped request.
+ *
+ * A channel's bus never changes, so a cached binding is valid until the channel expires; entries are kept
+ * until then, but for no longer than the maximum time to live. Channels that are not found are not cached,
+ * they may be created at any time.
+ *
+ * @author Johnny Bufu
+ */
+public class ChannelBusCache {
+
+    // - PUBLIC
+
+    /**
+     * @param maxEntries max number of cached bindings; 0 or negative values disable the cache
+     * @param maxTtlSeconds max time a binding is cached, for channels that don't expire
+     */
+    public ChannelBusCache(ChannelDAO channelDao, int maxEntries, int maxTtlSeconds) {
+        this.channelDao = channelDao;
+        this.cache = L1Cache.getInstance().getRegion("v2_channel_bus", String.class, maxEntries, maxTtlSeconds);
+    }
+
+    /**
+     * @return the bus the channel is bound to, or null if the channel doesn't exist
+     */
+    public @Nullable String getBus(String channelId) throws BackplaneServerException {
+        return getBuses(Collections.singleton(channelId)).get(channelId);
+    }
+
+    /**
+     * Looks up the channels not cached with a single DAO call.
+     *
+     * @return channel id -> bound bus, for the channels that exist
+     */
+    public Map<String,String> getBuses(Collection<String> channelIds) throws BackplaneServerException {
+        Map<String,String> buses = new LinkedHashMap<String, String>();
+        List<String> misses = new ArrayList<String>();
+        for (String channelId : channelIds) {
+            String bus = cache.get(channelId);
+            if (bus != null) {
+                buses.put(channelId, bus);
+            } else {
+                misses.add(channelId);
+            }
+        }
+        if (misses.isEmpty()) return buses;
+
+        for (Map.Entry<String,ChannelBinding> binding : channelDao.getBindings(misses).entrySet()) {
+            buses.put(binding.getKey(), binding.getValue().getBus());
+            cache.putUntil(binding.getKey(), binding.getValue().getBus(), binding.getValue().getExpires());
+        }
+        return buses;
+    }
+
+    // - PRIVATE
+
+    private final ChannelDAO channelDao;
+    private final L1CacheRegion<String> cache;
+}
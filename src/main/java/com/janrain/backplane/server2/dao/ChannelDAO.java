@@ -1,6 +1,18 @@
 package com.janrain.backplane.server2.dao;
 
+import com.janrain.backplane.common.BackplaneServerException;
 import com.janrain.backplane.dao.DAO;
 import com.janrain.backplane.server2.Channel;
 
-public interface ChannelDAO extends DAO<Channel> { }
+import java.util.Collection;
+import java.util.Map;
+
+public interface ChannelDAO extends DAO<Channel> {
+
+    /**
+     * Looks up the bus bindings of the given channels in a single round trip.
+     *
+     * @return channel id -> binding, for the channels that exist
+     */
+    Map<String,ChannelBinding> getBindings(Collection<String> channelIds) throws BackplaneServerException;
+}
@@ -16,13 +16,13 @@
 
 package com.janrain.backplane.server2.dao;
 
-import com.janrain.backplane.dao.DAO;
+import com.janrain.backplane.dao.BulkDAO;
 import com.janrain.backplane.server2.Client;
 
 
 /**
  * @author Tom Raney
  */
-public interface ClientDAO extends DAO<Client> {
+public interface ClientDAO extends BulkDAO<Client> {
 
 }
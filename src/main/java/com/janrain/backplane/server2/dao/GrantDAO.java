@@ -22,7 +22,9 @@ import com.janrain.backplane.server2.Grant;
 import com.janrain.backplane.server2.oauth2.TokenException;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author Tom Raney
@@ -32,6 +34,13 @@ public interface GrantDAO extends DAO<Grant> {
 
     void update(Grant existing, Grant grant) throws BackplaneServerException, TokenException;
     List<Grant> getByClientId(String clientId) throws BackplaneServerException;
+
+    /**
+     * Batch version of getByClientId().
+     *
+     * @return the active grants of each of the given clients, in the clients' order
+     */
+    Map<String,List<Grant>> getByClientIds(Collection<String> clientIds) throws BackplaneServerException;
     void deleteByBuses(@NotNull List<String> busesToDelete) throws BackplaneServerException, TokenException;
 
     /**
@@ -0,0 +1,44 @@
+package com.janrain.backplane.server2.dao;
+
+import com.janrain.backplane.common.BackplaneServerException;
+
+/**
+ * Token buckets shared by all nodes, from which nodes take permits in batches.
+ *
+ * A bucket holds up to burst permits and is refilled at ratePerSecond; buckets not used
+ * for long enough to be refilled completely are dropped.
+ *
+ * @author Johnny Bufu
+ */
+public interface RateLimitDAO {
+
+    /**
+     * Takes up to the requested number of permits from the bucket, without waiting.
+     */
+    Acquired acquire(String key, int ratePerSecond, int burst, int requested) throws BackplaneServerException;
+
+    public static class Acquired {
+
+        public Acquired(int permits, long retryAfterMillis) {
+            this.permits = permits;
+            this.retryAfterMillis = retryAfterMillis;
+        }
+
+        /**
+         * @return the number of permits taken, between 0 and the number requested
+         */
+        public int getPermits() {
+            return permits;
+        }
+
+        /**
+         * @return if no permits were taken, the time until one is available
+         */
+        public long getRetryAfterMillis() {
+            return retryAfterMillis;
+        }
+
+        private final int permits;
+        private final long retryAfterMillis;
+    }
+}
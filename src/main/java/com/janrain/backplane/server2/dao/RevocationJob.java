@@ -0,0 +1,184 @@
+package com.janrain.backplane.server2.dao;
+
+import com.janrain.backplane.common.BackplaneServerException;
+import com.janrain.backplane.common.DateTimeUtils;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.type.TypeReference;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Grant revocation (grant revoke, bus or bus owner delete) run in the background,
+ * stored as a map of string fields so that any node can report on it or resume it.
+ *
+ * Counters accumulate over all attempts: a resumed job finds again the grants left unchanged by
+ * the failed attempt, so grants_total may exceed the number of distinct grants that were changed.
+ *
+ * @author Johnny Bufu
+ */
+public class RevocationJob {
+
+    // - PUBLIC
+
+    public static enum Type { REVOKE_GRANTS, DELETE_BUSES, DELETE_BUS_OWNERS }
+
+    public static enum State {
+        QUEUED, RUNNING, COMPLETED, FAILED;
+
+        public boolean isFinished() {
+            return this == COMPLETED || this == FAILED;
+        }
+    }
+
+    public static enum Field {
+        ID, TYPE, PARAMS, STATE, NODE, ATTEMPTS, GRANTS_TOTAL, GRANTS_PROCESSED, TOKENS_REVOKED, BATCHES,
+        SUBMITTED, STARTED, FINISHED, ERROR;
+
+        public String getFieldName() {
+            return name().toLowerCase();
+        }
+    }
+
+    /**
+     * @param clientBuses client_id -> space separated buses to revoke from the client's grants
+     */
+    public static RevocationJob revokeGrants(String id, Map<String,String> clientBuses) throws BackplaneServerException {
+        return new RevocationJob(id, Type.REVOKE_GRANTS, toJson(new LinkedHashMap<String, String>(clientBuses)));
+    }
+
+    /**
+     * @param type DELETE_BUSES or DELETE_BUS_OWNERS
+     */
+    public static RevocationJob delete(String id, Type type, List<String> entityIds) throws BackplaneServerException {
+        if (type == Type.REVOKE_GRANTS) throw new IllegalArgumentException("not a delete job type: " + type);
+        return new RevocationJob(id, type, toJson(new ArrayList<String>(entityIds)));
+    }
+
+    /**
+     * @return the job with the given stored fields, or null if they are not a valid job
+     */
+    public static @Nullable RevocationJob fromMap(Map<String,String> fields) {
+        try {
+            RevocationJob job = new RevocationJob(fields.get(Field.ID.getFieldName()),
+                    Type.valueOf(fields.get(Field.TYPE.getFieldName())), fields.get(Field.PARAMS.getFieldName()));
+            job.fields.putAll(fields);
+            return job;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    public String getId() {
+        return get(Field.ID);
+    }
+
+    public Type getType() {
+        return Type.valueOf(get(Field.TYPE));
+    }
+
+    public State getState() {
+        return State.valueOf(get(Field.STATE));
+    }
+
+    public @Nullable String getNode() {
+        return get(Field.NODE);
+    }
+
+    public Map<String,String> getClientBuses() throws BackplaneServerException {
+        return fromJson(get(Field.PARAMS), new TypeReference<LinkedHashMap<String,String>>() {});
+    }
+
+    public List<String> getEntityIds() throws BackplaneServerException {
+        return fromJson(get(Field.PARAMS), new TypeReference<ArrayList<String>>() {});
+    }
+
+    public synchronized void started(String node) {
+        put(Field.STATE, State.RUNNING.toString());
+        put(Field.NODE, node);
+        increment(Field.ATTEMPTS, 1);
+        put(Field.STARTED, DateTimeUtils.ISO8601.get().format(new Date()));
+        fields.remove(Field.ERROR.getFieldName());
+    }
+
+    public synchronized void grantsFound(int grants) {
+        increment(Field.GRANTS_TOTAL, grants);
+    }
+
+    public synchronized void batchCompleted(int grants, int tokens) {
+        increment(Field.GRANTS_PROCESSED, grants);
+        increment(Field.TOKENS_REVOKED, tokens);
+        increment(Field.BATCHES, 1);
+    }
+
+    public synchronized void completed() {
+        put(Field.STATE, State.COMPLETED.toString());
+        put(Field.FINISHED, DateTimeUtils.ISO8601.get().format(new Date()));
+    }
+
+    public synchronized void failed(String error) {
+        put(Field.STATE, State.FAILED.toString());
+        put(Field.ERROR, error != null ? error : "unknown error");
+        put(Field.FINISHED, DateTimeUtils.ISO8601.get().format(new Date()));
+    }
+
+    public synchronized Map<String,String> asMap() {
+        return new LinkedHashMap<String, String>(fields);
+    }
+
+    /**
+     * @return the job's fields without its (possibly large) parameters
+     */
+    public Map<String,String> getStatus() {
+        Map<String,String> status = asMap();
+        status.remove(Field.PARAMS.getFieldName());
+        return status;
+    }
+
+    // - PRIVATE
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final Map<String,String> fields = new LinkedHashMap<String, String>();
+
+    private RevocationJob(String id, Type type, String params) {
+        if (id == null || params == null) throw new IllegalArgumentException("job id and parameters are required");
+        put(Field.ID, id);
+        put(Field.TYPE, type.toString());
+        put(Field.STATE, State.QUEUED.toString());
+        for (Field counter : EnumSet.of(Field.ATTEMPTS, Field.GRANTS_TOTAL, Field.GRANTS_PROCESSED, Field.TOKENS_REVOKED, Field.BATCHES)) {
+            put(counter, "0");
+        }
+        put(Field.SUBMITTED, DateTimeUtils.ISO8601.get().format(new Date()));
+        put(Field.PARAMS, params);
+    }
+
+    private synchronized String get(Field field) {
+        return fields.get(field.getFieldName());
+    }
+
+    private void put(Field field, String value) {
+        fields.put(field.getFieldName(), value);
+    }
+
+    private void increment(Field field, int delta) {
+        String current = get(field);
+        put(field, Long.toString((current == null ? 0 : Long.parseLong(current)) + delta));
+    }
+
+    private static String toJson(Object params) throws BackplaneServerException {
+        try {
+            return mapper.writeValueAsString(params);
+        } catch (Exception e) {
+            throw new BackplaneServerException("invalid revocation job parameters: " + e.getMessage(), e);
+        }
+    }
+
+    private static <T> T fromJson(String params, TypeReference<T> type) throws BackplaneServerException {
+        try {
+            return mapper.<T>readValue(params, type);
+        } catch (Exception e) {
+            throw new BackplaneServerException("invalid revocation job parameters: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.janrain.backplane.server2.dao;
+
+import com.janrain.backplane.common.BackplaneServerException;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * Storage for revocation jobs and the leases through which nodes claim them.
+ *
+ * A job is run by the node holding its lease; a job whose lease expired without the job being finished
+ * (the node running it failed) is claimed and resumed by another node.
+ *
+ * @author Johnny Bufu
+ */
+public interface RevocationJobDAO {
+
+    /**
+     * @return false if a job with the same id already exists, in which case nothing is stored
+     */
+    boolean create(RevocationJob job) throws BackplaneServerException;
+
+    @Nullable RevocationJob get(String id) throws BackplaneServerException;
+
+    /**
+     * Stores the job's current fields; finished jobs are kept for FINISHED_JOB_RETENTION_SECONDS.
+     */
+    void update(RevocationJob job) throws BackplaneServerException;
+
+    /**
+     * @return the ids of the jobs that are not finished
+     */
+    List<String> getUnfinished() throws BackplaneServerException;
+
+    /**
+     * Acquires or renews the lease on the job for the given node.
+     *
+     * @return false if the job is leased by another node
+     */
+    boolean claim(String id, String node, int leaseSeconds) throws BackplaneServerException;
+
+    /**
+     * Releases the job's lease, if held by the given node.
+     */
+    void release(String id, String node) throws BackplaneServerException;
+
+    static final int FINISHED_JOB_RETENTION_SECONDS = 7 * 24 * 3600;
+}
@@ -0,0 +1,147 @@
+package com.janrain.backplane.server2.dao;
+
+import com.janrain.backplane.common.DateTimeUtils;
+import com.janrain.backplane.common.RandomUtils;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress of a batch grant revocation, kept for the node's most recent revocations.
+ *
+ * @author Johnny Bufu
+ */
+public class RevocationProgress {
+
+    // - PUBLIC
+
+    public static enum State { RUNNING, COMPLETED, FAILED }
+
+    /**
+     * Receives the progress of the revocations started by a thread, see setThreadListener().
+     */
+    public static interface Listener {
+
+        void grantsFound(RevocationProgress progress, int grants);
+
+        void batchCompleted(RevocationProgress progress, int grants, int tokens);
+    }
+
+    /**
+     * Sets (or clears, if null) the listener notified of the progress of the revocations
+     * subsequently started by the current thread.
+     */
+    public static void setThreadListener(@Nullable Listener listener) {
+        if (listener == null) {
+            threadListener.remove();
+        } else {
+            threadListener.set(listener);
+        }
+    }
+
+    public static RevocationProgress start(String description) {
+        RevocationProgress progress = new RevocationProgress(description);
+        synchronized (recent) {
+            recent.put(progress.getId(), progress);
+        }
+        return progress;
+    }
+
+    /**
+     * @return the node's most recent revocations, oldest first
+     */
+    public static List<RevocationProgress> getRecent() {
+        synchronized (recent) {
+            return new ArrayList<RevocationProgress>(recent.values());
+        }
+    }
+
+    public static RevocationProgress get(String id) {
+        synchronized (recent) {
+            return recent.get(id);
+        }
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public void setGrantsTotal(int grantsTotal) {
+        this.grantsTotal.set(grantsTotal);
+        if (listener != null) {
+            listener.grantsFound(this, grantsTotal);
+        }
+    }
+
+    public void batchCompleted(int grants, int tokens) {
+        grantsProcessed.addAndGet(grants);
+        tokensRevoked.addAndGet(tokens);
+        batches.incrementAndGet();
+        if (listener != null) {
+            listener.batchCompleted(this, grants, tokens);
+        }
+    }
+
+    public void completed() {
+        finished = new Date();
+        state = State.COMPLETED;
+    }
+
+    public void failed(String error) {
+        this.error = error;
+        finished = new Date();
+        state = State.FAILED;
+    }
+
+    public Map<String,String> asMap() {
+        Map<String,String> result = new LinkedHashMap<String, String>();
+        result.put("id", id);
+        result.put("description", description);
+        result.put("state", state.toString());
+        result.put("grants_total", Integer.toString(grantsTotal.get()));
+        result.put("grants_processed", Integer.toString(grantsProcessed.get()));
+        result.put("tokens_revoked", Integer.toString(tokensRevoked.get()));
+        result.put("batches", Integer.toString(batches.get()));
+        result.put("started", DateTimeUtils.ISO8601.get().format(started));
+        Date finished = this.finished;
+        if (finished != null) result.put("finished", DateTimeUtils.ISO8601.get().format(finished));
+        if (error != null) result.put("error", error);
+        return result;
+    }
+
+    // - PRIVATE
+
+    private static final int MAX_RECENT = 100;
+
+    private static final ThreadLocal<Listener> threadListener = new ThreadLocal<Listener>();
+
+    private static final Map<String,RevocationProgress> recent = new LinkedHashMap<String, RevocationProgress>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, RevocationProgress> eldest) {
+            return size() > MAX_RECENT;
+        }
+    };
+
+    private final String id = RandomUtils.randomString(10);
+    private final String description;
+    private final Date started = new Date();
+    private volatile Date finished;
+    private volatile State state = State.RUNNING;
+    private volatile String error;
+
+    private final AtomicInteger grantsTotal = new AtomicInteger(0);
+    private final AtomicInteger grantsProcessed = new AtomicInteger(0);
+    private final AtomicInteger tokensRevoked = new AtomicInteger(0);
+    private final AtomicInteger batches = new AtomicInteger(0);
+
+    private final Listener listener = threadListener.get();
+
+    private RevocationProgress(String description) {
+        this.description = description;
+    }
+}
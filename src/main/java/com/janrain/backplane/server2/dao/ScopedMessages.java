@@ -0,0 +1,51 @@
+package com.janrain.backplane.server2.dao;
+
+import com.janrain.backplane.server2.BackplaneMessage;
+import com.janrain.backplane.server2.MessagesResponse;
+import com.janrain.backplane.server2.Scope;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds message responses from candidate messages, shared by the message DAOs.
+ *
+ * @author Johnny Bufu
+ */
+public class ScopedMessages {
+
+    // - PUBLIC
+
+    /**
+     * Adds the messages in scope to the response, up to MAX_MSGS_IN_FRAME, and sets the response's last message id.
+     *
+     * @param unfilteredMessages candidate messages, in order of message id
+     */
+    public static void filterMessagesPerScope(List<BackplaneMessage> unfilteredMessages, Scope scope, MessagesResponse bpResponse) {
+        // Filter and add to results
+        List<BackplaneMessage> filteredMessages = new ArrayList<BackplaneMessage>();
+        for (BackplaneMessage unfilteredMessage : unfilteredMessages) {
+            if (scope.isMessageInScope(unfilteredMessage)) {
+                if (filteredMessages.size() >= MAX_MSGS_IN_FRAME) {
+                    bpResponse.moreMessages(true);
+                    bpResponse.setLastMessageId(filteredMessages.get(filteredMessages.size() - 1).getIdValue());
+                    break;
+                }
+                filteredMessages.add(unfilteredMessage);
+            }
+        }
+
+        // update lastMessageId to point to last message in this unfiltered result
+        if (unfilteredMessages.size() > 0 && !bpResponse.moreMessages()) {
+            bpResponse.setLastMessageId(unfilteredMessages.get(unfilteredMessages.size() - 1).getIdValue());
+        }
+
+        bpResponse.addMessages(filteredMessages);
+    }
+
+    // - PRIVATE
+
+    private static final int MAX_MSGS_IN_FRAME = 25;
+
+    private ScopedMessages() {}
+}
@@ -18,8 +18,10 @@ package com.janrain.backplane.server2.dao;
 
 import com.janrain.backplane.common.BackplaneServerException;
 import com.janrain.backplane.dao.DAO;
+import com.janrain.backplane.server2.Channel;
 import com.janrain.backplane.server2.Token;
 import com.janrain.commons.message.MessageException;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.List;
 
@@ -32,6 +34,15 @@ public interface TokenDAO extends DAO<Token> {
     List<Token> retrieveTokensByGrant(String grantId) throws BackplaneServerException;
     void revokeTokenByGrant(String grantId) throws BackplaneServerException;
 
+    /**
+     * Persists the channel and the new anonymous tokens, and deletes the used refresh token, as one unit of work.
+     * Anonymous tokens have no backing grants, so no grant index is updated.
+     *
+     * @param usedRefreshTokenId refresh token the new tokens were issued for, if any
+     */
+    void issueAnonymous(Channel channel, Token accessToken, @Nullable Token refreshToken, @Nullable String usedRefreshTokenId)
+            throws BackplaneServerException;
+
     void deleteExpiredTokens() throws BackplaneServerException;
     void cacheRevokedCleanup() throws MessageException;
 }
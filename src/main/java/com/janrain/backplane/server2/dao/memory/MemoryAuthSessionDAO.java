@@ -0,0 +1,25 @@
+package com.janrain.backplane.server2.dao.memory;
+
+import com.janrain.backplane.dao.memory.MemoryDAO;
+import com.janrain.backplane.server2.AuthSession;
+import com.janrain.backplane.server2.dao.AuthSessionDAO;
+
+/**
+ * @author Johnny Bufu
+ */
+public class MemoryAuthSessionDAO extends MemoryDAO<AuthSession> implements AuthSessionDAO {
+
+    public MemoryAuthSessionDAO() {
+        super("v2_auth_session");
+    }
+
+    @Override
+    public void deleteExpiredAuthSessions() {
+        // expired sessions are removed by the expiry wheel
+    }
+
+    @Override
+    protected long getExpirationTime(AuthSession authSession) {
+        return parseExpirationTime(authSession.get(AuthSession.Field.EXPIRES));
+    }
+}
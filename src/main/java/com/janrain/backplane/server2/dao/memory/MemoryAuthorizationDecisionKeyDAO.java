@@ -0,0 +1,25 @@
+package com.janrain.backplane.server2.dao.memory;
+
+import com.janrain.backplane.dao.memory.MemoryDAO;
+import com.janrain.backplane.server2.dao.AuthorizationDecisionKeyDAO;
+import com.janrain.backplane.server2.oauth2.AuthorizationDecisionKey;
+
+/**
+ * @author Johnny Bufu
+ */
+public class MemoryAuthorizationDecisionKeyDAO extends MemoryDAO<AuthorizationDecisionKey> implements AuthorizationDecisionKeyDAO {
+
+    public MemoryAuthorizationDecisionKeyDAO() {
+        super("v2_authorization_decision_key");
+    }
+
+    @Override
+    public void deleteExpiredAuthorizationDecisionKeys() {
+        // expired keys are removed by the expiry wheel
+    }
+
+    @Override
+    protected long getExpirationTime(AuthorizationDecisionKey authorizationDecisionKey) {
+        return parseExpirationTime(authorizationDecisionKey.get(AuthorizationDecisionKey.Field.EXPIRES));
+    }
+}
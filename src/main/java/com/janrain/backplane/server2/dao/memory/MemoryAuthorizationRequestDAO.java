@@ -0,0 +1,25 @@
+package com.janrain.backplane.server2.dao.memory;
+
+import com.janrain.backplane.dao.memory.MemoryDAO;
+import com.janrain.backplane.server2.dao.AuthorizationRequestDAO;
+import com.janrain.backplane.server2.oauth2.AuthorizationRequest;
+
+/**
+ * @author Johnny Bufu
+ */
+public class MemoryAuthorizationRequestDAO extends MemoryDAO<AuthorizationRequest> implements AuthorizationRequestDAO {
+
+    public MemoryAuthorizationRequestDAO() {
+        super("v2_authorization_request");
+    }
+
+    @Override
+    public void deleteExpiredAuthorizationRequests() {
+        // expired requests are removed by the expiry wheel
+    }
+
+    @Override
+    protected long getExpirationTime(AuthorizationRequest authorizationRequest) {
+        return parseExpirationTime(authorizationRequest.get(AuthorizationRequest.Field.EXPIRES));
+    }
+}
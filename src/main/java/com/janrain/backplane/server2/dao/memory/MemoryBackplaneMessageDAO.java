@@ -0,0 +1,150 @@
+package com.janrain.backplane.server2.dao.memory;
+
+import com.janrain.backplane.common.BackplaneServerException;
+import com.janrain.backplane.dao.memory.MessageIndex;
+import com.janrain.backplane.server2.BackplaneMessage;
+import com.janrain.backplane.server2.MessagesResponse;
+import com.janrain.backplane.server2.Scope;
+import com.janrain.backplane.server2.Token;
+import com.janrain.backplane.server2.V2MessageProtocol;
+import com.janrain.backplane.server2.dao.BackplaneMessageDAO;
+import com.janrain.backplane.server2.dao.ScopedMessages;
+import com.janrain.backplane.server2.oauth2.TokenException;
+import com.janrain.commons.util.Pair;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.servlet.http.HttpServletResponse;
+import java.util.*;
+
+/**
+ * Keeps the messages in this node's memory, for the in-memory store.
+ *
+ * Messages are not queued: ids are assigned and messages become readable as they are persisted.
+ *
+ * @author Johnny Bufu
+ */
+public class MemoryBackplaneMessageDAO implements BackplaneMessageDAO {
+
+    @Override
+    public BackplaneMessage get(String id) throws BackplaneServerException {
+        return messages.get(id);
+    }
+
+    @Override
+    public List<BackplaneMessage> getAll() throws BackplaneServerException {
+        return messages.getMessagesSince(null);
+    }
+
+    @Override
+    public void persist(BackplaneMessage message) throws BackplaneServerException {
+        synchronized (this) {
+            // same total order guarantee as the message engine's
+            protocol.updateId(message, lastIdAndDate);
+            Date messageDate = protocol.getDateFromId(message.getIdValue());
+            if (messageDate == null) {
+                throw new BackplaneServerException("invalid message id: " + message.getIdValue());
+            }
+            lastIdAndDate = new Pair<String, Date>(message.getIdValue(), messageDate);
+            messages.add(message);
+        }
+    }
+
+    @Override
+    public void delete(String id) throws BackplaneServerException {
+        messages.remove(id);
+    }
+
+    @Override
+    public BackplaneMessage getLatestMessage() throws BackplaneServerException {
+        return messages.getLastMessage();
+    }
+
+    @NotNull
+    @Override
+    public BackplaneMessage retrieveBackplaneMessage(@NotNull String messageId, @NotNull Token token) throws BackplaneServerException, TokenException {
+        BackplaneMessage message = get(messageId);
+        if ( message == null || ! token.getScope().isMessageInScope(message)) {
+            // don't disclose that the messageId exists if not in scope
+            throw new TokenException("Message id '" + messageId + "' not found", HttpServletResponse.SC_NOT_FOUND);
+        } else {
+            return message;
+        }
+    }
+
+    @Override
+    public long getMessageCount(String channel) throws BackplaneServerException {
+        return messages.getChannelMessageCount(channel);
+    }
+
+    @Override
+    public long countMessages() throws BackplaneServerException {
+        return messages.size();
+    }
+
+    @Override
+    public void retrieveMessagesPerScope(@NotNull MessagesResponse bpResponse, @NotNull Token token) throws BackplaneServerException {
+        Scope scope = token.getScope();
+        String since = bpResponse.getLastMessageId();
+        Set<String> channelScopes = scope.getScopeFieldValues(BackplaneMessage.Field.CHANNEL);
+        Set<String> busScopes = scope.getScopeFieldValues(BackplaneMessage.Field.BUS);
+
+        // same candidates as the Redis channel and bus index intersection
+        List<BackplaneMessage> candidates = new ArrayList<BackplaneMessage>();
+        if (channelScopes != null) {
+            for (String channel : channelScopes) {
+                for (BackplaneMessage message : messages.getChannelMessagesSince(channel, since)) {
+                    if (busScopes == null || busScopes.contains(message.getBus())) {
+                        candidates.add(message);
+                    }
+                }
+            }
+            Collections.sort(candidates, ID_ORDER);
+        } else if (busScopes != null) {
+            for (BackplaneMessage message : messages.getMessagesSince(since)) {
+                if (busScopes.contains(message.getBus())) {
+                    candidates.add(message);
+                }
+            }
+        }
+
+        if ( ! candidates.isEmpty()) {
+            ScopedMessages.filterMessagesPerScope(candidates, scope, bpResponse);
+        } else {
+            BackplaneMessage last = messages.getLastMessage();
+            bpResponse.setLastMessageId(last == null ? "" : last.getIdValue());
+        }
+    }
+
+    @Override
+    public List<BackplaneMessage> retrieveMessagesNoScope(@Nullable String sinceIso8601timestamp) throws BackplaneServerException {
+        return messages.getMessagesSince(sinceIso8601timestamp);
+    }
+
+    @Override
+    public List<BackplaneMessage> retrieveMessagesByChannel(String channel) throws BackplaneServerException {
+        return messages.getChannelMessagesSince(channel, null);
+    }
+
+    @Override
+    public void deleteExpiredMessages() throws BackplaneServerException {
+        // expired messages are removed by the expiry wheel
+    }
+
+    // - PRIVATE
+
+    /** upper bound of the number of messages kept, the oldest messages are dropped beyond it */
+    private static final int MAX_MESSAGES = 100000;
+
+    private static final Comparator<BackplaneMessage> ID_ORDER = new Comparator<BackplaneMessage>() {
+        @Override
+        public int compare(BackplaneMessage backplaneMessage, BackplaneMessage backplaneMessage1) {
+            return backplaneMessage.getIdValue().compareTo(backplaneMessage1.getIdValue());
+        }
+    };
+
+    private final V2MessageProtocol protocol = new V2MessageProtocol();
+    private final MessageIndex<BackplaneMessage> messages = new MessageIndex<BackplaneMessage>(protocol, MAX_MESSAGES);
+
+    private Pair<String, Date> lastIdAndDate = new Pair<String, Date>("", new Date(0));
+}
@@ -0,0 +1,60 @@
+package com.janrain.backplane.server2.dao.memory;
+
+import com.janrain.backplane.common.BackplaneServerException;
+import com.janrain.backplane.dao.memory.MemoryDAO;
+import com.janrain.backplane.server2.BusConfig2;
+import com.janrain.backplane.server2.dao.BusDAO;
+import com.janrain.backplane.server2.dao.GrantDAO;
+import com.janrain.backplane.server2.oauth2.TokenException;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author Johnny Bufu
+ */
+public class MemoryBusDAO extends MemoryDAO<BusConfig2> implements BusDAO {
+
+    public MemoryBusDAO(GrantDAO grantDao) {
+        super("v2_bus");
+        this.grantDao = grantDao;
+    }
+
+    @Override
+    public List<BusConfig2> retrieveByOwner(String busOwner) throws BackplaneServerException {
+        List<BusConfig2> filtered = new ArrayList<BusConfig2>();
+        for (BusConfig2 busConfig : getAll()) {
+            if (busOwner.equals(busConfig.get(BusConfig2.Field.OWNER))) {
+                filtered.add(busConfig);
+            }
+        }
+        return filtered;
+    }
+
+    @Override
+    public void deleteByOwner(String busOwner) throws BackplaneServerException {
+        for (BusConfig2 busConfig : retrieveByOwner(busOwner)) {
+            delete(busConfig.getIdValue());
+        }
+    }
+
+    @Override
+    public void delete(String id) throws BackplaneServerException {
+        try {
+            // cleanup related grants first, a retried delete still finds them if this fails
+            grantDao.deleteByBuses(Collections.singletonList(id));
+        } catch (TokenException e) {
+            throw new BackplaneServerException("Error deleting buses: " + e.getMessage(), e);
+        }
+        super.delete(id);
+        logger.info("Bus " + id + " deleted successfully");
+    }
+
+    // PRIVATE
+
+    private static final Logger logger = Logger.getLogger(MemoryBusDAO.class);
+
+    private final GrantDAO grantDao;
+}
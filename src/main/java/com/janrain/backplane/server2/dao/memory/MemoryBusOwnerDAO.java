@@ -0,0 +1,38 @@
+package com.janrain.backplane.server2.dao.memory;
+
+import com.janrain.backplane.common.BackplaneServerException;
+import com.janrain.backplane.dao.memory.MemoryDAO;
+import com.janrain.backplane.server2.BusOwner;
+import com.janrain.backplane.server2.dao.BusDAO;
+import com.janrain.backplane.server2.dao.BusOwnerDAO;
+import com.janrain.backplane.server2.oauth2.TokenException;
+import org.apache.log4j.Logger;
+
+/**
+ * @author Johnny Bufu
+ */
+public class MemoryBusOwnerDAO extends MemoryDAO<BusOwner> implements BusOwnerDAO {
+
+    public MemoryBusOwnerDAO(BusDAO busDao) {
+        super("v2_bus_owner");
+        this.busDao = busDao;
+    }
+
+    @Override
+    public void delete(String id) throws BackplaneServerException {
+        super.delete(id);
+        try {
+            // delete all associated buses (and their dependencies)
+            busDao.deleteByOwner(id);
+        } catch (TokenException e) {
+            throw new BackplaneServerException("Error deleting bus owner " + id + ": " + e.getMessage(), e);
+        }
+        logger.info("Bus owner " + id + " deleted successfully");
+    }
+
+    // PRIVATE
+
+    private static final Logger logger = Logger.getLogger(MemoryBusOwnerDAO.class);
+
+    private final BusDAO busDao;
+}
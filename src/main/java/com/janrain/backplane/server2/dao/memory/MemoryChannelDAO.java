@@ -0,0 +1,42 @@
+package com.janrain.backplane.server2.dao.memory;
+
+import com.janrain.backplane.common.BackplaneServerException;
+import com.janrain.backplane.dao.memory.MemoryDAO;
+import com.janrain.backplane.server2.Channel;
+import com.janrain.backplane.server2.dao.ChannelBinding;
+import com.janrain.backplane.server2.dao.ChannelDAO;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @author Johnny Bufu
+ */
+public class MemoryChannelDAO extends MemoryDAO<Channel> implements ChannelDAO {
+
+    public MemoryChannelDAO() {
+        super("v2_channel");
+    }
+
+    @Override
+    public Map<String, ChannelBinding> getBindings(Collection<String> channelIds) throws BackplaneServerException {
+        Map<String,ChannelBinding> bindings = new LinkedHashMap<String, ChannelBinding>();
+        for (String channelId : channelIds) {
+            Channel channel = get(channelId);
+            if (channel != null) {
+                bindings.put(channelId, new ChannelBinding(channel.get(Channel.ChannelField.BUS), getStoredExpirationTime(channelId)));
+            }
+        }
+        return bindings;
+    }
+
+    /**
+     * Channels restored from a snapshot get their full expiration time again, since their creation time is not stored.
+     */
+    @Override
+    protected long getExpirationTime(Channel channel) {
+        int expireSeconds = Integer.parseInt(channel.get(Channel.ChannelField.EXPIRE_SECONDS));
+        return expireSeconds > 0 ? System.currentTimeMillis() + expireSeconds * 1000L : 0;
+    }
+}
@@ -0,0 +1,15 @@
+package com.janrain.backplane.server2.dao.memory;
+
+import com.janrain.backplane.dao.memory.MemoryDAO;
+import com.janrain.backplane.server2.Client;
+import com.janrain.backplane.server2.dao.ClientDAO;
+
+/**
+ * @author Johnny Bufu
+ */
+public class MemoryClientDAO extends MemoryDAO<Client> implements ClientDAO {
+
+    public MemoryClientDAO() {
+        super("v2_client");
+    }
+}
@@ -0,0 +1,138 @@
+package com.janrain.backplane.server2.dao.memory;
+
+import com.janrain.backplane.common.BackplaneServerException;
+import com.janrain.backplane.dao.memory.MemoryDAO;
+import com.janrain.backplane.server2.BackplaneMessage;
+import com.janrain.backplane.server2.Grant;
+import com.janrain.backplane.server2.Scope;
+import com.janrain.backplane.server2.dao.GrantDAO;
+import com.janrain.backplane.server2.dao.RevocationProgress;
+import com.janrain.backplane.server2.dao.TokenDAO;
+import com.janrain.backplane.server2.oauth2.TokenException;
+import com.janrain.commons.message.MessageException;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author Johnny Bufu
+ */
+public class MemoryGrantDAO extends MemoryDAO<Grant> implements GrantDAO {
+
+    public MemoryGrantDAO(TokenDAO tokenDao) {
+        super("v2_grant");
+        this.tokenDao = tokenDao;
+    }
+
+    @Override
+    public List<Grant> getByClientId(String clientId) throws BackplaneServerException {
+        List<Grant> filtered = new ArrayList<Grant>();
+        for (Grant grant : getAll()) {
+            if (clientId.equals(grant.get(Grant.GrantField.ISSUED_TO_CLIENT_ID)) && grant.getState().isActive()) {
+                filtered.add(grant);
+            }
+        }
+        return filtered;
+    }
+
+    @Override
+    public Map<String, List<Grant>> getByClientIds(Collection<String> clientIds) throws BackplaneServerException {
+        Map<String,List<Grant>> result = new LinkedHashMap<String, List<Grant>>();
+        for (String clientId : clientIds) {
+            result.put(clientId, new ArrayList<Grant>());
+        }
+        for (Grant grant : getAll()) {
+            List<Grant> clientGrants = result.get(grant.get(Grant.GrantField.ISSUED_TO_CLIENT_ID));
+            if (clientGrants != null && grant.getState().isActive()) {
+                clientGrants.add(grant);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void update(Grant existing, Grant updated) throws BackplaneServerException {
+        tokenDao.revokeTokenByGrant(existing.getIdValue());
+        super.delete(existing.getIdValue());
+        persist(updated);
+        logger.info("Updated grant (and revoked tokens): " + updated.getIdValue());
+    }
+
+    @Override
+    public void delete(String id) throws BackplaneServerException {
+        super.delete(id);
+        tokenDao.revokeTokenByGrant(id);
+        logger.info("deleted grant " + id);
+    }
+
+    @Override
+    public void deleteByBuses(@NotNull List<String> busesToDelete) throws BackplaneServerException, TokenException {
+        List<Grant> grants = new ArrayList<Grant>();
+        for (Grant grant : getAll()) {
+            Set<String> buses = grant.getAuthorizedScope().getScopeFieldValues(BackplaneMessage.Field.BUS);
+            if (buses != null && ! Collections.disjoint(buses, busesToDelete)) {
+                grants.add(grant);
+            }
+        }
+        Scope deleteBusesScope = new Scope(Scope.getEncodedScopesAsString(BackplaneMessage.Field.BUS, busesToDelete));
+        revokeBuses(grants, deleteBusesScope, "delete buses: " + busesToDelete);
+    }
+
+    @Override
+    public boolean revokeBuses(List<Grant> grants, List<String> buses) throws BackplaneServerException, TokenException {
+        Scope busesToRevoke = new Scope(Scope.getEncodedScopesAsString(BackplaneMessage.Field.BUS, buses));
+        return revokeBuses(grants, busesToRevoke, "revoke buses: " + buses) > 0;
+    }
+
+    // PRIVATE
+
+    private static final Logger logger = Logger.getLogger(MemoryGrantDAO.class);
+
+    private final TokenDAO tokenDao;
+
+    /**
+     * Removes the buses from the grants' authorized scopes, grants left without any bus are deleted.
+     *
+     * @return the number of grants that were changed
+     */
+    private int revokeBuses(Collection<Grant> grants, Scope busesToRevoke, String description) throws BackplaneServerException {
+        RevocationProgress progress = RevocationProgress.start(description);
+        try {
+            int changed = 0;
+            int tokensRevoked = 0;
+            for (Grant grant : grants) {
+                Scope grantScope = grant.getAuthorizedScope();
+                Scope updatedScope = Scope.revoke(grantScope, busesToRevoke);
+                if (updatedScope.equals(grantScope)) continue;
+                tokensRevoked += tokenDao.retrieveTokensByGrant(grant.getIdValue()).size();
+                if (updatedScope.isAuthorizationRequired()) {
+                    update(grant, new Grant.Builder(grant, grant.getState()).scope(updatedScope).buildGrant());
+                } else {
+                    delete(grant.getIdValue());
+                }
+                changed++;
+            }
+            progress.setGrantsTotal(changed);
+            progress.batchCompleted(changed, tokensRevoked);
+            progress.completed();
+            logger.info("Revocation " + progress.getId() + " completed: " + progress.asMap());
+            return changed;
+        } catch (MessageException e) {
+            progress.failed(e.getMessage());
+            throw new BackplaneServerException(e.getMessage(), e);
+        } catch (BackplaneServerException e) {
+            progress.failed(e.getMessage());
+            throw e;
+        } catch (RuntimeException e) {
+            progress.failed(e.getMessage());
+            throw e;
+        }
+    }
+}
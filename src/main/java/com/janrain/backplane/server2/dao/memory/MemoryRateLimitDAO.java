@@ -0,0 +1,72 @@
+package com.janrain.backplane.server2.dao.memory;
+
+import com.janrain.backplane.server2.dao.RateLimitDAO;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Single node: the buckets are kept in this node's memory.
+ *
+ * @author Johnny Bufu
+ */
+public class MemoryRateLimitDAO implements RateLimitDAO {
+
+    @Override
+    public Acquired acquire(String key, int ratePerSecond, int burst, int requested) {
+        long now = System.currentTimeMillis();
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+            purgeIdle(now);
+            buckets.putIfAbsent(key, new Bucket(burst, now));
+            bucket = buckets.get(key);
+        }
+        synchronized (bucket) {
+            if (now > bucket.updated) {
+                bucket.tokens = Math.min(burst, bucket.tokens + (now - bucket.updated) * ratePerSecond / 1000d);
+                bucket.updated = now;
+            }
+            int granted = (int) Math.min(requested, Math.floor(bucket.tokens));
+            bucket.tokens -= granted;
+            long retryAfter = granted > 0 ? 0 : (long) Math.ceil((1 - bucket.tokens) * 1000 / ratePerSecond);
+            bucket.idleAfter = now + (long) Math.ceil(burst * 1000d / ratePerSecond);
+            return new Acquired(granted, retryAfter);
+        }
+    }
+
+    // PRIVATE
+
+    private static final long PURGE_INTERVAL_MILLIS = 60000L;
+
+    private final ConcurrentHashMap<String,Bucket> buckets = new ConcurrentHashMap<String, Bucket>();
+
+    private volatile long lastPurge = 0;
+
+    private static class Bucket {
+        private double tokens;
+        private long updated;
+        /** full again after this time if not used, so it can be dropped */
+        private long idleAfter;
+
+        private Bucket(double tokens, long updated) {
+            this.tokens = tokens;
+            this.updated = updated;
+            this.idleAfter = updated;
+        }
+    }
+
+    private void purgeIdle(long now) {
+        if (now - lastPurge < PURGE_INTERVAL_MILLIS) return;
+        lastPurge = now;
+        Iterator<Map.Entry<String,Bucket>> entries = buckets.entrySet().iterator();
+        while (entries.hasNext()) {
+            Bucket bucket = entries.next().getValue();
+            synchronized (bucket) {
+                if (bucket.idleAfter < now) {
+                    entries.remove();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.janrain.backplane.server2.dao.memory;
+
+import com.janrain.backplane.server2.dao.RevocationJob;
+import com.janrain.backplane.server2.dao.RevocationJobDAO;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Single node: jobs don't outlive the process, so leases are never contended and finished jobs are kept
+ * until the retention time has passed and another job is stored.
+ *
+ * @author Johnny Bufu
+ */
+public class MemoryRevocationJobDAO implements RevocationJobDAO {
+
+    @Override
+    public boolean create(RevocationJob job) {
+        purgeExpired();
+        return jobs.putIfAbsent(job.getId(), new Entry(job.asMap(), 0)) == null;
+    }
+
+    @Override
+    public @Nullable RevocationJob get(String id) {
+        Entry entry = jobs.get(id);
+        return entry == null ? null : RevocationJob.fromMap(entry.fields);
+    }
+
+    @Override
+    public void update(RevocationJob job) {
+        long expires = job.getState().isFinished() ? System.currentTimeMillis() + FINISHED_JOB_RETENTION_SECONDS * 1000L : 0;
+        jobs.put(job.getId(), new Entry(job.asMap(), expires));
+    }
+
+    @Override
+    public List<String> getUnfinished() {
+        List<String> unfinished = new ArrayList<String>();
+        for (Entry entry : jobs.values()) {
+            RevocationJob job = RevocationJob.fromMap(entry.fields);
+            if (job != null && ! job.getState().isFinished()) {
+                unfinished.add(job.getId());
+            }
+        }
+        return unfinished;
+    }
+
+    @Override
+    public boolean claim(String id, String node, int leaseSeconds) {
+        String holder = leases.putIfAbsent(id, node);
+        return holder == null || holder.equals(node);
+    }
+
+    @Override
+    public void release(String id, String node) {
+        leases.remove(id, node);
+    }
+
+    // PRIVATE
+
+    private final ConcurrentHashMap<String,Entry> jobs = new ConcurrentHashMap<String, Entry>();
+    private final ConcurrentHashMap<String,String> leases = new ConcurrentHashMap<String, String>();
+
+    private static class Entry {
+        private final Map<String,String> fields;
+        private final long expires;
+
+        private Entry(Map<String, String> fields, long expires) {
+            this.fields = fields;
+            this.expires = expires;
+        }
+    }
+
+    private void purgeExpired() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String,Entry> entry : jobs.entrySet()) {
+            if (entry.getValue().expires > 0 && entry.getValue().expires < now) {
+                jobs.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+}
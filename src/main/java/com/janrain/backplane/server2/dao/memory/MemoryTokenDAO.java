@@ -0,0 +1,81 @@
+package com.janrain.backplane.server2.dao.memory;
+
+import com.janrain.backplane.common.BackplaneServerException;
+import com.janrain.backplane.dao.memory.MemoryDAO;
+import com.janrain.backplane.server2.Channel;
+import com.janrain.backplane.server2.Token;
+import com.janrain.backplane.server2.TokenSigner;
+import com.janrain.backplane.server2.dao.ChannelDAO;
+import com.janrain.backplane.server2.dao.TokenDAO;
+import com.janrain.commons.message.MessageException;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * @author Johnny Bufu
+ */
+public class MemoryTokenDAO extends MemoryDAO<Token> implements TokenDAO {
+
+    public MemoryTokenDAO(ChannelDAO channelDao) {
+        super("v2_token");
+        this.channelDao = channelDao;
+    }
+
+    @Override
+    public List<Token> retrieveTokensByGrant(String grantId) throws BackplaneServerException {
+        List<Token> filtered = new ArrayList<Token>();
+        for (Token token : getAll()) {
+            if (token.getBackingGrants().contains(grantId)) {
+                filtered.add(token);
+            }
+        }
+        return filtered;
+    }
+
+    @Override
+    public void revokeTokenByGrant(String grantId) throws BackplaneServerException {
+        for (Token token : retrieveTokensByGrant(grantId)) {
+            delete(token.getIdValue());
+            logger.info("revoked token " + TokenSigner.toLogString(token.getIdValue()));
+        }
+    }
+
+    @Override
+    public void issueAnonymous(Channel channel, Token accessToken, @Nullable Token refreshToken, @Nullable String usedRefreshTokenId)
+            throws BackplaneServerException {
+        channelDao.persist(channel);
+        persist(accessToken);
+        if (refreshToken != null) {
+            persist(refreshToken);
+        }
+        if (usedRefreshTokenId != null) {
+            delete(usedRefreshTokenId);
+        }
+    }
+
+    @Override
+    public void deleteExpiredTokens() throws BackplaneServerException {
+        // expired tokens are removed by the expiry wheel
+    }
+
+    @Override
+    public void cacheRevokedCleanup() throws MessageException {
+        // no-op
+    }
+
+    @Override
+    protected long getExpirationTime(Token token) {
+        Date expires = token.getExpirationDate();
+        return expires == null ? 0 : expires.getTime();
+    }
+
+    // PRIVATE
+
+    private static final Logger logger = Logger.getLogger(MemoryTokenDAO.class);
+
+    private final ChannelDAO channelDao;
+}
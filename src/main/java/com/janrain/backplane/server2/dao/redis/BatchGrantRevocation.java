@@ -0,0 +1,186 @@
+package com.janrain.backplane.server2.dao.redis;
+
+import com.janrain.backplane.common.BackplaneServerException;
+import com.janrain.backplane.common.BpSerialUtils;
+import com.janrain.backplane.redis.Redis;
+import com.janrain.backplane.server2.Grant;
+import com.janrain.backplane.server2.Scope;
+import com.janrain.backplane.server2.dao.RevocationProgress;
+import com.janrain.commons.message.MessageException;
+import com.janrain.commons.util.Pair;
+import org.apache.log4j.Logger;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Transaction;
+
+import java.util.*;
+
+/**
+ * Revokes buses from many grants at once.
+ *
+ * The affected grants are computed once, then grant updates/deletes and the revocation of the tokens
+ * backed by them are applied in transactions of at most BATCH_SIZE grants,
+ * each preceded by a single pipelined read of the stored grants and their token index.
+ * The read grant and token index keys are watched, a batch is re-read and retried if any of them changed
+ * before its transaction was executed.
+ *
+ * @author Johnny Bufu
+ */
+class BatchGrantRevocation {
+
+    BatchGrantRevocation(RedisTokenDAO tokenDao) {
+        this.tokenDao = tokenDao;
+    }
+
+    /**
+     * Removes the given buses from the grants' authorized scopes, grants left without any bus are deleted.
+     * Tokens backed by the changed grants are revoked.
+     *
+     * @return the number of grants that were changed
+     */
+    int revokeBuses(Collection<Grant> grants, Scope busesToRevoke, RevocationProgress progress) throws BackplaneServerException {
+        List<Grant> changes = new ArrayList<Grant>();
+        for (Grant grant : grants) {
+            if (! Scope.revoke(grant.getAuthorizedScope(), busesToRevoke).equals(grant.getAuthorizedScope())) {
+                changes.add(grant);
+            }
+        }
+
+        progress.setGrantsTotal(changes.size());
+        // tokens issued by nodes that don't maintain the token index are found by a single token list scan
+        Map<String,Set<String>> unindexedTokenIds = null;
+        if (RedisTokenDAO.useIndexes()) {
+            tokenDao.ensureIndexes();
+        } else {
+            unindexedTokenIds = tokenDao.getTokenIdsByGrant();
+        }
+        for (int from = 0; from < changes.size(); from += BATCH_SIZE) {
+            List<Grant> batch = changes.subList(from, Math.min(from + BATCH_SIZE, changes.size()));
+            int tokensRevoked = -1;
+            for (int attempt = 1; tokensRevoked < 0; attempt++) {
+                if (attempt > MAX_BATCH_ATTEMPTS) {
+                    throw new BackplaneServerException("revocation " + progress.getId() + ": batch aborted by concurrent updates " + MAX_BATCH_ATTEMPTS + " times");
+                }
+                tokensRevoked = applyBatch(batch, busesToRevoke, unindexedTokenIds);
+            }
+            progress.batchCompleted(batch.size(), tokensRevoked);
+            logger.info("revocation " + progress.getId() + ": updated " + batch.size() + " grants, revoked " + tokensRevoked + " tokens");
+        }
+        return changes.size();
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(BatchGrantRevocation.class);
+
+    private static final int BATCH_SIZE = 100;
+    private static final int MAX_BATCH_ATTEMPTS = 10;
+
+    private final RedisTokenDAO tokenDao;
+
+    /**
+     * Revokes the buses from the stored versions of the batch's grants,
+     * so that grant updates made since the affected grants were computed are kept.
+     *
+     * @param unindexedTokenIds token ids per grant id, for tokens not in the grant token index; null if all tokens are indexed
+     * @return the number of revoked tokens, or -1 if a watched key changed and the batch wasn't applied
+     */
+    private int applyBatch(List<Grant> batch, Scope busesToRevoke, Map<String,Set<String>> unindexedTokenIds) throws BackplaneServerException {
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+
+            byte[][] watched = new byte[batch.size() * 2][];
+            for (int i = 0; i < batch.size(); i++) {
+                String grantId = batch.get(i).getIdValue();
+                watched[2 * i] = RedisGrantDAO.getKey(grantId);
+                watched[2 * i + 1] = RedisTokenDAO.getGrantIndexKey(grantId);
+            }
+            jedis.watch(watched);
+
+            // stored grants are needed to remove them from the grant list, token ids to revoke the tokens
+            Pipeline pipeline = jedis.pipelined();
+            List<Response<byte[]>> storedGrants = new ArrayList<Response<byte[]>>();
+            List<Response<Set<byte[]>>> tokenIds = new ArrayList<Response<Set<byte[]>>>();
+            for (Grant grant : batch) {
+                String grantId = grant.getIdValue();
+                storedGrants.add(pipeline.get(RedisGrantDAO.getKey(grantId)));
+                tokenIds.add(pipeline.smembers(RedisTokenDAO.getGrantIndexKey(grantId)));
+            }
+            pipeline.sync();
+
+            Set<String> revokedTokenIds = new LinkedHashSet<String>();
+            for (int i = 0; i < batch.size(); i++) {
+                for (byte[] id : tokenIds.get(i).get()) {
+                    revokedTokenIds.add(new String(id));
+                }
+                Set<String> unindexed = unindexedTokenIds == null ? null : unindexedTokenIds.get(batch.get(i).getIdValue());
+                if (unindexed != null) {
+                    revokedTokenIds.addAll(unindexed);
+                }
+            }
+            List<byte[]> storedTokens = new ArrayList<byte[]>();
+            if (! revokedTokenIds.isEmpty()) {
+                byte[][] tokenKeys = new byte[revokedTokenIds.size()][];
+                int i = 0;
+                for (String tokenId : revokedTokenIds) {
+                    tokenKeys[i++] = RedisTokenDAO.getKey(tokenId);
+                }
+                storedTokens = jedis.mget(tokenKeys);
+            }
+
+            // (existing, updated) grants with the existing grants' stored bytes; a null updated grant means the grant is deleted
+            List<Pair<Grant,Grant>> changes = new ArrayList<Pair<Grant, Grant>>();
+            List<byte[]> changedBytes = new ArrayList<byte[]>();
+            try {
+                for (Response<byte[]> storedGrant : storedGrants) {
+                    byte[] stored = storedGrant.get();
+                    if (stored == null) continue; // deleted in the meantime
+                    Grant existing = (Grant) BpSerialUtils.deserialize(stored);
+                    Scope updatedScope = Scope.revoke(existing.getAuthorizedScope(), busesToRevoke);
+                    if (updatedScope.equals(existing.getAuthorizedScope())) continue; // revoked in the meantime
+                    changes.add(new Pair<Grant, Grant>(existing, updatedScope.isAuthorizationRequired() ?
+                            new Grant.Builder(existing, existing.getState()).scope(updatedScope).buildGrant() : null));
+                    changedBytes.add(stored);
+                }
+            } catch (MessageException e) {
+                jedis.unwatch();
+                throw new BackplaneServerException(e.getMessage(), e);
+            }
+
+            Transaction t = jedis.multi();
+            for (int i = 0; i < changes.size(); i++) {
+                Grant existing = changes.get(i).getLeft();
+                Grant updated = changes.get(i).getRight();
+                t.lrem(RedisGrantDAO.getKey("list"), 0, changedBytes.get(i));
+                RedisGrantDAO.removeFromIndexes(t, existing);
+                if (updated == null) {
+                    t.del(RedisGrantDAO.getKey(existing.getIdValue()));
+                } else {
+                    byte[] updatedBytes = BpSerialUtils.serialize(updated);
+                    t.rpush(RedisGrantDAO.getKey("list"), updatedBytes);
+                    t.set(RedisGrantDAO.getKey(updated.getIdValue()), updatedBytes);
+                    RedisGrantDAO.addToIndexes(t, updated);
+                }
+                t.del(RedisTokenDAO.getGrantIndexKey(existing.getIdValue()));
+            }
+            int tokensRevoked = 0;
+            int i = 0;
+            for (String tokenId : revokedTokenIds) {
+                byte[] tokenBytes = storedTokens.get(i++);
+                if (tokenBytes == null) continue; // expired
+                t.lrem(RedisTokenDAO.getKey("list"), 0, tokenBytes);
+                t.del(RedisTokenDAO.getKey(tokenId));
+                tokensRevoked++;
+            }
+            if (t.exec() == null) {
+                logger.info("grant revocation batch aborted by a concurrent update, retrying");
+                return -1;
+            }
+            return tokensRevoked;
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+}
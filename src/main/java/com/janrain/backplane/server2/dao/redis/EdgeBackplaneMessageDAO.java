@@ -0,0 +1,95 @@
+package com.janrain.backplane.server2.dao.redis;
+
+import com.janrain.backplane.common.BackplaneServerException;
+import com.janrain.backplane.redis.MessageReplica;
+import com.janrain.backplane.server2.BackplaneMessage;
+import com.janrain.backplane.server2.MessagesResponse;
+import com.janrain.backplane.server2.Scope;
+import com.janrain.backplane.server2.Token;
+import com.janrain.backplane.server2.V2MessageProtocol;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Message DAO of edge nodes: reads are served from the node's message replica once it is synchronized,
+ * everything else goes to Redis. Reads the replica may not hold all messages for,
+ * and single message lookups missing from it, also go to Redis.
+ *
+ * @author Johnny Bufu
+ */
+public class EdgeBackplaneMessageDAO extends RedisBackplaneMessageDAO {
+
+    @Override
+    public BackplaneMessage getLatestMessage() throws BackplaneServerException {
+        BackplaneMessage latest = replica.isSynced() ? replica.getLastMessage() : null;
+        return latest != null ? latest : super.getLatestMessage();
+    }
+
+    @Override
+    public void retrieveMessagesPerScope(@NotNull MessagesResponse bpResponse, @NotNull Token token) throws BackplaneServerException {
+        String since = bpResponse.getLastMessageId();
+        if (! replica.covers(since)) {
+            super.retrieveMessagesPerScope(bpResponse, token);
+            return;
+        }
+
+        Scope scope = token.getScope();
+        Set<String> channelScopes = scope.getScopeFieldValues(BackplaneMessage.Field.CHANNEL);
+        Set<String> busScopes = scope.getScopeFieldValues(BackplaneMessage.Field.BUS);
+
+        // same candidates as the channel and bus index intersection
+        List<BackplaneMessage> messages = new ArrayList<BackplaneMessage>();
+        if (channelScopes != null) {
+            for (String channel : channelScopes) {
+                for (BackplaneMessage message : replica.getChannelMessagesSince(channel, since)) {
+                    if (busScopes == null || busScopes.contains(message.getBus())) {
+                        messages.add(message);
+                    }
+                }
+            }
+            Collections.sort(messages, ID_ORDER);
+        } else if (busScopes != null) {
+            for (BackplaneMessage message : replica.getMessagesSince(since)) {
+                if (busScopes.contains(message.getBus())) {
+                    messages.add(message);
+                }
+            }
+        }
+
+        if ( ! messages.isEmpty()) {
+            filterMessagesPerScope(messages, scope, bpResponse);
+        } else {
+            BackplaneMessage last = replica.getLastMessage();
+            bpResponse.setLastMessageId(last == null ? "" : last.getIdValue());
+        }
+    }
+
+    @Override
+    public List<BackplaneMessage> retrieveMessagesNoScope(@Nullable String sinceIso8601timestamp) throws BackplaneServerException {
+        return replica.covers(sinceIso8601timestamp) ? replica.getMessagesSince(sinceIso8601timestamp) : super.retrieveMessagesNoScope(sinceIso8601timestamp);
+    }
+
+    @Override
+    public List<BackplaneMessage> retrieveMessagesByChannel(String channel) throws BackplaneServerException {
+        return replica.covers(null) ? replica.getChannelMessagesSince(channel, null) : super.retrieveMessagesByChannel(channel);
+    }
+
+    @Override
+    public BackplaneMessage get(String id) throws BackplaneServerException {
+        BackplaneMessage message = replica.isSynced() ? replica.get(id) : null;
+        return message != null ? message : super.get(id);
+    }
+
+    // - PRIVATE
+
+    private static final Comparator<BackplaneMessage> ID_ORDER = new Comparator<BackplaneMessage>() {
+        @Override
+        public int compare(BackplaneMessage backplaneMessage, BackplaneMessage backplaneMessage1) {
+            return backplaneMessage.getIdValue().compareTo(backplaneMessage1.getIdValue());
+        }
+    };
+
+    private final MessageReplica<BackplaneMessage> replica = new MessageReplica<BackplaneMessage>(new V2MessageProtocol());
+}
@@ -0,0 +1,68 @@
+package com.janrain.backplane.server2.dao.redis;
+
+import com.janrain.backplane.common.BackplaneServerException;
+import com.janrain.backplane.server2.Channel;
+import com.janrain.backplane.server2.Token;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Token DAO of edge nodes: tokens are cached briefly, so that message polls don't look them up in Redis each time.
+ *
+ * Revoked tokens may be accepted by an edge node for up to TTL_MILLIS after revocation.
+ *
+ * @author Johnny Bufu
+ */
+public class EdgeTokenDAO extends RedisTokenDAO {
+
+    @Override
+    public Token get(String id) throws BackplaneServerException {
+        Entry entry = cache.get(id);
+        if (entry != null && entry.expires > System.currentTimeMillis()) {
+            return entry.token;
+        }
+        Token token = super.get(id);
+        if (token == null) {
+            cache.remove(id);
+        } else {
+            if (cache.size() >= MAX_ENTRIES) {
+                cache.clear();
+            }
+            cache.put(id, new Entry(token, System.currentTimeMillis() + TTL_MILLIS));
+        }
+        return token;
+    }
+
+    @Override
+    public void delete(String tokenId) throws BackplaneServerException {
+        cache.remove(tokenId);
+        super.delete(tokenId);
+    }
+
+    @Override
+    public void issueAnonymous(Channel channel, Token accessToken, @Nullable Token refreshToken, @Nullable String usedRefreshTokenId)
+            throws BackplaneServerException {
+        if (usedRefreshTokenId != null) {
+            cache.remove(usedRefreshTokenId);
+        }
+        super.issueAnonymous(channel, accessToken, refreshToken, usedRefreshTokenId);
+    }
+
+    // - PRIVATE
+
+    private static final long TTL_MILLIS = 10000L;
+    private static final int MAX_ENTRIES = 50000;
+
+    private final ConcurrentHashMap<String,Entry> cache = new ConcurrentHashMap<String, Entry>();
+
+    private static class Entry {
+        private final Token token;
+        private final long expires;
+
+        private Entry(Token token, long expires) {
+            this.token = token;
+            this.expires = expires;
+        }
+    }
+}
@@ -18,6 +18,7 @@ package com.janrain.backplane.server2.dao.redis;
 
 import com.janrain.backplane.common.BackplaneServerException;
 import com.janrain.backplane.common.BpSerialUtils;
+import com.janrain.backplane.common.DateTimeUtils;
 import com.janrain.backplane.common.RandomUtils;
 import com.janrain.backplane.redis.Redis;
 import com.janrain.backplane.server2.BackplaneMessage;
@@ -25,6 +26,7 @@ import com.janrain.backplane.server2.MessagesResponse;
 import com.janrain.backplane.server2.Scope;
 import com.janrain.backplane.server2.Token;
 import com.janrain.backplane.server2.dao.BackplaneMessageDAO;
+import com.janrain.backplane.server2.dao.ScopedMessages;
 import com.janrain.backplane.server2.oauth2.TokenException;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
@@ -342,6 +344,28 @@ public class RedisBackplaneMessageDAO implements BackplaneMessageDAO {
         Redis.getInstance().rpush(V2_MESSAGE_QUEUE.getBytes(), BpSerialUtils.serialize(obj));
     }
 
+    /**
+     * Adds the commands storing and indexing a processed message to the message engine's transaction.
+     */
+    public void insert(Transaction transaction, BackplaneMessage backplaneMessage, long messageTime) throws BackplaneServerException {
+        // save the individual message by key & TTL
+        transaction.setex(getKey(backplaneMessage.getIdValue()),
+                DateTimeUtils.getExpireSeconds(backplaneMessage.getIdValue(), backplaneMessage.get(BackplaneMessage.Field.EXPIRE), backplaneMessage.isSticky()),
+                BpSerialUtils.serialize(backplaneMessage));
+
+        // channel and bus sorted set index
+        transaction.zadd(getChannelKey(backplaneMessage.getChannel()), messageTime,
+                backplaneMessage.getIdValue().getBytes());
+        transaction.zadd(getBusKey(backplaneMessage.getBus()), messageTime,
+                backplaneMessage.getIdValue().getBytes());
+
+        // add message id to sorted set of all message ids as an index
+        String metaData = backplaneMessage.getBus() + " " + backplaneMessage.getChannel() + " " +
+                backplaneMessage.getIdValue();
+
+        transaction.zadd(V2_MESSAGES.getBytes(), messageTime, metaData.getBytes());
+    }
+
     @Override
     public void delete(String id) throws BackplaneServerException {
         Jedis jedis = null;
@@ -393,29 +417,9 @@ public class RedisBackplaneMessageDAO implements BackplaneMessageDAO {
 
     // PRIVATE
 
-    private static final int MAX_MSGS_IN_FRAME = 25;
-
     private static final Logger logger = Logger.getLogger(RedisBackplaneMessageDAO.class);
 
-    private void filterMessagesPerScope(List<BackplaneMessage> unfilteredMessages, Scope scope, MessagesResponse bpResponse) {
-        // Filter and add to results
-        List<BackplaneMessage> filteredMessages = new ArrayList<BackplaneMessage>();
-        for (BackplaneMessage unfilteredMessage : unfilteredMessages) {
-            if (scope.isMessageInScope(unfilteredMessage)) {
-                if (filteredMessages.size() >= MAX_MSGS_IN_FRAME) {
-                    bpResponse.moreMessages(true);
-                    bpResponse.setLastMessageId(filteredMessages.get(filteredMessages.size() - 1).getIdValue());
-                    break;
-                }
-                filteredMessages.add(unfilteredMessage);
-            }
-        }
-
-        // update lastMessageId to point to last message in this unfiltered result
-        if (unfilteredMessages.size() > 0 && !bpResponse.moreMessages()) {
-            bpResponse.setLastMessageId(unfilteredMessages.get(unfilteredMessages.size() - 1).getIdValue());
-        }
-
-        bpResponse.addMessages(filteredMessages);
+    protected void filterMessagesPerScope(List<BackplaneMessage> unfilteredMessages, Scope scope, MessagesResponse bpResponse) {
+        ScopedMessages.filterMessagesPerScope(unfilteredMessages, scope, bpResponse);
     }
 }
@@ -18,17 +18,24 @@ package com.janrain.backplane.server2.dao.redis;
 
 import com.janrain.backplane.common.BackplaneServerException;
 import com.janrain.backplane.common.BpSerialUtils;
+import com.janrain.backplane.dao.ConfigSnapshot;
+import com.janrain.backplane.dao.Page;
+import com.janrain.backplane.dao.redis.RedisListLoader;
+import com.janrain.backplane.dao.redis.RedisListWriter;
 import com.janrain.backplane.redis.Redis;
 import com.janrain.backplane.server2.BusConfig2;
 import com.janrain.backplane.server2.dao.BusDAO;
 import com.janrain.backplane.server2.dao.GrantDAO;
 import com.janrain.backplane.server2.oauth2.TokenException;
 import org.apache.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.Response;
 import redis.clients.jedis.Transaction;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -46,7 +53,7 @@ public class RedisBusDAO implements BusDAO {
 
     @Override
     public List<BusConfig2> retrieveByOwner(String busOwner) throws BackplaneServerException {
-        List<BusConfig2> buses = getAll();
+        List<BusConfig2> buses = snapshot.getAll();
         List<BusConfig2> filtered = new ArrayList<BusConfig2>();
         for (BusConfig2 busConfig : buses) {
             if (busOwner.equals(busConfig.get(BusConfig2.Field.OWNER))) {
@@ -58,7 +65,7 @@ public class RedisBusDAO implements BusDAO {
 
     @Override
     public void deleteByOwner(String busOwner) throws BackplaneServerException {
-        List<BusConfig2> buses = getAll();
+        List<BusConfig2> buses = snapshot.getAll();
         for (BusConfig2 busConfig: buses) {
             if (busOwner.equals(busConfig.get(BusConfig2.Field.OWNER))) {
                 delete(busConfig.getIdValue());
@@ -68,24 +75,12 @@ public class RedisBusDAO implements BusDAO {
 
     @Override
     public BusConfig2 get(String id) throws BackplaneServerException {
-        byte[] bytes = Redis.getInstance().get(getKey(id));
-        if (bytes != null) {
-            return (BusConfig2) BpSerialUtils.deserialize(bytes);
-        } else {
-            return null;
-        }
+        return snapshot.get(id);
     }
 
     @Override
     public List<BusConfig2> getAll() throws BackplaneServerException {
-        List<BusConfig2> buses = new ArrayList<BusConfig2>();
-        List<byte[]> bytesList = Redis.getInstance().lrange(getKey("list"), 0, -1);
-        for (byte[] bytes : bytesList) {
-            if (bytes != null) {
-                buses.add((BusConfig2) BpSerialUtils.deserialize(bytes));
-            }
-        }
-        return buses;
+        return snapshot.getAll();
     }
 
     @Override
@@ -93,6 +88,7 @@ public class RedisBusDAO implements BusDAO {
         byte[] bytes = BpSerialUtils.serialize(obj);
         Redis.getInstance().rpush(getKey("list"), bytes);
         Redis.getInstance().set(getKey(obj.getIdValue()), bytes);
+        snapshot.changed(obj.getIdValue());
     }
 
     @Override
@@ -115,6 +111,7 @@ public class RedisBusDAO implements BusDAO {
                     logger.warn("could not delete bus key " + new String(getKey(id)));
                 }
             }
+            snapshot.changed(id);
             // cleanup related grants
             grantDao.deleteByBuses(new ArrayList<String>() {{add(id);}});
             logger.info("Bus " + id + " deleted successfully");
@@ -126,9 +123,65 @@ public class RedisBusDAO implements BusDAO {
         }
     }
 
+    @Override
+    public void persistAll(List<BusConfig2> objs) throws BackplaneServerException {
+        writer.persistAll(objs);
+        List<String> ids = new ArrayList<String>(objs.size());
+        for (BusConfig2 obj : objs) {
+            ids.add(obj.getIdValue());
+        }
+        snapshot.changed(ids);
+    }
+
+    @Override
+    public Collection<String> deleteAll(List<String> ids) throws BackplaneServerException {
+        try {
+            // cleanup related grants first, in a single pass over the grants:
+            // a retried delete still finds the grants of the buses deleted by a failed attempt
+            if (! ids.isEmpty()) {
+                grantDao.deleteByBuses(ids);
+            }
+        } catch (TokenException e) {
+            throw new BackplaneServerException("Error deleting buses: " + e.getMessage(), e);
+        }
+        List<String> deleted = writer.deleteAll(ids);
+        snapshot.changed(ids);
+        logger.info(deleted.size() + " buses deleted successfully");
+        return deleted;
+    }
+
+    @Override
+    public Iterator<BusConfig2> iterateAll() throws BackplaneServerException {
+        return snapshot.getAll().iterator();
+    }
+
+    @Override
+    public Page<BusConfig2> getPage(@Nullable String cursor, int limit) throws BackplaneServerException {
+        return Page.byId(snapshot.getAll(), cursor, limit);
+    }
+
     // PRIVATE
 
     private static final Logger logger = Logger.getLogger(RedisClientDAO.class);
 
     private final GrantDAO grantDao;
+
+    private final RedisListWriter<BusConfig2> writer = new RedisListWriter<BusConfig2>() {
+        @Override
+        protected byte[] getKey(String id) {
+            return RedisBusDAO.getKey(id);
+        }
+    };
+
+    private final ConfigSnapshot<BusConfig2> snapshot = new ConfigSnapshot<BusConfig2>("v2_bus", new RedisListLoader<BusConfig2>() {
+        @Override
+        protected byte[] getKey(String id) {
+            return RedisBusDAO.getKey(id);
+        }
+
+        @Override
+        protected BusConfig2 deserialize(byte[] bytes) {
+            return BpSerialUtils.deserialize(bytes);
+        }
+    });
 }
@@ -0,0 +1,338 @@
+package com.janrain.backplane.server2.dao.redis;
+
+import com.janrain.backplane.common.BackplaneServerException;
+import com.janrain.backplane.common.BpSerialUtils;
+import com.janrain.backplane.common.DateTimeUtils;
+import com.janrain.backplane.config.BackplaneSystemProps;
+import com.janrain.backplane.redis.Redis;
+import com.janrain.backplane.server2.BackplaneMessage;
+import com.janrain.backplane.server2.BusConfig2;
+import com.janrain.backplane.server2.MessagesResponse;
+import com.janrain.backplane.server2.Scope;
+import com.janrain.backplane.server2.Token;
+import com.janrain.backplane.server2.V2MessageProtocol;
+import com.janrain.backplane.server2.dao.BP2DAOs;
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Transaction;
+
+import java.util.*;
+
+/**
+ * Stores messages in one log per bus: a sorted set of the serialized messages, scored by message time.
+ *
+ * Reads fetch the messages of the requested buses since a given time and filter channels on the consumer side.
+ * Single message lookups find the message's bus by its id, reads across all buses query only the buses
+ * that received messages in the requested time range; until the cluster is upgraded
+ * (see {@link BackplaneSystemProps#isClusterUpgraded()}) messages inserted by older leaders aren't indexed
+ * this way and all bus logs are queried.
+ *
+ * Logs are trimmed on insert, to the bus' longest retention time and to MAX_BUS_LOG_LENGTH messages,
+ * instead of scanning all messages in the periodic cleanup. The channel indexes are kept, for message counts.
+ * Unlike the default storage, where the channel message limit is enforced when messages are posted,
+ * a bus that receives more than MAX_BUS_LOG_LENGTH messages within its retention time loses its oldest
+ * messages before they expire.
+ *
+ * Edge nodes replicate messages from the per message keys and need the default storage.
+ *
+ * @author Johnny Bufu
+ */
+public class RedisBusLogBackplaneMessageDAO extends RedisBackplaneMessageDAO {
+
+    final public static String V2_BUS_LOGS = "v2_bus_logs";
+
+    public static byte[] getBusLogKey(String bus) {
+        return ("v2_bus_log_" + bus).getBytes();
+    }
+
+    /**
+     * Bus of the message with the given id, expires with the bus log
+     */
+    public static String getMessageBusKey(String messageId) {
+        return "v2_bus_log_msg_" + messageId;
+    }
+
+    @Override
+    public void insert(Transaction transaction, BackplaneMessage backplaneMessage, long messageTime) throws BackplaneServerException {
+        String bus = backplaneMessage.getBus();
+        int retentionSeconds = getMaxRetentionSeconds(bus);
+        long retainedSince = messageTime - retentionSeconds * 1000L;
+
+        byte[] busLogKey = getBusLogKey(bus);
+        transaction.zadd(busLogKey, messageTime, BpSerialUtils.serialize(backplaneMessage));
+        transaction.zremrangeByScore(busLogKey, 0, retainedSince);
+        transaction.zremrangeByRank(busLogKey, 0, -MAX_BUS_LOG_LENGTH - 1);
+        transaction.expire(busLogKey, retentionSeconds);
+        transaction.sadd(V2_BUS_LOGS.getBytes(), bus.getBytes());
+        transaction.zadd(V2_BUS_LOG_TIMES.getBytes(), messageTime, bus.getBytes());
+        transaction.setex(getMessageBusKey(backplaneMessage.getIdValue()), retentionSeconds, bus);
+
+        byte[] channelKey = getChannelKey(backplaneMessage.getChannel());
+        transaction.zadd(channelKey, messageTime, backplaneMessage.getIdValue().getBytes());
+        transaction.zremrangeByScore(channelKey, 0, retainedSince);
+        transaction.expire(channelKey, retentionSeconds);
+    }
+
+    @Override
+    public BackplaneMessage get(String id) throws BackplaneServerException {
+        Date date = BackplaneMessage.getDateFromId(id);
+        if (date == null) return null;
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getReadJedis();
+            String bus = jedis.get(getMessageBusKey(id));
+            Collection<String> buses;
+            if (bus != null) {
+                buses = Collections.singleton(bus);
+            } else if (BackplaneSystemProps.isClusterUpgraded()) {
+                return null;
+            } else {
+                buses = getBusesWithLogs(jedis);
+            }
+            // message times are unique across all buses
+            for (BackplaneMessage message : readLogs(jedis, buses, date.getTime(), date.getTime())) {
+                if (id.equals(message.getIdValue())) {
+                    return message;
+                }
+            }
+            return null;
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+
+    @Override
+    public BackplaneMessage getLatestMessage() throws BackplaneServerException {
+        String lastId = Redis.getInstance().get(V2MessageProtocol.V2_LAST_ID);
+        return StringUtils.isEmpty(lastId) ? null : get(lastId);
+    }
+
+    @Override
+    public long countMessages() throws BackplaneServerException {
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getReadJedis();
+            Pipeline pipeline = jedis.pipelined();
+            List<Response<Long>> counts = new ArrayList<Response<Long>>();
+            for (String bus : getBusesWithLogs(jedis)) {
+                counts.add(pipeline.zcard(getBusLogKey(bus)));
+            }
+            pipeline.sync();
+            long count = 0;
+            for (Response<Long> busCount : counts) {
+                count += busCount.get();
+            }
+            return count;
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+
+    @Override
+    public void retrieveMessagesPerScope(@NotNull MessagesResponse bpResponse, @NotNull Token token) throws BackplaneServerException {
+        Scope scope = token.getScope();
+        Set<String> channelScopes = scope.getScopeFieldValues(BackplaneMessage.Field.CHANNEL);
+        Set<String> busScopes = scope.getScopeFieldValues(BackplaneMessage.Field.BUS);
+
+        Set<String> buses = new LinkedHashSet<String>();
+        if (busScopes != null) {
+            buses.addAll(busScopes);
+        } else if (channelScopes != null) {
+            for (String channel : channelScopes) {
+                String bus = getChannelBus(channel);
+                if (bus != null) buses.add(bus);
+            }
+        }
+
+        Date lastMessageDate = BackplaneMessage.getDateFromId(bpResponse.getLastMessageId());
+        long lastMessageTime = lastMessageDate == null ? 0 : lastMessageDate.getTime();
+
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getReadJedis();
+            List<BackplaneMessage> messages = new ArrayList<BackplaneMessage>();
+            for (BackplaneMessage message : readLogs(jedis, buses, lastMessageTime + 1, Double.POSITIVE_INFINITY)) {
+                if (channelScopes == null || channelScopes.contains(message.getChannel())) {
+                    messages.add(message);
+                }
+            }
+
+            if ( ! messages.isEmpty()) {
+                filterMessagesPerScope(messages, scope, bpResponse);
+            } else {
+                String lastId = jedis.get(V2MessageProtocol.V2_LAST_ID);
+                bpResponse.setLastMessageId(lastId == null ? "" : lastId);
+            }
+        } catch (Exception e) {
+            logger.error(e);
+            throw new BackplaneServerException(e.getMessage());
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+
+    @Override
+    public List<BackplaneMessage> retrieveMessagesNoScope(@Nullable String sinceIso8601timestamp) throws BackplaneServerException {
+        double sinceInMs = 0;
+        if (StringUtils.isNotBlank(sinceIso8601timestamp)) {
+            sinceInMs = BackplaneMessage.getDateFromId(sinceIso8601timestamp).getTime();
+        }
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getReadJedis();
+            Set<String> buses = BackplaneSystemProps.isClusterUpgraded() ?
+                    getBusesWithMessagesSince(jedis, sinceInMs + 1) : getBusesWithLogs(jedis);
+            return readLogs(jedis, buses, sinceInMs + 1, Double.POSITIVE_INFINITY);
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+
+    @Override
+    public List<BackplaneMessage> retrieveMessagesByChannel(String channel) throws BackplaneServerException {
+        List<BackplaneMessage> messages = new ArrayList<BackplaneMessage>();
+        String bus = getChannelBus(channel);
+        if (bus == null) return messages;
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getReadJedis();
+            for (BackplaneMessage message : readLogs(jedis, Collections.singleton(bus), 0, Double.POSITIVE_INFINITY)) {
+                if (channel.equals(message.getChannel())) {
+                    messages.add(message);
+                }
+            }
+            return messages;
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+
+    /**
+     * Trims the logs of buses that received no messages lately, and forgets the logs that expired.
+     */
+    @Override
+    public void deleteExpiredMessages() throws BackplaneServerException {
+        Jedis jedis = null;
+        try {
+            logger.info("preparing to trim v2 bus logs");
+            jedis = Redis.getInstance().getWriteJedis();
+            long now = System.currentTimeMillis();
+            for (String bus : getBusesWithLogs(jedis)) {
+                byte[] busLogKey = getBusLogKey(bus);
+                jedis.zremrangeByScore(busLogKey, 0, now - getMaxRetentionSeconds(bus) * 1000L);
+                if (jedis.zcard(busLogKey) == 0) {
+                    jedis.srem(V2_BUS_LOGS.getBytes(), bus.getBytes());
+                    jedis.zrem(V2_BUS_LOG_TIMES.getBytes(), bus.getBytes());
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("error trimming v2 bus logs: " + e.getMessage(), e);
+        } finally {
+            logger.info("exiting v2 bus logs trim");
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+
+    @Override
+    public void delete(String id) throws BackplaneServerException {
+        BackplaneMessage message = get(id);
+        if (message == null) {
+            logger.warn("v2 message " + id + " not found in bus logs");
+            return;
+        }
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            Transaction t = jedis.multi();
+            t.zrem(getBusLogKey(message.getBus()), BpSerialUtils.serialize(message));
+            t.zrem(getChannelKey(message.getChannel()), id.getBytes());
+            t.del(getMessageBusKey(id));
+            t.exec();
+            logger.info("v2 message " + id + " deleted");
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(RedisBusLogBackplaneMessageDAO.class);
+
+    /** buses with logs, scored by the time of their newest message */
+    private static final String V2_BUS_LOG_TIMES = "v2_bus_log_times";
+
+    /**
+     * Max number of messages kept per bus, the oldest are trimmed beyond it even if they haven't expired.
+     * Bounds the size of a bus log and of the reads of buses without channel scopes; deliberately not derived
+     * from the retention time, which doesn't bound the number of messages a bus receives.
+     */
+    private static final int MAX_BUS_LOG_LENGTH = 10000;
+
+    /** used for buses without a configuration, BusConfig2's maximum retention time */
+    private static final int DEFAULT_MAX_RETENTION_SECONDS = 604800;
+
+    private Set<String> getBusesWithLogs(Jedis jedis) {
+        Set<String> buses = new LinkedHashSet<String>();
+        for (byte[] bus : jedis.smembers(V2_BUS_LOGS.getBytes())) {
+            buses.add(new String(bus));
+        }
+        return buses;
+    }
+
+    private Set<String> getBusesWithMessagesSince(Jedis jedis, double minTime) {
+        Set<String> buses = new LinkedHashSet<String>();
+        for (byte[] bus : jedis.zrangeByScore(V2_BUS_LOG_TIMES.getBytes(), minTime, Double.POSITIVE_INFINITY)) {
+            buses.add(new String(bus));
+        }
+        return buses;
+    }
+
+    /**
+     * @return the unexpired messages of the buses in the given time range, in order of message id
+     */
+    private List<BackplaneMessage> readLogs(Jedis jedis, Collection<String> buses, double minTime, double maxTime) {
+        List<BackplaneMessage> messages = new ArrayList<BackplaneMessage>();
+        if (buses.isEmpty()) return messages;
+
+        Pipeline pipeline = jedis.pipelined();
+        List<Response<Set<byte[]>>> responses = new ArrayList<Response<Set<byte[]>>>();
+        for (String bus : buses) {
+            responses.add(pipeline.zrangeByScore(getBusLogKey(bus), minTime, maxTime));
+        }
+        pipeline.sync();
+
+        Date now = new Date();
+        for (Response<Set<byte[]>> response : responses) {
+            for (byte[] bytes : response.get()) {
+                BackplaneMessage message = BpSerialUtils.deserialize(bytes);
+                Date expires = DateTimeUtils.getExpireTime(message.getIdValue(), message.get(BackplaneMessage.Field.EXPIRE), message.isSticky());
+                if (expires == null || expires.after(now)) {
+                    messages.add(message);
+                }
+            }
+        }
+
+        Collections.sort(messages, new Comparator<BackplaneMessage>() {
+            @Override
+            public int compare(BackplaneMessage backplaneMessage, BackplaneMessage backplaneMessage1) {
+                return backplaneMessage.getIdValue().compareTo(backplaneMessage1.getIdValue());
+            }
+        });
+        return messages;
+    }
+
+    private @Nullable String getChannelBus(String channelId) throws BackplaneServerException {
+        return BP2DAOs.getChannelBusCache().getBus(channelId);
+    }
+
+    private int getMaxRetentionSeconds(String bus) throws BackplaneServerException {
+        BusConfig2 busConfig = BP2DAOs.getBusDao().get(bus);
+        return busConfig == null ? DEFAULT_MAX_RETENTION_SECONDS :
+               Math.max(busConfig.getRetentionTimeSeconds(), busConfig.getRetentionTimeStickySeconds());
+    }
+}
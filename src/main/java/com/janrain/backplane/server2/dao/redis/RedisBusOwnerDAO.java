@@ -3,17 +3,22 @@ package com.janrain.backplane.server2.dao.redis;
 import com.janrain.backplane.common.BackplaneServerException;
 import com.janrain.backplane.common.BpSerialUtils;
 import com.janrain.backplane.common.User;
+import com.janrain.backplane.dao.ConfigSnapshot;
+import com.janrain.backplane.dao.Page;
+import com.janrain.backplane.dao.redis.RedisListLoader;
+import com.janrain.backplane.dao.redis.RedisListWriter;
 import com.janrain.backplane.redis.Redis;
+import com.janrain.backplane.server2.BusConfig2;
 import com.janrain.backplane.server2.BusOwner;
 import com.janrain.backplane.server2.dao.BusDAO;
 import com.janrain.backplane.server2.dao.BusOwnerDAO;
 import org.apache.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.Response;
 import redis.clients.jedis.Transaction;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
 
 /**
  * @author Tom Raney
@@ -30,25 +35,12 @@ public class RedisBusOwnerDAO implements BusOwnerDAO {
 
     @Override
     public BusOwner get(String id) throws BackplaneServerException {
-        byte[] bytes = Redis.getInstance().get(getKey(id));
-        if (bytes != null) {
-            return User.asDaoType(BpSerialUtils.<User>deserialize(bytes), BusOwner.class);
-        } else {
-            return null;
-        }
+        return snapshot.get(id);
     }
 
     @Override
     public List<BusOwner> getAll() throws BackplaneServerException {
-        List<BusOwner> users = new ArrayList<BusOwner>();
-        List<byte[]> bytesList = Redis.getInstance().lrange(getKey("list"), 0, -1);
-        for (byte [] bytes : bytesList) {
-            if (bytes != null) {
-                users.add(User.asDaoType(BpSerialUtils.<User>deserialize(bytes), BusOwner.class));
-            }
-        }
-        return users;
-
+        return snapshot.getAll();
     }
 
     @Override
@@ -64,6 +56,7 @@ public class RedisBusOwnerDAO implements BusOwnerDAO {
             t.rpush(getKey("list"), bytes);
             t.exec();
 
+            snapshot.changed(obj.getIdValue());
         } finally {
             Redis.getInstance().releaseToPool(jedis);
         }
@@ -92,6 +85,7 @@ public class RedisBusOwnerDAO implements BusOwnerDAO {
             } else {
                 logger.warn("could not locate value for key " + new String(getKey(id)));
             }
+            snapshot.changed(id);
 
             // delete all associated buses (and their dependencies)
             busDao.deleteByOwner(id);
@@ -105,10 +99,67 @@ public class RedisBusOwnerDAO implements BusOwnerDAO {
         }
     }
 
+    @Override
+    public void persistAll(List<BusOwner> objs) throws BackplaneServerException {
+        writer.persistAll(objs);
+        List<String> ids = new ArrayList<String>(objs.size());
+        for (BusOwner obj : objs) {
+            ids.add(obj.getIdValue());
+        }
+        snapshot.changed(ids);
+    }
+
+    @Override
+    public Collection<String> deleteAll(List<String> ids) throws BackplaneServerException {
+        List<String> deleted = writer.deleteAll(ids);
+        snapshot.changed(ids);
+
+        // delete all associated buses (and their dependencies) in one batch
+        Set<String> owners = new HashSet<String>(ids);
+        List<String> ownedBuses = new ArrayList<String>();
+        for (BusConfig2 bus : busDao.getAll()) {
+            if (owners.contains(bus.get(BusConfig2.Field.OWNER))) {
+                ownedBuses.add(bus.getIdValue());
+            }
+        }
+        busDao.deleteAll(ownedBuses);
+        logger.info(deleted.size() + " bus owners and " + ownedBuses.size() + " of their buses deleted successfully");
+        return deleted;
+    }
+
+    @Override
+    public Iterator<BusOwner> iterateAll() throws BackplaneServerException {
+        return snapshot.getAll().iterator();
+    }
+
+    @Override
+    public Page<BusOwner> getPage(@Nullable String cursor, int limit) throws BackplaneServerException {
+        return Page.byId(snapshot.getAll(), cursor, limit);
+    }
+
     // PRIVATE
 
     private static final Logger logger = Logger.getLogger(RedisBusOwnerDAO.class);
 
     private final BusDAO busDao;
 
+    private final RedisListWriter<BusOwner> writer = new RedisListWriter<BusOwner>() {
+        @Override
+        protected byte[] getKey(String id) {
+            return RedisBusOwnerDAO.getKey(id);
+        }
+    };
+
+    private final ConfigSnapshot<BusOwner> snapshot = new ConfigSnapshot<BusOwner>("v2_bus_owner", new RedisListLoader<BusOwner>() {
+        @Override
+        protected byte[] getKey(String id) {
+            return RedisBusOwnerDAO.getKey(id);
+        }
+
+        @Override
+        protected BusOwner deserialize(byte[] bytes) {
+            return User.asDaoType(BpSerialUtils.<User>deserialize(bytes), BusOwner.class);
+        }
+    });
+
 }
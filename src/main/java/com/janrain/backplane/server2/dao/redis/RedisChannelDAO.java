@@ -4,9 +4,13 @@ import com.janrain.backplane.common.BackplaneServerException;
 import com.janrain.backplane.common.BpSerialUtils;
 import com.janrain.backplane.redis.Redis;
 import com.janrain.backplane.server2.Channel;
+import com.janrain.backplane.server2.dao.ChannelBinding;
 import com.janrain.backplane.server2.dao.ChannelDAO;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 
-import java.util.List;
+import java.util.*;
 
 /**
  * @author Johnny Bufu
@@ -17,6 +21,14 @@ public class RedisChannelDAO implements ChannelDAO {
         return ("v2_channel_" + id).getBytes();
     }
 
+    /**
+     * Legacy channel-bus binding, holding only the bus name.
+     * todo: remove after all old channels have expired
+     */
+    public static String getLegacyBindingKey(String id) {
+        return "v2_channel_bus_" + id;
+    }
+
     @Override
     public Channel get(String id) throws BackplaneServerException {
         byte[] bytes = Redis.getInstance().get(getKey(id));
@@ -45,4 +57,65 @@ public class RedisChannelDAO implements ChannelDAO {
     public void delete(String channelId) throws BackplaneServerException {
         Redis.getInstance().del(getKey(channelId));
     }
+
+    /**
+     * Reads the channels and their remaining time to live in one pipeline,
+     * and the legacy bindings of the channels not found in a second one.
+     */
+    @Override
+    public Map<String, ChannelBinding> getBindings(Collection<String> channelIds) throws BackplaneServerException {
+        Map<String,ChannelBinding> bindings = new LinkedHashMap<String, ChannelBinding>();
+        if (channelIds.isEmpty()) return bindings;
+
+        List<String> ids = new ArrayList<String>(channelIds);
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getReadJedis();
+            long now = System.currentTimeMillis();
+            Pipeline pipeline = jedis.pipelined();
+            List<Response<byte[]>> channels = new ArrayList<Response<byte[]>>();
+            List<Response<Long>> ttls = new ArrayList<Response<Long>>();
+            for (String id : ids) {
+                channels.add(pipeline.get(getKey(id)));
+                ttls.add(pipeline.ttl(getKey(id)));
+            }
+            pipeline.sync();
+
+            List<String> notFound = new ArrayList<String>();
+            for (int i = 0; i < ids.size(); i++) {
+                byte[] bytes = channels.get(i).get();
+                if (bytes == null) {
+                    notFound.add(ids.get(i));
+                } else {
+                    Channel channel = (Channel) BpSerialUtils.deserialize(bytes);
+                    bindings.put(ids.get(i), new ChannelBinding(channel.get(Channel.ChannelField.BUS), getExpires(now, ttls.get(i).get())));
+                }
+            }
+            if (notFound.isEmpty()) return bindings;
+
+            pipeline = jedis.pipelined();
+            List<Response<String>> legacyBuses = new ArrayList<Response<String>>();
+            ttls.clear();
+            for (String id : notFound) {
+                legacyBuses.add(pipeline.get(getLegacyBindingKey(id)));
+                ttls.add(pipeline.ttl(getLegacyBindingKey(id)));
+            }
+            pipeline.sync();
+            for (int i = 0; i < notFound.size(); i++) {
+                String bus = legacyBuses.get(i).get();
+                if (bus != null) {
+                    bindings.put(notFound.get(i), new ChannelBinding(bus, getExpires(now, ttls.get(i).get())));
+                }
+            }
+            return bindings;
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+
+    // - PRIVATE
+
+    private static long getExpires(long now, Long ttlSeconds) {
+        return ttlSeconds == null || ttlSeconds < 0 ? 0 : now + ttlSeconds * 1000L;
+    }
 }
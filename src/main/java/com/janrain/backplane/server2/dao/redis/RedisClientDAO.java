@@ -1,17 +1,25 @@
 package com.janrain.backplane.server2.dao.redis;
 
+import com.janrain.backplane.cache.L1Cache;
+import com.janrain.backplane.cache.L1CacheRegion;
 import com.janrain.backplane.common.BackplaneServerException;
 import com.janrain.backplane.common.BpSerialUtils;
 import com.janrain.backplane.common.User;
+import com.janrain.backplane.dao.Page;
+import com.janrain.backplane.dao.redis.RedisListLoader;
+import com.janrain.backplane.dao.redis.RedisListWriter;
 import com.janrain.backplane.redis.Redis;
 import com.janrain.backplane.server2.Client;
 import com.janrain.backplane.server2.dao.ClientDAO;
 import org.apache.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.Response;
 import redis.clients.jedis.Transaction;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -25,9 +33,15 @@ public class RedisClientDAO implements ClientDAO {
 
     @Override
     public Client get(String id) throws BackplaneServerException {
+        Client cached = cache.get(id);
+        if (cached != null) return cached;
+        // read before Redis, an invalidation received meanwhile may be for a change the read missed
+        long stamp = cache.getInvalidationStamp();
         byte[] bytes = Redis.getInstance().get(getKey(id));
         if (bytes != null) {
-            return User.asDaoType(BpSerialUtils.<User>deserialize(bytes), Client.class);
+            Client client = User.asDaoType(BpSerialUtils.<User>deserialize(bytes), Client.class);
+            cache.putIfNotInvalidated(id, client, stamp);
+            return client;
         } else {
             return null;
         }
@@ -56,6 +70,7 @@ public class RedisClientDAO implements ClientDAO {
             t.set(getKey(obj.getIdValue()), bytes);
             t.rpush(getKey("list"), bytes);
             t.exec();
+            cache.invalidate(obj.getIdValue());
 
         } finally {
             Redis.getInstance().releaseToPool(jedis);
@@ -84,13 +99,65 @@ public class RedisClientDAO implements ClientDAO {
             } else {
                 logger.warn("could not locate value for key " + new String(getKey(id)));
             }
+            cache.invalidate(id);
         } finally {
             Redis.getInstance().releaseToPool(jedis);
         }
     }
 
+    @Override
+    public void persistAll(List<Client> objs) throws BackplaneServerException {
+        writer.persistAll(objs);
+        List<String> ids = new ArrayList<String>(objs.size());
+        for (Client client : objs) {
+            ids.add(client.getIdValue());
+        }
+        cache.invalidate(ids);
+    }
+
+    @Override
+    public Collection<String> deleteAll(List<String> ids) throws BackplaneServerException {
+        Collection<String> deleted = writer.deleteAll(ids);
+        cache.invalidate(deleted);
+        return deleted;
+    }
+
+    @Override
+    public Iterator<Client> iterateAll() throws BackplaneServerException {
+        return loader.iterator(RedisListWriter.CHUNK_SIZE);
+    }
+
+    @Override
+    public Page<Client> getPage(@Nullable String cursor, int limit) throws BackplaneServerException {
+        return loader.loadPage(cursor, limit);
+    }
+
     // PRIVATE
 
     private static final Logger logger = Logger.getLogger(RedisClientDAO.class);
 
+    private static final int CACHE_MAX_ENTRIES = 10000;
+    private static final int CACHE_TTL_SECONDS = 300;
+
+    private final L1CacheRegion<Client> cache = L1Cache.getInstance().getRegion("v2_client", Client.class, CACHE_MAX_ENTRIES, CACHE_TTL_SECONDS);
+
+    private final RedisListWriter<Client> writer = new RedisListWriter<Client>() {
+        @Override
+        protected byte[] getKey(String id) {
+            return RedisClientDAO.getKey(id);
+        }
+    };
+
+    private final RedisListLoader<Client> loader = new RedisListLoader<Client>() {
+        @Override
+        protected byte[] getKey(String id) {
+            return RedisClientDAO.getKey(id);
+        }
+
+        @Override
+        protected Client deserialize(byte[] bytes) {
+            return User.asDaoType(BpSerialUtils.<User>deserialize(bytes), Client.class);
+        }
+    };
+
 }
@@ -2,36 +2,42 @@ package com.janrain.backplane.server2.dao.redis;
 
 import com.janrain.backplane.common.BackplaneServerException;
 import com.janrain.backplane.common.BpSerialUtils;
+import com.janrain.backplane.config.BackplaneSystemProps;
 import com.janrain.backplane.redis.Redis;
 import com.janrain.backplane.server2.BackplaneMessage;
 import com.janrain.backplane.server2.Grant;
 import com.janrain.backplane.server2.Scope;
 import com.janrain.backplane.server2.dao.GrantDAO;
+import com.janrain.backplane.server2.dao.RevocationProgress;
 import com.janrain.backplane.server2.dao.TokenDAO;
 import com.janrain.backplane.server2.oauth2.TokenException;
 import org.apache.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 import redis.clients.jedis.Transaction;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 
 /**
+ * Grants are stored under their own keys and in a list, with two secondary indexes (Redis sets of grant ids):
+ * one per client the grant was issued to and one per bus in the grant's authorized scope.
+ * The indexes are used for lookups once all nodes maintain them, see {@link BackplaneSystemProps#isClusterUpgraded()}.
+ *
  * @author Tom Raney
  */
 public class RedisGrantDAO implements GrantDAO {
 
-    public RedisGrantDAO(TokenDAO tokenDao) {
+    public RedisGrantDAO(RedisTokenDAO tokenDao) {
         this.tokenDAO = tokenDao;
+        this.batchRevocation = new BatchGrantRevocation(tokenDao);
     }
 
     @Override
     public List<Grant> getByClientId(String clientId) throws BackplaneServerException {
-        List<Grant> grants = getAll();
         List<Grant> filtered = new ArrayList<Grant>();
-        for (Grant grant: grants) {
+        for (Grant grant: useIndexes() ? getByIndex(getClientIndexKey(clientId)) : getAll()) {
             if (clientId.equals(grant.get(Grant.GrantField.ISSUED_TO_CLIENT_ID)) &&
                     (grant.getState().isActive())) {
                 filtered.add(grant);
@@ -41,28 +47,87 @@ public class RedisGrantDAO implements GrantDAO {
     }
 
     @Override
-    public void deleteByBuses(@NotNull List<String> busesToDelete) throws BackplaneServerException, TokenException {
+    public Map<String, List<Grant>> getByClientIds(Collection<String> clientIds) throws BackplaneServerException {
+        Map<String,List<Grant>> result = new LinkedHashMap<String, List<Grant>>();
+        for (String clientId : clientIds) {
+            result.put(clientId, new ArrayList<Grant>());
+        }
+        if (result.isEmpty()) return result;
+
+        if (! useIndexes()) {
+            for (Grant grant : getAll()) {
+                String clientId = grant.get(Grant.GrantField.ISSUED_TO_CLIENT_ID);
+                if (result.containsKey(clientId) && grant.getState().isActive()) {
+                    result.get(clientId).add(grant);
+                }
+            }
+            return result;
+        }
+
+        ensureIndexes();
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            // all client indexes in one round trip, then all their grants in one MGET
+            Pipeline pipeline = jedis.pipelined();
+            List<Response<Set<byte[]>>> indexes = new ArrayList<Response<Set<byte[]>>>();
+            for (String clientId : result.keySet()) {
+                indexes.add(pipeline.smembers(getClientIndexKey(clientId)));
+            }
+            pipeline.sync();
+
+            Set<String> grantIds = new LinkedHashSet<String>();
+            for (Response<Set<byte[]>> index : indexes) {
+                for (byte[] grantId : index.get()) {
+                    grantIds.add(new String(grantId));
+                }
+            }
+            if (! grantIds.isEmpty()) {
+                byte[][] keys = new byte[grantIds.size()][];
+                int i = 0;
+                for (String grantId : grantIds) {
+                    keys[i++] = getKey(grantId);
+                }
+                for (byte[] bytes : jedis.mget(keys)) {
+                    if (bytes == null) continue; // stale index entry, cleaned up by getByIndex()
+                    Grant grant = (Grant) BpSerialUtils.deserialize(bytes);
+                    String clientId = grant.get(Grant.GrantField.ISSUED_TO_CLIENT_ID);
+                    if (result.containsKey(clientId) && grant.getState().isActive()) {
+                        result.get(clientId).add(grant);
+                    }
+                }
+            }
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+        return result;
+    }
 
+    @Override
+    public void deleteByBuses(@NotNull List<String> busesToDelete) throws BackplaneServerException, TokenException {
         Scope deleteBusesScope = new Scope(Scope.getEncodedScopesAsString(BackplaneMessage.Field.BUS, busesToDelete));
-            for(Grant grant : getAll()) {
+        Map<String,Grant> grants = new LinkedHashMap<String, Grant>();
+        if (useIndexes()) {
+            for (String bus : busesToDelete) {
+                for (Grant grant : getByIndex(getBusIndexKey(bus))) {
+                    grants.put(grant.getIdValue(), grant);
+                }
+            }
+        } else {
+            for (Grant grant : getAll()) {
                 Set<String> grantBuses = grant.getAuthorizedScope().getScopeFieldValues(BackplaneMessage.Field.BUS);
-                if (grantBuses == null) continue;
-                for(String bus : grantBuses) {
-                    if (busesToDelete.contains(bus)) {
-                        revokeBuses(grant, deleteBusesScope);
-                    }
+                if (grantBuses != null && ! Collections.disjoint(grantBuses, busesToDelete)) {
+                    grants.put(grant.getIdValue(), grant);
                 }
             }
+        }
+        revokeBuses(grants.values(), deleteBusesScope, "delete buses: " + busesToDelete);
     }
 
     @Override
     public boolean revokeBuses(List<Grant> grants, List<String> buses) throws BackplaneServerException, TokenException {
         Scope busesToRevoke = new Scope(Scope.getEncodedScopesAsString(BackplaneMessage.Field.BUS, buses));
-        boolean changes = false;
-        for (Grant grant : grants) {
-            changes = revokeBuses(grant, busesToRevoke) || changes;
-        }
-        return changes;
+        return revokeBuses(grants, busesToRevoke, "revoke buses: " + buses) > 0;
     }
 
     @Override
@@ -89,11 +154,20 @@ public class RedisGrantDAO implements GrantDAO {
 
     @Override
     public void persist(Grant obj) throws BackplaneServerException {
-        byte[] bytes = BpSerialUtils.serialize(obj);
-        logger.info("adding grant " + obj.getIdValue() + " to redis");
-        // todo: one hash object instead of top level entries + a separate list?
-        Redis.getInstance().rpush(getKey("list"), bytes);
-        Redis.getInstance().set(getKey(obj.getIdValue()), bytes);
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            byte[] bytes = BpSerialUtils.serialize(obj);
+            logger.info("adding grant " + obj.getIdValue() + " to redis");
+            // todo: one hash object instead of top level entries + a separate list?
+            Transaction t = jedis.multi();
+            t.rpush(getKey("list"), bytes);
+            t.set(getKey(obj.getIdValue()), bytes);
+            addToIndexes(t, obj);
+            t.exec();
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
     }
 
     @Override
@@ -108,6 +182,8 @@ public class RedisGrantDAO implements GrantDAO {
             t.lrem(getKey("list"), 0, oldBytes);
             t.rpush(getKey("list"), newBytes);
             t.set(getKey(updated.getIdValue()), newBytes);
+            removeFromIndexes(t, existing);
+            addToIndexes(t, updated);
             t.exec();
             logger.info("Updated grant (and revoked tokens): " + updated.getIdValue());
         } finally {
@@ -122,10 +198,14 @@ public class RedisGrantDAO implements GrantDAO {
             jedis = Redis.getInstance().getWriteJedis();
             byte[] bytes = jedis.get(getKey(id));
             if (bytes != null) {
-                if (jedis.lrem(getKey("list"), 0, bytes) == 0) {
+                Transaction t = jedis.multi();
+                Response<Long> removed = t.lrem(getKey("list"), 0, bytes);
+                t.del(getKey(id));
+                removeFromIndexes(t, (Grant) BpSerialUtils.deserialize(bytes));
+                t.exec();
+                if (removed.get() == 0) {
                     logger.warn("failed to remove grant " + id + " from list " + new String(getKey("list")));
                 }
-                jedis.del(getKey(id));
             }
             tokenDAO.revokeTokenByGrant(id);
             logger.info("deleted grant " + id);
@@ -138,30 +218,133 @@ public class RedisGrantDAO implements GrantDAO {
 
     private static final Logger logger = Logger.getLogger(RedisGrantDAO.class);
 
+    private static final byte[] INDEX_VERSION_KEY = "v2_grant_idx_version".getBytes();
+    private static final String INDEX_VERSION = "2";
+
     private final TokenDAO tokenDAO;
+    private final BatchGrantRevocation batchRevocation;
 
-    private static byte[] getKey(String id) {
+    private volatile boolean indexesChecked = false;
+
+    static byte[] getKey(String id) {
         return ("v2_grant_" + id).getBytes();
     }
 
-    private boolean revokeBuses(Grant grant, Scope busesToRevoke) throws BackplaneServerException {
+    private static byte[] getClientIndexKey(String clientId) {
+        return ("v2_grant_client_idx_" + clientId).getBytes();
+    }
+
+    private static byte[] getBusIndexKey(String bus) {
+        return ("v2_grant_bus_idx_" + bus).getBytes();
+    }
+
+    static void addToIndexes(Transaction t, Grant grant) {
+        String clientId = grant.get(Grant.GrantField.ISSUED_TO_CLIENT_ID);
+        if (clientId != null) {
+            t.sadd(getClientIndexKey(clientId), grant.getIdValue().getBytes());
+        }
+        Set<String> buses = grant.getAuthorizedScope().getScopeFieldValues(BackplaneMessage.Field.BUS);
+        if (buses != null) {
+            for (String bus : buses) {
+                t.sadd(getBusIndexKey(bus), grant.getIdValue().getBytes());
+            }
+        }
+    }
+
+    static void removeFromIndexes(Transaction t, Grant grant) {
+        String clientId = grant.get(Grant.GrantField.ISSUED_TO_CLIENT_ID);
+        if (clientId != null) {
+            t.srem(getClientIndexKey(clientId), grant.getIdValue().getBytes());
+        }
+        Set<String> buses = grant.getAuthorizedScope().getScopeFieldValues(BackplaneMessage.Field.BUS);
+        if (buses != null) {
+            for (String bus : buses) {
+                t.srem(getBusIndexKey(bus), grant.getIdValue().getBytes());
+            }
+        }
+    }
 
+    /**
+     * @return the grants whose ids are in the given index set; ids of grants that no longer exist are removed from the index
+     */
+    private List<Grant> getByIndex(byte[] indexKey) throws BackplaneServerException {
+        ensureIndexes();
+        List<Grant> grants = new ArrayList<Grant>();
+        Jedis jedis = null;
         try {
-            Scope grantScope = grant.getAuthorizedScope();
-            Scope updatedScope = Scope.revoke(grantScope, busesToRevoke);
-            if (updatedScope.equals(grantScope)) return false;
-            if (!updatedScope.isAuthorizationRequired()) {
-                logger.info("Revoked all buses from grant: " + grant.getIdValue());
-                delete(grant.getIdValue());
-            } else {
-                Grant updated = new Grant.Builder(grant, grant.getState()).scope(updatedScope).buildGrant();
-                update(grant, updated);
-                logger.info("Buses updated updated for grant: " + updated.getIdValue() + " remaining scope: '" + updated.getAuthorizedScope() + "'");
+            jedis = Redis.getInstance().getWriteJedis();
+            List<byte[]> grantIds = new ArrayList<byte[]>(jedis.smembers(indexKey));
+            if (grantIds.isEmpty()) return grants;
+
+            byte[][] keys = new byte[grantIds.size()][];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = getKey(new String(grantIds.get(i)));
+            }
+            List<byte[]> listOfBytes = jedis.mget(keys);
+            for (int i = 0; i < keys.length; i++) {
+                byte[] bytes = listOfBytes.get(i);
+                if (bytes != null) {
+                    grants.add((Grant) BpSerialUtils.deserialize(bytes));
+                } else {
+                    jedis.srem(indexKey, grantIds.get(i));
+                }
+            }
+            return grants;
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+
+    /**
+     * Grants written by nodes that predate the indexes are only in the grant list,
+     * so the indexes are read only once all nodes maintain them; writes always maintain them.
+     */
+    private static boolean useIndexes() {
+        return BackplaneSystemProps.isClusterUpgraded();
+    }
+
+    /**
+     * Builds the client and bus grant indexes from the grant list, once the cluster is upgraded,
+     * for grants stored before the indexes existed or written by older nodes during the upgrade.
+     */
+    private void ensureIndexes() throws BackplaneServerException {
+        if (indexesChecked) return;
+        synchronized (this) {
+            if (indexesChecked) return;
+            Jedis jedis = null;
+            try {
+                jedis = Redis.getInstance().getWriteJedis();
+                byte[] version = jedis.get(INDEX_VERSION_KEY);
+                if (version == null || ! INDEX_VERSION.equals(new String(version))) {
+                    List<Grant> grants = getAll();
+                    Transaction t = jedis.multi();
+                    for (Grant grant : grants) {
+                        addToIndexes(t, grant);
+                    }
+                    t.set(INDEX_VERSION_KEY, INDEX_VERSION.getBytes());
+                    t.exec();
+                    logger.info("built client and bus indexes for " + grants.size() + " grants");
+                }
+                indexesChecked = true;
+            } finally {
+                Redis.getInstance().releaseToPool(jedis);
             }
-            return true;
-        } catch (Exception e) {
-            throw new BackplaneServerException(e.getMessage());
         }
+    }
 
+    private int revokeBuses(Collection<Grant> grants, Scope busesToRevoke, String description) throws BackplaneServerException {
+        RevocationProgress progress = RevocationProgress.start(description);
+        try {
+            int changed = batchRevocation.revokeBuses(grants, busesToRevoke, progress);
+            progress.completed();
+            logger.info("Revocation " + progress.getId() + " completed: " + progress.asMap());
+            return changed;
+        } catch (BackplaneServerException e) {
+            progress.failed(e.getMessage());
+            throw e;
+        } catch (RuntimeException e) {
+            progress.failed(e.getMessage());
+            throw e;
+        }
     }
 }
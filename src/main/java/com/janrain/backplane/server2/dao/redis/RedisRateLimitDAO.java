@@ -0,0 +1,69 @@
+package com.janrain.backplane.server2.dao.redis;
+
+import com.janrain.backplane.common.BackplaneServerException;
+import com.janrain.backplane.redis.Redis;
+import com.janrain.backplane.server2.dao.RateLimitDAO;
+import redis.clients.jedis.Jedis;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Buckets are hashes updated by a single script per acquire, expiring once they would be full again.
+ *
+ * The current time is passed by the calling node, since scripts cannot write after reading the server's time;
+ * node clock differences only shift the refill of the buckets.
+ *
+ * @author Johnny Bufu
+ */
+public class RedisRateLimitDAO implements RateLimitDAO {
+
+    @Override
+    public Acquired acquire(String key, int ratePerSecond, int burst, int requested) throws BackplaneServerException {
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            Object result = jedis.eval(ACQUIRE_SCRIPT, Arrays.asList(getKey(key)), Arrays.asList(
+                    Long.toString(System.currentTimeMillis()), Integer.toString(ratePerSecond), Integer.toString(burst), Integer.toString(requested)));
+            if (! (result instanceof List) || ((List<?>) result).size() != 2) {
+                throw new BackplaneServerException("invalid rate limit script result: " + result);
+            }
+            List<?> acquired = (List<?>) result;
+            return new Acquired(((Long) acquired.get(0)).intValue(), (Long) acquired.get(1));
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+
+    // PRIVATE
+
+    /**
+     * KEYS: bucket
+     * ARGV: now millis, rate per second, burst, requested permits
+     * returns: permits taken, retry after millis
+     */
+    private static final String ACQUIRE_SCRIPT =
+            "local now = tonumber(ARGV[1])\n" +
+            "local rate = tonumber(ARGV[2])\n" +
+            "local burst = tonumber(ARGV[3])\n" +
+            "local bucket = redis.call('hmget', KEYS[1], 'tokens', 'updated')\n" +
+            "local tokens = tonumber(bucket[1]) or burst\n" +
+            "local updated = tonumber(bucket[2]) or now\n" +
+            "if now > updated then\n" +
+            "  tokens = math.min(burst, tokens + (now - updated) * rate / 1000)\n" +
+            "  updated = now\n" +
+            "end\n" +
+            "local granted = math.min(tonumber(ARGV[4]), math.floor(tokens))\n" +
+            "tokens = tokens - granted\n" +
+            "redis.call('hmset', KEYS[1], 'tokens', tostring(tokens), 'updated', tostring(updated))\n" +
+            "redis.call('pexpire', KEYS[1], math.ceil(burst * 1000 / rate) + 1000)\n" +
+            "local retryAfter = 0\n" +
+            "if granted == 0 then\n" +
+            "  retryAfter = math.ceil((1 - tokens) * 1000 / rate)\n" +
+            "end\n" +
+            "return {granted, retryAfter}\n";
+
+    static String getKey(String key) {
+        return "v2_rate_limit_" + key;
+    }
+}
@@ -0,0 +1,142 @@
+package com.janrain.backplane.server2.dao.redis;
+
+import com.janrain.backplane.common.BackplaneServerException;
+import com.janrain.backplane.redis.Redis;
+import com.janrain.backplane.server2.dao.RevocationJob;
+import com.janrain.backplane.server2.dao.RevocationJobDAO;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+import redis.clients.jedis.Jedis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Jobs are stored as hashes, with a set of the unfinished job ids; leases are keys holding the node name,
+ * expiring after the lease time unless renewed.
+ *
+ * @author Johnny Bufu
+ */
+public class RedisRevocationJobDAO implements RevocationJobDAO {
+
+    @Override
+    public boolean create(RevocationJob job) throws BackplaneServerException {
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            String key = getKey(job.getId());
+            if (jedis.hsetnx(key, RevocationJob.Field.ID.getFieldName(), job.getId()) == 0) {
+                return false;
+            }
+            jedis.hmset(key, job.asMap());
+            jedis.sadd(UNFINISHED_KEY, job.getId());
+            return true;
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+
+    @Override
+    public @Nullable RevocationJob get(String id) throws BackplaneServerException {
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            Map<String,String> fields = jedis.hgetAll(getKey(id));
+            if (fields == null || fields.isEmpty()) return null;
+            RevocationJob job = RevocationJob.fromMap(fields);
+            if (job == null) {
+                logger.warn("invalid revocation job: " + fields);
+            }
+            return job;
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+
+    @Override
+    public void update(RevocationJob job) throws BackplaneServerException {
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            String key = getKey(job.getId());
+            jedis.hmset(key, job.asMap());
+            if (job.getState().isFinished()) {
+                jedis.srem(UNFINISHED_KEY, job.getId());
+                jedis.expire(key, FINISHED_JOB_RETENTION_SECONDS);
+            }
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+
+    @Override
+    public List<String> getUnfinished() throws BackplaneServerException {
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            return new ArrayList<String>(jedis.smembers(UNFINISHED_KEY));
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+
+    @Override
+    public boolean claim(String id, String node, int leaseSeconds) throws BackplaneServerException {
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            Object claimed = jedis.eval(CLAIM_SCRIPT, Arrays.asList(getLeaseKey(id)), Arrays.asList(node, Integer.toString(leaseSeconds)));
+            return Long.valueOf(1L).equals(claimed);
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+
+    @Override
+    public void release(String id, String node) throws BackplaneServerException {
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            jedis.eval(RELEASE_SCRIPT, Arrays.asList(getLeaseKey(id)), Arrays.asList(node));
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+
+    // PRIVATE
+
+    private static final Logger logger = Logger.getLogger(RedisRevocationJobDAO.class);
+
+    private static final String UNFINISHED_KEY = "v2_revocation_jobs_unfinished";
+
+    /**
+     * KEYS: lease
+     * ARGV: node, lease seconds
+     */
+    private static final String CLAIM_SCRIPT =
+            "if redis.call('setnx', KEYS[1], ARGV[1]) == 1 or redis.call('get', KEYS[1]) == ARGV[1] then\n" +
+            "  redis.call('expire', KEYS[1], tonumber(ARGV[2]))\n" +
+            "  return 1\n" +
+            "end\n" +
+            "return 0\n";
+
+    /**
+     * KEYS: lease
+     * ARGV: node
+     */
+    private static final String RELEASE_SCRIPT =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then\n" +
+            "  return redis.call('del', KEYS[1])\n" +
+            "end\n" +
+            "return 0\n";
+
+    private static String getKey(String id) {
+        return "v2_revocation_job_" + id;
+    }
+
+    private static String getLeaseKey(String id) {
+        return "v2_revocation_job_lease_" + id;
+    }
+}
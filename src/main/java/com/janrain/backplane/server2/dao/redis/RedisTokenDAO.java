@@ -2,18 +2,27 @@ package com.janrain.backplane.server2.dao.redis;
 
 import com.janrain.backplane.common.BackplaneServerException;
 import com.janrain.backplane.common.BpSerialUtils;
+import com.janrain.backplane.config.BackplaneSystemProps;
 import com.janrain.backplane.redis.Redis;
+import com.janrain.backplane.server2.Channel;
 import com.janrain.backplane.server2.Token;
+import com.janrain.backplane.server2.TokenSigner;
 import com.janrain.backplane.server2.dao.TokenDAO;
 import com.janrain.commons.message.MessageException;
 import org.apache.log4j.Logger;
-import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Transaction;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
 
 /**
+ * Tokens are stored under their own keys and in a list,
+ * with a secondary index (Redis set of token ids) per grant backing the tokens,
+ * used for lookups once all nodes maintain it, see {@link BackplaneSystemProps#isClusterUpgraded()}.
+ *
+ * Signed tokens are validated without a Redis lookup, unless they match the node's filter of revoked tokens.
+ *
  * @author Tom Raney
  */
 public class RedisTokenDAO implements TokenDAO {
@@ -22,8 +31,16 @@ public class RedisTokenDAO implements TokenDAO {
         return ("v2_token_" + id).getBytes();
     }
 
+    public static byte[] getGrantIndexKey(String grantId) {
+        return ("v2_token_grant_idx_" + grantId).getBytes();
+    }
+
     @Override
     public Token get(String id) throws BackplaneServerException {
+        Token signed = TokenSigner.verify(id);
+        if (signed != null) {
+            return revocations.isRevoked(id) ? null : signed;
+        }
         byte[] bytes = Redis.getInstance().get(getKey(id));
         if (bytes != null) {
             return (Token) BpSerialUtils.deserialize(bytes);
@@ -50,12 +67,17 @@ public class RedisTokenDAO implements TokenDAO {
         try {
             jedis = Redis.getInstance().getWriteJedis();
             byte[] bytes = BpSerialUtils.serialize(token);
-            jedis.rpush(getKey("list"), bytes);
-            jedis.set(getKey(token.getIdValue()), bytes);
+            Transaction t = jedis.multi();
+            t.rpush(getKey("list"), bytes);
+            t.set(getKey(token.getIdValue()), bytes);
             // set a TTL
             if (token.getExpirationDate() != null) {
-                jedis.expireAt(getKey(token.getIdValue()), token.getExpirationDate().getTime() / 1000 +1);
+                t.expireAt(getKey(token.getIdValue()), token.getExpirationDate().getTime() / 1000 +1);
             }
+            for (String grantId : token.getBackingGrants()) {
+                t.sadd(getGrantIndexKey(grantId), token.getIdValue().getBytes());
+            }
+            t.exec();
         } finally {
             Redis.getInstance().releaseToPool(jedis);
         }
@@ -63,31 +85,100 @@ public class RedisTokenDAO implements TokenDAO {
 
     @Override
     public void delete(String tokenId) throws BackplaneServerException {
+        Token signed = TokenSigner.verify(tokenId);
+        if (signed != null && ! signed.isExpired()) {
+            revocations.revoke(tokenId, signed.getExpirationDate().getTime());
+        }
         Jedis jedis = null;
         try {
             jedis = Redis.getInstance().getWriteJedis();
             byte[] bytes = jedis.get(getKey(tokenId));
             if (bytes != null) {
-                logger.info("removing token " + tokenId);
-                jedis.lrem(getKey("list"), 0, bytes);
-                jedis.del(getKey(tokenId));
+                logger.info("removing token " + TokenSigner.toLogString(tokenId));
+                Transaction t = jedis.multi();
+                t.lrem(getKey("list"), 0, bytes);
+                t.del(getKey(tokenId));
+                for (String grantId : ((Token) BpSerialUtils.deserialize(bytes)).getBackingGrants()) {
+                    t.srem(getGrantIndexKey(grantId), tokenId.getBytes());
+                }
+                t.exec();
             }
         } finally {
             Redis.getInstance().releaseToPool(jedis);
         }
     }
 
+    /**
+     * Single script call, instead of the separate channel write, token transactions and used token lookup.
+     */
+    @Override
+    public void issueAnonymous(Channel channel, Token accessToken, @Nullable Token refreshToken, @Nullable String usedRefreshTokenId)
+            throws BackplaneServerException {
+        List<Token> tokens = refreshToken == null ? Arrays.asList(accessToken) : Arrays.asList(accessToken, refreshToken);
+        List<byte[]> keys = new ArrayList<byte[]>();
+        List<byte[]> args = new ArrayList<byte[]>();
+        keys.add(RedisChannelDAO.getKey(channel.getIdValue()));
+        keys.add(getKey("list"));
+        args.add(BpSerialUtils.serialize(channel));
+        args.add(channel.get(Channel.ChannelField.EXPIRE_SECONDS).getBytes());
+        args.add(Integer.toString(tokens.size()).getBytes());
+        for (Token token : tokens) {
+            keys.add(getKey(token.getIdValue()));
+            args.add(BpSerialUtils.serialize(token));
+            long expireAt = token.getExpirationDate() == null ? 0 : token.getExpirationDate().getTime() / 1000 + 1;
+            args.add(Long.toString(expireAt).getBytes());
+        }
+        if (usedRefreshTokenId != null) {
+            keys.add(getKey(usedRefreshTokenId));
+        }
+
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            jedis.eval(ISSUE_ANONYMOUS_SCRIPT.getBytes(), keys, args);
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+
     @Override
     public List<Token> retrieveTokensByGrant(String grantId) throws BackplaneServerException {
-        List<Token> tokens = getAll();
         List<Token> filtered = new ArrayList<Token>();
-        for (Token token: tokens) {
-            if (token.getBackingGrants().contains(grantId)) {
-                logger.info("found");
-                filtered.add(token);
+        if (! useIndexes()) {
+            for (Token token : getAll()) {
+                if (token.getBackingGrants().contains(grantId)) {
+                    filtered.add(token);
+                }
             }
+            return filtered;
+        }
+        ensureIndexes();
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            byte[] indexKey = getGrantIndexKey(grantId);
+            List<byte[]> tokenIds = new ArrayList<byte[]>(jedis.smembers(indexKey));
+            if (tokenIds.isEmpty()) return filtered;
+
+            byte[][] keys = new byte[tokenIds.size()][];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = getKey(new String(tokenIds.get(i)));
+            }
+            List<byte[]> listOfBytes = jedis.mget(keys);
+            for (int i = 0; i < keys.length; i++) {
+                byte[] bytes = listOfBytes.get(i);
+                Token token = bytes == null ? null : (Token) BpSerialUtils.deserialize(bytes);
+                if (token != null && token.getBackingGrants().contains(grantId)) {
+                    filtered.add(token);
+                } else {
+                    // expired or deleted token
+                    jedis.srem(indexKey, tokenIds.get(i));
+                }
+            }
+            return filtered;
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
         }
-        return filtered;
     }
 
     @Override
@@ -95,13 +186,70 @@ public class RedisTokenDAO implements TokenDAO {
         List<Token> tokens = retrieveTokensByGrant(grantId);
         for (Token token : tokens) {
             delete(token.getIdValue());
-            logger.info("revoked token " + token.getIdValue());
+            logger.info("revoked token " + TokenSigner.toLogString(token.getIdValue()));
         }
         if (! tokens.isEmpty()) {
             logger.info("all tokens for grant " + grantId + " have been revoked");
         }
     }
 
+    /**
+     * @return token ids per backing grant id, read from the token list
+     */
+    public Map<String,Set<String>> getTokenIdsByGrant() throws BackplaneServerException {
+        Map<String,Set<String>> tokenIds = new HashMap<String, Set<String>>();
+        for (Token token : getAll()) {
+            for (String grantId : token.getBackingGrants()) {
+                Set<String> grantTokenIds = tokenIds.get(grantId);
+                if (grantTokenIds == null) {
+                    grantTokenIds = new LinkedHashSet<String>();
+                    tokenIds.put(grantId, grantTokenIds);
+                }
+                grantTokenIds.add(token.getIdValue());
+            }
+        }
+        return tokenIds;
+    }
+
+    /**
+     * Tokens issued by nodes that predate the grant index are only in the token list,
+     * so the index is read only once all nodes maintain it; writes always maintain it.
+     */
+    static boolean useIndexes() {
+        return BackplaneSystemProps.isClusterUpgraded();
+    }
+
+    /**
+     * Builds the grant -> tokens index from the token list, once the cluster is upgraded,
+     * for tokens stored before the index existed or issued by older nodes during the upgrade.
+     */
+    public void ensureIndexes() throws BackplaneServerException {
+        if (indexesChecked) return;
+        synchronized (this) {
+            if (indexesChecked) return;
+            Jedis jedis = null;
+            try {
+                jedis = Redis.getInstance().getWriteJedis();
+                byte[] version = jedis.get(INDEX_VERSION_KEY);
+                if (version == null || ! INDEX_VERSION.equals(new String(version))) {
+                    List<Token> tokens = getAll();
+                    Transaction t = jedis.multi();
+                    for (Token token : tokens) {
+                        for (String grantId : token.getBackingGrants()) {
+                            t.sadd(getGrantIndexKey(grantId), token.getIdValue().getBytes());
+                        }
+                    }
+                    t.set(INDEX_VERSION_KEY, INDEX_VERSION.getBytes());
+                    t.exec();
+                    logger.info("built grant index for " + tokens.size() + " tokens");
+                }
+                indexesChecked = true;
+            } finally {
+                Redis.getInstance().releaseToPool(jedis);
+            }
+        }
+    }
+
     @Override
     public void deleteExpiredTokens() throws BackplaneServerException {
         // todo: add token cache?
@@ -117,7 +265,10 @@ public class RedisTokenDAO implements TokenDAO {
                     if (Redis.getInstance().get(getKey(token.getIdValue())) == null) {
                         // remove from list
                         jedis.lrem(getKey("list"), 0, BpSerialUtils.serialize(token));
-                        logger.info("removed expired token " + token.getIdValue());
+                        for (String grantId : token.getBackingGrants()) {
+                            jedis.srem(getGrantIndexKey(grantId), token.getIdValue().getBytes());
+                        }
+                        logger.info("removed expired token " + TokenSigner.toLogString(token.getIdValue()));
                     }
                 }
             }
@@ -139,8 +290,36 @@ public class RedisTokenDAO implements TokenDAO {
 
     private static final Logger logger = Logger.getLogger(RedisTokenDAO.class);
 
-    private String getChannelBindingKey(@NotNull String channel) {
-        // todo: key prefixes should be centralized to avoid conflicts
-        return "v2_channel_bus_" + channel;
-    }
+    private static final byte[] INDEX_VERSION_KEY = "v2_token_idx_version".getBytes();
+    private static final String INDEX_VERSION = "2";
+
+    /**
+     * KEYS: channel, token list, new tokens..., [used refresh token]
+     * ARGV: channel, channel expire seconds, number of new tokens, (token, expire at unix time or 0)...
+     */
+    private static final String ISSUE_ANONYMOUS_SCRIPT =
+            "redis.call('setex', KEYS[1], tonumber(ARGV[2]), ARGV[1])\n" +
+            "local tokens = tonumber(ARGV[3])\n" +
+            "for i = 1, tokens do\n" +
+            "  local key = KEYS[2 + i]\n" +
+            "  local expireAt = tonumber(ARGV[3 + 2 * i])\n" +
+            "  redis.call('rpush', KEYS[2], ARGV[2 + 2 * i])\n" +
+            "  redis.call('set', key, ARGV[2 + 2 * i])\n" +
+            "  if expireAt > 0 then\n" +
+            "    redis.call('expireat', key, expireAt)\n" +
+            "  end\n" +
+            "end\n" +
+            "local used = KEYS[3 + tokens]\n" +
+            "if used then\n" +
+            "  local bytes = redis.call('get', used)\n" +
+            "  if bytes then\n" +
+            "    redis.call('lrem', KEYS[2], 0, bytes)\n" +
+            "    redis.call('del', used)\n" +
+            "  end\n" +
+            "end\n" +
+            "return tokens\n";
+
+    private volatile boolean indexesChecked = false;
+
+    private final TokenRevocations revocations = new TokenRevocations();
 }
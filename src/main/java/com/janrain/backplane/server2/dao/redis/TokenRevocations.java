@@ -0,0 +1,149 @@
+package com.janrain.backplane.server2.dao.redis;
+
+import com.janrain.backplane.common.BloomFilter;
+import com.janrain.backplane.config.BackplaneConfig;
+import com.janrain.backplane.redis.Redis;
+import com.janrain.backplane.redis.RedisPubSub;
+import com.janrain.backplane.server2.TokenSigner;
+import org.apache.log4j.Logger;
+import redis.clients.jedis.Jedis;
+
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Revoked signed tokens, which are otherwise validated without a storage lookup.
+ *
+ * Revocations are stored in a Redis sorted set scored by token expiration time, and announced on
+ * the REVOCATIONS_CHANNEL pub/sub channel. Each node keeps a Bloom filter of the revoked tokens,
+ * so only tokens matching the filter are checked against the sorted set. The filter is rebuilt
+ * from the sorted set when the subscription is (re)established and periodically, to drop expired entries.
+ * While the node is not subscribed all tokens are checked against the sorted set.
+ *
+ * @author Johnny Bufu
+ */
+class TokenRevocations implements RedisPubSub.Listener {
+
+    static final String REVOKED_KEY = "v2_token_revoked";
+
+    /**
+     * @param expires token expiration time in milliseconds, after which the revocation is dropped
+     */
+    void revoke(String tokenId, long expires) {
+        ensureStarted();
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            jedis.zadd(REVOKED_KEY, expires, tokenId);
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+        addToFilters(tokenId);
+        RedisPubSub.getInstance().publish(REVOCATIONS_CHANNEL, tokenId);
+        logger.info("revoked signed token " + TokenSigner.toLogString(tokenId));
+    }
+
+    boolean isRevoked(String tokenId) {
+        ensureStarted();
+        BloomFilter current = filter;
+        if (current != null && ! current.mightContain(tokenId)) return false;
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getReadJedis();
+            return jedis.zscore(REVOKED_KEY, tokenId) != null;
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+
+    @Override
+    public void onMessage(String channel, String message) {
+        addToFilters(message);
+    }
+
+    @Override
+    public void onSubscribe(String channel) {
+        subscribed = true;
+        rebuild();
+    }
+
+    @Override
+    public synchronized void onSubscriptionLost(String channel) {
+        subscribed = false;
+        filter = null;
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(TokenRevocations.class);
+
+    private static final String REVOCATIONS_CHANNEL = "token_revocations";
+
+    private static final int EXPECTED_REVOCATIONS = 100000;
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+    private static final long REBUILD_INTERVAL_SECONDS = 3600L;
+
+    /** null until loaded after (re)subscribing, all tokens are checked against the sorted set until then */
+    private volatile BloomFilter filter;
+
+    /** filter being rebuilt, receives the revocations announced during the rebuild */
+    private volatile BloomFilter rebuilding;
+
+    private volatile boolean subscribed;
+
+    private boolean started;
+
+    private synchronized void ensureStarted() {
+        if (started) return;
+        started = true;
+        // subscribe before loading, revocations made in between trigger a rebuild once subscribed
+        RedisPubSub.getInstance().addListener(REVOCATIONS_CHANNEL, this);
+        ScheduledExecutorService rebuildTask = Executors.newScheduledThreadPool(1);
+        rebuildTask.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    rebuild();
+                } catch (Exception e) {
+                    logger.error("error rebuilding token revocations filter: " + e.getMessage(), e);
+                }
+            }
+        }, REBUILD_INTERVAL_SECONDS, REBUILD_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        BackplaneConfig.addToBackgroundServices("token revocations filter rebuild", rebuildTask);
+        rebuild();
+    }
+
+    private void addToFilters(String tokenId) {
+        BloomFilter current = filter;
+        if (current != null) {
+            current.add(tokenId);
+        }
+        BloomFilter next = rebuilding;
+        if (next != null) {
+            next.add(tokenId);
+        }
+    }
+
+    private synchronized void rebuild() {
+        BloomFilter next = new BloomFilter(EXPECTED_REVOCATIONS, FALSE_POSITIVE_RATE);
+        rebuilding = next;
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            long now = System.currentTimeMillis();
+            jedis.zremrangeByScore(REVOKED_KEY, 0, now);
+            Set<String> revoked = jedis.zrangeByScore(REVOKED_KEY, now, Double.MAX_VALUE);
+            for (String tokenId : revoked) {
+                next.add(tokenId);
+            }
+            // revocations announced while unsubscribed would be missing from the filter
+            filter = subscribed ? next : null;
+            logger.info("rebuilt token revocations filter, " + revoked.size() + " revoked tokens");
+        } finally {
+            rebuilding = null;
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+}
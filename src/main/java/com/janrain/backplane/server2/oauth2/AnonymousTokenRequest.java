@@ -4,12 +4,17 @@ import com.janrain.backplane.common.BackplaneServerException;
 import com.janrain.backplane.server2.*;
 import com.janrain.backplane.server2.dao.BP2DAOs;
 import com.janrain.commons.message.MessageException;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.core.TimerContext;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Johnny Bufu
@@ -71,19 +76,29 @@ public class AnonymousTokenRequest implements TokenRequest {
         final Token accessToken;
         final Integer expiresIn = grantType.getAccessType().getTokenExpiresSecondsDefault();
         Date expires = new Date(System.currentTimeMillis() + expiresIn.longValue() * 1000);
+        boolean issued = false;
         try {
             Channel channel = createOrRefreshChannel(10 * expiresIn);
             Scope processedScope = processScope(channel.getIdValue(), channel.get(Channel.ChannelField.BUS));
             accessToken = new Token.Builder(grantType.getAccessType(), processedScope.toString()).expires(expires).buildToken();
-            BP2DAOs.getTokenDao().persist(accessToken);
-            return accessToken.response(generateRefreshToken(grantType.getRefreshType(), processedScope));
+            Token newRefreshToken = generateRefreshToken(grantType.getRefreshType(), processedScope);
+            TimerContext context = issuanceTimer.time();
+            try {
+                BP2DAOs.getTokenDao().issueAnonymous(channel, accessToken, newRefreshToken,
+                        this.refreshToken == null ? null : this.refreshToken.getIdValue());
+                issued = true;
+            } finally {
+                context.stop();
+            }
+            return accessToken.response(newRefreshToken == null ? null : newRefreshToken.getIdValue());
         } catch (Exception e) {
             logger.error("error processing anonymous access token request: " + e.getMessage(), e);
             throw new TokenException(OAuth2.OAUTH2_TOKEN_SERVER_ERROR, "error processing anonymous token request", HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
         } finally {
             logger.info("exiting anonymous token request");
             try {
-                if (this.refreshToken != null) {
+                // deleted along with the issuance otherwise
+                if (this.refreshToken != null && ! issued) {
                     BP2DAOs.getTokenDao().delete(this.refreshToken.getIdValue());
                 }
             } catch (BackplaneServerException e) {
@@ -102,13 +117,16 @@ public class AnonymousTokenRequest implements TokenRequest {
     private Token refreshToken;
     private BusConfig2 busConfig;
 
-    private static String generateRefreshToken(GrantType refreshType, Scope scope) throws MessageException, BackplaneServerException {
+    private static final Timer issuanceTimer = Metrics.newTimer(new MetricName("v2", AnonymousTokenRequest.class.getName().replace(".","_"), "v2_anonymous_token_issuance_time"), TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+
+    private static Token generateRefreshToken(GrantType refreshType, Scope scope) throws MessageException {
         if (refreshType == null || ! refreshType.isRefresh()) return null;
-        Token refreshToken = new Token.Builder(refreshType, scope.toString()).buildToken();
-        BP2DAOs.getTokenDao().persist(refreshToken);
-        return refreshToken.getIdValue();
+        return new Token.Builder(refreshType, scope.toString()).buildToken();
     }
 
+    /**
+     * The channel is persisted along with the issued tokens.
+     */
     private Channel createOrRefreshChannel(int expireSeconds) throws TokenException, MessageException, BackplaneServerException {
         String channelId = null;
         BusConfig2 config;
@@ -125,9 +143,7 @@ public class AnonymousTokenRequest implements TokenRequest {
         } else {
             config = busConfig;
         }
-        Channel channel = new Channel(channelId, config, expireSeconds);
-        BP2DAOs.getChannelDao().persist(channel);
-        return channel;
+        return new Channel(channelId, config, expireSeconds);
     }
 
     private Scope processScope(final String channel, final String bus) {
@@ -105,7 +105,7 @@ public class AuthenticatedTokenRequest implements TokenRequest {
                     BP2DAOs.getTokenDao().delete(this.refreshToken.getIdValue());
                 }
             } catch (BackplaneServerException e) {
-                logger.error("error deleting used refresh token: " + refreshToken.getIdValue(), e);
+                logger.error("error deleting used refresh token: " + TokenSigner.toLogString(refreshToken.getIdValue()), e);
             }
         }
     }
@@ -129,7 +129,7 @@ public class AuthenticatedTokenRequest implements TokenRequest {
         }
 
         if (codeGrant != null) {
-            return new Pair<Scope, List<String>>(Scope.checkCombine(new Scope(codeGrant.get(Grant.GrantField.AUTHORIZED_SCOPES)),requestScope), new ArrayList<String>() {{add(codeGrant.getIdValue());}});
+            return new Pair<Scope, List<String>>(Scope.checkCombine(codeGrant.getAuthorizedScope(), requestScope), new ArrayList<String>() {{add(codeGrant.getIdValue());}});
         }
 
         // client credentials scope
@@ -0,0 +1,24 @@
+package com.janrain.backplane.servlet;
+
+/**
+ * Request rejected because a rate limit was exceeded, to be answered with 429 and a Retry-After header.
+ *
+ * @author Johnny Bufu
+ */
+public class RateLimitedException extends InvalidRequestException {
+
+    public static final int SC_TOO_MANY_REQUESTS = 429;
+
+    public RateLimitedException(String message, long retryAfterSeconds) {
+        super(message, SC_TOO_MANY_REQUESTS);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    // - PRIVATE
+
+    private final long retryAfterSeconds;
+}
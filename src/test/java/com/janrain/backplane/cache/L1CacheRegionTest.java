@@ -0,0 +1,53 @@
+package com.janrain.backplane.cache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Johnny Bufu
+ */
+public class L1CacheRegionTest {
+
+    @Test
+    public void testPutIfNotInvalidated() {
+        long stamp = region.getInvalidationStamp();
+        region.putIfNotInvalidated("key", "value", stamp);
+        assertEquals("value", region.get("key"));
+    }
+
+    @Test
+    public void testValueLoadedBeforeAnInvalidationIsNotCached() {
+        region.put("key", "old");
+        long stamp = region.getInvalidationStamp();
+        // invalidation received while the value is loaded
+        region.remove("key");
+        region.putIfNotInvalidated("key", "old", stamp);
+        assertNull(region.get("key"));
+
+        region.putIfNotInvalidated("key", "new", region.getInvalidationStamp());
+        assertEquals("new", region.get("key"));
+    }
+
+    @Test
+    public void testValueLoadedBeforeTheRegionIsClearedIsNotCached() {
+        long stamp = region.getInvalidationStamp();
+        region.clear();
+        region.putIfNotInvalidated("key", "old", stamp);
+        assertNull(region.get("key"));
+    }
+
+    @Test
+    public void testEvictionsDoNotPreventCaching() {
+        L1CacheRegion<String> small = new L1CacheRegion<String>("test", String.class, 1, 60);
+        long stamp = small.getInvalidationStamp();
+        small.put("key1", "value1");
+        small.put("key2", "value2");
+        small.putIfNotInvalidated("key3", "value3", stamp);
+        assertEquals("value3", small.get("key3"));
+    }
+
+    // - PRIVATE
+
+    private final L1CacheRegion<String> region = new L1CacheRegion<String>("test", String.class, 100, 60);
+}
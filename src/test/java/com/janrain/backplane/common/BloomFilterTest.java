@@ -0,0 +1,55 @@
+package com.janrain.backplane.common;
+
+import org.apache.commons.lang.RandomStringUtils;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Johnny Bufu
+ */
+public class BloomFilterTest {
+
+    @Test
+    public void testNoFalseNegatives() {
+        BloomFilter filter = new BloomFilter(VALUES, 0.01);
+        Set<String> added = randomValues(VALUES);
+        for (String value : added) {
+            filter.add(value);
+        }
+        for (String value : added) {
+            assertTrue(filter.mightContain(value));
+        }
+    }
+
+    @Test
+    public void testFalsePositiveRate() {
+        BloomFilter filter = new BloomFilter(VALUES, 0.01);
+        Set<String> added = randomValues(VALUES);
+        for (String value : added) {
+            filter.add(value);
+        }
+        int falsePositives = 0;
+        for (String value : randomValues(VALUES)) {
+            if (! added.contains(value) && filter.mightContain(value)) {
+                falsePositives++;
+            }
+        }
+        assertTrue("false positives: " + falsePositives, falsePositives < VALUES * 0.03);
+    }
+
+    // - PRIVATE
+
+    private static final int VALUES = 10000;
+
+    private static Set<String> randomValues(int count) {
+        Set<String> values = new HashSet<String>();
+        while (values.size() < count) {
+            values.add(RandomStringUtils.randomAlphanumeric(22));
+        }
+        return values;
+    }
+}
@@ -0,0 +1,175 @@
+package com.janrain.backplane.common;
+
+import org.junit.Test;
+
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Johnny Bufu
+ */
+public class IdGeneratorTest {
+
+    @Test
+    public void testStripeCountIsPowerOfTwo() {
+        assertEquals(2, IdGenerator.stripeCount(1));
+        assertEquals(8, IdGenerator.stripeCount(3));
+        assertEquals(8, IdGenerator.stripeCount(4));
+        assertEquals(64, IdGenerator.stripeCount(32));
+        assertEquals(64, IdGenerator.stripeCount(1000));
+    }
+
+    @Test
+    public void testStripeIndexCoversAllStripes() {
+        IdGenerator generator = new IdGenerator(8, Long.MAX_VALUE);
+        Set<Integer> indexes = new HashSet<Integer>();
+        for (long threadId = 0; threadId < 64; threadId++) {
+            int index = generator.stripeIndex(threadId);
+            assertTrue(index >= 0 && index < 8);
+            assertEquals(index, generator.stripeIndex(threadId + 8));
+            indexes.add(index);
+        }
+        assertEquals(8, indexes.size());
+    }
+
+    @Test
+    public void testThreadsOfTheSameStripeShareItsGenerator() throws Exception {
+        final CountingIdGenerator generator = new CountingIdGenerator(4, Long.MAX_VALUE);
+        final Set<Integer> usedStripes = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        for (int i = 0; i < 16; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    generator.randomString(10);
+                    usedStripes.add(generator.stripeIndex(Thread.currentThread().getId()));
+                }
+            });
+            thread.start();
+            thread.join();
+        }
+        assertEquals(usedStripes.size(), generator.generators.get());
+    }
+
+    @Test
+    public void testRejectedBytesDontBiasTheAlphabet() {
+        // 256 % 100 = 56, the first 56 characters would be drawn 3 times out of 256 without rejection
+        char[] alphabet = new char[100];
+        for (int i = 0; i < alphabet.length; i++) {
+            alphabet[i] = (char) ('0' + i);
+        }
+        CountingIdGenerator generator = new CountingIdGenerator(1, Long.MAX_VALUE);
+        // each full cycle of byte values gives 200 accepted characters
+        String value = generator.randomStrings(200 * 10, 1, alphabet).get(0);
+
+        int[] counts = new int[alphabet.length];
+        for (char c : value.toCharArray()) {
+            counts[c - '0']++;
+        }
+        for (int i = 0; i < counts.length; i++) {
+            assertEquals("character " + i, 20, counts[i]);
+        }
+    }
+
+    @Test
+    public void testBase62Distribution() {
+        int[] counts = new int[128];
+        int samples = 62 * 2000;
+        for (String value : IdGenerator.getInstance().randomStrings(100, samples / 100, IdGenerator.BASE62)) {
+            for (char c : value.toCharArray()) {
+                counts[c]++;
+            }
+        }
+        double expected = samples / 62.0;
+        double chiSquare = 0;
+        for (char c : IdGenerator.BASE62) {
+            chiSquare += (counts[c] - expected) * (counts[c] - expected) / expected;
+        }
+        // 61 degrees of freedom, fails by chance with a probability well below 1e-5
+        assertTrue("chi square: " + chiSquare, chiSquare < 130);
+    }
+
+    @Test
+    public void testStringsAreDistinctAcrossThreads() throws Exception {
+        final Set<String> values = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final AtomicInteger generated = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        List<String> strings = IdGenerator.getInstance().randomStrings(20, 1000, IdGenerator.BASE62);
+                        values.addAll(strings);
+                        generated.addAndGet(strings.size());
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        done.await();
+        assertEquals(THREADS * 1000, generated.get());
+        assertEquals(THREADS * 1000, values.size());
+    }
+
+    @Test
+    public void testReseedsAfterReseedBytes() {
+        CountingIdGenerator probe = new CountingIdGenerator(1, Long.MAX_VALUE);
+        probe.randomHexString(1);
+        int bufferSize = probe.lastFill.get();
+
+        // hex has no rejected bytes, one character per byte
+        CountingIdGenerator generator = new CountingIdGenerator(1, 2L * bufferSize);
+        generator.randomHexString(bufferSize * 6);
+        assertEquals(6, generator.fills.get());
+        assertEquals(3, generator.generators.get());
+
+        generator.randomHexString(1);
+        assertEquals(7, generator.fills.get());
+        assertEquals(4, generator.generators.get());
+    }
+
+    // - PRIVATE
+
+    private static final int THREADS = 8;
+
+    /**
+     * Counts the created generators, which repeat all byte values in order.
+     */
+    private static class CountingIdGenerator extends IdGenerator {
+
+        private final AtomicInteger generators = new AtomicInteger();
+        private final AtomicInteger fills = new AtomicInteger();
+        private final AtomicInteger lastFill = new AtomicInteger();
+
+        private CountingIdGenerator(int stripeCount, long reseedBytes) {
+            super(stripeCount, reseedBytes);
+        }
+
+        @Override
+        SecureRandom newGenerator() {
+            generators.incrementAndGet();
+            return new SecureRandom() {
+                private int next = 0;
+
+                @Override
+                public synchronized void nextBytes(byte[] bytes) {
+                    for (int i = 0; i < bytes.length; i++) {
+                        bytes[i] = (byte) next;
+                        next = (next + 1) % 256;
+                    }
+                    fills.incrementAndGet();
+                    lastFill.set(bytes.length);
+                }
+            };
+        }
+    }
+}
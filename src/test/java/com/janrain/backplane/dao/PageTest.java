@@ -0,0 +1,112 @@
+package com.janrain.backplane.dao;
+
+import com.janrain.backplane.dao.memory.TestEntity;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Johnny Bufu
+ */
+public class PageTest {
+
+    @Test
+    public void testPagesAreInIdOrder() throws Exception {
+        List<TestEntity> entities = newEntities(7);
+        Collections.reverse(entities);
+
+        Page<TestEntity> page = Page.byId(entities, null, 3);
+        assertEquals(ids("id_0", "id_1", "id_2"), ids(page));
+        assertEquals("id_2", page.getNextCursor());
+
+        page = Page.byId(entities, page.getNextCursor(), 3);
+        assertEquals(ids("id_3", "id_4", "id_5"), ids(page));
+
+        page = Page.byId(entities, page.getNextCursor(), 3);
+        assertEquals(ids("id_6"), ids(page));
+        assertNull(page.getNextCursor());
+    }
+
+    @Test
+    public void testLastFullPageHasNoNextCursor() throws Exception {
+        List<TestEntity> entities = newEntities(6);
+
+        Page<TestEntity> page = Page.byId(entities, null, 3);
+        assertNotNull(page.getNextCursor());
+        page = Page.byId(entities, page.getNextCursor(), 3);
+        assertEquals(3, page.getEntries().size());
+        assertNull(page.getNextCursor());
+    }
+
+    @Test
+    public void testEmptyListing() throws Exception {
+        Page<TestEntity> page = Page.byId(new ArrayList<TestEntity>(), null, 3);
+        assertTrue(page.getEntries().isEmpty());
+        assertNull(page.getNextCursor());
+
+        page = Page.byId(newEntities(3), "id_9", 3);
+        assertTrue(page.getEntries().isEmpty());
+        assertNull(page.getNextCursor());
+    }
+
+    @Test
+    public void testChangesBeforeTheCursorDontShiftLaterPages() throws Exception {
+        List<TestEntity> entities = newEntities(6);
+        Page<TestEntity> page = Page.byId(entities, null, 3);
+
+        // the last returned entity is deleted, and one is created before the cursor
+        entities.remove(2);
+        entities.add(new TestEntity("id_00", "value", 0));
+
+        page = Page.byId(entities, page.getNextCursor(), 3);
+        assertEquals(ids("id_3", "id_4", "id_5"), ids(page));
+        assertNull(page.getNextCursor());
+    }
+
+    @Test
+    public void testEntityCreatedAfterTheCursorIsReturned() throws Exception {
+        List<TestEntity> entities = newEntities(4);
+        Page<TestEntity> page = Page.byId(entities, null, 2);
+
+        entities.add(new TestEntity("id_4", "value", 0));
+
+        page = Page.byId(entities, page.getNextCursor(), 2);
+        assertEquals(ids("id_2", "id_3"), ids(page));
+        page = Page.byId(entities, page.getNextCursor(), 2);
+        assertEquals(ids("id_4"), ids(page));
+        assertNull(page.getNextCursor());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testEntriesAreUnmodifiable() throws Exception {
+        Page.byId(newEntities(2), null, 3).getEntries().clear();
+    }
+
+    // - PRIVATE
+
+    private static List<TestEntity> newEntities(int count) throws Exception {
+        List<TestEntity> entities = new ArrayList<TestEntity>();
+        for (int i = 0; i < count; i++) {
+            entities.add(new TestEntity("id_" + i, "value", 0));
+        }
+        return entities;
+    }
+
+    private static List<String> ids(String... ids) {
+        List<String> list = new ArrayList<String>();
+        Collections.addAll(list, ids);
+        return list;
+    }
+
+    private static List<String> ids(Page<TestEntity> page) {
+        List<String> ids = new ArrayList<String>();
+        for (TestEntity entity : page.getEntries()) {
+            ids.add(entity.getIdValue());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,151 @@
+package com.janrain.backplane.dao.memory;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Johnny Bufu
+ */
+public class ExpiryWheelTest {
+
+    @Test
+    public void testTasksRunInExpirationOrder() {
+        ExpiryWheel wheel = new ExpiryWheel(START);
+        List<Integer> expired = Collections.synchronizedList(new ArrayList<Integer>());
+        wheel.add(START + 3500, record(expired, 3));
+        wheel.add(START + 1500, record(expired, 1));
+        wheel.add(START + 2500, record(expired, 2));
+
+        wheel.advance(START + 1000);
+        assertTrue(expired.isEmpty());
+
+        wheel.advance(START + 2000);
+        assertEquals(Collections.singletonList(1), expired);
+
+        wheel.advance(START + 5000);
+        assertEquals(asList(1, 2, 3), expired);
+    }
+
+    @Test
+    public void testTaskDueLaterInTheCurrentTickIsNotDeferred() {
+        ExpiryWheel wheel = new ExpiryWheel(START);
+        List<Integer> expired = Collections.synchronizedList(new ArrayList<Integer>());
+        wheel.add(START + 1900, record(expired, 1));
+
+        // earlier in the task's tick
+        wheel.advance(START + 1500);
+        assertTrue(expired.isEmpty());
+
+        wheel.advance(START + 2000);
+        assertEquals(Collections.singletonList(1), expired);
+    }
+
+    @Test
+    public void testAlreadyExpiredTaskRunsOnNextTick() {
+        ExpiryWheel wheel = new ExpiryWheel(START);
+        wheel.advance(START + 5000);
+        List<Integer> expired = Collections.synchronizedList(new ArrayList<Integer>());
+        wheel.add(START - 10000, record(expired, 1));
+
+        wheel.advance(START + 5500);
+        assertTrue(expired.isEmpty());
+
+        wheel.advance(START + 6000);
+        assertEquals(Collections.singletonList(1), expired);
+    }
+
+    @Test
+    public void testTaskInLaterTurnOfTheWheelWaitsForItsTurn() {
+        ExpiryWheel wheel = new ExpiryWheel(START);
+        List<Integer> expired = Collections.synchronizedList(new ArrayList<Integer>());
+        // same slot as START + 1000, one turn later
+        long later = START + 1000 + 512 * 1000L;
+        wheel.add(later, record(expired, 1));
+
+        wheel.advance(START + 2000);
+        assertTrue(expired.isEmpty());
+
+        wheel.advance(later + 1000);
+        assertEquals(Collections.singletonList(1), expired);
+    }
+
+    @Test
+    public void testFailingTaskDoesNotStopOtherTasks() {
+        ExpiryWheel wheel = new ExpiryWheel(START);
+        List<Integer> expired = Collections.synchronizedList(new ArrayList<Integer>());
+        wheel.add(START + 1100, new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("expected");
+            }
+        });
+        wheel.add(START + 1200, record(expired, 1));
+
+        wheel.advance(START + 2000);
+        assertEquals(Collections.singletonList(1), expired);
+    }
+
+    @Test
+    public void testConcurrentSchedulingRunsEveryTaskOnce() throws Exception {
+        final ExpiryWheel wheel = new ExpiryWheel(START);
+        final AtomicIntegerArray runs = new AtomicIntegerArray(THREADS * TASKS_PER_THREAD);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < TASKS_PER_THREAD; i++) {
+                            final int task = thread * TASKS_PER_THREAD + i;
+                            wheel.add(START + 1000 + (task % 100) * 100, new Runnable() {
+                                @Override
+                                public void run() {
+                                    runs.incrementAndGet(task);
+                                }
+                            });
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        done.await();
+
+        for (long now = START + 1000; now <= START + 12000; now += 500) {
+            wheel.advance(now);
+        }
+        for (int i = 0; i < runs.length(); i++) {
+            assertEquals("task " + i, 1, runs.get(i));
+        }
+    }
+
+    // - PRIVATE
+
+    private static final long START = 1000000000000L;
+    private static final int THREADS = 8;
+    private static final int TASKS_PER_THREAD = 1000;
+
+    private static Runnable record(final List<Integer> expired, final int value) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                expired.add(value);
+            }
+        };
+    }
+
+    private static List<Integer> asList(Integer... values) {
+        List<Integer> list = new ArrayList<Integer>();
+        Collections.addAll(list, values);
+        return list;
+    }
+}
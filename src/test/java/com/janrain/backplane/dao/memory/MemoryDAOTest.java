@@ -0,0 +1,140 @@
+package com.janrain.backplane.dao.memory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Johnny Bufu
+ */
+public class MemoryDAOTest {
+
+    @Before
+    public void init() throws Exception {
+        file = File.createTempFile("memory_dao_test", ".bin");
+        file.delete();
+        now = System.currentTimeMillis();
+        wheel = new ExpiryWheel(now);
+        dao = TestEntity.newDao("test_entities", new MemorySnapshot(file), wheel);
+    }
+
+    @After
+    public void cleanup() {
+        file.delete();
+    }
+
+    @Test
+    public void testPersistGetDelete() throws Exception {
+        dao.persist(new TestEntity("id1", "value1", 0));
+        dao.persist(new TestEntity("id2", "value2", 0));
+
+        assertEquals("value1", dao.get("id1").get(TestEntity.Field.VALUE));
+        assertEquals(2, dao.getAll().size());
+
+        dao.delete("id1");
+        assertNull(dao.get("id1"));
+        assertEquals(1, dao.getAll().size());
+    }
+
+    @Test
+    public void testDeleteAllReturnsDeletedIds() throws Exception {
+        dao.persist(new TestEntity("id1", "value1", 0));
+        dao.persist(new TestEntity("id2", "value2", 0));
+
+        assertEquals(Arrays.asList("id2"), dao.deleteAll(Arrays.asList("id2", "id3")));
+        assertNotNull(dao.get("id1"));
+        assertNull(dao.get("id2"));
+    }
+
+    @Test
+    public void testExpiredEntitiesAreNotReturned() throws Exception {
+        dao.persist(new TestEntity("expired", "value", now - 1));
+        dao.persist(new TestEntity("expiring", "value", System.currentTimeMillis() + 50));
+        dao.persist(new TestEntity("valid", "value", now + 60000));
+
+        assertNull(dao.get("expired"));
+        assertNotNull(dao.get("expiring"));
+
+        Thread.sleep(100);
+        // not removed until the wheel advances, but no longer returned
+        assertNull(dao.get("expiring"));
+        assertEquals(1, dao.getAll().size());
+        assertEquals("valid", dao.getAll().get(0).getIdValue());
+    }
+
+    @Test
+    public void testExpiryWheelRemovesExpiredEntities() throws Exception {
+        long expires = System.currentTimeMillis() + 50;
+        dao.persist(new TestEntity("expiring", "value", expires));
+        assertEquals(expires, dao.getStoredExpirationTime("expiring"));
+
+        Thread.sleep(100);
+        wheel.advance(expires + 2000);
+        assertEquals(0, dao.getStoredExpirationTime("expiring"));
+    }
+
+    @Test
+    public void testReplacedEntityIsNotRemovedByPreviousExpiry() throws Exception {
+        long expires = System.currentTimeMillis() + 50;
+        dao.persist(new TestEntity("id1", "old", expires));
+        dao.persist(new TestEntity("id1", "new", now + 60000));
+
+        Thread.sleep(100);
+        wheel.advance(expires + 2000);
+        assertEquals("new", dao.get("id1").get(TestEntity.Field.VALUE));
+        assertEquals(now + 60000, dao.getStoredExpirationTime("id1"));
+    }
+
+    @Test
+    public void testConcurrentPersistAndGet() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < ENTITIES_PER_THREAD; i++) {
+                            String id = "id_" + thread + "_" + i;
+                            dao.persist(new TestEntity(id, "value", i % 2 == 0 ? 0 : now + 60000));
+                            if (dao.get(id) == null) {
+                                throw new AssertionError("missing " + id);
+                            }
+                            // also reads while other threads write
+                            dao.getAll();
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        done.await();
+
+        assertNull(failure.get());
+        assertEquals(THREADS * ENTITIES_PER_THREAD, dao.getAll().size());
+    }
+
+    // - PRIVATE
+
+    private static final int THREADS = 8;
+    private static final int ENTITIES_PER_THREAD = 200;
+
+    private File file;
+    private long now;
+    private ExpiryWheel wheel;
+    private MemoryDAO<TestEntity> dao;
+}
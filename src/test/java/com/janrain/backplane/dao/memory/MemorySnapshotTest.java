@@ -0,0 +1,117 @@
+package com.janrain.backplane.dao.memory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Johnny Bufu
+ */
+public class MemorySnapshotTest {
+
+    @Before
+    public void init() throws Exception {
+        file = File.createTempFile("memory_snapshot_test", ".bin");
+        file.delete();
+        wheel = new ExpiryWheel(System.currentTimeMillis());
+    }
+
+    @After
+    public void cleanup() {
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+    }
+
+    @Test
+    public void testSaveAndRestore() throws Exception {
+        long expires = System.currentTimeMillis() + 60000;
+        MemorySnapshot snapshot = new MemorySnapshot(file);
+        MemoryDAO<TestEntity> dao = TestEntity.newDao("test_entities", snapshot, wheel);
+        dao.persist(new TestEntity("id1", "value1", 0));
+        dao.persist(new TestEntity("id2", "value2", expires));
+        snapshot.save();
+
+        MemoryDAO<TestEntity> restored = TestEntity.newDao("test_entities", new MemorySnapshot(file), wheel);
+        assertEquals(2, restored.getAll().size());
+        assertEquals("value1", restored.get("id1").get(TestEntity.Field.VALUE));
+        assertEquals("value2", restored.get("id2").get(TestEntity.Field.VALUE));
+        assertEquals(0, restored.getStoredExpirationTime("id1"));
+        assertEquals(expires, restored.getStoredExpirationTime("id2"));
+    }
+
+    @Test
+    public void testEntitiesAreRestoredToTheirOwnDao() throws Exception {
+        MemorySnapshot snapshot = new MemorySnapshot(file);
+        TestEntity.newDao("test_entities_1", snapshot, wheel).persist(new TestEntity("id1", "value1", 0));
+        TestEntity.newDao("test_entities_2", snapshot, wheel).persist(new TestEntity("id2", "value2", 0));
+        snapshot.save();
+
+        MemorySnapshot restoredSnapshot = new MemorySnapshot(file);
+        MemoryDAO<TestEntity> restored1 = TestEntity.newDao("test_entities_1", restoredSnapshot, wheel);
+        MemoryDAO<TestEntity> restored2 = TestEntity.newDao("test_entities_2", restoredSnapshot, wheel);
+        assertNotNull(restored1.get("id1"));
+        assertNull(restored1.get("id2"));
+        assertNotNull(restored2.get("id2"));
+        assertNull(restored2.get("id1"));
+    }
+
+    @Test
+    public void testExpiredEntitiesAreNotRestored() throws Exception {
+        MemorySnapshot snapshot = new MemorySnapshot(file);
+        MemoryDAO<TestEntity> dao = TestEntity.newDao("test_entities", snapshot, wheel);
+        dao.persist(new TestEntity("expiring", "value", System.currentTimeMillis() + 200));
+        dao.persist(new TestEntity("valid", "value", 0));
+        snapshot.save();
+
+        Thread.sleep(300);
+        MemoryDAO<TestEntity> restored = TestEntity.newDao("test_entities", new MemorySnapshot(file), wheel);
+        assertNull(restored.get("expiring"));
+        assertEquals(0, restored.getStoredExpirationTime("expiring"));
+        assertNotNull(restored.get("valid"));
+    }
+
+    @Test
+    public void testSaveReplacesPreviousSnapshot() throws Exception {
+        MemorySnapshot snapshot = new MemorySnapshot(file);
+        MemoryDAO<TestEntity> dao = TestEntity.newDao("test_entities", snapshot, wheel);
+        dao.persist(new TestEntity("id1", "value1", 0));
+        dao.persist(new TestEntity("id2", "value2", 0));
+        snapshot.save();
+        dao.delete("id1");
+        snapshot.save();
+
+        MemoryDAO<TestEntity> restored = TestEntity.newDao("test_entities", new MemorySnapshot(file), wheel);
+        assertNull(restored.get("id1"));
+        assertNotNull(restored.get("id2"));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void testCorruptSnapshotStartsEmpty() throws Exception {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write("not a snapshot".getBytes());
+        } finally {
+            out.close();
+        }
+
+        MemorySnapshot snapshot = new MemorySnapshot(file);
+        MemoryDAO<TestEntity> dao = TestEntity.newDao("test_entities", snapshot, wheel);
+        assertTrue(dao.getAll().isEmpty());
+
+        // and the next save replaces the corrupt file
+        dao.persist(new TestEntity("id1", "value1", 0));
+        snapshot.save();
+        assertNotNull(TestEntity.newDao("test_entities", new MemorySnapshot(file), wheel).get("id1"));
+    }
+
+    // - PRIVATE
+
+    private File file;
+    private ExpiryWheel wheel;
+}
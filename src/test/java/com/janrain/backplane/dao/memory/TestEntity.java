@@ -0,0 +1,75 @@
+package com.janrain.backplane.dao.memory;
+
+import com.janrain.backplane.common.ExternalizableCore;
+import com.janrain.commons.message.MessageException;
+import com.janrain.commons.message.MessageField;
+
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Minimal entity for the in-memory store tests, expiring at the given time (0 for never).
+ *
+ * @author Johnny Bufu
+ */
+public class TestEntity extends ExternalizableCore {
+
+    public TestEntity() { }
+
+    public TestEntity(String id, String value, long expires) throws MessageException {
+        Map<String,String> data = new LinkedHashMap<String, String>();
+        data.put(Field.ID.getFieldName(), id);
+        data.put(Field.VALUE.getFieldName(), value);
+        data.put(Field.EXPIRES.getFieldName(), Long.toString(expires));
+        super.init(id, data);
+    }
+
+    @Override
+    public String getIdValue() {
+        return get(Field.ID);
+    }
+
+    @Override
+    public Set<? extends MessageField> getFields() {
+        return EnumSet.allOf(Field.class);
+    }
+
+    public long getExpires() {
+        return Long.parseLong(get(Field.EXPIRES));
+    }
+
+    public static MemoryDAO<TestEntity> newDao(String name, MemorySnapshot snapshot, ExpiryWheel expiryWheel) {
+        return new MemoryDAO<TestEntity>(name, snapshot, expiryWheel) {
+            @Override
+            protected long getExpirationTime(TestEntity entity) {
+                return entity.getExpires();
+            }
+        };
+    }
+
+    public static enum Field implements MessageField {
+
+        ID,
+        VALUE,
+        EXPIRES;
+
+        @Override
+        public String getFieldName() {
+            return name();
+        }
+
+        @Override
+        public boolean isRequired() {
+            return true;
+        }
+
+        @Override
+        public void validate(String value) throws MessageException {
+            if (isRequired()) validateNotBlank(name(), value);
+        }
+    }
+
+    private static final long serialVersionUID = 2315637718491752117L;
+}
@@ -0,0 +1,239 @@
+package com.janrain.backplane.dao.redis;
+
+import com.janrain.backplane.common.BpSerialUtils;
+import com.janrain.backplane.config.BackplaneSystemProps;
+import com.janrain.backplane.dao.Page;
+import com.janrain.backplane.dao.memory.TestEntity;
+import com.janrain.backplane.redis.Redis;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import redis.clients.jedis.Jedis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Johnny Bufu
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:/spring/app-config.xml", "classpath:/spring/mvc-config.xml" })
+public class RedisListLoaderTest {
+
+    @Before
+    public void init() {
+        Assume.assumeTrue(! BackplaneSystemProps.isMemoryStore());
+        clearKeys();
+    }
+
+    @After
+    public void cleanup() {
+        if (! BackplaneSystemProps.isMemoryStore()) {
+            clearKeys();
+        }
+    }
+
+    @Test
+    public void testPagesCoverTheList() throws Exception {
+        for (int i = 0; i < 7; i++) {
+            store(new TestEntity("id_" + i, "value", 0));
+        }
+
+        Page<TestEntity> page = loader.loadPage(null, 3);
+        assertEquals(ids("id_0", "id_1", "id_2"), ids(page));
+        assertNotNull(page.getNextCursor());
+
+        page = loader.loadPage(page.getNextCursor(), 3);
+        assertEquals(ids("id_3", "id_4", "id_5"), ids(page));
+
+        page = loader.loadPage(page.getNextCursor(), 3);
+        assertEquals(ids("id_6"), ids(page));
+        assertNull(page.getNextCursor());
+    }
+
+    @Test
+    public void testFullLastWindowIsFollowedByAnEmptyPage() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            store(new TestEntity("id_" + i, "value", 0));
+        }
+
+        Page<TestEntity> page = loader.loadPage(null, 3);
+        assertEquals(3, page.getEntries().size());
+        assertNotNull(page.getNextCursor());
+
+        page = loader.loadPage(page.getNextCursor(), 3);
+        assertTrue(page.getEntries().isEmpty());
+        assertNull(page.getNextCursor());
+    }
+
+    @Test
+    public void testPagesReturnCurrentEntries() throws Exception {
+        store(new TestEntity("id_0", "value", 0));
+        store(new TestEntity("id_1", "value", 0));
+        store(new TestEntity("id_2", "value", 0));
+        // updated, stale copy left in the list
+        store(new TestEntity("id_0", "updated", 0));
+        // deleted, stale copy left in the list
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            jedis.del(loader.getKey("id_1"));
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+
+        Page<TestEntity> page = loader.loadPage(null, 2);
+        assertEquals(ids("id_0"), ids(page));
+        assertEquals("updated", page.getEntries().get(0).get(TestEntity.Field.VALUE));
+
+        // the updated entity shows up again from its newer list entry
+        page = loader.loadPage(page.getNextCursor(), 2);
+        assertEquals(ids("id_2", "id_0"), ids(page));
+        assertEquals("updated", page.getEntries().get(1).get(TestEntity.Field.VALUE));
+    }
+
+    @Test
+    public void testEntriesAreNotRepeatedWithinAPage() throws Exception {
+        store(new TestEntity("id_0", "value", 0));
+        store(new TestEntity("id_0", "updated", 0));
+        store(new TestEntity("id_1", "value", 0));
+
+        Page<TestEntity> page = loader.loadPage(null, 10);
+        assertEquals(ids("id_0", "id_1"), ids(page));
+        assertNull(page.getNextCursor());
+    }
+
+    @Test
+    public void testDeletesDoNotSkipEntries() throws Exception {
+        for (int i = 0; i < 7; i++) {
+            store(new TestEntity("id_" + i, "value", 0));
+        }
+
+        Page<TestEntity> page = loader.loadPage(null, 3);
+        assertEquals(ids("id_0", "id_1", "id_2"), ids(page));
+
+        // the later entries move to lower offsets
+        delete("id_0");
+        delete("id_1");
+
+        page = loader.loadPage(page.getNextCursor(), 3);
+        assertEquals(ids("id_3", "id_4", "id_5"), ids(page));
+
+        // deleted after the last entry read
+        delete("id_6");
+
+        page = loader.loadPage(page.getNextCursor(), 3);
+        assertTrue(page.getEntries().isEmpty());
+        assertNull(page.getNextCursor());
+    }
+
+    @Test
+    public void testDeletingTheLastEntryReadRestartsTheListing() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            store(new TestEntity("id_" + i, "value", 0));
+        }
+
+        Page<TestEntity> page = loader.loadPage(null, 3);
+        assertEquals(ids("id_0", "id_1", "id_2"), ids(page));
+
+        delete("id_2");
+
+        // entries may be returned again, but none is skipped
+        page = loader.loadPage(page.getNextCursor(), 3);
+        assertEquals(ids("id_0", "id_1", "id_3"), ids(page));
+
+        page = loader.loadPage(page.getNextCursor(), 3);
+        assertEquals(ids("id_4"), ids(page));
+        assertNull(page.getNextCursor());
+    }
+
+    @Test
+    public void testInvalidCursorsAreRejected() {
+        for (String cursor : new String[] {"abc", "-1", "id_0"}) {
+            try {
+                loader.loadPage(cursor, 3);
+                fail("cursor should have been rejected: " + cursor);
+            } catch (IllegalArgumentException expected) {
+                // expected
+            }
+        }
+    }
+
+    // - PRIVATE
+
+    private static final String KEY_PREFIX = "list_loader_test_";
+
+    private final RedisListLoader<TestEntity> loader = new RedisListLoader<TestEntity>() {
+        @Override
+        protected byte[] getKey(String id) {
+            return (KEY_PREFIX + id).getBytes();
+        }
+
+        @Override
+        protected TestEntity deserialize(byte[] bytes) {
+            return BpSerialUtils.deserialize(bytes);
+        }
+    };
+
+    /** as RedisListWriter does, the list gets a copy of every version */
+    private void store(TestEntity entity) {
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            byte[] bytes = BpSerialUtils.serialize(entity);
+            jedis.rpush(loader.getKey("list"), bytes);
+            jedis.set(loader.getKey(entity.getIdValue()), bytes);
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+
+    /** as RedisListWriter does, only the current copy is removed from the list */
+    private void delete(String id) {
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            byte[] bytes = jedis.get(loader.getKey(id));
+            jedis.lrem(loader.getKey("list"), 0, bytes);
+            jedis.del(loader.getKey(id));
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+
+    private void clearKeys() {
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            Set<String> keys = new HashSet<String>(jedis.keys(KEY_PREFIX + "*"));
+            if (! keys.isEmpty()) {
+                jedis.del(keys.toArray(new String[keys.size()]));
+            }
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+
+    private static List<String> ids(String... ids) {
+        List<String> list = new ArrayList<String>();
+        Collections.addAll(list, ids);
+        return list;
+    }
+
+    private static List<String> ids(Page<TestEntity> page) {
+        List<String> ids = new ArrayList<String>();
+        for (TestEntity entity : page.getEntries()) {
+            ids.add(entity.getIdValue());
+        }
+        return ids;
+    }
+}
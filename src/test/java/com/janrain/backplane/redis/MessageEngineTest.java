@@ -0,0 +1,241 @@
+package com.janrain.backplane.redis;
+
+import com.janrain.backplane.common.BackplaneServerException;
+import com.janrain.backplane.common.BpSerialUtils;
+import com.janrain.backplane.config.BackplaneSystemProps;
+import com.janrain.backplane.server2.BackplaneMessage;
+import com.janrain.commons.util.Pair;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Transaction;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Johnny Bufu
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:/spring/app-config.xml", "classpath:/spring/mvc-config.xml" })
+public class MessageEngineTest {
+
+    @Before
+    public void init() {
+        Assume.assumeTrue(! BackplaneSystemProps.isMemoryStore());
+        protocol = new TestProtocol();
+        engine = new MessageEngine(protocol);
+        clearKeys();
+    }
+
+    @After
+    public void cleanup() {
+        System.clearProperty(BackplaneSystemProps.CLUSTER_UPGRADED);
+        if (protocol != null) {
+            clearKeys();
+        }
+    }
+
+    @Test
+    public void testReplaySkipsInsertedMessages() throws Exception {
+        System.setProperty(BackplaneSystemProps.CLUSTER_UPGRADED, "true");
+        List<BackplaneMessage> messages = newMessages(3);
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            // batch left in-flight by a leader that inserted the first message and crashed
+            for (BackplaneMessage message : messages) {
+                jedis.rpush(MessageEngine.getInFlightKey(protocol).getBytes(), BpSerialUtils.serialize(message));
+            }
+            jedis.setex(MessageEngine.getDedupKey(protocol, messages.get(0).getIdValue()), 60, messages.get(0).getIdValue());
+
+            assertEquals(3, engine.processBatch(protocol));
+
+            assertEquals(2L, (long) jedis.llen(INSERTED_KEY));
+            assertEquals(0L, (long) jedis.llen(MessageEngine.getInFlightKey(protocol)));
+            assertEquals(0L, (long) jedis.llen(MessageEngine.getDeadLetterKey(protocol)));
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+
+    @Test
+    public void testFailingBatchIsDeadLetteredAfterMaxAttempts() throws Exception {
+        System.setProperty(BackplaneSystemProps.CLUSTER_UPGRADED, "true");
+        protocol.failInserts = true;
+        queue(newMessages(2));
+
+        // the first attempt takes the batch off the queue, every following one is a replay
+        for (int i = 0; i <= MessageEngine.MAX_BATCH_ATTEMPTS; i++) {
+            try {
+                engine.processBatch(protocol);
+                fail("insert should have failed");
+            } catch (BackplaneServerException expected) {
+                // batch stays in-flight
+            }
+        }
+        assertEquals(0L, llen(MessageEngine.getDeadLetterKey(protocol)));
+        assertEquals(2L, llen(MessageEngine.getInFlightKey(protocol)));
+
+        assertEquals(2, engine.processBatch(protocol));
+
+        assertEquals(2L, llen(MessageEngine.getDeadLetterKey(protocol)));
+        assertEquals(0L, llen(MessageEngine.getInFlightKey(protocol)));
+        assertEquals(0L, llen(protocol.getQueueKey()));
+        assertEquals(2, protocol.deadLettered);
+    }
+
+    @Test
+    public void testBatchIsTakenInInsertTransactionUntilClusterUpgraded() throws Exception {
+        queue(newMessages(2));
+        protocol.failInserts = true;
+        try {
+            engine.processBatch(protocol);
+            fail("insert should have failed");
+        } catch (BackplaneServerException expected) {
+            // batch stays queued
+        }
+        assertEquals(2L, llen(protocol.getQueueKey()));
+        assertEquals(0L, llen(MessageEngine.getInFlightKey(protocol)));
+
+        protocol.failInserts = false;
+        assertEquals(2, engine.processBatch(protocol));
+        assertEquals(0L, llen(protocol.getQueueKey()));
+        assertEquals(0L, llen(MessageEngine.getInFlightKey(protocol)));
+        assertEquals(2L, llen(INSERTED_KEY));
+    }
+
+    // - PRIVATE
+
+    private static final String INSERTED_KEY = "engine_test_inserted";
+
+    private TestProtocol protocol;
+    private MessageEngine engine;
+
+    private static class TestProtocol implements MessageProtocol<BackplaneMessage> {
+
+        private boolean failInserts = false;
+        private int deadLettered = 0;
+
+        @Override
+        public String getName() {
+            return "engine_test";
+        }
+
+        @Override
+        public String getQueueKey() {
+            return "engine_test_queue";
+        }
+
+        @Override
+        public String getLastIdKey() {
+            return "engine_test_last_id";
+        }
+
+        @Override
+        public String getMessagesIndexKey() {
+            return "engine_test_messages";
+        }
+
+        @Override
+        public byte[] getMessageKey(String messageId) {
+            return ("engine_test_message_" + messageId).getBytes();
+        }
+
+        @Override
+        public BackplaneMessage deserialize(byte[] bytes) {
+            return BpSerialUtils.deserialize(bytes);
+        }
+
+        @Override
+        public String getChannel(BackplaneMessage message) {
+            return message.getChannel();
+        }
+
+        @Override
+        public long getExpirationTime(BackplaneMessage message) {
+            return System.currentTimeMillis() + 60000L;
+        }
+
+        @Override
+        public Date getDateFromId(String messageId) {
+            return BackplaneMessage.getDateFromId(messageId);
+        }
+
+        @Override
+        public void updateId(BackplaneMessage message, Pair<String, Date> lastIdAndDate) {
+            message.updateId(lastIdAndDate);
+        }
+
+        @Override
+        public void insert(Transaction transaction, BackplaneMessage message, long messageTime) throws BackplaneServerException {
+            if (failInserts) throw new BackplaneServerException("insert failed");
+            transaction.rpush(INSERTED_KEY, message.getIdValue());
+        }
+
+        @Override
+        public void deadLettered(Jedis jedis, List<byte[]> messagesBytes) {
+            deadLettered += messagesBytes.size();
+        }
+
+        @Override
+        public void deleteExpiredMessages() {
+        }
+    }
+
+    private static List<BackplaneMessage> newMessages(int count) throws Exception {
+        List<BackplaneMessage> messages = new ArrayList<BackplaneMessage>();
+        for (int i = 0; i < count; i++) {
+            messages.add(new BackplaneMessage("http://source.com", 60, 600, new HashMap<String, Object>() {{
+                put("bus", "engine-test.com");
+                put("channel", "channel1");
+                put("type", "test");
+                put("payload", "payload");
+            }}));
+        }
+        return messages;
+    }
+
+    private void queue(List<BackplaneMessage> messages) {
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            for (BackplaneMessage message : messages) {
+                jedis.rpush(protocol.getQueueKey().getBytes(), BpSerialUtils.serialize(message));
+            }
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+
+    private long llen(String key) {
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            return jedis.llen(key);
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+
+    private void clearKeys() {
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            jedis.del(protocol.getQueueKey(), protocol.getLastIdKey(), INSERTED_KEY,
+                    MessageEngine.getInFlightKey(protocol), MessageEngine.getInFlightKey(protocol) + "_attempts",
+                    MessageEngine.getDeadLetterKey(protocol));
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+}
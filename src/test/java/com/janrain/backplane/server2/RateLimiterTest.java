@@ -0,0 +1,148 @@
+package com.janrain.backplane.server2;
+
+import com.janrain.backplane.common.BackplaneServerException;
+import com.janrain.backplane.server2.dao.RateLimitDAO;
+import com.janrain.backplane.server2.dao.memory.MemoryRateLimitDAO;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Johnny Bufu
+ */
+public class RateLimiterTest {
+
+    @Test
+    public void testNoLimit() {
+        CountingRateLimitDAO dao = new CountingRateLimitDAO();
+        RateLimiter limiter = new RateLimiter("test_no_limit", dao);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, limiter.acquire("key", 0, 0));
+        }
+        assertTrue(dao.requested.isEmpty());
+    }
+
+    @Test
+    public void testRejectedAfterBurst() {
+        RateLimiter limiter = new RateLimiter("test_burst", new CountingRateLimitDAO());
+        for (int i = 0; i < 5; i++) {
+            assertEquals("request " + i, 0, limiter.acquire("key", 10, 5));
+        }
+        long retryAfter = limiter.acquire("key", 10, 5);
+        assertTrue("retry after: " + retryAfter, retryAfter > 0 && retryAfter <= 100);
+
+        // other keys have their own buckets
+        assertEquals(0, limiter.acquire("other", 10, 5));
+    }
+
+    @Test
+    public void testBatchesGrowWithDemand() {
+        CountingRateLimitDAO dao = new CountingRateLimitDAO();
+        RateLimiter limiter = new RateLimiter("test_batches", dao);
+        for (int i = 0; i < 300; i++) {
+            assertEquals(0, limiter.acquire("key", 1000, 1000));
+        }
+        assertEquals(Integer.valueOf(1), dao.requested.get(0));
+        assertEquals(Integer.valueOf(2), dao.requested.get(1));
+        assertEquals(Integer.valueOf(4), dao.requested.get(2));
+        // capped at a tenth of the rate
+        for (int requested : dao.requested) {
+            assertTrue(requested <= 100);
+        }
+        // leased but not handed out
+        assertTrue(dao.granted - 300 < 100);
+    }
+
+    @Test
+    public void testLimitHoldsAcrossNodes() {
+        MemoryRateLimitDAO shared = new MemoryRateLimitDAO();
+        RateLimiter node1 = new RateLimiter("test_nodes", shared);
+        RateLimiter node2 = new RateLimiter("test_nodes", shared);
+        long start = System.currentTimeMillis();
+        int allowed = 0;
+        for (int i = 0; i < 500; i++) {
+            if (node1.acquire("key", 100, 100) == 0) allowed++;
+            if (node2.acquire("key", 100, 100) == 0) allowed++;
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("allowed: " + allowed, allowed >= 100);
+        assertTrue("allowed: " + allowed + " in " + elapsed + "ms", allowed <= 100 + elapsed * 100 / 1000 + 1);
+    }
+
+    @Test
+    public void testReleasedPermitIsHandedOutAgain() {
+        CountingRateLimitDAO dao = new CountingRateLimitDAO();
+        RateLimiter limiter = new RateLimiter("test_release", dao);
+        assertEquals(0, limiter.acquire("key", 1000, 1000));
+        assertEquals(1, dao.requested.size());
+
+        limiter.release("key");
+        assertEquals(0, limiter.acquire("key", 1000, 1000));
+        assertEquals(1, dao.requested.size());
+
+        // nothing to give back for unknown keys
+        limiter.release("other");
+    }
+
+    @Test
+    public void testReleaseDoesNotExceedTheLimit() {
+        RateLimiter limiter = new RateLimiter("test_release_limit", new CountingRateLimitDAO());
+        limiter.release("key");
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, limiter.acquire("key", 10, 5));
+        }
+        limiter.release("key");
+        limiter.release("key");
+        assertEquals(0, limiter.acquire("key", 10, 5));
+        assertTrue(limiter.acquire("key", 10, 5) > 0);
+    }
+
+    @Test
+    public void testAllowedIfSharedBucketUnavailable() {
+        RateLimiter limiter = new RateLimiter("test_unavailable", new RateLimitDAO() {
+            @Override
+            public Acquired acquire(String key, int ratePerSecond, int burst, int requested) throws BackplaneServerException {
+                throw new BackplaneServerException("unavailable");
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, limiter.acquire("key", 1, 1));
+        }
+    }
+
+    @Test
+    public void testNextBatch() {
+        long now = 1000000L;
+        // first acquire, or idle for more than a lease
+        assertEquals(1, RateLimiter.nextBatch(0, 0, 0, now, 100));
+        assertEquals(1, RateLimiter.nextBatch(50, 50, now - 5000, now, 100));
+        // ran out before expiring
+        assertEquals(16, RateLimiter.nextBatch(8, 8, now + 500, now, 100));
+        assertEquals(100, RateLimiter.nextBatch(80, 80, now + 500, now, 100));
+        // expired, sized by the permits handed out
+        assertEquals(3, RateLimiter.nextBatch(8, 3, now - 100, now, 100));
+        assertEquals(1, RateLimiter.nextBatch(8, 0, now - 100, now, 100));
+    }
+
+    // - PRIVATE
+
+    /**
+     * Local buckets, recording the permits requested and granted.
+     */
+    private static class CountingRateLimitDAO extends MemoryRateLimitDAO {
+
+        private final List<Integer> requested = new ArrayList<Integer>();
+        private int granted = 0;
+
+        @Override
+        public synchronized Acquired acquire(String key, int ratePerSecond, int burst, int requested) {
+            this.requested.add(requested);
+            Acquired acquired = super.acquire(key, ratePerSecond, burst, requested);
+            granted += acquired.getPermits();
+            return acquired;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.janrain.backplane.server2;
+
+import com.janrain.backplane.common.RandomUtils;
+import com.janrain.backplane.config.BackplaneSystemProps;
+import com.janrain.backplane.server2.dao.BP2DAOs;
+import com.janrain.backplane.server2.dao.RevocationJob;
+import com.janrain.backplane.server2.dao.RevocationJobDAO;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Johnny Bufu
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:/spring/app-config.xml", "classpath:/spring/mvc-config.xml" })
+public class RevocationJobsTest {
+
+    @Before
+    public void init() throws Exception {
+        bus = "jobs-test-" + RandomUtils.randomString(10) + ".com";
+        BP2DAOs.getBusDao().persist(new BusConfig2(bus, "fakeOwnerId", "600", "28800"));
+        grant = new Grant.Builder(GrantType.CLIENT_CREDENTIALS, GrantState.ACTIVE, "fakeOwnerId", "jobs_test_client", "bus:" + bus).buildGrant();
+        BP2DAOs.getGrantDao().persist(grant);
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        BP2DAOs.getBusDao().delete(bus);
+        BP2DAOs.getGrantDao().delete(grant.getIdValue());
+    }
+
+    @Test
+    public void testDeleteBusesJob() throws Exception {
+        RevocationJob job = RevocationJobs.getInstance().submit(newDeleteBusesJob());
+
+        RevocationJob finished = awaitFinished(job.getId());
+        assertEquals(RevocationJob.State.COMPLETED, finished.getState());
+        assertEquals("1", finished.asMap().get(RevocationJob.Field.ATTEMPTS.getFieldName()));
+        assertBusDeleted();
+    }
+
+    @Test
+    public void testSubmitIsIdempotent() throws Exception {
+        RevocationJob job = newDeleteBusesJob();
+        RevocationJobs.getInstance().submit(job);
+        RevocationJob existing = RevocationJobs.getInstance().submit(RevocationJob.delete(job.getId(), RevocationJob.Type.DELETE_BUSES, Arrays.asList("other-bus.com")));
+
+        assertEquals(job.getId(), existing.getId());
+        assertEquals(Arrays.asList(bus), existing.getEntityIds());
+        RevocationJob finished = awaitFinished(job.getId());
+        assertEquals(RevocationJob.State.COMPLETED, finished.getState());
+        assertEquals("1", finished.asMap().get(RevocationJob.Field.ATTEMPTS.getFieldName()));
+    }
+
+    @Test
+    public void testCompletedJobRunsAgainWithoutEffect() throws Exception {
+        awaitFinished(RevocationJobs.getInstance().submit(newDeleteBusesJob()).getId());
+
+        // buses and grants are already deleted
+        RevocationJob again = awaitFinished(RevocationJobs.getInstance().submit(newDeleteBusesJob()).getId());
+        assertEquals(RevocationJob.State.COMPLETED, again.getState());
+        assertBusDeleted();
+    }
+
+    @Test
+    public void testJobLeftByFailedNodeIsResumed() throws Exception {
+        RevocationJobDAO dao = BP2DAOs.getRevocationJobDAO();
+        RevocationJob job = newDeleteBusesJob();
+        assertTrue(dao.create(job));
+        // started on a node that failed before completing it, its lease expired
+        job.started("failed-node");
+        dao.update(job);
+        assertTrue(dao.getUnfinished().contains(job.getId()));
+
+        RevocationJobs.getInstance().resumeUnfinished();
+
+        RevocationJob finished = awaitFinished(job.getId());
+        assertEquals(RevocationJob.State.COMPLETED, finished.getState());
+        assertEquals("2", finished.asMap().get(RevocationJob.Field.ATTEMPTS.getFieldName()));
+        assertFalse(dao.getUnfinished().contains(job.getId()));
+        assertBusDeleted();
+    }
+
+    @Test
+    public void testLeasedJobIsNotResumed() throws Exception {
+        RevocationJobDAO dao = BP2DAOs.getRevocationJobDAO();
+        RevocationJob job = newDeleteBusesJob();
+        assertTrue(dao.create(job));
+        assertTrue(dao.claim(job.getId(), "other-node", 60));
+        try {
+            RevocationJobs.getInstance().resumeUnfinished();
+            Thread.sleep(500);
+            assertEquals(RevocationJob.State.QUEUED, dao.get(job.getId()).getState());
+        } finally {
+            dao.release(job.getId(), "other-node");
+            job.failed("test cleanup");
+            dao.update(job);
+        }
+    }
+
+    @Test
+    public void testLeaseClaimRenewAndRelease() throws Exception {
+        RevocationJobDAO dao = BP2DAOs.getRevocationJobDAO();
+        String id = RevocationJobs.newJobId();
+
+        assertTrue(dao.claim(id, "node1", 60));
+        // renewed by the holder, not claimed by another node
+        assertTrue(dao.claim(id, "node1", 60));
+        assertFalse(dao.claim(id, "node2", 60));
+
+        // released only by the holder
+        dao.release(id, "node2");
+        assertFalse(dao.claim(id, "node2", 60));
+        dao.release(id, "node1");
+        assertTrue(dao.claim(id, "node2", 60));
+        dao.release(id, "node2");
+    }
+
+    @Test
+    public void testLeaseExpires() throws Exception {
+        // leases are never contended in the single node memory store
+        Assume.assumeTrue(! BackplaneSystemProps.isMemoryStore());
+        RevocationJobDAO dao = BP2DAOs.getRevocationJobDAO();
+        String id = RevocationJobs.newJobId();
+
+        assertTrue(dao.claim(id, "node1", 1));
+        assertFalse(dao.claim(id, "node2", 1));
+        Thread.sleep(2000);
+        assertTrue(dao.claim(id, "node2", 1));
+        dao.release(id, "node2");
+    }
+
+    // - PRIVATE
+
+    private static final long JOB_TIMEOUT_MILLIS = 10000L;
+
+    private String bus;
+    private Grant grant;
+
+    private RevocationJob newDeleteBusesJob() throws Exception {
+        List<String> buses = new ArrayList<String>();
+        buses.add(bus);
+        return RevocationJob.delete(RevocationJobs.newJobId(), RevocationJob.Type.DELETE_BUSES, buses);
+    }
+
+    private static RevocationJob awaitFinished(String id) throws Exception {
+        long deadline = System.currentTimeMillis() + JOB_TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            RevocationJob job = BP2DAOs.getRevocationJobDAO().get(id);
+            if (job != null && job.getState().isFinished()) return job;
+            Thread.sleep(50);
+        }
+        fail("revocation job " + id + " not finished after " + JOB_TIMEOUT_MILLIS + "ms");
+        return null;
+    }
+
+    private void assertBusDeleted() throws Exception {
+        assertNull(BP2DAOs.getBusDao().get(bus));
+        Grant updated = BP2DAOs.getGrantDao().get(grant.getIdValue());
+        if (updated != null) {
+            Set<String> buses = updated.getAuthorizedScope().getScopeFieldValues(BackplaneMessage.Field.BUS);
+            assertTrue(buses == null || ! buses.contains(bus));
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.janrain.backplane.server2;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Johnny Bufu
+ */
+public class ScopeTest {
+
+    @Test
+    public void testMessageInScope() throws Exception {
+        BackplaneMessage message = newMessage("bus1.com", "channel1");
+
+        assertTrue(new Scope("").isMessageInScope(message));
+        assertTrue(new Scope("bus:bus1.com").isMessageInScope(message));
+        assertTrue(new Scope("bus:bus2.com bus:bus1.com").isMessageInScope(message));
+        assertTrue(new Scope("bus:bus1.com channel:channel1 type:test").isMessageInScope(message));
+
+        assertFalse(new Scope("bus:bus2.com").isMessageInScope(message));
+        assertFalse(new Scope("bus:bus1.com channel:channel2").isMessageInScope(message));
+        assertFalse(new Scope("bus:bus1.com channel:channel2 channel:channel3").isMessageInScope(message));
+        assertFalse(new Scope("bus:bus1.com sticky:true").isMessageInScope(message));
+    }
+
+    @Test
+    public void testEmptyScopeValuesMatchNothing() throws Exception {
+        BackplaneMessage message = newMessage("bus1.com", "channel1");
+        Map<BackplaneMessage.Field, LinkedHashSet<String>> scopeMap = new LinkedHashMap<BackplaneMessage.Field, LinkedHashSet<String>>();
+        scopeMap.put(BackplaneMessage.Field.BUS, new LinkedHashSet<String>());
+        assertFalse(new Scope(scopeMap).isMessageInScope(message));
+    }
+
+    @Test
+    public void testScopeIsImmutable() throws Exception {
+        BackplaneMessage message = newMessage("bus1.com", "channel1");
+        Map<BackplaneMessage.Field, LinkedHashSet<String>> scopeMap = new LinkedHashMap<BackplaneMessage.Field, LinkedHashSet<String>>();
+        scopeMap.put(BackplaneMessage.Field.BUS, new LinkedHashSet<String>() {{ add("bus1.com"); }});
+        Scope scope = new Scope(scopeMap);
+
+        scopeMap.get(BackplaneMessage.Field.BUS).clear();
+        scope.getScopeMap().get(BackplaneMessage.Field.BUS).clear();
+
+        assertTrue(scope.isMessageInScope(message));
+        assertTrue(scope.getScopeFieldValues(BackplaneMessage.Field.BUS).contains("bus1.com"));
+    }
+
+    private static BackplaneMessage newMessage(final String bus, final String channel) throws Exception {
+        return new BackplaneMessage("http://source.com", 60, 600, new HashMap<String, Object>() {{
+            put("bus", bus);
+            put("channel", channel);
+            put("type", "test");
+            put("payload", "payload");
+        }});
+    }
+}
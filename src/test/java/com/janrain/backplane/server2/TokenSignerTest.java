@@ -0,0 +1,102 @@
+package com.janrain.backplane.server2;
+
+import org.junit.Test;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Johnny Bufu
+ */
+public class TokenSignerTest {
+
+    @Test
+    public void testSignVerifyRoundTrip() throws Exception {
+        String tokenString = TokenSigner.sign(UNSIGNED_ID, EXPIRES, SCOPE, KEY);
+
+        assertTrue(tokenString.startsWith(UNSIGNED_ID + "."));
+        assertTrue(TokenSigner.isSigned(tokenString));
+        assertTrue(Token.looksLikeOurToken(tokenString));
+
+        Token token = TokenSigner.verify(tokenString, KEY);
+        assertNotNull(token);
+        assertEquals(tokenString, token.getIdValue());
+        assertEquals(GrantType.ANONYMOUS.toString(), token.get(Token.TokenField.TYPE));
+        assertEquals(EXPIRES, token.get(Token.TokenField.EXPIRES));
+        assertEquals(SCOPE, token.get(Token.TokenField.SCOPE));
+    }
+
+    @Test
+    public void testOpaqueTokenIsNotSigned() {
+        assertFalse(TokenSigner.isSigned(UNSIGNED_ID));
+        assertFalse(TokenSigner.isSigned(null));
+        assertNull(TokenSigner.verify(UNSIGNED_ID, KEY));
+    }
+
+    @Test
+    public void testTamperedPayloadIsRejected() {
+        String tokenString = TokenSigner.sign(UNSIGNED_ID, EXPIRES, SCOPE, KEY);
+        String otherPayload = TokenSigner.sign(UNSIGNED_ID, EXPIRES, "bus:other.com", KEY);
+        // other payload with the original signature
+        String tampered = payloadPart(otherPayload) + signaturePart(tokenString);
+
+        assertTrue(TokenSigner.isSigned(tampered));
+        assertNull(TokenSigner.verify(tampered, KEY));
+    }
+
+    @Test
+    public void testTamperedIdIsRejected() {
+        String tokenString = TokenSigner.sign(UNSIGNED_ID, EXPIRES, SCOPE, KEY);
+        String tampered = "AAzbcdefghij0123456789" + tokenString.substring(UNSIGNED_ID.length());
+
+        assertNull(TokenSigner.verify(tampered, KEY));
+    }
+
+    @Test
+    public void testTamperedSignatureIsRejected() {
+        String tokenString = TokenSigner.sign(UNSIGNED_ID, EXPIRES, SCOPE, KEY);
+        String signature = signaturePart(tokenString);
+        // the first character after the separator, the last one has unused bits
+        char first = signature.charAt(1);
+        String tampered = payloadPart(tokenString) + "." + (first == 'A' ? 'B' : 'A') + signature.substring(2);
+
+        assertNull(TokenSigner.verify(tampered, KEY));
+        assertNull(TokenSigner.verify(payloadPart(tokenString) + ".AAAA", KEY));
+    }
+
+    @Test
+    public void testWrongKeyIsRejected() {
+        String tokenString = TokenSigner.sign(UNSIGNED_ID, EXPIRES, SCOPE, KEY);
+
+        assertNull(TokenSigner.verify(tokenString, TokenSigner.createKey("another_signing_key_0123456789abcdef")));
+        assertNull(TokenSigner.verify(tokenString, null));
+    }
+
+    @Test
+    public void testLogStringIsNotUsableAsToken() {
+        String tokenString = TokenSigner.sign(UNSIGNED_ID, EXPIRES, SCOPE, KEY);
+        String logString = TokenSigner.toLogString(tokenString);
+
+        assertEquals(UNSIGNED_ID.substring(0, 8) + "...", logString);
+        assertFalse(Token.looksLikeOurToken(logString));
+    }
+
+    // - PRIVATE
+
+    private static final SecretKeySpec KEY = TokenSigner.createKey("test_signing_key_0123456789abcdef");
+
+    private static final String UNSIGNED_ID = "AAabcdefghij0123456789";
+    private static final String EXPIRES = "2030-01-01T00:00:00.000Z";
+    private static final String SCOPE = "bus:test.com channel:channel1";
+
+    /** unsigned id and payload, without the separator before the signature */
+    private static String payloadPart(String tokenString) {
+        return tokenString.substring(0, tokenString.lastIndexOf('.'));
+    }
+
+    /** signature, with the separator before it */
+    private static String signaturePart(String tokenString) {
+        return tokenString.substring(tokenString.lastIndexOf('.'));
+    }
+}
@@ -0,0 +1,99 @@
+package com.janrain.backplane.server2.dao.redis;
+
+import com.janrain.backplane.config.BackplaneSystemProps;
+import com.janrain.backplane.redis.Redis;
+import com.janrain.backplane.server2.dao.RateLimitDAO;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import redis.clients.jedis.Jedis;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Johnny Bufu
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:/spring/app-config.xml", "classpath:/spring/mvc-config.xml" })
+public class RedisRateLimitDAOTest {
+
+    @Before
+    public void init() {
+        Assume.assumeTrue(! BackplaneSystemProps.isMemoryStore());
+        key = "test_" + System.nanoTime();
+    }
+
+    @After
+    public void cleanup() {
+        if (key == null) return;
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            jedis.del(RedisRateLimitDAO.getKey(key));
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+
+    @Test
+    public void testNewBucketIsFull() throws Exception {
+        RateLimitDAO.Acquired acquired = dao.acquire(key, 10, 20, 15);
+        assertEquals(15, acquired.getPermits());
+        assertEquals(0, acquired.getRetryAfterMillis());
+
+        // only what's left is granted
+        acquired = dao.acquire(key, 10, 20, 15);
+        assertEquals(5, acquired.getPermits());
+        assertEquals(0, acquired.getRetryAfterMillis());
+    }
+
+    @Test
+    public void testEmptyBucketTellsWhenToRetry() throws Exception {
+        assertEquals(5, dao.acquire(key, 10, 5, 5).getPermits());
+
+        RateLimitDAO.Acquired acquired = dao.acquire(key, 10, 5, 1);
+        assertEquals(0, acquired.getPermits());
+        assertTrue("retry after: " + acquired.getRetryAfterMillis(), acquired.getRetryAfterMillis() > 0 && acquired.getRetryAfterMillis() <= 100);
+    }
+
+    @Test
+    public void testBucketRefillsAtTheRate() throws Exception {
+        assertEquals(5, dao.acquire(key, 10, 5, 5).getPermits());
+
+        Thread.sleep(350);
+        int refilled = dao.acquire(key, 10, 5, 5).getPermits();
+        assertTrue("refilled: " + refilled, refilled >= 3 && refilled <= 4);
+    }
+
+    @Test
+    public void testBucketDoesNotRefillAboveBurst() throws Exception {
+        assertEquals(1, dao.acquire(key, 100, 5, 1).getPermits());
+
+        Thread.sleep(200);
+        assertEquals(5, dao.acquire(key, 100, 5, 10).getPermits());
+    }
+
+    @Test
+    public void testBucketExpiresOnceFull() throws Exception {
+        dao.acquire(key, 10, 5, 1);
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            long ttl = jedis.ttl(RedisRateLimitDAO.getKey(key));
+            // full again after half a second, plus a second of margin
+            assertTrue("ttl: " + ttl, ttl > 0 && ttl <= 2);
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+
+    // - PRIVATE
+
+    private final RedisRateLimitDAO dao = new RedisRateLimitDAO();
+
+    private String key;
+}
@@ -0,0 +1,81 @@
+package com.janrain.backplane.server2.dao.redis;
+
+import com.janrain.backplane.config.BackplaneSystemProps;
+import com.janrain.backplane.redis.Redis;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import redis.clients.jedis.Jedis;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Johnny Bufu
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:/spring/app-config.xml", "classpath:/spring/mvc-config.xml" })
+public class TokenRevocationsTest {
+
+    @Before
+    public void init() {
+        Assume.assumeTrue(! BackplaneSystemProps.isMemoryStore());
+    }
+
+    @After
+    public void cleanup() {
+        if (BackplaneSystemProps.isMemoryStore()) return;
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            jedis.zrem(TokenRevocations.REVOKED_KEY, REVOKED_TOKEN, OTHER_TOKEN);
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+
+    @Test
+    public void testRevokedTokenIsRejected() {
+        assertFalse(revocations.isRevoked(REVOKED_TOKEN));
+
+        revocations.revoke(REVOKED_TOKEN, System.currentTimeMillis() + 60000);
+
+        assertTrue(revocations.isRevoked(REVOKED_TOKEN));
+        assertFalse(revocations.isRevoked(OTHER_TOKEN));
+    }
+
+    @Test
+    public void testRevocationsAreCheckedWhileNotSubscribed() {
+        revocations.revoke(REVOKED_TOKEN, System.currentTimeMillis() + 60000);
+
+        revocations.onSubscriptionLost("token_revocations");
+        assertTrue(revocations.isRevoked(REVOKED_TOKEN));
+        assertFalse(revocations.isRevoked(OTHER_TOKEN));
+
+        // another node's revocation, missed while not subscribed
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            jedis.zadd(TokenRevocations.REVOKED_KEY, System.currentTimeMillis() + 60000, OTHER_TOKEN);
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+        assertTrue(revocations.isRevoked(OTHER_TOKEN));
+
+        // the filter is rebuilt from the sorted set on resubscribing
+        revocations.onSubscribe("token_revocations");
+        assertTrue(revocations.isRevoked(REVOKED_TOKEN));
+        assertTrue(revocations.isRevoked(OTHER_TOKEN));
+    }
+
+    // - PRIVATE
+
+    private static final String REVOKED_TOKEN = "AAtokenrevocationstest1.payload.signature";
+    private static final String OTHER_TOKEN = "AAtokenrevocationstest2.payload.signature";
+
+    /** shared, each instance subscribes and schedules its own filter rebuilds */
+    private static final TokenRevocations revocations = new TokenRevocations();
+}